@@ -0,0 +1,301 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+/**
+ * Optional authentication of control messages (HELLO, RREQ, RREP, RERR, MACT, GRPH) with a pre-shared
+ * network key. Each sender appends a 64-bit counter and a truncated HMAC-SHA256 tag over a
+ * canonical encoding of the header, flags included, so a flipped PRUNE, JOIN or GRATUITOUS bit
+ * fails verification. nextAddr is left out because it is rewritten per neighbor when
+ * broadcasting, and FLAG_AUTH because it is set after signing. Receivers keep a 64 entry replay
+ * window per sender and transport on the counter. A dual-homed neighbor sends the same signed
+ * broadcast over CC and UDP, and the second copy is no replay.
+ *
+ * HMAC is computed with our own SHA-256 over midstates precomputed from the key, so signing and
+ * verifying do not allocate.
+ */
+public class AODVAuth {
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private static final int[] IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private static final int BLOCK_SIZE = 64;
+    private static final int REPLAY_WINDOW = 64;
+
+    //SHA-256 state after absorbing the key xor ipad and xor opad blocks
+    private final int[] innerMidstate = new int[8];
+    private final int[] outerMidstate = new int[8];
+
+    //the handler thread verifies while several threads sign, so each side has its own scratch
+    private final Hmac signer = new Hmac();
+    private final Hmac verifier = new Hmac();
+
+    private long counter;
+
+    //replay windows per sender address, pages of 256 addresses allocated on first use,
+    //the first 256 pages for UDP and the rest for CC
+    private final long[][] highest = new long[512][];
+    private final long[][] seen = new long[512][];
+
+    public AODVAuth(byte[] key) {
+        if (key.length < 16) {
+            throw new IllegalArgumentException("Network key must be at least 16 bytes");
+        }
+        byte[] keyBlock = new byte[BLOCK_SIZE];
+        if (key.length > BLOCK_SIZE) {
+            Hmac hash = new Hmac();
+            hash.begin(IV, 0);
+            hash.update(key, key.length);
+            hash.finish(hash.digest);
+            System.arraycopy(hash.digest, 0, keyBlock, 0, 32);
+        } else {
+            System.arraycopy(key, 0, keyBlock, 0, key.length);
+        }
+        byte[] pad = new byte[BLOCK_SIZE];
+        Hmac hash = new Hmac();
+        for (int i = 0; i < BLOCK_SIZE; i++) pad[i] = (byte) (keyBlock[i] ^ 0x36);
+        hash.begin(IV, 0);
+        hash.update(pad, BLOCK_SIZE);
+        System.arraycopy(hash.h, 0, innerMidstate, 0, 8);
+        for (int i = 0; i < BLOCK_SIZE; i++) pad[i] = (byte) (keyBlock[i] ^ 0x5c);
+        hash.begin(IV, 0);
+        hash.update(pad, BLOCK_SIZE);
+        System.arraycopy(hash.h, 0, outerMidstate, 0, 8);
+        //start above anything we could have sent before a restart
+        this.counter = System.currentTimeMillis() * 1000;
+    }
+
+    public static AODVAuth fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Network key must be an even number of hex digits");
+        }
+        byte[] key = new byte[hex.length() / 2];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return new AODVAuth(key);
+    }
+
+    public static boolean isControl(AODVMessageType type) {
+        return type == AODVMessageType.HELO || type == AODVMessageType.RREQ || type == AODVMessageType.RREP
+                || type == AODVMessageType.RERR || type == AODVMessageType.MACT || type == AODVMessageType.GRPH;
+    }
+
+    //set the counter and tag for a message we are about to send
+    public void sign(AODVMessage msg) {
+        synchronized (signer) {
+            msg.header.authCounter = ++counter;
+            msg.header.authTag = signer.mac(msg.header, msg.header.authCounter, msg.payload);
+        }
+        msg.header.flags |= AODVHeader.FLAG_AUTH;
+    }
+
+    //false if the tag is missing or wrong, or the counter was already seen from this sender
+    public boolean verify(AODVMessage msg) {
+        AODVHeader header = msg.header;
+        if ((header.flags & AODVHeader.FLAG_AUTH) == 0) {
+            return false;
+        }
+        synchronized (verifier) {
+            //replays are turned away before paying for the MAC
+            int page = page(header.sendAddr, header.sendId != null);
+            if (!isFresh(page, header.sendAddr, header.authCounter)
+                    || verifier.mac(header, header.authCounter, msg.payload) != header.authTag) {
+                return false;
+            }
+            accept(page, header.sendAddr, header.authCounter);
+            return true;
+        }
+    }
+
+    //plain SHA-256 of data, for known-answer tests
+    byte[] sha256(byte[] data) {
+        Hmac hash = new Hmac();
+        hash.begin(IV, 0);
+        hash.update(data, data.length);
+        byte[] out = new byte[32];
+        hash.finish(out);
+        return out;
+    }
+
+    //full HMAC-SHA256 of data under our key, for known-answer tests
+    byte[] hmac(byte[] data) {
+        Hmac hash = new Hmac();
+        hash.begin(innerMidstate, BLOCK_SIZE);
+        hash.update(data, data.length);
+        hash.finish(hash.digest);
+        hash.begin(outerMidstate, BLOCK_SIZE);
+        hash.update(hash.digest, 32);
+        byte[] out = new byte[32];
+        hash.finish(out);
+        return out;
+    }
+
+    private static int page(short sender, boolean cc) {
+        return (cc ? 256 : 0) + ((sender >> 8) & 0xFF);
+    }
+
+    private boolean isFresh(int page, short sender, long count) {
+        if (highest[page] == null) {
+            return true;
+        }
+        long top = highest[page][sender & 0xFF];
+        long age = top - count;
+        return count > top || (age < REPLAY_WINDOW && (seen[page][sender & 0xFF] & (1L << age)) == 0);
+    }
+
+    private void accept(int page, short sender, long count) {
+        int slot = sender & 0xFF;
+        if (highest[page] == null) {
+            highest[page] = new long[256];
+            seen[page] = new long[256];
+        }
+        long top = highest[page][slot];
+        if (count > top) {
+            long shift = count - top;
+            seen[page][slot] = shift >= REPLAY_WINDOW ? 1L : (seen[page][slot] << shift) | 1L;
+            highest[page][slot] = count;
+        } else {
+            seen[page][slot] |= 1L << (top - count);
+        }
+    }
+
+    //streaming SHA-256 with preallocated state, plus HMAC over the canonical header
+    private class Hmac {
+
+        final int[] h = new int[8];
+        final int[] w = new int[64];
+        final byte[] block = new byte[BLOCK_SIZE];
+        final byte[] digest = new byte[32];
+        int blockLength;
+        long totalLength;
+
+        long mac(AODVHeader header, long count, String payload) {
+            begin(innerMidstate, BLOCK_SIZE);
+            update(header.type.getValue());
+            update((byte) (header.flags & ~AODVHeader.FLAG_AUTH));
+            putShort(header.srcAddr);
+            putShort(header.srcSeqNum);
+            putShort(header.destAddr);
+            putShort(header.destSeqNum);
+            putShort(header.sendAddr);
+            update(header.sendDevType.getValue());
+            putShort(header.bcastSeqNum);
+            update(header.hopCnt);
+            putLong(count);
+            //null and empty payloads encode the same, UDP can't tell them apart
+            int length = payload == null ? 0 : payload.length();
+            putShort((short) length);
+            for (int i = 0; i < length; i++) {
+                putShort((short) payload.charAt(i));
+            }
+            finish(digest);
+            begin(outerMidstate, BLOCK_SIZE);
+            update(digest, 32);
+            finish(digest);
+            long tag = 0;
+            for (int i = 0; i < 8; i++) {
+                tag = (tag << 8) | (digest[i] & 0xFF);
+            }
+            return tag;
+        }
+
+        void begin(int[] state, long length) {
+            System.arraycopy(state, 0, h, 0, 8);
+            blockLength = 0;
+            totalLength = length;
+        }
+
+        void update(byte b) {
+            block[blockLength++] = b;
+            totalLength++;
+            if (blockLength == BLOCK_SIZE) {
+                compress();
+                blockLength = 0;
+            }
+        }
+
+        void update(byte[] bytes, int length) {
+            for (int i = 0; i < length; i++) {
+                update(bytes[i]);
+            }
+        }
+
+        void putShort(short s) {
+            update((byte) (s >> 8));
+            update((byte) s);
+        }
+
+        void putLong(long l) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                update((byte) (l >> shift));
+            }
+        }
+
+        void finish(byte[] out) {
+            long bits = totalLength * 8;
+            update((byte) 0x80);
+            while (blockLength != BLOCK_SIZE - 8) {
+                update((byte) 0);
+            }
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                update((byte) (bits >> shift));
+            }
+            for (int i = 0; i < 8; i++) {
+                out[4 * i] = (byte) (h[i] >> 24);
+                out[4 * i + 1] = (byte) (h[i] >> 16);
+                out[4 * i + 2] = (byte) (h[i] >> 8);
+                out[4 * i + 3] = (byte) h[i];
+            }
+        }
+
+        private void compress() {
+            for (int t = 0; t < 16; t++) {
+                w[t] = (block[4 * t] << 24) | ((block[4 * t + 1] & 0xFF) << 16)
+                        | ((block[4 * t + 2] & 0xFF) << 8) | (block[4 * t + 3] & 0xFF);
+            }
+            for (int t = 16; t < 64; t++) {
+                int s0 = Integer.rotateRight(w[t - 15], 7) ^ Integer.rotateRight(w[t - 15], 18) ^ (w[t - 15] >>> 3);
+                int s1 = Integer.rotateRight(w[t - 2], 17) ^ Integer.rotateRight(w[t - 2], 19) ^ (w[t - 2] >>> 10);
+                w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+            }
+            int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], hh = h[7];
+            for (int t = 0; t < 64; t++) {
+                int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+                int ch = (e & f) ^ (~e & g);
+                int temp1 = hh + s1 + ch + K[t] + w[t];
+                int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+                int maj = (a & b) ^ (a & c) ^ (b & c);
+                int temp2 = s0 + maj;
+                hh = g;
+                g = f;
+                f = e;
+                e = d + temp1;
+                d = c;
+                c = b;
+                b = a;
+                a = temp1 + temp2;
+            }
+            h[0] += a;
+            h[1] += b;
+            h[2] += c;
+            h[3] += d;
+            h[4] += e;
+            h[5] += f;
+            h[6] += g;
+            h[7] += hh;
+        }
+
+    }
+
+}
@@ -0,0 +1,321 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packet capture for offline analysis. Every inbound and outbound AODV packet is appended to a
+ * memory-mapped ring file in tAODVPacket format, overwriting the oldest records once full.
+ * Recording does not allocate, so it can stay on the send and receive paths.
+ *
+ * File layout: a fixed header followed by the ring. Each record is
+ * [int length][long wall millis][long nanos][byte direction][byte transport]
+ * [byte endpoint length][18 bytes endpoint][tAODVPacket bytes].
+ * The endpoint is the ASCII endpoint id for CC, or the address and port for UDP, whose length
+ * tells the family: 6 for IPv4, 18 for IPv6. Version 1 files had 16 endpoint bytes and IPv4 only.
+ */
+public class AODVCapture implements Closeable {
+
+    private static final String TAG = "connectedcrossroad";
+
+    private static final int MAGIC = 0x414F4443; //"AODC"
+    private static final int VERSION = 2;
+    private static final int VERSION_IPV4 = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int WRAP = -1; //marks the unused tail of the ring before wrapping to the start
+
+    //header field offsets
+    private static final int OFF_CAPACITY = 8;
+    private static final int OFF_HEAD = 12;
+    private static final int OFF_TAIL = 16;
+    private static final int OFF_LIVE = 20;
+    private static final int OFF_ADDRESS = 24;
+    private static final int OFF_TOTAL = 32;
+    private static final int OFF_DROPPED = 40;
+
+    public static final int ENDPOINT_SIZE = 18;
+    private static final int ENDPOINT_SIZE_IPV4 = 16;
+    private static final int RECORD_OVERHEAD = 4 + 8 + 8 + 1 + 1 + 1 + ENDPOINT_SIZE;
+    private static final int IPV4_ENDPOINT = 4 + 2;
+    private static final int IPV6_ENDPOINT = 16 + 2;
+
+    public static final byte DIR_IN = 0;
+    public static final byte DIR_OUT = 1;
+    public static final byte TRANSPORT_CC = 0;
+    public static final byte TRANSPORT_UDP = 1;
+
+    public static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+    private final MappedByteBuffer ring;
+    private final int capacity;
+    private int head;
+    private int tail;
+    private int live;
+    private long total;
+    private long dropped;
+    //getAddress() allocates a copy, peers are few so the last IPv6 one is kept
+    private InetAddress lastIPv6;
+    private byte[] lastIPv6Bytes;
+
+    //starts a new capture, replacing whatever was in the file
+    public AODVCapture(File file, int capacity, short address) throws IOException {
+        this.capacity = capacity;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(HEADER_SIZE + capacity);
+            this.ring = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        } finally {
+            raf.close();
+        }
+        ring.putInt(0, MAGIC);
+        ring.putInt(4, VERSION);
+        ring.putInt(OFF_CAPACITY, capacity);
+        ring.putShort(OFF_ADDRESS, address);
+        writeHeader();
+        AODVLog.d(TAG, "AODVCapture: capturing to " + file);
+    }
+
+    public synchronized void setAddress(short address) {
+        ring.putShort(OFF_ADDRESS, address);
+    }
+
+    //record a message that only exists as an object, e.g. CC traffic
+    public synchronized void record(byte direction, byte transport, String endpointId, AODVMessage msg) {
+        int pos = reserve(RECORD_OVERHEAD + AODVPacket.encodedLength(msg));
+        if (pos < 0) {
+            return;
+        }
+        ring.position(HEADER_SIZE + pos + 4 + 8 + 8);
+        ring.put(direction).put(transport);
+        putEndpoint(endpointId);
+        AODVPacket.write(ring, msg);
+        commit(pos, ring.position() - HEADER_SIZE - pos);
+    }
+
+    //record raw tAODVPacket bytes from or to a CC endpoint, e.g. DATA forwarded in place
+    public synchronized void record(byte direction, byte transport, String endpointId,
+                                    byte[] bytes, int offset, int length) {
+        int pos = reserve(RECORD_OVERHEAD + length);
+        if (pos < 0) {
+            return;
+        }
+        ring.position(HEADER_SIZE + pos + 4 + 8 + 8);
+        ring.put(direction).put(transport);
+        putEndpoint(endpointId);
+        ring.put(bytes, offset, length);
+        commit(pos, ring.position() - HEADER_SIZE - pos);
+    }
+
+    //record a message that only exists as an object from or to a UDP peer, e.g. a compact hello
+    public synchronized void record(byte direction, byte transport, InetAddress address, int port, AODVMessage msg) {
+        int pos = reserve(RECORD_OVERHEAD + AODVPacket.encodedLength(msg));
+        if (pos < 0) {
+            return;
+        }
+        ring.position(HEADER_SIZE + pos + 4 + 8 + 8);
+        ring.put(direction).put(transport);
+        putEndpoint(address, port);
+        AODVPacket.write(ring, msg);
+        commit(pos, ring.position() - HEADER_SIZE - pos);
+    }
+
+    //record raw tAODVPacket bytes, e.g. UDP traffic
+    public synchronized void record(byte direction, byte transport, InetAddress address, int port,
+                                    byte[] bytes, int offset, int length) {
+        int pos = reserve(RECORD_OVERHEAD + length);
+        if (pos < 0) {
+            return;
+        }
+        ring.position(HEADER_SIZE + pos + 4 + 8 + 8);
+        ring.put(direction).put(transport);
+        putEndpoint(address, port);
+        ring.put(bytes, offset, length);
+        commit(pos, ring.position() - HEADER_SIZE - pos);
+    }
+
+    private void putEndpoint(InetAddress address, int port) {
+        int start = ring.position();
+        if (address instanceof Inet6Address) {
+            if (!address.equals(lastIPv6)) {
+                lastIPv6 = address;
+                lastIPv6Bytes = address.getAddress();
+            }
+            ring.put((byte) IPV6_ENDPOINT).put(lastIPv6Bytes);
+        } else {
+            //for IPv4 hashCode() is the address itself, getAddress() would allocate a copy
+            ring.put((byte) IPV4_ENDPOINT).putInt(address != null ? address.hashCode() : 0);
+        }
+        ring.putShort((short) port);
+        ring.position(start + 1 + ENDPOINT_SIZE);
+    }
+
+    private void putEndpoint(String endpointId) {
+        int start = ring.position();
+        int length = endpointId != null ? Math.min(endpointId.length(), ENDPOINT_SIZE) : 0;
+        ring.put((byte) length);
+        for (int i = 0; i < length; i++) {
+            ring.put((byte) endpointId.charAt(i));
+        }
+        ring.position(start + 1 + ENDPOINT_SIZE);
+    }
+
+    //find room for a record of the given size, dropping the oldest records as needed
+    private int reserve(int size) {
+        if (size > capacity) {
+            dropped++;
+            return -1;
+        }
+        if (head + size > capacity) {
+            //drop everything stored between head and the end of the ring, then wrap
+            while (live > 0 && tail >= head) {
+                dropOldest();
+            }
+            if (capacity - head >= 4) {
+                ring.putInt(HEADER_SIZE + head, WRAP);
+            }
+            head = 0;
+            if (live == 0) {
+                tail = 0;
+            }
+        }
+        while (live > 0 && tail >= head && tail < head + size) {
+            dropOldest();
+        }
+        if (live == 0) {
+            tail = head;
+        }
+        return head;
+    }
+
+    //tail always points at the oldest record, never at a wrap marker
+    private void dropOldest() {
+        tail += ring.getInt(HEADER_SIZE + tail);
+        live--;
+        if (live > 0 && (capacity - tail < 4 || ring.getInt(HEADER_SIZE + tail) == WRAP)) {
+            tail = 0;
+        }
+    }
+
+    private void commit(int pos, int size) {
+        ring.putInt(HEADER_SIZE + pos, size);
+        ring.putLong(HEADER_SIZE + pos + 4, System.currentTimeMillis());
+        ring.putLong(HEADER_SIZE + pos + 12, System.nanoTime());
+        head = pos + size;
+        live++;
+        total++;
+        writeHeader();
+    }
+
+    private void writeHeader() {
+        ring.putInt(OFF_HEAD, head);
+        ring.putInt(OFF_TAIL, tail);
+        ring.putInt(OFF_LIVE, live);
+        ring.putLong(OFF_TOTAL, total);
+        ring.putLong(OFF_DROPPED, dropped);
+    }
+
+    @Override
+    public synchronized void close() {
+        writeHeader();
+        ring.force();
+    }
+
+    public static class Record {
+
+        public long wallMillis;
+        public long nanos;
+        public byte direction;
+        public byte transport;
+        public String endpointId; //for CC records
+        public InetAddress address; //for UDP records
+        public int port;
+        public byte[] packet;
+
+        public AODVMessage toMessage() {
+            AODVMessage msg = AODVPacket.deserializeAODVPacket(packet);
+            if (msg != null && transport == TRANSPORT_CC) {
+                if (direction == DIR_IN) {
+                    msg.header.sendId = endpointId;
+                } else {
+                    msg.header.nextId = endpointId;
+                }
+            }
+            return msg;
+        }
+
+    }
+
+    public static class Contents {
+
+        public short address;
+        public long total;
+        public long dropped;
+        public final List<Record> records = new ArrayList<>();
+
+    }
+
+    //read all records still in a capture file, oldest first
+    public static Contents read(File file) throws IOException {
+        ByteBuffer buf;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        int version = buf.getInt(4);
+        if (buf.getInt(0) != MAGIC || (version != VERSION && version != VERSION_IPV4)) {
+            throw new IOException("Not an AODV capture: " + file);
+        }
+        int endpointSize = version == VERSION ? ENDPOINT_SIZE : ENDPOINT_SIZE_IPV4;
+        int recordOverhead = RECORD_OVERHEAD - ENDPOINT_SIZE + endpointSize;
+        int capacity = buf.getInt(OFF_CAPACITY);
+        int pos = buf.getInt(OFF_TAIL);
+        int live = buf.getInt(OFF_LIVE);
+        Contents contents = new Contents();
+        contents.address = buf.getShort(OFF_ADDRESS);
+        contents.total = buf.getLong(OFF_TOTAL);
+        contents.dropped = buf.getLong(OFF_DROPPED);
+        for (int i = 0; i < live; i++) {
+            if (capacity - pos < 4 || buf.getInt(HEADER_SIZE + pos) == WRAP) {
+                pos = 0;
+            }
+            int size = buf.getInt(HEADER_SIZE + pos);
+            buf.position(HEADER_SIZE + pos + 4);
+            Record record = new Record();
+            record.wallMillis = buf.getLong();
+            record.nanos = buf.getLong();
+            record.direction = buf.get();
+            record.transport = buf.get();
+            int endpointStart = buf.position();
+            int endpointLength = buf.get();
+            byte[] endpoint = new byte[endpointLength];
+            buf.get(endpoint);
+            if (record.transport == TRANSPORT_UDP) {
+                ByteBuffer udp = ByteBuffer.wrap(endpoint);
+                byte[] address = new byte[endpointLength == IPV6_ENDPOINT ? 16 : 4];
+                udp.get(address);
+                record.address = InetAddress.getByAddress(address);
+                record.port = udp.getShort() & 0xFFFF;
+            } else {
+                record.endpointId = new String(endpoint, "US-ASCII");
+            }
+            buf.position(endpointStart + 1 + endpointSize);
+            record.packet = new byte[size - recordOverhead];
+            buf.get(record.packet);
+            contents.records.add(record);
+            pos += size;
+        }
+        return contents;
+    }
+
+}
@@ -0,0 +1,297 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Cluster membership for hierarchical routing, worked out from hellos alone. Every clustered
+ * hello says who the sender's head is, and heads name themselves. Lowest address wins:
+ *
+ * - A node without a head joins the lowest head it hears. Otherwise, after a hello interval to
+ *   hear its neighbors, it heads a cluster of its own when no undecided neighbor has a lower
+ *   address, or anyway once it has waited UNDECIDED_HELLOS intervals.
+ * - Members stay with their head as long as it is a head and in range, even if a lower one
+ *   shows up, so clusters don't reshuffle every time a node moves.
+ * - When two heads come into range the higher one gives up and joins the lower one.
+ *
+ * So every member is one hop from its head. Heads pick relays among their members, a smallest
+ * set whose neighbors take in every node two hops out that isn't ours, and name them in their
+ * hellos. Whatever a head sends then reaches every neighboring cluster's relays or head, which
+ * pass it on to their own head. Heads and relays are the backbone that carries route discovery
+ * between clusters, everyone else only listens.
+ *
+ * Heads also remember which cluster remote destinations are in, so routes only need to lead
+ * to heads. That cache is bounded and the oldest entries are forgotten first.
+ *
+ * Times are passed in, so the simulator can run it on virtual time. Not thread-safe, the router
+ * only touches it while holding routeTableLock.
+ */
+public class AODVCluster {
+
+    private static final String TAG = "connectedcrossroad";
+
+    public static final short NONE = 0;
+
+    //hello intervals a node stays undecided before it heads a cluster of its own anyway
+    static final int UNDECIDED_HELLOS = 2;
+    //hello intervals without a hello before a neighbor is forgotten
+    static final double HELLO_LOSS = 2.5;
+    static final int REMOTE_CAPACITY = 256;
+
+    private static class Neighbor {
+
+        boolean clustered; //runs this too, else it never decides and never blocks us
+        short head;
+        short[] neighbors = new short[0];
+        short[] relays = new short[0]; //the relays it picked, if it is a head
+        long lastHello;
+
+    }
+
+    private short address;
+    private short head = NONE;
+    private long undecidedSince = 0L;
+    //neighbors by address, whether they run clustering or not
+    private final Map<Short, Neighbor> neighbors = new HashMap<>();
+    //members we picked to relay, when we are a head
+    private final Set<Short> relays = new TreeSet<>();
+    //destination -> head of its cluster, for destinations outside ours
+    private final Map<Short, Short> remote = new LinkedHashMap<Short, Short>(REMOTE_CAPACITY * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Short, Short> eldest) {
+            return size() > REMOTE_CAPACITY;
+        }
+    };
+    private long changes = 0;
+
+    public AODVCluster(short address) {
+        this.address = address;
+    }
+
+    public void setAddress(short address) {
+        if (address != this.address) {
+            this.address = address;
+            head = NONE;
+            undecidedSince = 0L;
+        }
+    }
+
+    /**
+     * Every hello, clustered says whether the sender runs clustering, neighborHead is NONE while
+     * it is undecided. neighborNeighbors are the neighbors its hello listed, and relays the
+     * members it picked if it is a head.
+     */
+    public void onHello(short neighbor, boolean clustered, short neighborHead, short[] neighborNeighbors,
+            short[] neighborRelays, long timeMillis) {
+        Neighbor entry = neighbors.get(neighbor);
+        if (entry == null) {
+            entry = new Neighbor();
+            neighbors.put(neighbor, entry);
+        }
+        entry.clustered = clustered;
+        entry.head = clustered ? neighborHead : NONE;
+        entry.neighbors = neighborNeighbors;
+        entry.relays = neighborRelays;
+        entry.lastHello = timeMillis;
+    }
+
+    public void onNeighborLost(short neighbor) {
+        neighbors.remove(neighbor);
+    }
+
+    /**
+     * Applies the rules above to what the last hellos said, once per hello interval before our
+     * own hello goes out. True if our head changed.
+     */
+    public boolean update(long timeMillis, long helloInterval) {
+        Iterator<Neighbor> it = neighbors.values().iterator();
+        while (it.hasNext()) {
+            if (timeMillis - it.next().lastHello >= HELLO_LOSS * helloInterval) {
+                it.remove();
+            }
+        }
+        short lowestHead = NONE;
+        boolean lowerUndecided = false;
+        for (Map.Entry<Short, Neighbor> entry : neighbors.entrySet()) {
+            short neighbor = entry.getKey();
+            short neighborHead = entry.getValue().head;
+            if (!entry.getValue().clustered) {
+                continue;
+            }
+            if (neighborHead == neighbor && (lowestHead == NONE || neighbor < lowestHead)) {
+                lowestHead = neighbor;
+            } else if (neighborHead == NONE && neighbor < address) {
+                lowerUndecided = true;
+            }
+        }
+        short next;
+        if (head == address) {
+            next = lowestHead != NONE && lowestHead < address ? lowestHead : address;
+        } else if (head != NONE && isHeadInRange(head)) {
+            next = head;
+        } else if (lowestHead != NONE) {
+            next = lowestHead;
+        } else {
+            if (head != NONE || undecidedSince == 0) {
+                undecidedSince = timeMillis;
+            }
+            long undecided = timeMillis - undecidedSince;
+            //an interval to hear who is around before heading a cluster
+            next = undecided >= UNDECIDED_HELLOS * helloInterval || (!lowerUndecided && undecided >= helloInterval)
+                    ? address : NONE;
+        }
+        if (next == address) {
+            pickRelays();
+        } else {
+            relays.clear();
+        }
+        if (next == head) {
+            return false;
+        }
+        AODVLog.d(TAG, String.format("AODVCluster: %d %s", address,
+                next == address ? "heads a cluster" : next == NONE ? "lost its head" : "joined head " + next));
+        head = next;
+        undecidedSince = next == NONE ? timeMillis : 0L;
+        changes++;
+        return true;
+    }
+
+    //greedy set cover, the member that takes in the most uncovered nodes first, lower address on ties
+    private void pickRelays() {
+        relays.clear();
+        Map<Short, Set<Short>> reach = new HashMap<>();
+        Set<Short> uncovered = new HashSet<>();
+        for (Map.Entry<Short, Neighbor> entry : neighbors.entrySet()) {
+            short member = entry.getKey();
+            if (entry.getValue().head != address || member == address) {
+                continue;
+            }
+            Set<Short> outside = new HashSet<>();
+            for (short node : entry.getValue().neighbors) {
+                //our neighbors hear us anyway
+                if (node != address && !neighbors.containsKey(node)) {
+                    outside.add(node);
+                }
+            }
+            reach.put(member, outside);
+            uncovered.addAll(outside);
+        }
+        while (!uncovered.isEmpty()) {
+            short best = NONE;
+            int bestCount = 0;
+            for (Map.Entry<Short, Set<Short>> entry : reach.entrySet()) {
+                int count = 0;
+                for (short node : entry.getValue()) {
+                    count += uncovered.contains(node) ? 1 : 0;
+                }
+                if (count > bestCount || (count == bestCount && count > 0 && entry.getKey() < best)) {
+                    best = entry.getKey();
+                    bestCount = count;
+                }
+            }
+            relays.add(best);
+            uncovered.removeAll(reach.remove(best));
+        }
+    }
+
+    private boolean isHeadInRange(short address) {
+        Neighbor neighbor = neighbors.get(address);
+        return neighbor != null && neighbor.head == address;
+    }
+
+    //NONE while undecided, our own address when we are a head
+    public short getHead() {
+        return head;
+    }
+
+    public boolean isHead() {
+        return head != NONE && head == address;
+    }
+
+    //a member our head picked to relay
+    public boolean isRelay() {
+        Neighbor headNeighbor = head != NONE && head != address ? neighbors.get(head) : null;
+        if (headNeighbor == null) {
+            return false;
+        }
+        for (short relay : headNeighbor.relays) {
+            if (relay == address) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //undecided nodes relay like a flat node does
+    public boolean isBackbone() {
+        return head == NONE || isHead() || isRelay();
+    }
+
+    //the relays we picked, for our hello, empty unless we are a head
+    public short[] getRelays() {
+        short[] picked = new short[relays.size()];
+        int i = 0;
+        for (short relay : relays) {
+            picked[i++] = relay;
+        }
+        return picked;
+    }
+
+    //a neighbor that named us as its head
+    public boolean isMember(short address) {
+        Neighbor neighbor = neighbors.get(address);
+        return isHead() && neighbor != null && neighbor.head == this.address && address != this.address;
+    }
+
+    public int getMemberCount() {
+        int members = 0;
+        for (Map.Entry<Short, Neighbor> entry : neighbors.entrySet()) {
+            if (isMember(entry.getKey())) {
+                members++;
+            }
+        }
+        return members;
+    }
+
+    //the head of a destination's cluster, NONE if we don't know it
+    public short getHeadOf(short destAddr) {
+        if (isMember(destAddr) || destAddr == head) {
+            return head;
+        }
+        Short remoteHead = remote.get(destAddr);
+        return remoteHead != null ? remoteHead : NONE;
+    }
+
+    public void learn(short destAddr, short destHead) {
+        if (destAddr != destHead && destAddr != address && !isMember(destAddr)) {
+            remote.put(destAddr, destHead);
+        }
+    }
+
+    public void forget(short destAddr) {
+        remote.remove(destAddr);
+    }
+
+    public int getRemoteCount() {
+        return remote.size();
+    }
+
+    //how often our head changed, for the simulator
+    public long getChanges() {
+        return changes;
+    }
+
+    public void clear() {
+        head = NONE;
+        undecidedSince = 0L;
+        neighbors.clear();
+        relays.clear();
+        remote.clear();
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses DATA payloads for destinations that said they can inflate them (FLAG_DEFLATE on
+ * their HELLO, RREQ or RREP). The codec is picked per message:
+ *
+ * - NONE below MIN_SIZE, where the deflate block overhead eats the gain.
+ * - DICTIONARY up to DICTIONARY_MAX_SIZE. Raw deflate primed with {@link #DICTIONARY}, the
+ *   field names and values our telemetry repeats, so even a single short record compresses.
+ * - DEFLATE above that, fastest level, where the message itself has enough repetition.
+ *
+ * A moving average of the ratio each codec achieves is kept. Once a codec stops paying off,
+ * e.g. for already compressed or random payloads, it is only retried every PROBE_EVERY messages.
+ * A message that doesn't get smaller is always sent as is.
+ */
+public class AODVCompression {
+
+    private static final String TAG = "connectedcrossroad";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final String AUTO = "auto";
+    public static final String NONE = "none";
+    public static final String DEFLATE = "deflate";
+    public static final String DICTIONARY_MODE = "dictionary";
+
+    public enum Codec { NONE, DEFLATE, DICTIONARY }
+
+    static final int MIN_SIZE = 48;
+    static final int DICTIONARY_MAX_SIZE = 1024;
+    //keep compressing while the average compressed size is below this fraction of the original
+    static final double GIVE_UP_RATIO = 0.9;
+    static final int PROBE_EVERY = 16;
+    private static final double RATIO_WEIGHT = 0.1;
+    //a DATA payload can't be longer than the 16 bit length field
+    private static final int MAX_INFLATED = 0xFFFF;
+
+    /**
+     * Shared by every node, changing it needs a new flag. Deflate finds matches closer to the
+     * end more cheaply, so the most common strings come last.
+     */
+    static final byte[] DICTIONARY = ("timestamp,vehicleId,lat,lon,elevation,speed,heading,accel,yawRate,"
+            + "brakes,transmission,lights,wipers,status,event,hazard,roadwork,signal,phase,timeToChange,"
+            + "intersectionId,laneId,source,dest,seq,ttl,battery,rssi,\r\n"
+            + "{\"msgCnt\":,\"id\":\"\",\"secMark\":,\"accuracy\":{\"semiMajor\":,\"semiMinor\":},"
+            + "\"size\":{\"width\":,\"length\":},\"transmission\":\"forwardGears\",\"brakes\":{\"abs\":\"off\","
+            + "\"traction\":\"off\"},\"event\":\"\",\"status\":\"ok\",\"hazard\":false,\"lights\":\"lowBeam\","
+            + "{\"timestamp\":,\"vehicleId\":\"\",\"lat\":38.0,\"lon\":-78.5,\"elevation\":,\"speed\":0.0,"
+            + "\"heading\":0.0,\"accel\":0.0,\"yawRate\":0.0,").getBytes(UTF_8);
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final Inflater inflater = new Inflater(true);
+    private final double[] ratios = {1.0, 0.5, 0.5};
+    private int messages = 0;
+
+    //picks and applies a codec, leaves msg untouched for NONE
+    public synchronized Codec compress(AODVMessage msg, String mode) {
+        if (msg.payload == null || NONE.equals(mode)) {
+            return Codec.NONE;
+        }
+        byte[] bytes = msg.payload.getBytes(UTF_8);
+        Codec codec = choose(bytes.length, mode);
+        if (codec == Codec.NONE) {
+            return Codec.NONE;
+        }
+        byte[] body = deflate(bytes, codec == Codec.DICTIONARY);
+        double ratio = (double) body.length / bytes.length;
+        ratios[codec.ordinal()] = (1 - RATIO_WEIGHT) * ratios[codec.ordinal()] + RATIO_WEIGHT * ratio;
+        if (body.length >= bytes.length) {
+            return Codec.NONE;
+        }
+        msg.body = body;
+        msg.payload = null;
+        msg.header.length = (short) body.length;
+        msg.header.flags |= codec == Codec.DICTIONARY ? AODVHeader.FLAG_DICTIONARY : AODVHeader.FLAG_DEFLATE;
+        return codec;
+    }
+
+    //the payload of a compressed DATA, null if it doesn't inflate
+    public synchronized String decompress(AODVMessage msg) {
+        boolean dictionary = (msg.header.flags & AODVHeader.FLAG_DICTIONARY) != 0;
+        try {
+            inflater.reset();
+            if (dictionary) {
+                inflater.setDictionary(DICTIONARY);
+            }
+            inflater.setInput(msg.body);
+            byte[] out = new byte[Math.max(64, msg.body.length * 4)];
+            int length = 0;
+            boolean padded = false;
+            while (!inflater.finished()) {
+                if (length == out.length) {
+                    if (out.length >= MAX_INFLATED) {
+                        AODVLog.d(TAG, "decompress: payload too large");
+                        return null;
+                    }
+                    out = Arrays.copyOf(out, Math.min(MAX_INFLATED, out.length * 2));
+                }
+                int n = inflater.inflate(out, length, out.length - length);
+                if (n == 0 && inflater.needsInput()) {
+                    if (padded) {
+                        return null;
+                    }
+                    //raw inflate may want one byte past the end of the stream
+                    inflater.setInput(new byte[1]);
+                    padded = true;
+                }
+                length += n;
+            }
+            return new String(out, 0, length, UTF_8);
+        } catch (DataFormatException e) {
+            AODVLog.d(TAG, "decompress: " + e.getMessage());
+            return null;
+        }
+    }
+
+    static boolean isCompressed(AODVMessage msg) {
+        return msg.header.type == AODVMessageType.DATA
+                && (msg.header.flags & (AODVHeader.FLAG_DEFLATE | AODVHeader.FLAG_DICTIONARY)) != 0;
+    }
+
+    //average compressed size over original size, for the benchmark
+    public synchronized double getRatio(Codec codec) {
+        return ratios[codec.ordinal()];
+    }
+
+    private Codec choose(int size, String mode) {
+        if (DEFLATE.equals(mode)) {
+            return Codec.DEFLATE;
+        } else if (DICTIONARY_MODE.equals(mode)) {
+            return Codec.DICTIONARY;
+        }
+        if (size < MIN_SIZE) {
+            return Codec.NONE;
+        }
+        Codec codec = size <= DICTIONARY_MAX_SIZE ? Codec.DICTIONARY : Codec.DEFLATE;
+        boolean probe = ++messages % PROBE_EVERY == 0;
+        return ratios[codec.ordinal()] < GIVE_UP_RATIO || probe ? codec : Codec.NONE;
+    }
+
+    private byte[] deflate(byte[] bytes, boolean dictionary) {
+        deflater.reset();
+        if (dictionary) {
+            deflater.setDictionary(DICTIONARY);
+        }
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] out = new byte[bytes.length + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+}
@@ -0,0 +1,459 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Immutable protocol timing and sizing parameters. Start from a profile and override single
+ * values with the Builder, or load key=value pairs from a properties file or Intent extras.
+ *
+ * Timing and neighbor limits can be changed while the router runs. The UDP socket settings and
+ * the Nearby strategy only take effect on the next start.
+ */
+public final class AODVConfig {
+
+    public static final String PROFILE = "profile";
+    public static final String HELLO_INTERVAL = "helloInterval";
+    public static final String ROUTE_EXPIRY_INTERVAL = "routeExpiryInterval";
+    public static final String ROUTE_TIMEOUT = "routeTimeout";
+    public static final String QUEUE_TIMEOUT = "queueTimeout";
+    public static final String QUEUE_INTERVAL = "queueInterval";
+    public static final String MAX_NEIGHBORS = "maxNeighbors";
+    public static final String MAX_ADDRESS = "maxAddress";
+    public static final String UDP_PORT = "udpPort";
+    public static final String UDP_BUFSIZE = "udpBufSize";
+    public static final String UDP_BROADCAST_ADDRESS = "udpBroadcastAddress";
+    public static final String STRATEGY = "strategy";
+    public static final String NETWORK_KEY = "networkKey";
+    public static final String COMPRESSION = "compression";
+    public static final String BROADCAST_JITTER = "broadcastJitter";
+    public static final String BROADCAST_SUPPRESSION = "broadcastSuppression";
+    public static final String CLUSTERING = "clustering";
+    public static final String ZONE_RADIUS = "zoneRadius";
+    public static final String FORWARD_CAPACITY = "forwardCapacity";
+    public static final String INTROSPECTION_PORT = "introspectionPort";
+
+    public static final String[] KEYS = {
+            PROFILE, HELLO_INTERVAL, ROUTE_EXPIRY_INTERVAL, ROUTE_TIMEOUT, QUEUE_TIMEOUT, QUEUE_INTERVAL,
+            MAX_NEIGHBORS, MAX_ADDRESS, UDP_PORT, UDP_BUFSIZE, UDP_BROADCAST_ADDRESS, STRATEGY,
+            NETWORK_KEY, COMPRESSION, BROADCAST_JITTER, BROADCAST_SUPPRESSION, CLUSTERING,
+            ZONE_RADIUS, FORWARD_CAPACITY, INTROSPECTION_PORT
+    };
+
+    //safe to change at runtime
+    public final long helloInterval;
+    public final long routeExpiryInterval;
+    public final long routeTimeout;
+    public final long queueTimeout;
+    public final long queueInterval;
+    public final int maxNeighbors;
+    public final short maxAddress; //highest unicast address, at most Short.MAX_VALUE, the negative half is groups
+    public final String compression; //DATA payload codec, see AODVCompression
+    public final long broadcastJitter; //longest random wait before rebroadcasting scoped DATA
+    public final int broadcastSuppression; //copies overheard while waiting that cancel the rebroadcast
+
+    //need a restart
+    public final int udpPort;
+    public final int udpBufSize;
+    public final String udpBroadcastAddress;
+    public final String strategy; //name of the Nearby Connections Strategy
+    public final String networkKey; //hex pre-shared key for AODVAuth, empty to accept anyone
+    public final boolean clustering; //hierarchical routing between cluster heads, see AODVCluster
+    public final int zoneRadius; //hops out to which routes are kept proactively, see AODVZone, 0 for none
+    public final int forwardCapacity; //DATA relayed per second at full load, see AODVLoad, 0 ignores load
+    public final int introspectionPort; //loopback port of the AODVIntrospection server, 0 for none
+
+    public static final AODVConfig DEFAULT = new Builder().build();
+
+    public static final AODVConfig LOW_LATENCY = new Builder()
+            .setHelloInterval(1000)
+            .setRouteExpiryInterval(1000)
+            .setRouteTimeout(5000)
+            .setQueueInterval(50)
+            .setMaxNeighbors(4)
+            .setZoneRadius(2)
+            .build();
+
+    public static final AODVConfig LOW_POWER = new Builder()
+            .setHelloInterval(5000)
+            .setRouteExpiryInterval(10000)
+            .setRouteTimeout(15000)
+            .setQueueTimeout(15000)
+            .setQueueInterval(1000)
+            .setMaxNeighbors(2)
+            .build();
+
+    public static final AODVConfig DENSE_MESH = new Builder()
+            .setHelloInterval(3000)
+            .setRouteExpiryInterval(3000)
+            .setRouteTimeout(10000)
+            .setQueueTimeout(10000)
+            .setMaxNeighbors(6)
+            .setMaxAddress(Short.MAX_VALUE)
+            .setForwardCapacity(50)
+            .build();
+
+    //thousands of nodes, the whole unicast address space and clustered route discovery
+    public static final AODVConfig CITY = new Builder()
+            .setHelloInterval(3000)
+            .setRouteExpiryInterval(3000)
+            .setRouteTimeout(10000)
+            .setQueueTimeout(10000)
+            .setMaxNeighbors(6)
+            .setMaxAddress(Short.MAX_VALUE)
+            .setClustering(true)
+            .build();
+
+    private AODVConfig(Builder builder) {
+        this.helloInterval = builder.helloInterval;
+        this.routeExpiryInterval = builder.routeExpiryInterval;
+        this.routeTimeout = builder.routeTimeout;
+        this.queueTimeout = builder.queueTimeout;
+        this.queueInterval = builder.queueInterval;
+        this.maxNeighbors = builder.maxNeighbors;
+        this.maxAddress = builder.maxAddress;
+        this.compression = builder.compression;
+        this.broadcastJitter = builder.broadcastJitter;
+        this.broadcastSuppression = builder.broadcastSuppression;
+        this.udpPort = builder.udpPort;
+        this.udpBufSize = builder.udpBufSize;
+        this.udpBroadcastAddress = builder.udpBroadcastAddress;
+        this.strategy = builder.strategy;
+        this.networkKey = builder.networkKey;
+        this.clustering = builder.clustering;
+        this.zoneRadius = builder.zoneRadius;
+        this.forwardCapacity = builder.forwardCapacity;
+        this.introspectionPort = builder.introspectionPort;
+    }
+
+    public static AODVConfig profile(String name) {
+        switch (name) {
+            case "default":
+                return DEFAULT;
+            case "low-latency":
+                return LOW_LATENCY;
+            case "low-power":
+                return LOW_POWER;
+            case "dense-mesh":
+                return DENSE_MESH;
+            case "city":
+                return CITY;
+            default:
+                throw new IllegalArgumentException("Unknown profile: " + name);
+        }
+    }
+
+    //the profile named by "profile" (default if missing) with any other keys applied on top
+    public static AODVConfig fromProperties(Properties props) {
+        Builder builder = profile(props.getProperty(PROFILE, "default")).toBuilder();
+        try {
+            for (String key : props.stringPropertyNames()) {
+                String value = props.getProperty(key).trim();
+                switch (key) {
+                    case PROFILE:
+                        break;
+                    case HELLO_INTERVAL:
+                        builder.setHelloInterval(Long.parseLong(value));
+                        break;
+                    case ROUTE_EXPIRY_INTERVAL:
+                        builder.setRouteExpiryInterval(Long.parseLong(value));
+                        break;
+                    case ROUTE_TIMEOUT:
+                        builder.setRouteTimeout(Long.parseLong(value));
+                        break;
+                    case QUEUE_TIMEOUT:
+                        builder.setQueueTimeout(Long.parseLong(value));
+                        break;
+                    case QUEUE_INTERVAL:
+                        builder.setQueueInterval(Long.parseLong(value));
+                        break;
+                    case MAX_NEIGHBORS:
+                        builder.setMaxNeighbors(Integer.parseInt(value));
+                        break;
+                    case MAX_ADDRESS:
+                        builder.setMaxAddress(Short.parseShort(value));
+                        break;
+                    case UDP_PORT:
+                        builder.setUDPPort(Integer.parseInt(value));
+                        break;
+                    case UDP_BUFSIZE:
+                        builder.setUDPBufSize(Integer.parseInt(value));
+                        break;
+                    case UDP_BROADCAST_ADDRESS:
+                        builder.setUDPBroadcastAddress(value);
+                        break;
+                    case STRATEGY:
+                        builder.setStrategy(value);
+                        break;
+                    case NETWORK_KEY:
+                        builder.setNetworkKey(value);
+                        break;
+                    case COMPRESSION:
+                        builder.setCompression(value);
+                        break;
+                    case BROADCAST_JITTER:
+                        builder.setBroadcastJitter(Long.parseLong(value));
+                        break;
+                    case BROADCAST_SUPPRESSION:
+                        builder.setBroadcastSuppression(Integer.parseInt(value));
+                        break;
+                    case CLUSTERING:
+                        builder.setClustering(Boolean.parseBoolean(value));
+                        break;
+                    case ZONE_RADIUS:
+                        builder.setZoneRadius(Integer.parseInt(value));
+                        break;
+                    case FORWARD_CAPACITY:
+                        builder.setForwardCapacity(Integer.parseInt(value));
+                        break;
+                    case INTROSPECTION_PORT:
+                        builder.setIntrospectionPort(Integer.parseInt(value));
+                        break;
+                    default:
+                        AODVLog.d("connectedcrossroad", "AODVConfig: ignoring unknown key " + key);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad config value: " + e.getMessage(), e);
+        }
+        return builder.build();
+    }
+
+    public static AODVConfig load(File file) throws IOException {
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        return fromProperties(props);
+    }
+
+    //this config with the runtime-safe parameters taken from other
+    public AODVConfig withSafeParameters(AODVConfig other) {
+        return toBuilder()
+                .setHelloInterval(other.helloInterval)
+                .setRouteExpiryInterval(other.routeExpiryInterval)
+                .setRouteTimeout(other.routeTimeout)
+                .setQueueTimeout(other.queueTimeout)
+                .setQueueInterval(other.queueInterval)
+                .setMaxNeighbors(other.maxNeighbors)
+                .setMaxAddress(other.maxAddress)
+                .setCompression(other.compression)
+                .setBroadcastJitter(other.broadcastJitter)
+                .setBroadcastSuppression(other.broadcastSuppression)
+                .build();
+    }
+
+    //true if switching to other needs a restart to fully apply
+    public boolean needsRestart(AODVConfig other) {
+        return udpPort != other.udpPort || udpBufSize != other.udpBufSize
+                || !udpBroadcastAddress.equals(other.udpBroadcastAddress) || !strategy.equals(other.strategy)
+                || !networkKey.equals(other.networkKey) || clustering != other.clustering
+                || zoneRadius != other.zoneRadius || forwardCapacity != other.forwardCapacity
+                || introspectionPort != other.introspectionPort;
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    @Override
+    public String toString() {
+        return HELLO_INTERVAL + "=" + helloInterval + " " + ROUTE_EXPIRY_INTERVAL + "=" + routeExpiryInterval
+                + " " + ROUTE_TIMEOUT + "=" + routeTimeout + " " + QUEUE_TIMEOUT + "=" + queueTimeout
+                + " " + QUEUE_INTERVAL + "=" + queueInterval + " " + MAX_NEIGHBORS + "=" + maxNeighbors
+                + " " + MAX_ADDRESS + "=" + maxAddress + " " + COMPRESSION + "=" + compression
+                + " " + BROADCAST_JITTER + "=" + broadcastJitter + " " + BROADCAST_SUPPRESSION + "=" + broadcastSuppression
+                + " " + UDP_PORT + "=" + udpPort
+                + " " + UDP_BUFSIZE + "=" + udpBufSize + " " + UDP_BROADCAST_ADDRESS + "=" + udpBroadcastAddress
+                + " " + STRATEGY + "=" + strategy
+                + " " + NETWORK_KEY + "=" + (networkKey.isEmpty() ? "none" : "set")
+                + " " + CLUSTERING + "=" + clustering + " " + ZONE_RADIUS + "=" + zoneRadius
+                + " " + FORWARD_CAPACITY + "=" + forwardCapacity + " " + INTROSPECTION_PORT + "=" + introspectionPort;
+    }
+
+    public static class Builder {
+
+        private long helloInterval = 2000;
+        private long routeExpiryInterval = 3000;
+        private long routeTimeout = 7000;
+        private long queueTimeout = 7000;
+        private long queueInterval = 500;
+        private int maxNeighbors = 3;
+        private short maxAddress = 10;
+        private String compression = AODVCompression.AUTO;
+        private long broadcastJitter = 40;
+        private int broadcastSuppression = 3;
+        private int udpPort = 5055;
+        private int udpBufSize = 2048;
+        private String udpBroadcastAddress = "255.255.255.255";
+        private String strategy = "P2P_CLUSTER";
+        private String networkKey = "";
+        private boolean clustering = false;
+        private int zoneRadius = 0;
+        private int forwardCapacity = 0;
+        private int introspectionPort = 0;
+
+        public Builder() {}
+
+        private Builder(AODVConfig config) {
+            this.helloInterval = config.helloInterval;
+            this.routeExpiryInterval = config.routeExpiryInterval;
+            this.routeTimeout = config.routeTimeout;
+            this.queueTimeout = config.queueTimeout;
+            this.queueInterval = config.queueInterval;
+            this.maxNeighbors = config.maxNeighbors;
+            this.maxAddress = config.maxAddress;
+            this.compression = config.compression;
+            this.broadcastJitter = config.broadcastJitter;
+            this.broadcastSuppression = config.broadcastSuppression;
+            this.udpPort = config.udpPort;
+            this.udpBufSize = config.udpBufSize;
+            this.udpBroadcastAddress = config.udpBroadcastAddress;
+            this.strategy = config.strategy;
+            this.networkKey = config.networkKey;
+            this.clustering = config.clustering;
+            this.zoneRadius = config.zoneRadius;
+            this.forwardCapacity = config.forwardCapacity;
+            this.introspectionPort = config.introspectionPort;
+        }
+
+        public Builder setHelloInterval(long helloInterval) {
+            this.helloInterval = positive(HELLO_INTERVAL, helloInterval);
+            return this;
+        }
+
+        public Builder setRouteExpiryInterval(long routeExpiryInterval) {
+            this.routeExpiryInterval = positive(ROUTE_EXPIRY_INTERVAL, routeExpiryInterval);
+            return this;
+        }
+
+        public Builder setRouteTimeout(long routeTimeout) {
+            this.routeTimeout = positive(ROUTE_TIMEOUT, routeTimeout);
+            return this;
+        }
+
+        public Builder setQueueTimeout(long queueTimeout) {
+            this.queueTimeout = positive(QUEUE_TIMEOUT, queueTimeout);
+            return this;
+        }
+
+        public Builder setQueueInterval(long queueInterval) {
+            this.queueInterval = positive(QUEUE_INTERVAL, queueInterval);
+            return this;
+        }
+
+        public Builder setMaxNeighbors(int maxNeighbors) {
+            this.maxNeighbors = (int) positive(MAX_NEIGHBORS, maxNeighbors);
+            return this;
+        }
+
+        public Builder setMaxAddress(short maxAddress) {
+            this.maxAddress = (short) positive(MAX_ADDRESS, maxAddress);
+            return this;
+        }
+
+        public Builder setCompression(String compression) {
+            switch (compression) {
+                case AODVCompression.AUTO:
+                case AODVCompression.NONE:
+                case AODVCompression.DEFLATE:
+                case AODVCompression.DICTIONARY_MODE:
+                    this.compression = compression;
+                    return this;
+                default:
+                    throw new IllegalArgumentException("Unknown " + COMPRESSION + ": " + compression);
+            }
+        }
+
+        public Builder setBroadcastJitter(long broadcastJitter) {
+            this.broadcastJitter = positive(BROADCAST_JITTER, broadcastJitter);
+            return this;
+        }
+
+        public Builder setBroadcastSuppression(int broadcastSuppression) {
+            this.broadcastSuppression = (int) positive(BROADCAST_SUPPRESSION, broadcastSuppression);
+            return this;
+        }
+
+        public Builder setUDPPort(int udpPort) {
+            if (udpPort <= 0 || udpPort > 0xFFFF) {
+                throw new IllegalArgumentException(UDP_PORT + " out of range: " + udpPort);
+            }
+            this.udpPort = udpPort;
+            return this;
+        }
+
+        public Builder setUDPBufSize(int udpBufSize) {
+            this.udpBufSize = (int) positive(UDP_BUFSIZE, udpBufSize);
+            return this;
+        }
+
+        public Builder setUDPBroadcastAddress(String udpBroadcastAddress) {
+            this.udpBroadcastAddress = udpBroadcastAddress;
+            return this;
+        }
+
+        public Builder setStrategy(String strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+
+        public Builder setNetworkKey(String networkKey) {
+            if (!networkKey.isEmpty()) {
+                //fail here rather than on start
+                AODVAuth.fromHex(networkKey);
+            }
+            this.networkKey = networkKey;
+            return this;
+        }
+
+        public Builder setClustering(boolean clustering) {
+            this.clustering = clustering;
+            return this;
+        }
+
+        //hellos pass neighbor lists on radius - 1 hops, so they grow fast with it
+        public Builder setZoneRadius(int zoneRadius) {
+            if (zoneRadius < 0 || zoneRadius > 4) {
+                throw new IllegalArgumentException(ZONE_RADIUS + " out of range: " + zoneRadius);
+            }
+            this.zoneRadius = zoneRadius;
+            return this;
+        }
+
+        public Builder setForwardCapacity(int forwardCapacity) {
+            if (forwardCapacity < 0) {
+                throw new IllegalArgumentException(FORWARD_CAPACITY + " must not be negative: " + forwardCapacity);
+            }
+            this.forwardCapacity = forwardCapacity;
+            return this;
+        }
+
+        public Builder setIntrospectionPort(int introspectionPort) {
+            if (introspectionPort < 0 || introspectionPort > 0xFFFF) {
+                throw new IllegalArgumentException(INTROSPECTION_PORT + " out of range: " + introspectionPort);
+            }
+            this.introspectionPort = introspectionPort;
+            return this;
+        }
+
+        public AODVConfig build() {
+            return new AODVConfig(this);
+        }
+
+        private static long positive(String key, long value) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(key + " must be positive: " + value);
+            }
+            return value;
+        }
+
+    }
+
+}
@@ -0,0 +1,289 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Sits between the router's connection decisions and Nearby Connections. Each endpoint goes
+ * through IDLE, WAITING, CONNECTING, BACKOFF, CONNECTED and REFUSED:
+ *
+ * - Only the lower address initiates. The higher one waits for the request, so simultaneous
+ *   requests (8012 STATUS_ENDPOINT_IO_ERROR) don't happen. If none comes within PEER_WAIT the
+ *   peer doesn't want the link, and the higher side goes back to IDLE without asking.
+ * - Failed attempts are retried after a capped exponential backoff with jitter, and given up
+ *   after MAX_ATTEMPTS. The neighbor manager can ask again later.
+ * - A peer that disconnects right after connecting had no room for us. Requests for it are
+ *   ignored for REFUSED_WAIT, doubling while it keeps refusing.
+ * - The time from asking for a connection to having it is kept for the stats.
+ *
+ * Timers go through a {@link Scheduler}, so the simulator can run it on virtual time.
+ */
+public class AODVConnectionManager implements AODVRouter.Connector {
+
+    private static final String TAG = "connectedcrossroad";
+
+    static final long BASE_BACKOFF = 500;
+    static final long MAX_BACKOFF = 16000;
+    static final long PEER_WAIT = 2000;
+    static final int MAX_ATTEMPTS = 6;
+    //a peer that drops us sooner than this after connecting is taken to be full
+    static final long REFUSAL_WINDOW = 1000;
+    static final long REFUSED_WAIT = 8000;
+
+    public enum State { IDLE, WAITING, CONNECTING, BACKOFF, CONNECTED, REFUSED }
+
+    //runs delayed tasks, the main thread Handler on Android
+    public interface Scheduler {
+        long now();
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    public static class Stats {
+
+        public long connects;
+        public long attempts;
+        public long failures;
+        public long clashes;
+        public long giveUps;
+        public long refusals;
+        public long totalTimeToConnect;
+        public long maxTimeToConnect;
+
+        public double meanTimeToConnect() {
+            return connects == 0 ? 0 : (double) totalTimeToConnect / connects;
+        }
+
+    }
+
+    private static class Endpoint {
+
+        String endpointId;
+        short address;
+        State state = State.IDLE;
+        int attempts;
+        long wantedAt; //0 unless the router asked for this connection
+        long connectedAt;
+        int refusals; //in a row, each doubles REFUSED_WAIT
+        int generation; //bumped on every transition so stale timers do nothing
+
+    }
+
+    //does the actual Nearby calls
+    private final AODVRouter.Connector nearby;
+    private final Scheduler scheduler;
+    private final Random random;
+    private short address;
+
+    //key is endpointId
+    private final Map<String, Endpoint> endpoints = new HashMap<>();
+    private final Stats stats = new Stats();
+
+    public AODVConnectionManager(AODVRouter.Connector nearby, Scheduler scheduler, Random random) {
+        this.nearby = nearby;
+        this.scheduler = scheduler;
+        this.random = random;
+    }
+
+    public synchronized void setAddress(short address) {
+        this.address = address;
+    }
+
+    //the address is needed to know which side initiates
+    public synchronized void onEndpointFound(String endpointId, short address) {
+        getEndpoint(endpointId).address = address;
+    }
+
+    public synchronized void onEndpointLost(String endpointId) {
+        Endpoint endpoint = endpoints.get(endpointId);
+        if (endpoint != null && endpoint.state != State.CONNECTED) {
+            endpoints.remove(endpointId);
+        }
+    }
+
+    //the router wants this connection
+    @Override
+    public synchronized void requestConnection(String endpointId) {
+        Endpoint endpoint = getEndpoint(endpointId);
+        if (endpoint.state != State.IDLE) {
+            return;
+        }
+        endpoint.wantedAt = scheduler.now();
+        endpoint.attempts = 0;
+        if (endpoint.address != 0 && address > endpoint.address) {
+            waitForPeer(endpoint);
+        } else {
+            attempt(endpoint);
+        }
+    }
+
+    @Override
+    public synchronized void disconnect(String endpointId) {
+        Endpoint endpoint = endpoints.get(endpointId);
+        if (endpoint != null) {
+            setState(endpoint, State.IDLE);
+        }
+        nearby.disconnect(endpointId);
+    }
+
+    //a handshake started, by us or by the peer
+    public synchronized void onConnectionInitiated(String endpointId) {
+        setState(getEndpoint(endpointId), State.CONNECTING);
+    }
+
+    public synchronized void onConnected(String endpointId) {
+        Endpoint endpoint = getEndpoint(endpointId);
+        setState(endpoint, State.CONNECTED);
+        stats.connects++;
+        if (endpoint.wantedAt != 0) {
+            long timeToConnect = scheduler.now() - endpoint.wantedAt;
+            stats.totalTimeToConnect += timeToConnect;
+            stats.maxTimeToConnect = Math.max(stats.maxTimeToConnect, timeToConnect);
+            AODVLog.i(TAG, String.format("onConnected: %d after %d ms and %d attempts",
+                    endpoint.address, timeToConnect, endpoint.attempts));
+        }
+        endpoint.wantedAt = 0;
+        endpoint.attempts = 0;
+        endpoint.connectedAt = scheduler.now();
+    }
+
+    //clash is true for 8012, when both sides requested at once
+    public synchronized void onConnectionFailed(String endpointId, boolean clash) {
+        Endpoint endpoint = getEndpoint(endpointId);
+        if (endpoint.state == State.CONNECTED) {
+            return;
+        }
+        stats.failures++;
+        if (clash) {
+            stats.clashes++;
+        }
+        if (endpoint.wantedAt == 0) {
+            //an incoming request we didn't ask for, nothing to retry
+            setState(endpoint, State.IDLE);
+        } else if (endpoint.attempts >= MAX_ATTEMPTS) {
+            stats.giveUps++;
+            endpoint.wantedAt = 0;
+            setState(endpoint, State.IDLE);
+            AODVLog.d(TAG, "onConnectionFailed: giving up on " + endpoint.address);
+        } else if (clash && address > endpoint.address) {
+            waitForPeer(endpoint);
+        } else {
+            long delay = backoff(endpoint.attempts);
+            AODVLog.d(TAG, String.format("onConnectionFailed: retrying %d in %d ms", endpoint.address, delay));
+            setState(endpoint, State.BACKOFF);
+            scheduleAttempt(endpoint, State.BACKOFF, delay);
+        }
+    }
+
+    public synchronized void onDisconnected(String endpointId) {
+        Endpoint endpoint = endpoints.get(endpointId);
+        if (endpoint == null) {
+            return;
+        }
+        if (endpoint.state == State.CONNECTED && scheduler.now() - endpoint.connectedAt < REFUSAL_WINDOW) {
+            //it had no room for us, asking again soon just costs both radios another handshake
+            stats.refusals++;
+            long delay = Math.min(MAX_BACKOFF, REFUSED_WAIT << Math.min(endpoint.refusals++, 16));
+            AODVLog.d(TAG, String.format("onDisconnected: %d is full, not asking for %d ms", endpoint.address, delay));
+            setState(endpoint, State.REFUSED);
+            scheduleIdle(endpoint, State.REFUSED, delay / 2 + (long) (random.nextDouble() * (delay / 2)));
+        } else {
+            if (endpoint.state == State.CONNECTED) {
+                endpoint.refusals = 0;
+            }
+            setState(endpoint, State.IDLE);
+        }
+    }
+
+    //forget every endpoint, e.g. when all connections were stopped without disconnect callbacks
+    public synchronized void reset() {
+        for (Endpoint endpoint : endpoints.values()) {
+            setState(endpoint, State.IDLE);
+        }
+        endpoints.clear();
+    }
+
+    public synchronized State getState(String endpointId) {
+        Endpoint endpoint = endpoints.get(endpointId);
+        return endpoint != null ? endpoint.state : State.IDLE;
+    }
+
+    //a copy, safe to read while the manager keeps running
+    public synchronized Stats getStats() {
+        Stats copy = new Stats();
+        copy.connects = stats.connects;
+        copy.attempts = stats.attempts;
+        copy.failures = stats.failures;
+        copy.clashes = stats.clashes;
+        copy.giveUps = stats.giveUps;
+        copy.refusals = stats.refusals;
+        copy.totalTimeToConnect = stats.totalTimeToConnect;
+        copy.maxTimeToConnect = stats.maxTimeToConnect;
+        return copy;
+    }
+
+    //capped exponential with equal jitter, half fixed and half random
+    long backoff(int attempts) {
+        long delay = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(attempts - 1, 16));
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    //a peer that wants the link asks within PEER_WAIT, asking it ourselves would mostly be refused
+    private void waitForPeer(Endpoint endpoint) {
+        setState(endpoint, State.WAITING);
+        scheduleIdle(endpoint, State.WAITING, PEER_WAIT + (long) (random.nextDouble() * BASE_BACKOFF));
+    }
+
+    private void attempt(Endpoint endpoint) {
+        setState(endpoint, State.CONNECTING);
+        endpoint.attempts++;
+        stats.attempts++;
+        nearby.requestConnection(endpoint.endpointId);
+    }
+
+    private void scheduleAttempt(final Endpoint endpoint, final State expected, long delay) {
+        final int generation = endpoint.generation;
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (AODVConnectionManager.this) {
+                    if (endpoint.generation == generation && endpoint.state == expected) {
+                        attempt(endpoint);
+                    }
+                }
+            }
+        }, delay);
+    }
+
+    //the router can ask again once it is back to IDLE
+    private void scheduleIdle(final Endpoint endpoint, final State expected, long delay) {
+        final int generation = endpoint.generation;
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (AODVConnectionManager.this) {
+                    if (endpoint.generation == generation && endpoint.state == expected) {
+                        endpoint.wantedAt = 0;
+                        setState(endpoint, State.IDLE);
+                    }
+                }
+            }
+        }, delay);
+    }
+
+    private void setState(Endpoint endpoint, State state) {
+        endpoint.state = state;
+        endpoint.generation++;
+    }
+
+    private Endpoint getEndpoint(String endpointId) {
+        Endpoint endpoint = endpoints.get(endpointId);
+        if (endpoint == null) {
+            endpoint = new Endpoint();
+            endpoint.endpointId = endpointId;
+            endpoints.put(endpointId, endpoint);
+        }
+        return endpoint;
+    }
+
+}
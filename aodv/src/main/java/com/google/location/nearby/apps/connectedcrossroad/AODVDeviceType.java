@@ -0,0 +1,26 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+public enum AODVDeviceType implements Serializable {
+    NONE((byte) 0),
+    AND((byte) 1),
+    MK6((byte) 2);
+
+    private final byte id;
+    private static final Map<Byte, AODVDeviceType> valToType = new HashMap<>();
+    static {
+        for (AODVDeviceType type : AODVDeviceType.values()) {
+            valToType.put(type.getValue(), type);
+        }
+    }
+    AODVDeviceType(byte id) { this.id = id; }
+
+    public byte getValue() { return id; }
+
+    public static AODVDeviceType valueOf(byte id) {
+        return valToType.containsKey(id) ? valToType.get(id) : NONE;
+    }
+}
@@ -0,0 +1,59 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+//something the router reports to subscribers of its AODVEventBus
+public class AODVEvent {
+
+    public enum Type {
+        DATA, //DATA addressed to us arrived, srcAddr and data are set
+        NEIGHBORS, //a neighbor was added or removed, localSize is set
+        ROUTE //what srcAddr resolves to changed, nextHopAddr and hopCnt are set, hopCnt is -1 once it is gone
+    }
+
+    public final Type type;
+    public final long timeMillis;
+    public final short srcAddr;
+    public final String data;
+    public final int localSize;
+    public final short nextHopAddr;
+    public final int hopCnt;
+
+    private AODVEvent(Type type, short srcAddr, String data, int localSize, short nextHopAddr, int hopCnt) {
+        this.type = type;
+        this.timeMillis = System.currentTimeMillis();
+        this.srcAddr = srcAddr;
+        this.data = data;
+        this.localSize = localSize;
+        this.nextHopAddr = nextHopAddr;
+        this.hopCnt = hopCnt;
+    }
+
+    static AODVEvent data(short srcAddr, String data) {
+        return new AODVEvent(Type.DATA, srcAddr, data, 0, (short) 0, 0);
+    }
+
+    static AODVEvent neighbors(int localSize) {
+        return new AODVEvent(Type.NEIGHBORS, (short) 0, null, localSize, (short) 0, 0);
+    }
+
+    //route is null once address is unreachable, neighbors are one hop away
+    static AODVEvent route(short address, AODVRoute route) {
+        if (route == null) {
+            return new AODVEvent(Type.ROUTE, address, null, 0, (short) 0, -1);
+        }
+        return new AODVEvent(Type.ROUTE, address, null, 0, route.nextHopAddr, route.link != null ? 1 : route.hopCnt);
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case DATA:
+                return String.format("DATA from %d: %s", srcAddr, data);
+            case ROUTE:
+                return hopCnt < 0 ? String.format("ROUTE %d gone", srcAddr)
+                        : String.format("ROUTE %d via %d, %d hops", srcAddr, nextHopAddr, hopCnt);
+            default:
+                return String.format("NEIGHBORS %d", localSize);
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands router events to any number of subscribers without blocking the router. Every
+ * subscriber has its own bounded queue, when it falls behind the oldest events are dropped and
+ * counted. Queued events are delivered in batches on the subscriber's scheduler, e.g. the main
+ * thread every frame for the UI, or the bus's own thread as soon as possible for a logger.
+ */
+public class AODVEventBus {
+
+    private static final String TAG = "connectedcrossroad";
+
+    public static final int DEFAULT_CAPACITY = 256;
+    //one frame at 60 Hz
+    public static final long FRAME_MILLIS = 16;
+
+    public interface Subscriber {
+        //called on the subscription's scheduler, oldest first
+        void onEvents(List<AODVEvent> events);
+    }
+
+    public interface Filter {
+        boolean accept(AODVEvent event);
+    }
+
+    //where batches are delivered, a main thread Handler on Android
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    public static final Filter ALL = new Filter() {
+        @Override
+        public boolean accept(AODVEvent event) {
+            return true;
+        }
+    };
+
+    public static Filter ofType(final AODVEvent.Type type) {
+        return new Filter() {
+            @Override
+            public boolean accept(AODVEvent event) {
+                return event.type == type;
+            }
+        };
+    }
+
+    //DATA from the given address
+    public static Filter fromSource(final short address) {
+        return new Filter() {
+            @Override
+            public boolean accept(AODVEvent event) {
+                return event.type == AODVEvent.Type.DATA && event.srcAddr == address;
+            }
+        };
+    }
+
+    public static Filter and(final Filter first, final Filter second) {
+        return new Filter() {
+            @Override
+            public boolean accept(AODVEvent event) {
+                return first.accept(event) && second.accept(event);
+            }
+        };
+    }
+
+    public class Subscription implements Runnable {
+
+        private final Subscriber subscriber;
+        private final Filter filter;
+        private final Scheduler scheduler;
+        private final long batchMillis;
+        private final int capacity;
+
+        private final ArrayDeque<AODVEvent> queue = new ArrayDeque<>();
+        private boolean scheduled = false;
+        private long dropped = 0;
+
+        private Subscription(Subscriber subscriber, Filter filter, Scheduler scheduler, long batchMillis,
+                             int capacity) {
+            this.subscriber = subscriber;
+            this.filter = filter;
+            this.scheduler = scheduler;
+            this.batchMillis = batchMillis;
+            this.capacity = capacity;
+        }
+
+        //events lost because the subscriber fell behind
+        public synchronized long getDropped() {
+            return dropped;
+        }
+
+        public void unsubscribe() {
+            subscriptions.remove(this);
+            synchronized (this) {
+                queue.clear();
+            }
+        }
+
+        private void offer(AODVEvent event) {
+            boolean schedule;
+            synchronized (this) {
+                if (queue.size() >= capacity) {
+                    queue.poll();
+                    dropped++;
+                }
+                queue.add(event);
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            //the first event of a batch starts the clock, later ones ride along
+            if (schedule) {
+                scheduler.schedule(this, batchMillis);
+            }
+        }
+
+        @Override
+        public void run() {
+            List<AODVEvent> batch;
+            synchronized (this) {
+                scheduled = false;
+                if (queue.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(queue);
+                queue.clear();
+            }
+            try {
+                subscriber.onEvents(batch);
+            } catch (RuntimeException e) {
+                //one broken subscriber must not stop the others
+                AODVLog.e(TAG, "Subscription: subscriber failed: " + e);
+            }
+        }
+
+    }
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    //delivers to subscribers that don't bring their own scheduler, started on first use
+    private ScheduledExecutorService executor;
+
+    //delivered on the bus's own thread as soon as possible
+    public Subscription subscribe(Subscriber subscriber, Filter filter) {
+        return subscribe(subscriber, filter, getScheduler(), 0, DEFAULT_CAPACITY);
+    }
+
+    public Subscription subscribe(Subscriber subscriber, Filter filter, Scheduler scheduler, long batchMillis,
+                                  int capacity) {
+        Subscription subscription = new Subscription(subscriber, filter, scheduler, batchMillis, capacity);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    //cheap when nobody listens, only filtering and queueing happen on the caller's thread
+    void publish(AODVEvent event) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.filter.accept(event)) {
+                subscription.offer(event);
+            }
+        }
+    }
+
+    boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    private synchronized Scheduler getScheduler() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "aodv-events");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        final ScheduledExecutorService executor = this.executor;
+        return new Scheduler() {
+            @Override
+            public void schedule(Runnable task, long delayMillis) {
+                executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.util.Locale;
+
+/**
+ * Geographic bound of a scoped broadcast, a circle around where the source was when it sent it.
+ * It travels as a "lat,lon,radius;" prefix of the DATA payload marked by
+ * {@link AODVHeader#FLAG_GEO}, because the tAODVPacket header has no room for it.
+ */
+class AODVGeoScope {
+
+    private static final char END = ';';
+    private static final double EARTH_RADIUS = 6371000; //meters
+
+    final double latitude;
+    final double longitude;
+    final int radius; //meters
+
+    AODVGeoScope(double latitude, double longitude, int radius) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+    }
+
+    //5 decimals are about a meter
+    String prefix(String payload) {
+        return String.format(Locale.US, "%.5f,%.5f,%d", latitude, longitude, radius) + END + payload;
+    }
+
+    //null if payload doesn't start with a scope
+    static AODVGeoScope parse(String payload) {
+        int end = payload != null ? payload.indexOf(END) : -1;
+        if (end < 0) {
+            return null;
+        }
+        String[] fields = payload.substring(0, end).split(",");
+        if (fields.length != 3) {
+            return null;
+        }
+        try {
+            return new AODVGeoScope(Double.parseDouble(fields[0]), Double.parseDouble(fields[1]),
+                    Integer.parseInt(fields[2]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    //payload without the scope, parse must have succeeded
+    static String strip(String payload) {
+        return payload.substring(payload.indexOf(END) + 1);
+    }
+
+    //equirectangular, plenty for the few hundred meters around a crossroad
+    boolean contains(double latitude, double longitude) {
+        double x = Math.toRadians(longitude - this.longitude)
+                * Math.cos(Math.toRadians((latitude + this.latitude) / 2));
+        double y = Math.toRadians(latitude - this.latitude);
+        return EARTH_RADIUS * Math.sqrt(x * x + y * y) <= radius;
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A multicast group this node is a member of or forwards for. The group's nodes form a shared
+ * tree, and links are the neighbors on it. DATA for the group goes once to every link except the
+ * one it came from, so packets are only duplicated where the tree branches.
+ *
+ * Members that join at the same time can end up on separate fragments of the tree. Every
+ * fragment has a leader, the lowest member address on it, whose GRPH tells the fragment's
+ * nodes who leads them. Leaders keep looking for other fragments, and only fragments with a
+ * lower leader answer, so fragments merge one way and the tree stays a tree.
+ */
+class AODVGroup {
+
+    //negative shorts, 0xFFFF is the UDP broadcast address
+    static boolean isGroup(short address) {
+        return address < 0 && address != (short) 0xFFFF;
+    }
+
+    //not led by anyone we know of
+    static final short NO_LEADER = Short.MAX_VALUE;
+
+    final short address;
+    boolean member; //we joined, as opposed to only forwarding
+    final Set<Short> links = new HashSet<>(); //tree neighbors
+    //joiner -> neighbor its join RREP came from, until the joiner's MACT picks a branch
+    final Map<Short, Short> grafts = new HashMap<>();
+    long graftTimeout;
+    short leader;
+    long leaderSince; //when leader last changed
+    long leaderTimeout; //without a GRPH until then, the leader is gone
+    //members and leaders keep looking for the tree, backing off while nobody answers
+    long nextJoin;
+    int joinAttempts;
+
+    AODVGroup(short address) {
+        this.address = address;
+        this.member = false;
+        this.graftTimeout = 0L;
+        this.leader = NO_LEADER;
+        this.leaderSince = 0L;
+        this.leaderTimeout = 0L;
+        this.nextJoin = 0L;
+        this.joinAttempts = 0;
+    }
+
+    //members and forwarders answer join RREQs
+    boolean isOnTree() {
+        return member || !links.isEmpty();
+    }
+
+    void setLeader(short leader, long timeMillis) {
+        if (leader != this.leader) {
+            this.leader = leader;
+            this.leaderSince = timeMillis;
+        }
+    }
+
+}
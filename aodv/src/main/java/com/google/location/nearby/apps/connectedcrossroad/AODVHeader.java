@@ -0,0 +1,72 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+public class AODVHeader implements Serializable {
+
+    public static final byte FLAG_AUTH = 0x01; //authCounter and authTag follow the payload
+    public static final byte FLAG_ACK_REQ = 0x02; //DATA the destination should acknowledge
+    //on HELLOs, the sender reads DATA over CC in tAODVPacket layout, ACK_REQ is never set on HELLOs
+    public static final byte FLAG_PACKET_DATA = 0x02;
+    //on RREQs, an intermediate node that answers also sends the destination a gratuitous RREP with the
+    //route to the originator, RFC 3561 6.6.3. It marks that RREP with it too
+    public static final byte FLAG_GRATUITOUS = 0x02;
+    public static final byte FLAG_ACK = 0x04; //acknowledges the DATA with this bcastSeqNum
+    //on HELLOs from Android devices, the sender also takes UDP from its CC neighbors, ACK is never set on HELLOs
+    public static final byte FLAG_DUAL = 0x04;
+    public static final byte FLAG_COMPACT_HELLO = 0x08; //on HELLOs, the sender decodes AODVHelloCodec hellos
+    //on DATA the body is raw deflate, on HELLO, RREQ and RREP the sender (or RREP source) inflates DATA
+    public static final byte FLAG_DEFLATE = 0x10;
+    public static final byte FLAG_DICTIONARY = 0x20; //DATA body is raw deflate with AODVCompression.DICTIONARY
+    public static final byte FLAG_JOIN = 0x40; //RREQ and RREP to join a group's tree, see AODVGroup
+    public static final byte FLAG_PRUNE = (byte) 0x80; //MACT that removes the branch instead of grafting it
+    //DATA to the broadcast address whose payload starts with an AODVGeoScope, JOIN is never set on DATA
+    public static final byte FLAG_GEO = 0x40;
+    //hierarchical routing, see AODVCluster. On HELLOs the sender clusters and destAddr is its head,
+    //on RREQs from a head the payload is the member it asks for a route on behalf of, on RREPs
+    //srcAddr is the head answering and the payload its member, on DATA and RERR destSeqNum is the
+    //head of destAddr's cluster. PRUNE is only ever set on MACTs
+    public static final byte FLAG_CLUSTER = (byte) 0x80;
+
+    //shorts for compatibility with C version (Java doesn't have unsigned types...)
+    //if these overflow there will be issues, shouldn't happen unless its running for a long time
+    public AODVMessageType type;
+    public short srcAddr; //origination of packet
+    public short destAddr; //final destination of packet
+    public short nextAddr;
+    public String nextId; //endpointId for routing
+    public short sendAddr;
+    public String sendId; //endpointId for routing, this will be set in onReceivedPayload;
+    public transient InetSocketAddress sendUDPAddress; //where a UDP hello came from, set on receive
+    public AODVDeviceType sendDevType;
+    public short srcSeqNum;
+    public short bcastSeqNum;
+    public short destSeqNum;
+    public byte hopCnt;
+    public short length; //length of payload
+    public byte flags; //sent in the tAODVPacket placeholder byte
+    public long authCounter;
+    public long authTag; //truncated HMAC, see AODVAuth
+
+    public AODVHeader() {
+        this.type = AODVMessageType.NONE;
+        this.srcAddr = 0;
+        this.destAddr = 0;
+        this.nextAddr = 0;
+        this.nextId = null;
+        this.sendAddr = 0;
+        this.sendId = null;
+        this.sendUDPAddress = null;
+        this.sendDevType = AODVDeviceType.AND;
+        this.srcSeqNum = 0;
+        this.bcastSeqNum = 0;
+        this.destSeqNum = 0;
+        this.hopCnt = 0;
+        this.length = 0;
+        this.flags = 0;
+        this.authCounter = 0;
+        this.authTag = 0;
+    }
+
+}
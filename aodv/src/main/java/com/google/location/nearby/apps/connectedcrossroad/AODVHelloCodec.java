@@ -0,0 +1,282 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact encoding for HELLO messages, only sent to neighbors whose own hellos carry
+ * FLAG_COMPACT_HELLO. Everything else still goes as tAODVPacket or Java serialization.
+ *
+ * MAGIC, field bitmap, varint sendAddr, reference id, then the fields named in the bitmap:
+ * varint srcAddr when it differs from sendAddr, devType when not AND, the seq num and the
+ * neighbor list (varint count, zigzag varint deltas), and the auth counter and tag. Header flags
+ * the bitmap has no bit for, e.g. FLAG_DUAL, follow in one trailing byte when there are any.
+ * Decoders that predate it stop reading before it.
+ *
+ * Every KEYFRAME_HELLOS hellos, or when a neighbor first becomes able to decode us, a keyframe
+ * carries absolute values and becomes the reference. The hellos in between only carry what
+ * changed since that keyframe, the seq num as a delta. A receiver that missed the keyframe
+ * can't decode them and drops them until the next one.
+ *
+ * The decoded message is the same as the one that was signed, so AODVAuth verifies it as usual.
+ */
+class AODVHelloCodec {
+
+    private static final String TAG = "connectedcrossroad";
+
+    //neither a tAODVPacket type nor the start of a Java serialization stream
+    static final byte MAGIC = (byte) 0xC7;
+
+    static final int KEYFRAME_HELLOS = 3;
+
+    private static final int KEYFRAME = 0x01;
+    private static final int SRC_ADDR = 0x02;
+    private static final int DEV_TYPE = 0x04;
+    private static final int SEQ = 0x08;
+    private static final int NEIGHBORS = 0x10;
+    private static final int AUTH = 0x20;
+    private static final int DEFLATE = 0x40; //FLAG_DEFLATE, costs nothing to carry
+    private static final int PACKET_DATA = 0x80; //FLAG_PACKET_DATA
+    //header flags the bitmap carries, the rest go in the trailing byte
+    private static final int BITMAP_FLAGS = AODVHeader.FLAG_COMPACT_HELLO | AODVHeader.FLAG_AUTH
+            | AODVHeader.FLAG_DEFLATE | AODVHeader.FLAG_PACKET_DATA;
+
+    //what a sender's last keyframe said
+    private static class Reference {
+
+        byte id;
+        short seqNum;
+        String neighbors;
+
+    }
+
+    //our own reference, for encoding
+    private final Reference self = new Reference();
+    private int sinceKeyframe = KEYFRAME_HELLOS;
+    //references of the neighbors we decode, key is sendAddr
+    private final Map<Short, Reference> peers = new HashMap<>();
+    private long undecodable = 0;
+
+    static boolean isCompact(byte[] bytes, int length) {
+        return length > 0 && bytes[0] == MAGIC;
+    }
+
+    //the next hello is a keyframe, so a neighbor that just started decoding us can follow
+    synchronized void requestKeyframe() {
+        sinceKeyframe = KEYFRAME_HELLOS;
+    }
+
+    //deltas dropped because their keyframe was missed
+    synchronized long getUndecodable() {
+        return undecodable;
+    }
+
+    //null if the hello can't be encoded compactly, e.g. a payload that isn't a neighbor list
+    synchronized byte[] encode(AODVMessage msg) {
+        short[] neighbors = parseNeighbors(msg.payload);
+        AODVHeader header = msg.header;
+        if (neighbors == null || (header.flags & AODVHeader.FLAG_CLUSTER) != 0 || header.destAddr != 0 || header.destSeqNum != 0 || header.bcastSeqNum != 0
+                || header.hopCnt != 0) {
+            return null;
+        }
+        String payload = msg.payload != null ? msg.payload : "";
+        boolean keyframe = sinceKeyframe >= KEYFRAME_HELLOS;
+        int bitmap = 0;
+        if (keyframe) {
+            bitmap |= KEYFRAME;
+            self.id++;
+            sinceKeyframe = 0;
+        }
+        sinceKeyframe++;
+        if (header.srcAddr != header.sendAddr) {
+            bitmap |= SRC_ADDR;
+        }
+        if (header.sendDevType != AODVDeviceType.AND) {
+            bitmap |= DEV_TYPE;
+        }
+        if (keyframe ? header.srcSeqNum != 0 : header.srcSeqNum != self.seqNum) {
+            bitmap |= SEQ;
+        }
+        if (keyframe ? !payload.isEmpty() : !payload.equals(self.neighbors)) {
+            bitmap |= NEIGHBORS;
+        }
+        if ((header.flags & AODVHeader.FLAG_AUTH) != 0) {
+            bitmap |= AUTH;
+        }
+        if ((header.flags & AODVHeader.FLAG_DEFLATE) != 0) {
+            bitmap |= DEFLATE;
+        }
+        if ((header.flags & AODVHeader.FLAG_PACKET_DATA) != 0) {
+            bitmap |= PACKET_DATA;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(16 + 3 * neighbors.length + 17);
+        buf.put(MAGIC).put((byte) bitmap);
+        putVarint(buf, header.sendAddr & 0xFFFF);
+        buf.put(self.id);
+        if ((bitmap & SRC_ADDR) != 0) {
+            putVarint(buf, header.srcAddr & 0xFFFF);
+        }
+        if ((bitmap & DEV_TYPE) != 0) {
+            buf.put(header.sendDevType.getValue());
+        }
+        if ((bitmap & SEQ) != 0) {
+            if (keyframe) {
+                putVarint(buf, header.srcSeqNum & 0xFFFF);
+            } else {
+                putVarint(buf, zigzag((short) (header.srcSeqNum - self.seqNum)));
+            }
+        }
+        if ((bitmap & NEIGHBORS) != 0) {
+            putVarint(buf, neighbors.length);
+            short previous = 0;
+            for (short address : neighbors) {
+                putVarint(buf, zigzag((short) (address - previous)));
+                previous = address;
+            }
+        }
+        if ((bitmap & AUTH) != 0) {
+            buf.putLong(header.authCounter).putLong(header.authTag);
+        }
+        byte otherFlags = (byte) (header.flags & ~BITMAP_FLAGS);
+        if (otherFlags != 0) {
+            buf.put(otherFlags);
+        }
+        if (keyframe) {
+            self.seqNum = header.srcSeqNum;
+            self.neighbors = payload;
+        }
+        byte[] bytes = new byte[buf.position()];
+        buf.flip();
+        buf.get(bytes);
+        return bytes;
+    }
+
+    //null if malformed or if it refers to a keyframe we missed
+    synchronized AODVMessage decode(byte[] bytes, int offset, int length) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes, offset, length);
+        try {
+            if (buf.get() != MAGIC) {
+                return null;
+            }
+            int bitmap = buf.get() & 0xFF;
+            AODVMessage msg = new AODVMessage();
+            AODVHeader header = msg.header;
+            header.type = AODVMessageType.HELO;
+            header.flags = AODVHeader.FLAG_COMPACT_HELLO;
+            if ((bitmap & DEFLATE) != 0) {
+                header.flags |= AODVHeader.FLAG_DEFLATE;
+            }
+            if ((bitmap & PACKET_DATA) != 0) {
+                header.flags |= AODVHeader.FLAG_PACKET_DATA;
+            }
+            header.sendAddr = (short) getVarint(buf);
+            header.nextAddr = (short) 0xFFFF; //always a broadcast
+            byte id = buf.get();
+            header.srcAddr = (bitmap & SRC_ADDR) != 0 ? (short) getVarint(buf) : header.sendAddr;
+            header.sendDevType = (bitmap & DEV_TYPE) != 0 ? AODVDeviceType.valueOf(buf.get()) : AODVDeviceType.AND;
+
+            boolean keyframe = (bitmap & KEYFRAME) != 0;
+            Reference reference = peers.get(header.sendAddr);
+            if (!keyframe && (reference == null || reference.id != id)) {
+                undecodable++;
+                return null;
+            }
+            if ((bitmap & SEQ) != 0) {
+                int value = getVarint(buf);
+                header.srcSeqNum = keyframe ? (short) value : (short) (reference.seqNum + unzigzag(value));
+            } else {
+                header.srcSeqNum = keyframe ? 0 : reference.seqNum;
+            }
+            if ((bitmap & NEIGHBORS) != 0) {
+                int count = getVarint(buf);
+                if (count > buf.remaining()) {
+                    return null;
+                }
+                StringBuilder payload = new StringBuilder();
+                short address = 0;
+                for (int i = 0; i < count; i++) {
+                    address = (short) (address + unzigzag(getVarint(buf)));
+                    payload.append(i > 0 ? "," : "").append(address);
+                }
+                msg.payload = payload.toString();
+            } else {
+                msg.payload = keyframe ? "" : reference.neighbors;
+            }
+            if ((bitmap & AUTH) != 0) {
+                header.flags |= AODVHeader.FLAG_AUTH;
+                header.authCounter = buf.getLong();
+                header.authTag = buf.getLong();
+            }
+            if (buf.hasRemaining()) {
+                header.flags |= buf.get() & ~BITMAP_FLAGS;
+            }
+            header.length = (short) msg.payload.length();
+            if (keyframe) {
+                if (reference == null) {
+                    reference = new Reference();
+                    peers.put(header.sendAddr, reference);
+                }
+                reference.id = id;
+                reference.seqNum = header.srcSeqNum;
+                reference.neighbors = msg.payload;
+            }
+            return msg;
+        } catch (BufferUnderflowException e) {
+            AODVLog.d(TAG, "decode: truncated compact hello");
+            return null;
+        }
+    }
+
+    //same format initHELLO writes, null if it isn't one
+    private static short[] parseNeighbors(String payload) {
+        if (payload == null || payload.isEmpty()) {
+            return new short[0];
+        }
+        String[] fields = payload.split(",");
+        short[] addresses = new short[fields.length];
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                addresses[i] = Short.parseShort(fields[i]);
+                //anything that wouldn't print back the same can't be rebuilt on the other side
+                if (!Short.toString(addresses[i]).equals(fields[i])) {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return addresses;
+    }
+
+    private static int zigzag(short value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static short unzigzag(int value) {
+        return (short) ((value >>> 1) ^ -(value & 1));
+    }
+
+    private static void putVarint(ByteBuffer buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0; shift < 21; shift += 7) {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new BufferUnderflowException();
+    }
+
+}
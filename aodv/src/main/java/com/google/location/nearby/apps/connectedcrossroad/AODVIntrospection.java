@@ -0,0 +1,214 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets tools look into a running router over a TCP port on the loopback interface, so only
+ * processes on the same device can connect. One command per line:
+ *
+ *   SNAPSHOT   AODVSnapshot.toText(), ending with "end"
+ *   JSON       AODVSnapshot.toJson() on one line
+ *   SUBSCRIBE  "event TIME ROUTE 5 via 2, 3 hops" lines for route and neighbor changes until
+ *              the client disconnects, read from the router's AODVEventBus, so a slow client
+ *              loses events rather than holding up routing
+ *   QUIT
+ *
+ * Each client has its own thread, a snapshot holds routeTableLock only while it is copied.
+ */
+public class AODVIntrospection {
+
+    private static final String TAG = "connectedcrossroad";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    //events a subscribed client may fall behind by
+    private static final int SUBSCRIBER_CAPACITY = 1024;
+    //collects events for this long before writing them out
+    private static final long BATCH_MILLIS = 50;
+
+    private final AODVRouter router;
+    private final int port;
+    private final List<Socket> clients = new ArrayList<>();
+    private volatile ServerSocket serverSocket;
+
+    //port 0 picks a free one, see getPort
+    public AODVIntrospection(AODVRouter router, int port) {
+        this.router = router;
+        this.port = port;
+    }
+
+    public void start() throws IOException {
+        final ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        serverSocket = socket;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!socket.isClosed()) {
+                    try {
+                        serve(socket.accept());
+                    } catch (IOException e) {
+                        if (!socket.isClosed()) {
+                            AODVLog.e(TAG, "AODVIntrospection: " + e.getMessage());
+                        }
+                    }
+                }
+            }
+        }, "aodv-introspection");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        ServerSocket socket = serverSocket;
+        return socket != null ? socket.getLocalPort() : port;
+    }
+
+    //stops accepting and disconnects every client
+    public void close() {
+        ServerSocket socket = serverSocket;
+        serverSocket = null;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            AODVLog.e(TAG, "close: " + e.getMessage());
+        }
+        List<Socket> clients;
+        synchronized (this.clients) {
+            clients = new ArrayList<>(this.clients);
+            this.clients.clear();
+        }
+        for (Socket client : clients) {
+            closeQuietly(client);
+        }
+    }
+
+    private void serve(final Socket client) {
+        synchronized (clients) {
+            clients.add(client);
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                AODVEventBus.Subscription subscription = null;
+                ScheduledExecutorService writer = null;
+                try {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), UTF_8));
+                    OutputStream out = client.getOutputStream();
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        String command = line.trim().toUpperCase(Locale.US);
+                        if (command.isEmpty()) {
+                            continue;
+                        } else if (command.equals("SNAPSHOT")) {
+                            write(out, router.snapshot().toText());
+                        } else if (command.equals("JSON")) {
+                            write(out, router.snapshot().toJson() + "\n");
+                        } else if (command.equals("SUBSCRIBE")) {
+                            if (subscription == null) {
+                                writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                                    @Override
+                                    public Thread newThread(Runnable r) {
+                                        Thread thread = new Thread(r, "aodv-introspection-events");
+                                        thread.setDaemon(true);
+                                        return thread;
+                                    }
+                                });
+                                subscription = subscribe(client, out, writer);
+                            }
+                        } else if (command.equals("QUIT")) {
+                            break;
+                        } else {
+                            write(out, "error unknown command " + command + "\n");
+                        }
+                    }
+                } catch (IOException e) {
+                    //the client went away
+                } finally {
+                    if (subscription != null) {
+                        subscription.unsubscribe();
+                        writer.shutdownNow();
+                    }
+                    synchronized (clients) {
+                        clients.remove(client);
+                    }
+                    closeQuietly(client);
+                }
+            }
+        }, "aodv-introspection-client");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    //writer is the client's own thread, the bus's would wait on a stuck client
+    private AODVEventBus.Subscription subscribe(final Socket client, final OutputStream out,
+                                                final ScheduledExecutorService writer) {
+        AODVEventBus.Filter routing = new AODVEventBus.Filter() {
+            @Override
+            public boolean accept(AODVEvent event) {
+                return event.type == AODVEvent.Type.ROUTE || event.type == AODVEvent.Type.NEIGHBORS;
+            }
+        };
+        return router.getEvents().subscribe(new AODVEventBus.Subscriber() {
+            @Override
+            public void onEvents(List<AODVEvent> events) {
+                StringBuilder lines = new StringBuilder();
+                for (AODVEvent event : events) {
+                    lines.append("event ").append(event.timeMillis).append(' ').append(event).append('\n');
+                }
+                try {
+                    write(out, lines.toString());
+                } catch (IOException e) {
+                    //ends the client's read loop, which unsubscribes
+                    closeQuietly(client);
+                }
+            }
+        }, routing, new AODVEventBus.Scheduler() {
+            @Override
+            public void schedule(Runnable task, long delayMillis) {
+                try {
+                    writer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    //the client is gone
+                }
+            }
+        }, BATCH_MILLIS, SUBSCRIBER_CAPACITY);
+    }
+
+    //snapshots and events share the stream, whole lines only
+    private static void write(OutputStream out, String text) throws IOException {
+        synchronized (out) {
+            out.write(text.getBytes(UTF_8));
+            out.flush();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //closing anyway
+        }
+    }
+
+}
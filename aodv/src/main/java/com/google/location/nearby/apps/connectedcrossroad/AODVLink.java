@@ -0,0 +1,102 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.util.Locale;
+
+/**
+ * How well one interface, CC or UDP, reaches one neighbor. Hellos give the delivery ratio:
+ * each gap between two of them says how many were lost. Acknowledged DATA to the neighbor
+ * itself gives the round trip, and whether it came back at all. DATA sent over it gives the
+ * throughput.
+ *
+ * Not thread-safe, the router only touches it while holding routeTableLock.
+ */
+class AODVLink {
+
+    //weight of the newest sample
+    private static final double ALPHA = 0.25;
+    //hello intervals without a hello before the link counts as down
+    private static final double HELLO_LOSS = 2.5;
+    //below this the link counts as down even if hellos still trickle in
+    private static final double MIN_DELIVERY = 0.3;
+    private static final long THROUGHPUT_WINDOW = 1000;
+
+    private final double defaultLatency; //until the first acknowledgement, in ms
+    private long lastHello = 0L;
+    private double helloRatio = 1;
+    private double ackRatio = 1;
+    private double latency = Double.NaN; //round trip in ms
+    private long windowStart = 0L;
+    private long windowBytes = 0L;
+    private double throughput = 0; //bytes per second
+
+    AODVLink(double defaultLatency) {
+        this.defaultLatency = defaultLatency;
+    }
+
+    void onHello(long timeMillis, long helloInterval) {
+        if (lastHello != 0) {
+            //a gap of n intervals means n - 1 hellos got lost
+            double sample = Math.min(1, (double) helloInterval / Math.max(1, timeMillis - lastHello));
+            helloRatio += ALPHA * (sample - helloRatio);
+        }
+        lastHello = timeMillis;
+    }
+
+    void onAck(double roundTripMillis) {
+        ackRatio += ALPHA * (1 - ackRatio);
+        latency = Double.isNaN(latency) ? roundTripMillis : latency + ALPHA * (roundTripMillis - latency);
+    }
+
+    void onAckLost() {
+        ackRatio -= ALPHA * ackRatio;
+    }
+
+    void onSent(long timeMillis, int bytes) {
+        if (timeMillis - windowStart >= THROUGHPUT_WINDOW) {
+            double rate = windowStart == 0 ? 0 : windowBytes * 1000.0 / (timeMillis - windowStart);
+            //a window with nothing sent counts, so throughput decays when traffic stops
+            throughput += ALPHA * (rate - throughput);
+            windowStart = timeMillis;
+            windowBytes = 0;
+        }
+        windowBytes += bytes;
+    }
+
+    double getDeliveryRatio() {
+        return helloRatio * ackRatio;
+    }
+
+    //NaN until the first acknowledgement
+    double getLatency() {
+        return latency;
+    }
+
+    double getThroughput() {
+        return throughput;
+    }
+
+    //0 until the first hello
+    long getLastHello() {
+        return lastHello;
+    }
+
+    boolean isUp(long timeMillis, long helloInterval) {
+        return lastHello != 0 && timeMillis - lastHello < HELLO_LOSS * helloInterval
+                && getDeliveryRatio() >= MIN_DELIVERY;
+    }
+
+    //expected ms to get a packet across, retries for lost ones included, infinite when down
+    double cost(long timeMillis, long helloInterval) {
+        if (!isUp(timeMillis, helloInterval)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return (Double.isNaN(latency) ? defaultLatency : latency) / getDeliveryRatio();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "delivery=%.2f rtt=%.1fms throughput=%.0fB/s",
+                getDeliveryRatio(), latency, throughput);
+    }
+
+}
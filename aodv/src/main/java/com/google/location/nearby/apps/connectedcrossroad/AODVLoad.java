@@ -0,0 +1,107 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+/**
+ * How busy a node is relaying, from 0 to MAX, for route discovery to steer new flows around
+ * busy nodes. It is the higher of the DATA relayed per second against the node's capacity and
+ * the received messages waiting to be handled against BACKLOG_FULL.
+ *
+ * RREQs and RREPs carry the highest load on their path at the end of the payload, after '~'.
+ * A node above IDLE_LOAD waits before rebroadcasting an RREQ, longer the busier it is, so the
+ * first copy to reach the destination came the quiet way. A node at SKIP_LOAD doesn't rebroadcast at all if
+ * the sender has other neighbors to carry it. The destination answers later copies too if their
+ * path is lighter by MARGIN, with a newer seq num, so the originator switches to that path.
+ *
+ * Times are passed in, so the simulator can run it on virtual time. Not thread-safe, the router
+ * only touches it while holding routeTableLock.
+ */
+public class AODVLoad {
+
+    public static final int MAX = 100;
+    //load up to which RREQs are rebroadcast right away
+    public static final int IDLE_LOAD = 25;
+    //load above which RREQs aren't rebroadcast
+    public static final int SKIP_LOAD = 90;
+    //how much lighter a later RREQ's path has to be for the destination to answer it too
+    public static final int MARGIN = 20;
+    //received messages waiting that count as fully loaded
+    static final int BACKLOG_FULL = 64;
+    //weight of the newest second
+    private static final double ALPHA = 0.5;
+    private static final long WINDOW = 1000;
+    private static final char MARKER = '~';
+
+    private final int capacity;
+    private long windowStart = 0L;
+    private int windowCount = 0;
+    private double rate = 0; //DATA relayed per second
+
+    //capacity is the DATA per second that counts as fully loaded
+    public AODVLoad(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public void onForwarded(long timeMillis) {
+        roll(timeMillis);
+        windowCount++;
+    }
+
+    private void roll(long timeMillis) {
+        if (windowStart == 0) {
+            windowStart = timeMillis;
+        } else if (timeMillis - windowStart >= WINDOW) {
+            //seconds with nothing relayed count, so load decays when traffic stops
+            long windows = (timeMillis - windowStart) / WINDOW;
+            rate += ALPHA * (windowCount - rate);
+            for (long i = 1; i < Math.min(windows, 8); i++) {
+                rate -= ALPHA * rate;
+            }
+            windowStart += windows * WINDOW;
+            windowCount = 0;
+        }
+    }
+
+    public double getRate(long timeMillis) {
+        roll(timeMillis);
+        return rate;
+    }
+
+    //backlog is the number of received messages waiting to be handled
+    public int get(long timeMillis, int backlog) {
+        double relayed = getRate(timeMillis) / capacity;
+        double waiting = (double) backlog / BACKLOG_FULL;
+        return (int) Math.min(MAX, Math.round(Math.max(relayed, waiting) * MAX));
+    }
+
+    //how long a node with this load waits before rebroadcasting an RREQ, from none at IDLE_LOAD to 4 jitters at MAX
+    public static long rebroadcastDelay(int load, long jitter) {
+        return Math.max(0, load - IDLE_LOAD) * 4 * jitter / (MAX - IDLE_LOAD);
+    }
+
+    //payload with its load replaced by load
+    public static String append(String payload, int load) {
+        return strip(payload) + MARKER + load;
+    }
+
+    //the path load at the end of an RREQ or RREP payload, 0 if there is none
+    public static int parse(String payload) {
+        int start = payload != null ? payload.lastIndexOf(MARKER) : -1;
+        if (start < 0) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Math.min(MAX, Integer.parseInt(payload.substring(start + 1))));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    //payload without its load
+    public static String strip(String payload) {
+        if (payload == null) {
+            return "";
+        }
+        int start = payload.lastIndexOf(MARKER);
+        return start < 0 ? payload : payload.substring(0, start);
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+/**
+ * Minimal logging facade so the routing core does not depend on android.util.Log.
+ * The Android app routes it to Logcat, JVM tools print to stdout.
+ */
+public final class AODVLog {
+
+    //same values as android.util.Log
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int ERROR = 6;
+
+    public interface Printer {
+        void print(int priority, String tag, String msg);
+    }
+
+    private static volatile Printer printer = new Printer() {
+        @Override
+        public void print(int priority, String tag, String msg) {
+            System.out.println(tag + ": " + msg);
+        }
+    };
+
+    private static volatile int minPriority = DEBUG;
+
+    private AODVLog() {}
+
+    public static void setPrinter(Printer printer) {
+        AODVLog.printer = printer;
+    }
+
+    public static void setMinPriority(int priority) {
+        AODVLog.minPriority = priority;
+    }
+
+    public static void d(String tag, String msg) {
+        if (minPriority <= DEBUG) printer.print(DEBUG, tag, msg);
+    }
+
+    public static void i(String tag, String msg) {
+        if (minPriority <= INFO) printer.print(INFO, tag, msg);
+    }
+
+    public static void e(String tag, String msg) {
+        if (minPriority <= ERROR) printer.print(ERROR, tag, msg);
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.io.Serializable;
+
+public class AODVMessage implements Serializable {
+
+    public AODVHeader header;
+    public String payload;
+    public byte[] body; //compressed payload on DATA with FLAG_DEFLATE or FLAG_DICTIONARY, payload is null then
+
+    public AODVMessage() {
+        this.header = new AODVHeader();
+        this.payload = null;
+        this.body = null;
+    }
+
+}
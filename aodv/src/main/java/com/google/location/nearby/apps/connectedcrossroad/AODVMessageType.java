@@ -0,0 +1,33 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+//numbers don't really mean anything, for compatibility with C version
+public enum AODVMessageType implements Serializable {
+    NONE((byte) 0),
+    RREQ((byte) 120),
+    RREP((byte) 121),
+    RERR((byte) 122),
+    HELO((byte) 123),
+    DATA((byte) 124),
+    MACT((byte) 125), //multicast activation, grafts or prunes a branch of a group's tree
+    GRPH((byte) 126); //group hello, sent down a group's tree by its leader
+
+    private final byte id;
+    private static final Map<Byte, AODVMessageType> valToType = new HashMap<>();
+    static {
+        for (AODVMessageType type : AODVMessageType.values()) {
+            valToType.put(type.getValue(), type);
+        }
+    }
+
+    AODVMessageType(byte id) { this.id = id; }
+
+    public byte getValue() { return id; }
+
+    public static AODVMessageType valueOf(byte id) {
+        return valToType.containsKey(id) ? valToType.get(id) : NONE;
+    }
+}
@@ -0,0 +1,229 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Chooses which Nearby endpoints to keep as CC neighbors within the maxNeighbors budget.
+ * Neighbors are scored by link quality (hellos heard against hellos expected), by how many
+ * addresses only they bring within two hops (from the neighbor lists in their hellos) and by
+ * their own neighbor count as a measure of load. Discovered endpoints are remembered as
+ * candidates, and the weakest neighbor is swapped for a candidate that clearly scores higher.
+ *
+ * Not thread safe, the router calls it with routeTableLock held.
+ */
+class AODVNeighborManager {
+
+    private static final String TAG = "connectedcrossroad";
+
+    private static final double QUALITY_WEIGHT = 1.0;
+    private static final double COVERAGE_WEIGHT = 1.0;
+    private static final double LOAD_WEIGHT = 0.5;
+    //a candidate has to beat the weakest neighbor by this much, so links don't flap
+    private static final double SWAP_MARGIN = 0.5;
+    //assumed for a candidate until we hear its hellos
+    private static final double UNKNOWN_QUALITY = 0.5;
+    private static final double UNKNOWN_LOAD = 0.5;
+    //new neighbors get this many hello intervals before they can be swapped out
+    private static final int GRACE_HELLOS = 3;
+    //at most one swap per this many hello intervals
+    private static final int REBALANCE_HELLOS = 5;
+    private static final long PENDING_TIMEOUT = 30000;
+    //an evicted endpoint is not reconnected for this long
+    private static final long EVICTED_COOLDOWN = 60000;
+
+    private static class Candidate {
+
+        String endpointId;
+        short address;
+        long pendingSince; //0 if we have not requested a connection
+        long evictedAt;
+
+    }
+
+    //the router's CC neighbors, key is endpointId
+    private final Map<String, AODVRoute> neighbors;
+    private final AODVRoute self;
+
+    //discovered endpoints that are not neighbors, key is endpointId
+    private final Map<String, Candidate> candidates = new HashMap<>();
+    private long lastSwap = 0L;
+
+    AODVNeighborManager(Map<String, AODVRoute> neighbors, AODVRoute self) {
+        this.neighbors = neighbors;
+        this.self = self;
+    }
+
+    //remember the endpoint and say whether to connect to it now
+    boolean onEndpointFound(String endpointId, short address, AODVConfig config) {
+        long now = System.currentTimeMillis();
+        Candidate candidate = candidates.get(endpointId);
+        if (candidate == null) {
+            candidate = new Candidate();
+            candidate.endpointId = endpointId;
+            candidates.put(endpointId, candidate);
+        }
+        candidate.address = address;
+        if (isPending(candidate, now) || now - candidate.evictedAt < EVICTED_COOLDOWN) {
+            return false;
+        }
+        if (neighbors.size() + pendingCount(now) < config.maxNeighbors) {
+            candidate.pendingSince = now;
+            return true;
+        }
+        //full, only reach out if it would replace the weakest neighbor when it connects
+        if (canSwap(now, config) && replaceable(candidate, now, config) != null) {
+            candidate.pendingSince = now;
+            lastSwap = now;
+            AODVLog.d(TAG, "onEndpointFound: " + address + " could replace a weaker neighbor");
+            return true;
+        }
+        return false;
+    }
+
+    void onEndpointLost(String endpointId) {
+        candidates.remove(endpointId);
+    }
+
+    /**
+     * Called when a connection completes with the table already full. Returns the endpointId of
+     * the neighbor to drop to make room, or null if the new endpoint should be turned away.
+     */
+    String chooseEviction(String endpointId, short address, AODVConfig config) {
+        Candidate candidate = candidates.get(endpointId);
+        if (candidate == null) {
+            candidate = new Candidate();
+            candidate.endpointId = endpointId;
+            candidate.address = address;
+        }
+        return replaceable(candidate, System.currentTimeMillis(), config);
+    }
+
+    void onNeighborAdded(String endpointId) {
+        candidates.remove(endpointId);
+    }
+
+    //the neighbor is still discoverable, keep it as a candidate but don't reconnect straight away
+    void onNeighborEvicted(String endpointId, short address) {
+        Candidate candidate = new Candidate();
+        candidate.endpointId = endpointId;
+        candidate.address = address;
+        candidate.evictedAt = System.currentTimeMillis();
+        candidates.put(endpointId, candidate);
+    }
+
+    //the best candidate to connect to in place of the weakest neighbor, or null
+    String rebalance(AODVConfig config) {
+        long now = System.currentTimeMillis();
+        for (Candidate candidate : candidates.values()) {
+            if (candidate.pendingSince != 0 && now - candidate.pendingSince >= PENDING_TIMEOUT) {
+                candidate.pendingSince = 0;
+            }
+        }
+        if (neighbors.size() < config.maxNeighbors || !canSwap(now, config) || pendingCount(now) > 0) {
+            return null;
+        }
+        Candidate best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        Set<Short> covered = coveredAddresses(null);
+        for (Candidate candidate : candidates.values()) {
+            if (now - candidate.evictedAt < EVICTED_COOLDOWN) {
+                continue;
+            }
+            double score = candidateScore(candidate, covered);
+            if (score > bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        if (best == null || replaceable(best, now, config) == null) {
+            return null;
+        }
+        best.pendingSince = now;
+        lastSwap = now;
+        AODVLog.d(TAG, String.format("rebalance: trying %d (score %.2f) in place of the weakest neighbor",
+                best.address, bestScore));
+        return best.endpointId;
+    }
+
+    //the weakest evictable neighbor if the candidate beats it by the margin, else null
+    private String replaceable(Candidate candidate, long now, AODVConfig config) {
+        String weakest = null;
+        double weakestScore = Double.POSITIVE_INFINITY;
+        for (Map.Entry<String, AODVRoute> entry : neighbors.entrySet()) {
+            AODVRoute neighbor = entry.getValue();
+            if (now - neighbor.connectedAt < GRACE_HELLOS * config.helloInterval) {
+                continue;
+            }
+            double score = neighborScore(entry.getKey(), neighbor, now, config);
+            if (score < weakestScore) {
+                weakest = entry.getKey();
+                weakestScore = score;
+            }
+        }
+        if (weakest == null) {
+            return null;
+        }
+        //score the candidate as if the weakest were already gone
+        double candidateScore = candidateScore(candidate, coveredAddresses(weakest));
+        return candidateScore > weakestScore + SWAP_MARGIN ? weakest : null;
+    }
+
+    private double neighborScore(String endpointId, AODVRoute neighbor, long now, AODVConfig config) {
+        long expected = Math.max(1, (now - neighbor.connectedAt) / config.helloInterval);
+        double quality = Math.min(1.0, (double) neighbor.helloCount / expected);
+        //addresses within two hops that no other neighbor gives us
+        Set<Short> others = coveredAddresses(endpointId);
+        int unique = others.contains(neighbor.address) ? 0 : 1;
+        for (short address : neighbor.twoHop) {
+            if (address != self.address && !others.contains(address)) {
+                unique++;
+            }
+        }
+        double load = Math.min(1.0, (double) neighbor.twoHop.length / config.maxNeighbors);
+        return QUALITY_WEIGHT * quality + COVERAGE_WEIGHT * unique - LOAD_WEIGHT * load;
+    }
+
+    private double candidateScore(Candidate candidate, Set<Short> covered) {
+        //an endpoint none of our neighbors can see is likely to open up a new part of the mesh
+        int unique = covered.contains(candidate.address) ? 0 : 2;
+        return QUALITY_WEIGHT * UNKNOWN_QUALITY + COVERAGE_WEIGHT * unique - LOAD_WEIGHT * UNKNOWN_LOAD;
+    }
+
+    //addresses of the neighbors and their neighbors, leaving out one neighbor if excludedId is set
+    private Set<Short> coveredAddresses(String excludedId) {
+        Set<Short> covered = new HashSet<>();
+        for (Map.Entry<String, AODVRoute> entry : neighbors.entrySet()) {
+            AODVRoute neighbor = entry.getValue();
+            if (entry.getKey().equals(excludedId)) {
+                continue;
+            }
+            covered.add(neighbor.address);
+            for (short address : neighbor.twoHop) {
+                covered.add(address);
+            }
+        }
+        return covered;
+    }
+
+    private boolean canSwap(long now, AODVConfig config) {
+        return now - lastSwap >= REBALANCE_HELLOS * config.helloInterval;
+    }
+
+    private boolean isPending(Candidate candidate, long now) {
+        return candidate.pendingSince != 0 && now - candidate.pendingSince < PENDING_TIMEOUT;
+    }
+
+    private int pendingCount(long now) {
+        int pending = 0;
+        for (Candidate candidate : candidates.values()) {
+            if (isPending(candidate, now)) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+}
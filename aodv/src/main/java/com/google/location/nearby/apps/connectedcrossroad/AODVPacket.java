@@ -0,0 +1,221 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Mapping between the Java AODVMessage and the C tAODVPacket used by the MK6 nodes over UDP.
+ */
+public final class AODVPacket {
+
+    private static final String TAG = "connectedcrossroad";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final int AODV_HEADER_SIZE = 20; //bytes for UDP header
+    public static final int AUTH_TRAILER_SIZE = 16; //authCounter and authTag after the payload
+
+    //header fields read or rewritten in place when forwarding, see patchForward
+    private static final int FLAGS_OFFSET = 1;
+    private static final int SRC_ADDR_OFFSET = 2;
+    private static final int DEST_ADDR_OFFSET = 6;
+    private static final int DEST_SEQ_NUM_OFFSET = 8;
+    private static final int NEXT_ADDR_OFFSET = 10;
+    private static final int SEND_ADDR_OFFSET = 12;
+    private static final int SEND_DEV_TYPE_OFFSET = 14;
+
+    private AODVPacket() {}
+
+    //map from Java AODVMessage to C tAODVPacket
+    public static byte[] serializeAODVPacket(AODVMessage msg) {
+        byte[] bytes = null;
+        try {
+            ByteBuffer packet = ByteBuffer.allocate(encodedLength(msg));
+            write(packet, msg);
+            bytes = packet.array();
+        } catch (BufferOverflowException e) {
+            AODVLog.d(TAG, "serializeAODVPacket: buffer overflow");
+        }
+        return bytes;
+    }
+
+    //map from C tAODVPacket to Java AODVMessage
+    public static AODVMessage deserializeAODVPacket(byte[] bytes) {
+        return deserializeAODVPacket(ByteBuffer.wrap(bytes));
+    }
+
+    public static AODVMessage deserializeAODVPacket(ByteBuffer packet) {
+        AODVMessage msg = new AODVMessage();
+        try {
+            msg.header.type = AODVMessageType.valueOf(packet.get());
+            msg.header.flags = packet.get(); //placeholder in tAODVPacket, zero from the C peer
+            msg.header.srcAddr = packet.getShort();
+            msg.header.srcSeqNum = packet.getShort();
+            msg.header.destAddr = packet.getShort();
+            msg.header.destSeqNum = packet.getShort();
+            msg.header.nextAddr = packet.getShort();
+            msg.header.sendAddr = packet.getShort();
+            msg.header.sendDevType = AODVDeviceType.valueOf(packet.get());
+            msg.header.bcastSeqNum = packet.getShort();
+            msg.header.hopCnt = packet.get();
+            msg.header.length = packet.getShort();
+            byte[] data = new byte[msg.header.length];
+            packet.get(data, 0, data.length);
+            if (AODVCompression.isCompressed(msg)) {
+                msg.body = data;
+            } else {
+                msg.payload = new String(data, UTF_8);
+            }
+            if ((msg.header.flags & AODVHeader.FLAG_AUTH) != 0) {
+                msg.header.authCounter = packet.getLong();
+                msg.header.authTag = packet.getLong();
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            msg = null;
+            AODVLog.d(TAG, "deserializeAODVPacket: buffer underflow");
+        }
+        return msg;
+    }
+
+    //a DATA tAODVPacket, as opposed to other types, compact hellos or Java serialization
+    public static boolean isData(byte[] bytes, int length) {
+        return length >= AODV_HEADER_SIZE && bytes[0] == AODVMessageType.DATA.getValue();
+    }
+
+    public static byte getFlags(byte[] packet) {
+        return packet[FLAGS_OFFSET];
+    }
+
+    public static short getSrcAddr(byte[] packet) {
+        return getShort(packet, SRC_ADDR_OFFSET);
+    }
+
+    public static short getDestAddr(byte[] packet) {
+        return getShort(packet, DEST_ADDR_OFFSET);
+    }
+
+    public static short getDestSeqNum(byte[] packet) {
+        return getShort(packet, DEST_SEQ_NUM_OFFSET);
+    }
+
+    public static short getNextAddr(byte[] packet) {
+        return getShort(packet, NEXT_ADDR_OFFSET);
+    }
+
+    public static short getSendAddr(byte[] packet) {
+        return getShort(packet, SEND_ADDR_OFFSET);
+    }
+
+    public static AODVDeviceType getSendDevType(byte[] packet) {
+        return AODVDeviceType.valueOf(packet[SEND_DEV_TYPE_OFFSET]);
+    }
+
+    /**
+     * Rewrites the fields a forwarding hop changes, the same as handing the decoded message to
+     * the next hop would. The payload and the rest of the header stay as they are.
+     */
+    public static void patchForward(byte[] packet, short nextAddr, short sendAddr, AODVDeviceType sendDevType) {
+        putShort(packet, NEXT_ADDR_OFFSET, nextAddr);
+        putShort(packet, SEND_ADDR_OFFSET, sendAddr);
+        packet[SEND_DEV_TYPE_OFFSET] = sendDevType.getValue();
+    }
+
+    //big-endian like ByteBuffer
+    private static short getShort(byte[] packet, int offset) {
+        return (short) ((packet[offset] << 8) | (packet[offset + 1] & 0xFF));
+    }
+
+    private static void putShort(byte[] packet, int offset, short value) {
+        packet[offset] = (byte) (value >> 8);
+        packet[offset + 1] = (byte) value;
+    }
+
+    //number of bytes write() will produce for this message
+    public static int encodedLength(AODVMessage msg) {
+        int length = AODV_HEADER_SIZE + payloadLength(msg);
+        if ((msg.header.flags & AODVHeader.FLAG_AUTH) != 0) {
+            length += AUTH_TRAILER_SIZE;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the message in tAODVPacket layout at the buffer's position without allocating.
+     * The length field is the encoded payload size in bytes, not the header.length char count.
+     * A compressed DATA body goes out as is.
+     */
+    public static void write(ByteBuffer packet, AODVMessage msg) {
+        int payloadLength = payloadLength(msg);
+        packet.put(msg.header.type.getValue())
+                .put(msg.header.flags) //placeholder for compatibility with tAODVPacket
+                .putShort(msg.header.srcAddr)
+                .putShort(msg.header.srcSeqNum)
+                .putShort(msg.header.destAddr)
+                .putShort(msg.header.destSeqNum)
+                .putShort(msg.header.nextAddr)
+                .putShort(msg.header.sendAddr)
+                .put(msg.header.sendDevType.getValue())
+                .putShort(msg.header.bcastSeqNum)
+                .put(msg.header.hopCnt)
+                .putShort((short) payloadLength);
+        if (msg.body != null) {
+            packet.put(msg.body);
+        } else if (msg.payload != null) {
+            putUTF8(packet, msg.payload);
+        }
+        if ((msg.header.flags & AODVHeader.FLAG_AUTH) != 0) {
+            packet.putLong(msg.header.authCounter).putLong(msg.header.authTag);
+        }
+    }
+
+    private static int payloadLength(AODVMessage msg) {
+        return msg.body != null ? msg.body.length : utf8Length(msg.payload);
+    }
+
+    static int utf8Length(String s) {
+        if (s == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void putUTF8(ByteBuffer buf, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else if (c < 0x800) {
+                buf.put((byte) (0xC0 | (c >> 6)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf.put((byte) (0xF0 | (cp >> 18)));
+                buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                buf.put((byte) (0xE0 | (c >> 12)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.net.InetSocketAddress;
+
+class AODVRoute {
+
+    short address; //final destination of route
+    String id;
+    short nextHopAddr;
+    String nextHopId; //for routing control
+    short seqNum;
+    short bcastSeqNum;
+    byte hopCnt;
+    long timeout;
+    int helloCount; //hellos heard from this neighbor, link quality indicator
+    long connectedAt; //when a CC neighbor was added, to judge helloCount against
+    short[] twoHop; //neighbors listed in this neighbor's last hello
+    boolean compactHello; //this neighbor's hellos say it decodes compact hellos
+    boolean deflate; //the destination said it inflates compressed DATA
+    boolean packetData; //this CC neighbor reads DATA in tAODVPacket layout
+    AODVLink link; //quality of the interface a neighbor is reached over, null for multi-hop routes
+    InetSocketAddress udpAddress; //where this UDP neighbor listens, null until a hello from it arrives
+    boolean preferUDP; //a CC neighbor that is also a UDP neighbor is better reached over UDP right now
+    boolean zone; //kept up by AODVZone rather than discovered
+    long discovered; //when an RREQ or RREP set it up, nodes that don't extend lifetimes drop it routeTimeout later
+    int sent; //DATA we originated over it since then
+    int load; //highest AODVLoad on its path, as the RREQ or RREP that set it up said
+    //final Object lock = new Object();
+
+    AODVRoute() {
+        this.address = 0;
+        this.id = null;
+        this.nextHopAddr = 0;
+        this.nextHopId = null;
+        this.seqNum = 0;
+        this.bcastSeqNum = 0;
+        this.hopCnt = 0;
+        this.timeout = 0L;
+        this.helloCount = 0;
+        this.connectedAt = 0L;
+        this.twoHop = new short[0];
+        this.compactHello = false;
+        this.deflate = false;
+        this.packetData = false;
+        this.link = null;
+        this.udpAddress = null;
+        this.preferUDP = false;
+        this.zone = false;
+        this.discovered = 0L;
+        this.sent = 0;
+        this.load = 0;
+    }
+
+}
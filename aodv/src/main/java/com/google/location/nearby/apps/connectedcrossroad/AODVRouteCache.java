@@ -0,0 +1,228 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Fixed size binary snapshot of our own sequence numbers, routes and neighbor link info,
+ * kept in a memory-mapped file so it can be rewritten cheaply while the network is running
+ * and reloaded on the next start.
+ *
+ * The seq nums stored are limits SEQ_NUM_GAP above the ones in use when it was written. The
+ * router saves again as soon as its own reach a limit, so what is stored is always ahead of
+ * anything sent, however often they go up between the periodic saves.
+ */
+class AODVRouteCache {
+
+    private static final String TAG = "connectedcrossroad";
+
+    private static final int MAGIC = 0x414F4456; //"AODV"
+    private static final byte VERSION = 2;
+    //version 1 stored the seq nums in use, which a restart had to guess past
+    private static final byte VERSION_CURRENT_SEQ_NUMS = 1;
+    static final int MAX_ROUTES = 256;
+    static final short SEQ_NUM_GAP = 16;
+
+    //magic, version, address, seqNum, bcastSeqNum, savedAt, count
+    private static final int HEADER_SIZE = 4 + 1 + 2 + 2 + 2 + 8 + 2;
+    //address, nextHopAddr, seqNum, hopCnt, flags, helloCount, remaining lifetime
+    private static final int RECORD_SIZE = 2 + 2 + 2 + 1 + 1 + 4 + 4;
+    private static final int FILE_SIZE = HEADER_SIZE + MAX_ROUTES * RECORD_SIZE;
+
+    static final byte FLAG_UDP_NEIGHBOR = 0x01;
+
+    private final File file;
+    private MappedByteBuffer buffer;
+    //the seq nums the last snapshot reserved up to
+    private short seqNumLimit;
+    private short bcastSeqNumLimit;
+    private boolean reserved = false;
+
+    AODVRouteCache(File file) {
+        this.file = file;
+    }
+
+    //state read back from a snapshot
+    static class Snapshot {
+
+        short address;
+        short seqNum; //where our seq nums resume, at or above any we used
+        short bcastSeqNum;
+        long savedAt;
+        final List<Entry> entries = new ArrayList<>();
+
+    }
+
+    static class Entry {
+
+        AODVRoute route;
+        byte flags;
+        int remaining; //lifetime left in millis when the snapshot was written
+
+    }
+
+    private MappedByteBuffer map() throws IOException {
+        if (buffer == null) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                //the mapping stays valid after the channel is closed
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            } finally {
+                raf.close();
+            }
+        }
+        return buffer;
+    }
+
+    //true once self's seq nums reached the limits, then the snapshot has to be saved before they are used
+    boolean isExhausted(AODVRoute self) {
+        return !reserved || (short) (self.seqNum - seqNumLimit) >= 0
+                || (short) (self.bcastSeqNum - bcastSeqNumLimit) >= 0;
+    }
+
+    //a serialized snapshot, taken under the router's lock and written to the file after it is released
+    static class Image {
+
+        final long generation;
+        //true if it moved the seq num limits, then it has to be written before those are used
+        final boolean reserves;
+        final byte[] bytes;
+
+        Image(long generation, boolean reserves, byte[] bytes) {
+            this.generation = generation;
+            this.reserves = reserves;
+            this.bytes = bytes;
+        }
+
+    }
+
+    private long taken = 0;
+    private long written = 0;
+
+    //the caller keeps self and the routes from changing while this runs
+    Image snapshot(AODVRoute self, Collection<AODVRoute> routes,
+                   Collection<AODVRoute> udpNeighbors) {
+        long now = System.currentTimeMillis();
+        boolean reserves = isExhausted(self);
+        if (reserves) {
+            seqNumLimit = (short) (self.seqNum + SEQ_NUM_GAP);
+            bcastSeqNumLimit = (short) (self.bcastSeqNum + SEQ_NUM_GAP);
+            reserved = true;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(FILE_SIZE);
+        buf.position(HEADER_SIZE);
+        short count = 0;
+        for (AODVRoute neighbor : udpNeighbors) {
+            if (count == MAX_ROUTES) break;
+            putRecord(buf, neighbor, FLAG_UDP_NEIGHBOR, now);
+            count++;
+        }
+        for (AODVRoute route : routes) {
+            if (count == MAX_ROUTES) break;
+            //endpoint ids do not survive a restart, so only routes through UDP next hops are kept
+            if (route.nextHopId == null && route.timeout > now) {
+                putRecord(buf, route, (byte) 0, now);
+                count++;
+            }
+        }
+        int length = buf.position();
+        buf.position(0);
+        buf.putInt(MAGIC)
+                .put(VERSION)
+                .putShort(self.address)
+                .putShort(seqNumLimit)
+                .putShort(bcastSeqNumLimit)
+                .putLong(now)
+                .putShort(count);
+        return new Image(++taken, reserves, Arrays.copyOf(buf.array(), length));
+    }
+
+    //rewrites the file and forces it to storage, unless a later snapshot was written already
+    synchronized void write(Image image) {
+        if (image.generation <= written) {
+            return;
+        }
+        try {
+            MappedByteBuffer buf = map();
+            //invalidate the snapshot while it is being rewritten
+            buf.putInt(0, 0);
+            buf.position(4);
+            buf.put(image.bytes, 4, image.bytes.length - 4);
+            buf.putInt(0, MAGIC);
+            buf.force();
+            written = image.generation;
+            AODVLog.d(TAG, "AODVRouteCache: saved " + (image.bytes.length - HEADER_SIZE) / RECORD_SIZE + " routes");
+        } catch (IOException e) {
+            AODVLog.e(TAG, "AODVRouteCache: failed to save snapshot");
+            e.printStackTrace();
+        }
+    }
+
+    void save(AODVRoute self, Collection<AODVRoute> routes,
+              Collection<AODVRoute> udpNeighbors) {
+        write(snapshot(self, routes, udpNeighbors));
+    }
+
+    private static void putRecord(ByteBuffer buf, AODVRoute route, byte flags, long now) {
+        buf.putShort(route.address)
+                .putShort(route.nextHopAddr)
+                .putShort(route.seqNum)
+                .put(route.hopCnt)
+                .put(flags)
+                .putInt(route.helloCount)
+                .putInt((int) Math.max(0, Math.min(Integer.MAX_VALUE, route.timeout - now)));
+    }
+
+    //returns null if there is no valid snapshot
+    synchronized Snapshot load() {
+        if (!file.exists() || file.length() < FILE_SIZE) {
+            return null;
+        }
+        Snapshot snapshot = null;
+        try {
+            MappedByteBuffer buf = map();
+            buf.position(0);
+            byte version = buf.getInt() == MAGIC ? buf.get() : 0;
+            if (version == VERSION || version == VERSION_CURRENT_SEQ_NUMS) {
+                snapshot = new Snapshot();
+                snapshot.address = buf.getShort();
+                snapshot.seqNum = buf.getShort();
+                snapshot.bcastSeqNum = buf.getShort();
+                if (version == VERSION_CURRENT_SEQ_NUMS) {
+                    snapshot.seqNum += SEQ_NUM_GAP;
+                    snapshot.bcastSeqNum += SEQ_NUM_GAP;
+                }
+                snapshot.savedAt = buf.getLong();
+                int count = Math.min(buf.getShort(), MAX_ROUTES);
+                for (int i = 0; i < count; i++) {
+                    Entry entry = new Entry();
+                    entry.route = new AODVRoute();
+                    entry.route.address = buf.getShort();
+                    entry.route.nextHopAddr = buf.getShort();
+                    entry.route.seqNum = buf.getShort();
+                    entry.route.hopCnt = buf.get();
+                    entry.flags = buf.get();
+                    entry.route.helloCount = buf.getInt();
+                    entry.remaining = buf.getInt();
+                    snapshot.entries.add(entry);
+                }
+            }
+        } catch (IOException | BufferUnderflowException e) {
+            AODVLog.e(TAG, "AODVRouteCache: failed to load snapshot");
+            e.printStackTrace();
+            snapshot = null;
+        }
+        return snapshot;
+    }
+
+}
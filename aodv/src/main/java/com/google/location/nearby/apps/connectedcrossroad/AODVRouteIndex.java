@@ -0,0 +1,224 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Every route the router knows, multi-hop routes as well as UDP and CC neighbors, indexed by
+ * destination address so forwarding takes one lookup. Reverse indices from a neighbor's endpoint
+ * ID or UDP address to the routes through it let losing a neighbor drop just those routes.
+ *
+ * Not thread-safe, the router only touches it while holding routeTableLock.
+ */
+class AODVRouteIndex {
+
+    interface Listener {
+        //what address resolves to changed, route is null when nothing does anymore
+        void onResolved(short address, AODVRoute route);
+    }
+
+    //what an address resolves to, routes first, then UDP and CC neighbors
+    private final Map<Short, AODVRoute> byAddress = new HashMap<>();
+    //only neighbors, UDP first
+    private final Map<Short, AODVRoute> neighborsByAddress = new HashMap<>();
+
+    //multi-hop routes by destination
+    private final Map<Short, AODVRoute> routes = new HashMap<>();
+    //UDP neighbors by address
+    private final Map<Short, AODVRoute> udpNeighbors = new HashMap<>();
+    //CC neighbors by endpointId, and by address once we know it
+    private final Map<String, AODVRoute> ccNeighbors = new HashMap<>();
+    private final Map<Short, AODVRoute> ccNeighborsByAddress = new HashMap<>();
+
+    //destinations of the routes through each neighbor
+    private final Map<String, Set<Short>> viaEndpoint = new HashMap<>();
+    private final Map<Short, Set<Short>> viaUDP = new HashMap<>();
+
+    private Listener listener;
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    AODVRoute get(short address) {
+        return byAddress.get(address);
+    }
+
+    //only one hop routes
+    AODVRoute getNeighbor(short address) {
+        return neighborsByAddress.get(address);
+    }
+
+    AODVRoute getCCNeighbor(String endpointId) {
+        return ccNeighbors.get(endpointId);
+    }
+
+    AODVRoute getUDPNeighbor(short address) {
+        return udpNeighbors.get(address);
+    }
+
+    AODVRoute getCCNeighborByAddress(short address) {
+        return ccNeighborsByAddress.get(address);
+    }
+
+    //read-only views
+    Map<String, AODVRoute> ccNeighbors() {
+        return Collections.unmodifiableMap(ccNeighbors);
+    }
+
+    Collection<AODVRoute> udpNeighbors() {
+        return Collections.unmodifiableCollection(udpNeighbors.values());
+    }
+
+    Collection<AODVRoute> routes() {
+        return Collections.unmodifiableCollection(routes.values());
+    }
+
+    void putRoute(AODVRoute route) {
+        unlink(routes.remove(route.address));
+        routes.put(route.address, route);
+        if (route.nextHopId != null) {
+            dependents(viaEndpoint, route.nextHopId).add(route.address);
+        } else {
+            dependents(viaUDP, route.nextHopAddr).add(route.address);
+        }
+        reindex(route.address);
+    }
+
+    //keyed by nextHopAddr, which is the neighbor's address for one hop routes
+    void putUDPNeighbor(AODVRoute neighbor) {
+        udpNeighbors.put(neighbor.nextHopAddr, neighbor);
+        reindex(neighbor.nextHopAddr);
+    }
+
+    //address is 0 until the neighbor advertised one or sent a hello
+    void putCCNeighbor(AODVRoute neighbor) {
+        ccNeighbors.put(neighbor.id, neighbor);
+        if (neighbor.address != 0) {
+            setAddress(neighbor, neighbor.address);
+        }
+    }
+
+    //a hello told us a CC neighbor's address, the first endpoint claiming an address keeps it
+    void setAddress(AODVRoute neighbor, short address) {
+        if (ccNeighborsByAddress.get(neighbor.address) == neighbor && neighbor.address != address) {
+            ccNeighborsByAddress.remove(neighbor.address);
+            reindex(neighbor.address);
+        }
+        neighbor.address = address;
+        if (!ccNeighborsByAddress.containsKey(address)) {
+            ccNeighborsByAddress.put(address, neighbor);
+            reindex(address);
+        }
+    }
+
+    //the removed route, null if there was none
+    AODVRoute removeRoute(short address) {
+        AODVRoute route = routes.remove(address);
+        if (route == null) {
+            return null;
+        }
+        unlink(route);
+        reindex(address);
+        return route;
+    }
+
+    private void unlink(AODVRoute route) {
+        if (route == null) {
+            return;
+        }
+        if (route.nextHopId != null) {
+            removeDependent(viaEndpoint, route.nextHopId, route.address);
+        } else {
+            removeDependent(viaUDP, route.nextHopAddr, route.address);
+        }
+    }
+
+    //the neighbor and every route through it, returns the routes
+    List<AODVRoute> removeUDPNeighbor(short address) {
+        AODVRoute neighbor = udpNeighbors.remove(address);
+        if (neighbor != null) {
+            reindex(address);
+        }
+        return removeDependents(viaUDP.remove(address));
+    }
+
+    List<AODVRoute> removeCCNeighbor(String endpointId) {
+        AODVRoute neighbor = ccNeighbors.remove(endpointId);
+        if (neighbor != null && ccNeighborsByAddress.get(neighbor.address) == neighbor) {
+            ccNeighborsByAddress.remove(neighbor.address);
+            reindex(neighbor.address);
+        }
+        return removeDependents(viaEndpoint.remove(endpointId));
+    }
+
+    //whatever address resolves to, for RERRs that don't say which kind of route broke
+    void remove(short address) {
+        if (routes.containsKey(address)) {
+            removeRoute(address);
+        } else if (udpNeighbors.containsKey(address)) {
+            removeUDPNeighbor(address);
+        } else if (ccNeighborsByAddress.containsKey(address)) {
+            removeCCNeighbor(ccNeighborsByAddress.get(address).id);
+        }
+    }
+
+    private List<AODVRoute> removeDependents(Set<Short> destinations) {
+        List<AODVRoute> removed = new ArrayList<>();
+        if (destinations == null) {
+            return removed;
+        }
+        for (short destination : destinations) {
+            AODVRoute route = routes.remove(destination);
+            if (route != null) {
+                removed.add(route);
+                reindex(destination);
+            }
+        }
+        return removed;
+    }
+
+    private void reindex(short address) {
+        AODVRoute neighbor = udpNeighbors.get(address);
+        if (neighbor == null) {
+            neighbor = ccNeighborsByAddress.get(address);
+        }
+        AODVRoute route = routes.get(address);
+        if (route == null) {
+            route = neighbor;
+        }
+        put(neighborsByAddress, address, neighbor);
+        AODVRoute old = put(byAddress, address, route);
+        if (old != route && listener != null) {
+            listener.onResolved(address, route);
+        }
+    }
+
+    //returns what address mapped to before
+    private static AODVRoute put(Map<Short, AODVRoute> map, short address, AODVRoute route) {
+        return route != null ? map.put(address, route) : map.remove(address);
+    }
+
+    private static <K> void removeDependent(Map<K, Set<Short>> via, K key, short address) {
+        Set<Short> destinations = via.get(key);
+        if (destinations != null && destinations.remove(address) && destinations.isEmpty()) {
+            via.remove(key);
+        }
+    }
+
+    private static <K> Set<Short> dependents(Map<K, Set<Short>> via, K key) {
+        Set<Short> destinations = via.get(key);
+        if (destinations == null) {
+            destinations = new HashSet<>();
+            via.put(key, destinations);
+        }
+        return destinations;
+    }
+
+}
@@ -0,0 +1,3073 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * AODV routing core shared by the Android app and the JVM tools. It owns the route tables,
+ * the UDP side used to talk to MK6 nodes and the engine thread everything runs on. Nearby Connections traffic
+ * goes through a {@link CCTransport} supplied by the caller.
+ */
+public class AODVRouter {
+
+    private static final String TAG = "connectedcrossroad";
+    private static final short DEFAULT_NAME = 0;
+
+    //also the destination of scoped broadcast DATA
+    private static final short UDP_BROADCAST_ADDR = (short) 0xFFFF;
+
+    private static final long QUEUE_POLLING_TIMEOUT = 5000;
+    private static final long CACHE_SAVE_INTERVAL = 15000;
+    private static final int SEEN_CACHE_SIZE = 1024;
+    //a lone member retries joining at most every routeExpiryInterval << MAX_JOIN_BACKOFF
+    private static final int MAX_JOIN_BACKOFF = 4;
+    //GRPHs a group can miss before its leader is considered gone
+    private static final int GROUP_HELLO_LOSS = 3;
+    //round trips assumed for a link until acknowledgements measure it, Wi-Fi is the faster one
+    private static final double CC_LATENCY = 30;
+    private static final double UDP_LATENCY = 5;
+    //a dual-homed neighbor only moves to the other interface once it is this much cheaper
+    private static final double SWITCH_MARGIN = 0.8;
+    //DATA sent over a route since its discovery that makes it worth rediscovering before it runs out
+    private static final int REFRESH_MIN_SENT = 4;
+    //time for a background RREQ to come back
+    private static final long REFRESH_MARGIN = 500;
+    //an RREQ for queued DATA that brought no route is repeated after this, doubling each time,
+    //RFC 3561 6.3 binary exponential backoff. Queued DATA expiring ends the retries
+    private static final long RREQ_RETRY_WAIT = 1000;
+
+    //sends serialized messages to Nearby Connections endpoints, one payload for all of them
+    public interface CCTransport {
+        void sendCC(List<String> endpointIds, byte[] bytes);
+    }
+
+    //opens and closes Nearby Connections on behalf of the neighbor manager
+    public interface Connector {
+        void requestConnection(String endpointId);
+        void disconnect(String endpointId);
+    }
+
+    //called from the engine thread, not the main thread, see getEvents for decoupled delivery
+    public interface Listener {
+        void onDataReceived(short srcAddr, String data);
+        void onNeighborsChanged();
+    }
+
+    //self routing info
+    private final AODVRoute self;
+
+    //routes, UDP neighbors and CC neighbors, all by address
+    private final AODVRouteIndex routes = new AODVRouteIndex();
+
+    //lock to synchronize threads when modifying route tables
+    private final Object routeTableLock = new Object();
+
+    //data waiting for an RREP, only touched on the engine thread
+    private final List<AODVTxData> dataTxQueue = new ArrayList<>();
+    private boolean dataCheckScheduled = false;
+    //destinations queued DATA waits for a route to, key is destAddr
+    private final Map<Short, AODVDiscovery> discoveries = new HashMap<>();
+    //received messages posted to the engine but not handled yet
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    //sent DATA waiting for an acknowledgement, key is destAddr << 16 | message id
+    private final Map<Integer, AODVSend> awaitingAck = new HashMap<>();
+    //the link DATA to an Android neighbor went over, by the same key, so its acknowledgement times it
+    private final Map<Integer, AODVLink> ackLinks = new HashMap<>();
+    //id for DATA that asks for an acknowledgement or goes to a group, carried in bcastSeqNum
+    private short dataId = 0;
+    //groups we are a member of or forward for, key is group address
+    private final Map<Short, AODVGroup> groups = new HashMap<>();
+    //group DATA already delivered and forwarded, by srcAddr and id
+    private final AODVSeenCache seenGroupData = new AODVSeenCache(SEEN_CACHE_SIZE);
+    //scoped broadcasts already delivered, by srcAddr and id
+    private final AODVSeenCache seenBroadcasts = new AODVSeenCache(SEEN_CACHE_SIZE);
+    //scoped broadcasts waiting out their jitter, key is srcAddr << 16 | id
+    private final Map<Integer, AODVTxBroadcast> pendingBroadcasts = new HashMap<>();
+    private final Random random = new Random();
+    //where we are for AODVGeoScope, NaN until setPosition
+    private double latitude = Double.NaN;
+    private double longitude = Double.NaN;
+
+    //sends CC messages over Nearby Connections
+    private final CCTransport ccTransport;
+    //notified of received data and neighbor changes, may be null
+    private final Listener listener;
+    //the same notifications, queued per subscriber so slow ones don't hold up routing
+    private final AODVEventBus events = new AODVEventBus();
+
+    //picks which endpoints to keep as CC neighbors
+    private final AODVNeighborManager neighborManager;
+    //null when nothing connects on our behalf, e.g. in the JVM tools
+    private volatile Connector connector;
+
+    //snapshot of routes and seq nums for warm restarts, may be null
+    private final AODVRouteCache routeCache;
+    private long lastCacheSave = 0L;
+
+    //packet capture for offline analysis, may be null
+    private volatile AODVCapture capture;
+
+    //signs and verifies control messages when a network key is configured, null otherwise
+    private volatile AODVAuth auth;
+    //compact hellos for neighbors that advertise FLAG_COMPACT_HELLO
+    private final AODVHelloCodec helloCodec = new AODVHelloCodec();
+    //DATA we originate, for destinations that advertise FLAG_DEFLATE
+    private final AODVCompression compression = new AODVCompression();
+    //who heads our cluster and the clusters of remote destinations, when config.clustering is on
+    private final AODVCluster cluster = new AODVCluster(DEFAULT_NAME);
+    //routes kept up proactively within config.zoneRadius hops, null when that is 0
+    private AODVZone zone;
+    //how busy we are relaying, for load-aware route discovery, null when config.forwardCapacity is 0
+    private AODVLoad load;
+    //our neighbor list in the last hello, a change bumps our seq num so zones take the new one
+    private String lastHelloNeighbors = "";
+
+    //replay runs the routing logic without opening any sockets
+    private boolean udpEnabled = true;
+    //take UDP from Android CC neighbors that offer it and pick the better interface per packet
+    private boolean dualHoming = true;
+    //transmissions and bytes put on each interface, a CC payload to n endpoints counts n times
+    private final AtomicLong ccSent = new AtomicLong();
+    private final AtomicLong ccBytes = new AtomicLong();
+    private final AtomicLong udpSent = new AtomicLong();
+    private final AtomicLong udpBytes = new AtomicLong();
+    //messages sent and received by AODVMessageType ordinal, and DATA we relayed, for snapshots
+    private final AtomicLongArray sentByType = new AtomicLongArray(AODVMessageType.values().length);
+    private final AtomicLongArray receivedByType = new AtomicLongArray(AODVMessageType.values().length);
+    private final AtomicLong relayed = new AtomicLong();
+    //answers snapshot requests on a loopback port, null unless config.introspectionPort is set
+    private AODVIntrospection introspection;
+    //timing and sizing, only the runtime-safe parts change after start
+    private volatile AODVConfig config = AODVConfig.DEFAULT;
+    private boolean started = false;
+    //set while running, the UDP, strategy and key changes that wait for the next start
+    private AODVConfig pendingConfig = null;
+    //where UDP messages are sent, the broadcast address unless set
+    private List<InetSocketAddress> udpTargets = null;
+    //config.udpBroadcastAddress resolved, cleared on start in case it changed
+    private volatile List<InetSocketAddress> broadcastTargets = null;
+    //Android devices talk to each other over CC, UDP-only nodes identify as MK6
+    private AODVDeviceType deviceType = AODVDeviceType.AND;
+
+    //sockets for communicating with MK6s over UDP
+    private volatile DatagramSocket listenerSocket;
+    private volatile DatagramSocket senderSocket;
+
+    //runs hellos, route expiry, message handling and sends, one thread so handlers never race
+    private volatile ScheduledExecutorService engine;
+    //blocks in receive, ends when stop() closes listenerSocket
+    private Thread udpServerThread;
+
+    public AODVRouter(CCTransport ccTransport, Listener listener, File routeCacheFile) {
+
+        this.self = new AODVRoute();
+        this.self.address = DEFAULT_NAME;
+        this.ccTransport = ccTransport;
+        this.listener = listener;
+        this.routeCache = routeCacheFile != null ? new AODVRouteCache(routeCacheFile) : null;
+        this.neighborManager = new AODVNeighborManager(routes.ccNeighbors(), self);
+        routes.setListener(new AODVRouteIndex.Listener() {
+            @Override
+            public void onResolved(short address, AODVRoute route) {
+                if (events.hasSubscribers()) {
+                    events.publish(AODVEvent.route(address, route));
+                }
+            }
+        });
+
+    }
+
+    public void start() {
+        ScheduledThreadPoolExecutor engine = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "aodv-engine");
+            }
+        });
+        //on stop, posted work still runs so every send gets its outcome, timers are dropped
+        engine.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        synchronized (routeTableLock) {
+            if (started) {
+                engine.shutdown();
+                AODVLog.d(TAG, "start: already started");
+                return;
+            }
+            started = true;
+            if (pendingConfig != null) {
+                config = pendingConfig;
+                pendingConfig = null;
+                AODVLog.d(TAG, "start: applied config " + config);
+            }
+            broadcastTargets = null;
+            auth = config.networkKey.isEmpty() ? null : AODVAuth.fromHex(config.networkKey);
+            zone = config.zoneRadius >= 2 ? new AODVZone(config.zoneRadius) : null;
+            load = config.forwardCapacity > 0 ? new AODVLoad(config.forwardCapacity) : null;
+        }
+        loadRouteCache();
+        if (udpEnabled) {
+            openUDP();
+        }
+        this.engine = engine;
+        post(helloTask);
+        post(routeExpiryTask);
+        if (config.introspectionPort > 0) {
+            startIntrospection(config.introspectionPort);
+        }
+        AODVLog.d(TAG, "Started AODV router");
+    }
+
+    //waits for work already posted to the engine, after this no callbacks arrive until start
+    public void stop() {
+        ScheduledExecutorService engine;
+        synchronized (routeTableLock) {
+            if (!started) {
+                return;
+            }
+            started = false;
+            engine = this.engine;
+            this.engine = null;
+        }
+        engine.shutdown();
+        if (introspection != null) {
+            introspection.close();
+            introspection = null;
+        }
+        //unblocks the receive thread, anything it still hands over is dropped by post
+        if (listenerSocket != null) {
+            listenerSocket.close();
+        }
+        try {
+            if (!engine.awaitTermination(QUEUE_POLLING_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                AODVLog.e(TAG, "stop: engine did not finish in time");
+            }
+            if (udpServerThread != null) {
+                udpServerThread.join(QUEUE_POLLING_TIMEOUT);
+                udpServerThread = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeUDP();
+        AODVRouteCache.Image image;
+        synchronized (routeTableLock) {
+            pendingCount.set(0);
+            for (AODVTxData txData : dataTxQueue) {
+                if (txData.send != null) {
+                    txData.send.complete(AODVSend.Outcome.CANCELLED);
+                }
+            }
+            dataTxQueue.clear();
+            discoveries.clear();
+            dataCheckScheduled = false;
+            pendingBroadcasts.clear();
+            for (AODVSend send : awaitingAck.values()) {
+                send.complete(AODVSend.Outcome.CANCELLED);
+            }
+            awaitingAck.clear();
+            ackLinks.clear();
+            cluster.clear();
+            if (zone != null) {
+                zone.clear();
+            }
+            //Nearby reports no disconnects for the endpoints stopped with us, and after a restart
+            //these would block reconnecting and take broadcasts to dead endpoints
+            for (String endpointId : new ArrayList<>(routes.ccNeighbors().keySet())) {
+                removeCCRoutes(endpointId);
+            }
+            image = saveRouteCache();
+        }
+        writeRouteCache(image);
+        notifyNeighborsChanged();
+        AODVCapture capture = this.capture;
+        if (capture != null) {
+            capture.close();
+            this.capture = null;
+        }
+        AODVLog.d(TAG, "Stopped AODV router");
+    }
+
+    public boolean isStarted() {
+        synchronized (routeTableLock) {
+            return started;
+        }
+    }
+
+    private void startIntrospection(int port) {
+        AODVIntrospection introspection = new AODVIntrospection(this, port);
+        try {
+            introspection.start();
+            this.introspection = introspection;
+            AODVLog.d(TAG, "startIntrospection: listening on 127.0.0.1:" + introspection.getPort());
+        } catch (IOException e) {
+            AODVLog.e(TAG, "startIntrospection: " + e);
+        }
+    }
+
+    //run on the engine thread, false if the router is stopped
+    private boolean post(Runnable task) {
+        return postDelayed(task, 0);
+    }
+
+    private boolean postDelayed(Runnable task, long delayMillis) {
+        ScheduledExecutorService engine = this.engine;
+        if (engine == null) {
+            return false;
+        }
+        try {
+            engine.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            //stopped in between
+            return false;
+        }
+    }
+
+    //send a hello message to neighbors every hello interval
+    private final Runnable helloTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (routeTableLock) {
+                if (config.clustering) {
+                    cluster.update(System.currentTimeMillis(), config.helloInterval);
+                }
+                if (zone != null) {
+                    updateZoneRoutes();
+                }
+            }
+            AODVMessage helloMsg = initHELLO();
+            broadcastHELLO(helloMsg);
+            //read every time so a hot-reloaded interval applies on the next hello
+            postDelayed(this, config.helloInterval);
+        }
+    };
+
+    //remove expired routes and neighbors, save the route cache and rebalance neighbors
+    private final Runnable routeExpiryTask = new Runnable() {
+        @Override
+        public void run() {
+            AODVRouteCache.Image image = null;
+            synchronized (routeTableLock) {
+                long timeMillis = System.currentTimeMillis();
+                refreshBusyRoutes(timeMillis);
+                //remove expired routes
+                for (AODVRoute route : new ArrayList<>(routes.routes())) {
+                    if (route.timeout < timeMillis) {
+                        routes.removeRoute(route.address);
+                        AODVLog.d(TAG, "routeExpiryTask: removed route to " + route.address);
+                    }
+                }
+                //remove expired udp neighbors and the routes through them
+                for (AODVRoute route : new ArrayList<>(routes.udpNeighbors())) {
+                    if (route.timeout < timeMillis) {
+                        removeUDPNeighbor(route.nextHopAddr);
+                    }
+                }
+                maintainGroups(timeMillis);
+                if (timeMillis - lastCacheSave > CACHE_SAVE_INTERVAL) {
+                    image = saveRouteCache();
+                }
+                Connector connector = AODVRouter.this.connector;
+                if (connector != null) {
+                    String candidate = neighborManager.rebalance(config);
+                    if (candidate != null) {
+                        connector.requestConnection(candidate);
+                    }
+                }
+            }
+            writeRouteCache(image);
+            postDelayed(this, config.routeExpiryInterval);
+        }
+    };
+
+    //send queued data that has a route now and drop what expired
+    private final Runnable dataCheckTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (routeTableLock) {
+                dataCheckScheduled = false;
+                flushDataTxQueue();
+            }
+        }
+    };
+
+    //must hold routeTableLock, on the engine thread
+    private void flushDataTxQueue() {
+        if (dataTxQueue.isEmpty()) {
+            return;
+        }
+        long timeMillis = System.currentTimeMillis();
+        Iterator<AODVTxData> it = dataTxQueue.iterator();
+        while (it.hasNext()) {
+            AODVTxData txData = it.next();
+            AODVMessage msg = txData.msg;
+            AODVRoute route = resolveRoute(msg);
+            if (txData.send != null && txData.send.isDone()) {
+                //cancelled by the caller
+                it.remove();
+            } else if (route != null) {
+                //if we have a route to the destination, send the message
+                it.remove();
+                AODVLog.d(TAG, String.format("flushDataTxQueue: Sending AODV DATA to: %s via %s",
+                        msg.header.destAddr, route.nextHopAddr));
+                sendData(msg, route, txData.send);
+            } else if (txData.lifetime <= timeMillis) {
+                //drop the message if the time is expired
+                it.remove();
+                if (txData.send != null) {
+                    txData.send.complete(AODVSend.Outcome.EXPIRED);
+                }
+                AODVLog.d(TAG, "flushDataTxQueue: Dropping expired message");
+            } else {
+                //the RREQ or its RREP may have been lost
+                AODVDiscovery discovery = discoveries.get(msg.header.destAddr);
+                if (discovery == null || discovery.retryAt <= timeMillis) {
+                    AODVLog.d(TAG, "flushDataTxQueue: No route yet, repeating RREQ for " + msg.header.destAddr);
+                    discover(msg);
+                }
+            }
+        }
+        Iterator<Short> pending = discoveries.keySet().iterator();
+        while (pending.hasNext()) {
+            if (!isQueued(pending.next())) {
+                pending.remove();
+            }
+        }
+        scheduleDataCheck();
+    }
+
+    //routes normally arrive with a message and flush the queue, this catches expiry and anything missed
+    private void scheduleDataCheck() {
+        if (!dataTxQueue.isEmpty() && !dataCheckScheduled) {
+            dataCheckScheduled = postDelayed(dataCheckTask, config.queueInterval);
+        }
+    }
+
+    private void openUDP() {
+        try {
+            listenerSocket = new DatagramSocket(null);
+            listenerSocket.setReuseAddress(true);
+            listenerSocket.setBroadcast(true);
+            //set to MK6 wifi address, make this configurable
+            //listenerSocket.bind(new InetSocketAddress("192.168.10.255", config.udpPort));
+            listenerSocket.bind(new InetSocketAddress(config.udpPort));
+            //sending from the listening port lets neighbors unicast back to where our packets come from
+            senderSocket = listenerSocket;
+        } catch (SocketException e) {
+            AODVLog.e(TAG, "openUDP: " + e.getMessage());
+            closeUDP();
+            return;
+        }
+        final DatagramSocket socket = listenerSocket;
+        final byte[] inBuffer = new byte[config.udpBufSize];
+        udpServerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                AODVLog.d(TAG, "AODVServer: Started UDP Server thread, listening on port " + socket.getLocalPort());
+                while (!socket.isClosed()) {
+                    try {
+                        DatagramPacket packet = new DatagramPacket(inBuffer, inBuffer.length);
+                        socket.receive(packet);
+                        AODVLog.d(TAG, String.format(Locale.US, "AODVServer: Received message: %d bytes from %s",
+                                packet.getLength(), packet.getAddress().getHostAddress()));
+                        AODVCapture capture = AODVRouter.this.capture;
+                        if (AODVHelloCodec.isCompact(packet.getData(), packet.getLength())) {
+                            AODVMessage msg = helloCodec.decode(packet.getData(), 0, packet.getLength());
+                            //captures stay in tAODVPacket layout, so replay doesn't need the codec's state
+                            if (capture != null && msg != null) {
+                                capture.record(AODVCapture.DIR_IN, AODVCapture.TRANSPORT_UDP, packet.getAddress(),
+                                        packet.getPort(), msg);
+                            }
+                            if (msg != null) {
+                                msg.header.sendUDPAddress = getListeningAddress(packet);
+                            }
+                            receiveUDP(msg);
+                            continue;
+                        }
+                        if (capture != null) {
+                            capture.record(AODVCapture.DIR_IN, AODVCapture.TRANSPORT_UDP, packet.getAddress(),
+                                    packet.getPort(), packet.getData(), 0, packet.getLength());
+                        }
+                        if (AODVPacket.isData(packet.getData(), packet.getLength())) {
+                            //decoded on the engine thread only if it isn't just passing through
+                            byte[] bytes = Arrays.copyOf(packet.getData(), packet.getLength());
+                            if (acceptsUDP(bytes)) {
+                                receivePacket(bytes, null);
+                            }
+                            continue;
+                        }
+                        AODVMessage msg = AODVPacket.deserializeAODVPacket(
+                                ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+                        if (msg != null && msg.header.type == AODVMessageType.HELO) {
+                            msg.header.sendUDPAddress = getListeningAddress(packet);
+                        }
+                        receiveUDP(msg);
+                    } catch (IOException e) {
+                        if (!socket.isClosed()) {
+                            AODVLog.e(TAG, "AODVServer: " + e.getMessage());
+                        }
+                    }
+                }
+            }
+        }, "aodv-udp-rx");
+        udpServerThread.start();
+    }
+
+    private void closeUDP() {
+        if (listenerSocket != null) {
+            listenerSocket.close();
+            listenerSocket = null;
+        }
+        senderSocket = null;
+    }
+
+    //routers send from the port they listen on, a node that sends from elsewhere is taken to listen on udpPort
+    private InetSocketAddress getListeningAddress(DatagramPacket packet) {
+        int port = packet.getPort();
+        if (port != config.udpPort) {
+            boolean listening = false;
+            try {
+                for (InetSocketAddress target : getUDPTargets()) {
+                    listening |= target.getPort() == port;
+                }
+            } catch (UnknownHostException e) {
+                AODVLog.e(TAG, "getListeningAddress: " + e.getMessage());
+            }
+            if (!listening) {
+                port = config.udpPort;
+            }
+        }
+        return new InetSocketAddress(packet.getAddress(), port);
+    }
+
+    //Give the device a human readable address (one-time at startup before advertising)
+    public void setAddress(short address) {
+        this.self.address = address;
+        synchronized (routeTableLock) {
+            cluster.setAddress(address);
+        }
+        AODVCapture capture = this.capture;
+        if (capture != null) {
+            capture.setAddress(address);
+        }
+        AODVLog.d(TAG, "setName: set address to " + address);
+    }
+
+    public short getAddress() {
+        return self.address;
+    }
+
+    //must be called before start
+    public void setUDPEnabled(boolean udpEnabled) {
+        this.udpEnabled = udpEnabled;
+    }
+
+    //must be called before start, without it Android neighbors are only reached over CC
+    public void setDualHoming(boolean dualHoming) {
+        this.dualHoming = dualHoming;
+    }
+
+    public long getCCSent() {
+        return ccSent.get();
+    }
+
+    public long getCCBytes() {
+        return ccBytes.get();
+    }
+
+    public long getUDPSent() {
+        return udpSent.get();
+    }
+
+    public long getUDPBytes() {
+        return udpBytes.get();
+    }
+
+    /**
+     * Before start every parameter applies. Once running only timing and neighbor limits are
+     * changed, UDP, strategy and network key changes are kept and applied by the next start.
+     */
+    public void setConfig(AODVConfig config) {
+        synchronized (routeTableLock) {
+            if (started) {
+                if (this.config.needsRestart(config)) {
+                    AODVLog.i(TAG, "setConfig: UDP, strategy and key changes apply after a restart");
+                    pendingConfig = config;
+                } else {
+                    pendingConfig = null;
+                }
+                this.config = this.config.withSafeParameters(config);
+            } else {
+                this.config = config;
+                pendingConfig = null;
+            }
+        }
+        AODVLog.d(TAG, "setConfig: " + this.config);
+    }
+
+    public AODVConfig getConfig() {
+        return config;
+    }
+
+    //send UDP messages to these addresses instead of broadcasting, must be called before start
+    public void setUDPTargets(List<InetSocketAddress> udpTargets) {
+        this.udpTargets = new ArrayList<>(udpTargets);
+    }
+
+    //must be called before start
+    public void setDeviceType(AODVDeviceType deviceType) {
+        this.deviceType = deviceType;
+    }
+
+    //lets the router connect to better neighbors and drop weaker ones
+    public void setConnector(Connector connector) {
+        this.connector = connector;
+    }
+
+    //record every packet we send or receive, null turns capturing off
+    public void setCapture(AODVCapture capture) {
+        this.capture = capture;
+    }
+
+    public AODVEventBus getEvents() {
+        return events;
+    }
+
+    public int getLocalSize() {
+        synchronized (routeTableLock) {
+            int size = 1 + routes.ccNeighbors().size();
+            for (AODVRoute neighbor : routes.udpNeighbors()) {
+                //dual-homed neighbors count once
+                if (routes.getCCNeighborByAddress(neighbor.nextHopAddr) == null) {
+                    size++;
+                }
+            }
+            return size;
+        }
+    }
+
+    //number of received messages waiting to be handled
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Routes, neighbors, queue depths and message counts as of now. Only copying happens under
+     * routeTableLock, so polling it doesn't hold up routing, formatting is left to the caller.
+     */
+    public AODVSnapshot snapshot() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        Map<String, Long> gauges = new LinkedHashMap<>();
+        List<AODVSnapshot.Entry> entries = new ArrayList<>();
+        long timeMillis = System.currentTimeMillis();
+        short address;
+        synchronized (routeTableLock) {
+            address = self.address;
+            gauges.put("pending", (long) pendingCount.get());
+            gauges.put("queued", (long) dataTxQueue.size());
+            gauges.put("awaitingAck", (long) awaitingAck.size());
+            gauges.put("broadcasts", (long) pendingBroadcasts.size());
+            gauges.put("routes", (long) routes.routes().size());
+            gauges.put("udpNeighbors", (long) routes.udpNeighbors().size());
+            gauges.put("ccNeighbors", (long) routes.ccNeighbors().size());
+            gauges.put("load", (long) (load != null ? load.get(timeMillis, pendingCount.get()) : 0));
+            if (config.clustering) {
+                gauges.put("clusterHead", (long) cluster.getHead());
+                gauges.put("clusterMembers", (long) cluster.getMemberCount());
+            }
+            for (AODVRoute route : routes.routes()) {
+                entries.add(new AODVSnapshot.Entry(route.zone ? "zone" : "route", route, timeMillis));
+            }
+            for (AODVRoute neighbor : routes.udpNeighbors()) {
+                entries.add(new AODVSnapshot.Entry("udp", neighbor, timeMillis));
+            }
+            for (AODVRoute neighbor : routes.ccNeighbors().values()) {
+                entries.add(new AODVSnapshot.Entry("cc", neighbor, timeMillis));
+            }
+        }
+        counters.put("ccSent", ccSent.get());
+        counters.put("ccBytes", ccBytes.get());
+        counters.put("udpSent", udpSent.get());
+        counters.put("udpBytes", udpBytes.get());
+        counters.put("relayed", relayed.get());
+        for (AODVMessageType type : AODVMessageType.values()) {
+            if (type != AODVMessageType.NONE) {
+                counters.put("sent." + type, sentByType.get(type.ordinal()));
+                counters.put("received." + type, receivedByType.get(type.ordinal()));
+            }
+        }
+        return new AODVSnapshot(timeMillis, address, counters, gauges, entries);
+    }
+
+    public boolean isCCNeighbor(String endpointId) {
+        synchronized (routeTableLock) {
+            return routes.getCCNeighbor(endpointId) != null;
+        }
+    }
+
+    //a Nearby endpoint advertising the given address was discovered
+    public void endpointFound(String endpointId, short address) {
+        Connector connector = this.connector;
+        synchronized (routeTableLock) {
+            if (routes.getCCNeighbor(endpointId) != null
+                    || !neighborManager.onEndpointFound(endpointId, address, config)) {
+                return;
+            }
+        }
+        AODVLog.d(TAG, "endpointFound: Connecting to " + address);
+        if (connector != null) {
+            connector.requestConnection(endpointId);
+        }
+    }
+
+    public void endpointLost(String endpointId) {
+        synchronized (routeTableLock) {
+            neighborManager.onEndpointLost(endpointId);
+        }
+    }
+
+    public boolean addCCNeighbor(String endpointId) {
+        return addCCNeighbor(endpointId, DEFAULT_NAME);
+    }
+
+    /**
+     * Add newly connected neighbor to neighbors table. When the table is full the weakest
+     * neighbor is dropped if the new one scores clearly higher, otherwise this returns false
+     * and the caller should disconnect.
+     */
+    public boolean addCCNeighbor(String endpointId, short address) {
+        synchronized (routeTableLock) {
+            if (routes.getCCNeighbor(endpointId) != null) {
+                AODVLog.i(TAG, "addCCNeighbor: Neighbor already connected: " + endpointId);
+                return true;
+            }
+            if (routes.ccNeighbors().size() >= config.maxNeighbors) {
+                String evicted = neighborManager.chooseEviction(endpointId, address, config);
+                if (evicted == null) {
+                    AODVLog.d(TAG, "addCCNeighbor: Too many neighbors: " + endpointId);
+                    return false;
+                }
+                evictCCNeighbor(evicted);
+            }
+            AODVRoute newNeighbor = new AODVRoute();
+            newNeighbor.id = endpointId;
+            newNeighbor.nextHopId = endpointId;
+            //addressable right away if it advertised its address, otherwise after its first hello
+            newNeighbor.address = address;
+            newNeighbor.nextHopAddr = address;
+            newNeighbor.connectedAt = System.currentTimeMillis();
+            newNeighbor.link = new AODVLink(CC_LATENCY);
+            routes.putCCNeighbor(newNeighbor);
+            neighborManager.onNeighborAdded(endpointId);
+            AODVLog.d(TAG, "addCCNeighbor: Neighbor added: " + endpointId);
+        }
+        notifyNeighborsChanged();
+        return true;
+    }
+
+    //must hold routeTableLock, Nearby does not call onDisconnected for our own disconnects
+    private void evictCCNeighbor(String endpointId) {
+        AODVRoute route = routes.getCCNeighbor(endpointId);
+        if (route == null) {
+            return;
+        }
+        removeCCRoutes(endpointId);
+        neighborManager.onNeighborEvicted(endpointId, route.address);
+        Connector connector = this.connector;
+        if (connector != null) {
+            connector.disconnect(endpointId);
+        }
+        AODVLog.i(TAG, "evictCCNeighbor: dropped weaker neighbor " + route.address);
+    }
+
+    private void notifyNeighborsChanged() {
+        if (listener != null) {
+            listener.onNeighborsChanged();
+        }
+        if (events.hasSubscribers()) {
+            events.publish(AODVEvent.neighbors(getLocalSize()));
+        }
+    }
+
+    //remove the disconnected neighbor from neighbors table
+    public void removeCCNeighbor(String endpointId) {
+        synchronized (routeTableLock) {
+            AODVRoute route = routes.getCCNeighbor(endpointId);
+            if (route != null) {
+                removeCCRoutes(endpointId);
+                AODVLog.i(TAG, "removeCCNeighbor: disconnected from " + endpointId);
+            } else {
+                AODVLog.d(TAG, "removeCCNeighbor: Failed to remove neighbor");
+            }
+        }
+        notifyNeighborsChanged();
+    }
+
+    //handle a serialized message from a Nearby Connections endpoint
+    public void receiveCC(String endpointId, byte[] bytes) {
+        if (AODVHelloCodec.isCompact(bytes, bytes.length)) {
+            AODVMessage msg = helloCodec.decode(bytes, 0, bytes.length);
+            if (msg != null) {
+                receiveCC(endpointId, msg);
+            }
+            return;
+        }
+        if (AODVPacket.isData(bytes, bytes.length)) {
+            AODVCapture capture = this.capture;
+            if (capture != null) {
+                capture.record(AODVCapture.DIR_IN, AODVCapture.TRANSPORT_CC, endpointId, bytes, 0, bytes.length);
+            }
+            receivePacket(bytes, endpointId);
+            return;
+        }
+        try {
+            Object deserialized = SerializationHelper.deserialize(bytes);
+            if (deserialized instanceof AODVMessage) {
+                receiveCC(endpointId, (AODVMessage) deserialized);
+            } else {
+                AODVLog.d(TAG, "receiveCC: Type of payload unknown");
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void receiveCC(String endpointId, AODVMessage msg) {
+        AODVLog.d(TAG, "receiveCC: Received AODV message type " + msg.header.type.getValue());
+        //this is the only place we can set the sender Id, which is needed for some control
+        msg.header.sendId = endpointId;
+        AODVCapture capture = this.capture;
+        if (capture != null) {
+            capture.record(AODVCapture.DIR_IN, AODVCapture.TRANSPORT_CC, endpointId, msg);
+        }
+        handle(msg);
+    }
+
+    //handle a message received over UDP, dropping anything not meant for us
+    //Android senders are only taken from dual-homed neighbors, which the engine checks, see acceptsAndroidUDP
+    public void receiveUDP(AODVMessage recv) {
+        if (recv != null && recv.header.sendAddr != self.address &&
+                (recv.header.nextAddr == self.address || recv.header.nextAddr == UDP_BROADCAST_ADDR)) {
+            AODVLog.d(TAG, "AODVServer: handling AODV UDP message");
+            handle(recv);
+        } /*else {
+            AODVLog.d(TAG, "AODVServer: Dropping UDP message");
+        }*/
+    }
+
+    //the checks receiveUDP makes, on the raw header
+    private boolean acceptsUDP(byte[] packet) {
+        short nextAddr = AODVPacket.getNextAddr(packet);
+        return AODVPacket.getSendAddr(packet) != self.address
+                && (nextAddr == self.address || nextAddr == UDP_BROADCAST_ADDR);
+    }
+
+    /**
+     * Must hold routeTableLock. Android devices talk to each other over CC, so their UDP is only
+     * taken from a neighbor that is dual-homed: a CC neighbor whose hellos say it takes UDP from
+     * us too becomes a UDP neighbor as well, and from then on everything it sends over UDP counts.
+     */
+    private boolean acceptsAndroidUDP(short sendAddr, AODVMessage msg) {
+        if (!dualHoming || !udpEnabled || deviceType != AODVDeviceType.AND) {
+            return false;
+        }
+        if (routes.getUDPNeighbor(sendAddr) != null) {
+            return true;
+        }
+        return msg != null && msg.header.type == AODVMessageType.HELO
+                && (msg.header.flags & AODVHeader.FLAG_DUAL) != 0 && routes.getCCNeighborByAddress(sendAddr) != null;
+    }
+
+    //DATA in tAODVPacket layout from either transport, endpointId is null for UDP
+    private void receivePacket(final byte[] packet, final String endpointId) {
+        pendingCount.incrementAndGet();
+        boolean posted = post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronized (routeTableLock) {
+                        if (endpointId == null && AODVPacket.getSendDevType(packet) == AODVDeviceType.AND
+                                && !acceptsAndroidUDP(AODVPacket.getSendAddr(packet), null)) {
+                            return;
+                        }
+                        if (forwardPacket(packet)) {
+                            return;
+                        }
+                        AODVMessage msg = AODVPacket.deserializeAODVPacket(packet);
+                        if (msg == null) {
+                            return;
+                        }
+                        msg.header.sendId = endpointId;
+                        handleAODVMessage(msg);
+                        flushDataTxQueue();
+                    }
+                } finally {
+                    pendingCount.decrementAndGet();
+                }
+            }
+        });
+        if (!posted) {
+            pendingCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Transit DATA goes back out in the buffer it came in, with only the fields handleDATA would
+     * change rewritten, whichever transport it came from and goes to. False if it has to be
+     * decoded: it is for us, a group or a flood, has no route (the RERR needs the slow path) or
+     * the next hop can't read packets. Captures record the patched buffer, so they show this path.
+     */
+    private boolean forwardPacket(byte[] packet) {
+        short destAddr = AODVPacket.getDestAddr(packet);
+        if (destAddr == self.address || destAddr == UDP_BROADCAST_ADDR || AODVGroup.isGroup(destAddr)
+                || (AODVPacket.getFlags(packet) & AODVHeader.FLAG_AUTH) != 0) {
+            return false;
+        }
+        AODVRoute route = getRouteByAddress(destAddr);
+        short destHead = AODVPacket.getDestSeqNum(packet);
+        if (route == null && (AODVPacket.getFlags(packet) & AODVHeader.FLAG_CLUSTER) != 0 && destHead != self.address) {
+            route = getRouteByAddress(destHead);
+        }
+        if (route == null) {
+            return false;
+        }
+        String nextId = selectInterface(route.nextHopAddr, route.nextHopId);
+        if (nextId != null) {
+            AODVRoute neighbor = routes.getCCNeighbor(nextId);
+            if (neighbor == null || !neighbor.packetData) {
+                return false;
+            }
+            AODVPacket.patchForward(packet, route.nextHopAddr, self.address, deviceType);
+            AODVCapture capture = this.capture;
+            if (capture != null) {
+                capture.record(AODVCapture.DIR_OUT, AODVCapture.TRANSPORT_CC, nextId, packet, 0, packet.length);
+            }
+            ccTransport.sendCC(Collections.singletonList(nextId), packet);
+            ccSent.incrementAndGet();
+            ccBytes.addAndGet(packet.length);
+        } else if (udpEnabled) {
+            AODVPacket.patchForward(packet, route.nextHopAddr, self.address, deviceType);
+            sendUDP(packet, null, getUDPAddress(route.nextHopAddr));
+        } else {
+            return false;
+        }
+        long timeMillis = System.currentTimeMillis();
+        AODVLink link = getLink(route.nextHopAddr, nextId);
+        if (link != null) {
+            link.onSent(timeMillis, packet.length);
+        }
+        extendLifetime(route, timeMillis);
+        extendLifetime(getRouteByAddress(AODVPacket.getSrcAddr(packet)), timeMillis);
+        if (load != null) {
+            load.onForwarded(timeMillis);
+        }
+        count(receivedByType, AODVMessageType.DATA);
+        count(sentByType, AODVMessageType.DATA);
+        relayed.incrementAndGet();
+        return true;
+    }
+
+    private void handle(final AODVMessage msg) {
+        pendingCount.incrementAndGet();
+        boolean posted = post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronized (routeTableLock) {
+                        handleAODVMessage(msg);
+                        //an RREP may have brought the route queued data is waiting for
+                        flushDataTxQueue();
+                    }
+                } finally {
+                    pendingCount.decrementAndGet();
+                }
+            }
+        });
+        if (!posted) {
+            pendingCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Must hold routeTableLock. A snapshot that moved the seq num reserve is written before this
+     * returns, any other is returned for writeRouteCache once the lock is released, so routing
+     * does not wait on storage.
+     */
+    private AODVRouteCache.Image saveRouteCache() {
+        if (routeCache == null) {
+            return null;
+        }
+        AODVRouteCache.Image image = routeCache.snapshot(self, new ArrayList<>(routes.routes()),
+                new ArrayList<>(routes.udpNeighbors()));
+        lastCacheSave = System.currentTimeMillis();
+        if (image.reserves) {
+            routeCache.write(image);
+            return null;
+        }
+        return image;
+    }
+
+    //without routeTableLock
+    private void writeRouteCache(AODVRouteCache.Image image) {
+        if (image != null) {
+            routeCache.write(image);
+        }
+    }
+
+    /**
+     * Must hold routeTableLock, after every change to our seq nums. The snapshot stores a limit
+     * above them rather than the seq nums themselves, and is rewritten before they reach it, so a
+     * restart after a crash never resumes below what neighbors already saw from us.
+     */
+    private void reserveSeqNums() {
+        if (routeCache != null && routeCache.isExhausted(self)) {
+            saveRouteCache();
+        }
+    }
+
+    //restore seq nums and routes from the last snapshot taken with our current address
+    private void loadRouteCache() {
+        if (routeCache == null) {
+            return;
+        }
+        AODVRouteCache.Snapshot snapshot = routeCache.load();
+        if (snapshot == null || snapshot.address != self.address) {
+            AODVLog.d(TAG, "loadRouteCache: no snapshot for address " + self.address);
+            return;
+        }
+        synchronized (routeTableLock) {
+            //what the snapshot reserved, at or above anything we sent before we stopped
+            self.seqNum = snapshot.seqNum;
+            self.bcastSeqNum = snapshot.bcastSeqNum;
+            long timeMillis = System.currentTimeMillis();
+            long age = timeMillis - snapshot.savedAt;
+            int restored = 0;
+            for (AODVRouteCache.Entry entry : snapshot.entries) {
+                //skip anything that would have expired while we were stopped
+                if (age < 0 || entry.remaining <= age) {
+                    continue;
+                }
+                AODVRoute route = entry.route;
+                route.timeout = timeMillis + entry.remaining - age;
+                if ((entry.flags & AODVRouteCache.FLAG_UDP_NEIGHBOR) != 0) {
+                    //restored neighbors are only trusted until one of their next hellos confirms them
+                    route.timeout = Math.min(route.timeout, timeMillis + 2 * config.helloInterval);
+                    route.link = new AODVLink(UDP_LATENCY);
+                    routes.putUDPNeighbor(route);
+                    restored++;
+                } else if (route.address != self.address && routes.getUDPNeighbor(route.nextHopAddr) != null) {
+                    //neighbors come first in the snapshot, so only routes through a restored neighbor are kept
+                    routes.putRoute(route);
+                    restored++;
+                }
+            }
+            AODVLog.d(TAG, String.format(Locale.US, "loadRouteCache: restored %d routes, seqNum %d",
+                    restored, self.seqNum));
+        }
+    }
+
+    private AODVRoute getRouteByAddress(short address) {
+        return routes.get(address);
+    }
+
+    //only one hop routes, group tree links must be neighbors
+    private AODVRoute getNeighborByAddress(short address) {
+        return routes.getNeighbor(address);
+    }
+
+    private void removeRouteByAddress(short address) {
+        routes.remove(address);
+    }
+
+    //must hold routeTableLock, the routes through a lost neighbor are broken too
+    private void removeUDPNeighbor(short address) {
+        List<AODVRoute> broken = routes.removeUDPNeighbor(address);
+        int moved = moveToOtherInterface(broken);
+        AODVLog.d(TAG, String.format(Locale.US, "removeUDPNeighbor: removed %d and %d routes through it, %d moved to CC",
+                address, broken.size() - moved, moved));
+    }
+
+    //must hold routeTableLock
+    private void removeCCRoutes(String endpointId) {
+        List<AODVRoute> broken = routes.removeCCNeighbor(endpointId);
+        int moved = moveToOtherInterface(broken);
+        AODVLog.d(TAG, String.format(Locale.US, "removeCCRoutes: removed %s and %d routes through it, %d moved to UDP",
+                endpointId, broken.size() - moved, moved));
+    }
+
+    //must hold routeTableLock, routes through a dual-homed neighbor survive losing one of its interfaces
+    private int moveToOtherInterface(List<AODVRoute> broken) {
+        int moved = 0;
+        for (AODVRoute route : broken) {
+            if (route.nextHopId != null && udpEnabled && routes.getUDPNeighbor(route.nextHopAddr) != null) {
+                route.nextHopId = null;
+            } else if (route.nextHopId == null && routes.getCCNeighborByAddress(route.nextHopAddr) != null) {
+                route.nextHopId = routes.getCCNeighborByAddress(route.nextHopAddr).nextHopId;
+            } else {
+                continue;
+            }
+            routes.putRoute(route);
+            moved++;
+        }
+        return moved;
+    }
+
+    /**
+     * Must hold routeTableLock. The interface to reach a next hop over right now, its endpointId
+     * for CC or null for UDP. Only a dual-homed neighbor has a choice, it goes to the interface
+     * with the lower cost, see AODVLink, and stays there until the other one is clearly better.
+     */
+    private String selectInterface(short nextHopAddr, String nextHopId) {
+        AODVRoute cc = routes.getCCNeighborByAddress(nextHopAddr);
+        AODVRoute udp = routes.getUDPNeighbor(nextHopAddr);
+        if (cc == null || udp == null || !udpEnabled) {
+            return nextHopId;
+        }
+        long timeMillis = System.currentTimeMillis();
+        double ccCost = cc.link.cost(timeMillis, config.helloInterval);
+        double udpCost = udp.link.cost(timeMillis, config.helloInterval);
+        boolean preferUDP = cc.preferUDP ? !(ccCost < udpCost * SWITCH_MARGIN) : udpCost < ccCost * SWITCH_MARGIN;
+        if (preferUDP != cc.preferUDP) {
+            cc.preferUDP = preferUDP;
+            AODVLog.d(TAG, String.format("selectInterface: reaching %d over %s, CC %s, UDP %s",
+                    nextHopAddr, preferUDP ? "UDP" : "CC", cc.link, udp.link));
+        }
+        return preferUDP ? null : cc.nextHopId;
+    }
+
+    //must hold routeTableLock, null if nextAddr is no neighbor over that interface
+    private AODVLink getLink(short nextAddr, String nextId) {
+        AODVRoute neighbor = nextId != null ? routes.getCCNeighbor(nextId) : routes.getUDPNeighbor(nextAddr);
+        return neighbor != null ? neighbor.link : null;
+    }
+
+    //queued to the engine, returns right away
+    public void sendMessage(final short address, final String data) {
+        boolean posted = post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (routeTableLock) {
+                    sendOrQueue(initDATA(address, data), null, true);
+                }
+            }
+        });
+        if (!posted) {
+            AODVLog.d(TAG, "sendMessage: router is stopped, dropping DATA to " + address);
+        }
+    }
+
+    //like sendMessage, but the destination acknowledges and the returned handle tells how it went
+    public AODVSend send(short address, String data) {
+        AODVSend send = new AODVSend(address, data);
+        sendAll(Collections.singletonList(send));
+        return send;
+    }
+
+    /**
+     * Join a multicast group, DATA sent to its address reaches us from now on. Group addresses
+     * are 0x8000 to 0xFFFE, see {@link #isGroupAddress}. Anyone can send to a group without
+     * joining it.
+     */
+    public void joinGroup(final short address) {
+        if (!isGroupAddress(address)) {
+            throw new IllegalArgumentException("Not a group address: " + address);
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (routeTableLock) {
+                    AODVGroup group = groups.get(address);
+                    if (group == null) {
+                        group = new AODVGroup(address);
+                        groups.put(address, group);
+                    }
+                    if (!group.member) {
+                        long timeMillis = System.currentTimeMillis();
+                        group.member = true;
+                        if (group.links.isEmpty() || self.address < group.leader) {
+                            group.setLeader(self.address, timeMillis);
+                        }
+                        if (group.links.isEmpty()) {
+                            joinTree(group, timeMillis);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    //we keep forwarding for the group if the tree still needs us
+    public void leaveGroup(final short address) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (routeTableLock) {
+                    AODVGroup group = groups.get(address);
+                    if (group != null && group.member) {
+                        group.member = false;
+                        pruneIfLeaf(group);
+                    }
+                }
+            }
+        });
+    }
+
+    public static boolean isGroupAddress(short address) {
+        return AODVGroup.isGroup(address);
+    }
+
+    //e.g. from the device's location updates, bounds scoped broadcasts
+    public void setPosition(double latitude, double longitude) {
+        synchronized (routeTableLock) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    /**
+     * Sends data to every node within hops hops without looking up any routes, e.g. a collision
+     * warning. Each node rebroadcasts it once after a random wait of up to broadcastJitter, unless
+     * it overhears broadcastSuppression copies first. The send ends as UNCONFIRMED.
+     */
+    public AODVSend broadcast(String data, int hops) {
+        return broadcast(data, hops, 0);
+    }
+
+    /**
+     * Like {@link #broadcast(String, int)}, but nodes farther than radius meters from our
+     * position neither deliver nor rebroadcast it. Nodes without a position of their own can't
+     * tell and treat it as in range. A radius of 0, or no setPosition yet, means no bound.
+     */
+    public AODVSend broadcast(final String data, final int hops, final int radius) {
+        if (hops < 1 || hops > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("hops out of range: " + hops);
+        }
+        if (radius < 0) {
+            throw new IllegalArgumentException("Negative radius: " + radius);
+        }
+        final AODVSend send = new AODVSend(UDP_BROADCAST_ADDR, data);
+        boolean posted = post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (routeTableLock) {
+                    if (send.isDone()) {
+                        return;
+                    }
+                    AODVMessage msg = initDATA(UDP_BROADCAST_ADDR, data);
+                    msg.header.hopCnt = (byte) hops;
+                    if (radius > 0 && !Double.isNaN(latitude)) {
+                        msg.payload = new AODVGeoScope(latitude, longitude, radius).prefix(data);
+                        msg.header.length = (short) msg.payload.length();
+                        msg.header.flags |= AODVHeader.FLAG_GEO;
+                    }
+                    seenBroadcasts.add(self.address, msg.header.bcastSeqNum);
+                    broadcastMessage(msg);
+                    send.complete(AODVSend.Outcome.UNCONFIRMED);
+                }
+            }
+        });
+        if (!posted) {
+            send.complete(AODVSend.Outcome.CANCELLED);
+        }
+        return send;
+    }
+
+    /**
+     * Sends many messages in one engine task. The route to each destination is looked up once
+     * and destinations without a route get a single RREQ, however many messages wait for it.
+     */
+    public void sendAll(Collection<AODVSend> sends) {
+        final List<AODVSend> batch = new ArrayList<>(sends);
+        boolean posted = post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (routeTableLock) {
+                    //one lookup per destination, and one RREQ per destination without a route
+                    Map<Short, AODVRoute> routed = new HashMap<>();
+                    //destinations resolveRoute marked for the head of their cluster, and that head
+                    Map<Short, Short> heads = new HashMap<>();
+                    Set<Short> unrouted = new HashSet<>();
+                    for (AODVSend send : batch) {
+                        if (send.isDone()) {
+                            continue;
+                        }
+                        short address = send.getDestAddr();
+                        if (AODVGroup.isGroup(address)) {
+                            //nobody acknowledges group DATA
+                            sendOrQueue(initDATA(address, send.getData()), send, !isQueued(address));
+                            continue;
+                        }
+                        AODVMessage msg = initDATA(address, send.getData());
+                        msg.header.flags |= AODVHeader.FLAG_ACK_REQ;
+                        msg.header.bcastSeqNum = ++dataId;
+                        AODVRoute route = routed.get(address);
+                        if (route != null) {
+                            Short head = heads.get(address);
+                            if (head != null) {
+                                msg.header.flags |= AODVHeader.FLAG_CLUSTER;
+                                msg.header.destSeqNum = head;
+                            }
+                        } else if (!unrouted.contains(address)) {
+                            route = resolveRoute(msg);
+                            if (route != null) {
+                                routed.put(address, route);
+                                if ((msg.header.flags & AODVHeader.FLAG_CLUSTER) != 0) {
+                                    heads.put(address, msg.header.destSeqNum);
+                                }
+                            }
+                        }
+                        if (route != null) {
+                            sendData(msg, route, send);
+                        } else {
+                            //an RREQ for it may be out already from an earlier send
+                            queueData(msg, send, unrouted.add(address) && !isQueued(address));
+                        }
+                    }
+                }
+            }
+        });
+        if (!posted) {
+            for (AODVSend send : batch) {
+                send.complete(AODVSend.Outcome.CANCELLED);
+            }
+        }
+    }
+
+    //must hold routeTableLock, on the engine thread
+    private void sendOrQueue(AODVMessage msg, AODVSend send, boolean discover) {
+        short address = msg.header.destAddr;
+        AODVGroup group = groups.get(address);
+        if (group != null && group.isOnTree()) {
+            seenGroupData.add(self.address, msg.header.bcastSeqNum);
+            forwardOnTree(msg, group, self.address);
+            if (send != null) {
+                send.complete(AODVSend.Outcome.UNCONFIRMED);
+            }
+            return;
+        }
+        //off the tree, group DATA is unicast to the nearest tree node like any other destination
+        AODVRoute route = resolveRoute(msg);
+        if (route != null) {
+            AODVLog.d(TAG, "sendMessage: Sending AODV DATA to: " + route.address);
+            sendData(msg, route, send);
+            return;
+        }
+        queueData(msg, send, discover);
+    }
+
+    //must hold routeTableLock, on the engine thread. For DATA without a route
+    private void queueData(AODVMessage msg, AODVSend send, boolean discover) {
+        short address = msg.header.destAddr;
+        AODVTxData txData = new AODVTxData(msg, send, config.queueTimeout);
+        //add to message queue to be processed when route is available
+        dataTxQueue.add(txData);
+        scheduleDataCheck();
+        if (discover) {
+            AODVLog.d(TAG, "sendMessage: Initiating RREQ for route to " + address);
+            discover(msg);
+        }
+    }
+
+    //must hold routeTableLock, on the engine thread. RREQ for queued msg, timed for repeating it
+    private void discover(AODVMessage msg) {
+        short address = msg.header.destAddr;
+        AODVDiscovery discovery = discoveries.get(address);
+        if (discovery == null) {
+            discovery = new AODVDiscovery();
+            discoveries.put(address, discovery);
+        }
+        discovery.retryAt = System.currentTimeMillis() + (RREQ_RETRY_WAIT << Math.min(discovery.attempts, 16));
+        discovery.attempts++;
+        AODVMessage rreq = initRREQ(address);
+        if (config.clustering && cluster.isHead()) {
+            //heads ask for the cluster address is in, on behalf of whoever sent it
+            rreq.header.flags |= AODVHeader.FLAG_CLUSTER;
+            rreq.payload = Short.toString(msg.header.srcAddr);
+            rreq.header.length = (short) rreq.payload.length();
+        }
+        broadcastRREQ(rreq);
+    }
+
+    //must hold routeTableLock. RFC 3561 6.2, a route DATA goes over stays up routeTimeout more at
+    //least. Only multi-hop routes, neighbors stay only as long as we hear them
+    private void extendLifetime(AODVRoute route, long timeMillis) {
+        if (route != null && route.link == null) {
+            route.timeout = Math.max(route.timeout, timeMillis + config.routeTimeout);
+        }
+    }
+
+    /**
+     * must hold routeTableLock. Routes we sent a lot of DATA over are rediscovered shortly before
+     * routeTimeout has passed since their discovery, while the old one still works. Nodes on the
+     * way that don't extend lifetimes, like MK6s, drop their part of it then no matter how busy
+     * it is. The RREQ asks for a newer seq num than ours, so only the destination or a node with
+     * newer news answers and the RREP replaces the route.
+     */
+    private void refreshBusyRoutes(long timeMillis) {
+        for (AODVRoute route : routes.routes()) {
+            if (route.zone || route.sent < REFRESH_MIN_SENT
+                    || route.discovered + config.routeTimeout - timeMillis > config.routeExpiryInterval + REFRESH_MARGIN) {
+                continue;
+            }
+            AODVLog.d(TAG, "refreshBusyRoutes: rediscovering route to " + route.address);
+            route.sent = 0;
+            AODVMessage rreq = initRREQ(route.address);
+            rreq.header.destSeqNum++;
+            broadcastRREQ(rreq);
+        }
+    }
+
+    /**
+     * must hold routeTableLock. The route to msg's destination if we have one. Otherwise DATA
+     * marked for a head goes on toward that head, and with clustering a head marks it for the
+     * head of the destination's cluster and a member hands it to its own head. Null if none of
+     * that works out.
+     */
+    private AODVRoute resolveRoute(AODVMessage msg) {
+        AODVRoute route = getRouteByAddress(msg.header.destAddr);
+        if (route != null) {
+            return route;
+        }
+        if ((msg.header.flags & AODVHeader.FLAG_CLUSTER) != 0) {
+            //at the head itself, the member is gone
+            return msg.header.destSeqNum != self.address ? getRouteByAddress(msg.header.destSeqNum) : null;
+        }
+        short head = config.clustering ? cluster.getHead() : AODVCluster.NONE;
+        if (head == AODVCluster.NONE || AODVGroup.isGroup(msg.header.destAddr)) {
+            return null;
+        }
+        if (head != self.address) {
+            return getNeighborByAddress(head);
+        }
+        short destHead = cluster.getHeadOf(msg.header.destAddr);
+        route = destHead != AODVCluster.NONE ? getRouteByAddress(destHead) : null;
+        if (route != null) {
+            msg.header.flags |= AODVHeader.FLAG_CLUSTER;
+            msg.header.destSeqNum = destHead;
+        }
+        return route;
+    }
+
+    //must hold routeTableLock, on the engine thread
+    private void sendData(AODVMessage msg, AODVRoute route, final AODVSend send) {
+        msg.header.nextId = route.nextHopId;
+        msg.header.nextAddr = route.nextHopAddr;
+        msg.header.hopCnt = route.hopCnt;
+        if ((msg.header.flags & AODVHeader.FLAG_CLUSTER) == 0) {
+            msg.header.destSeqNum = route.seqNum;
+        }
+        //only the source compresses, forwarders pass the body on untouched. A route to a head
+        //says nothing about whether the destination inflates
+        if (route.deflate && route.address == msg.header.destAddr && msg.header.srcAddr == self.address
+                && msg.body == null) {
+            compression.compress(msg, config.compression);
+        }
+        sendMessage(msg);
+        extendLifetime(route, System.currentTimeMillis());
+        if (msg.header.srcAddr == self.address) {
+            route.sent++;
+        }
+        if (send == null) {
+            return;
+        }
+        send.setRoute(route.nextHopAddr, route.hopCnt);
+        if (AODVGroup.isGroup(msg.header.destAddr)) {
+            send.complete(AODVSend.Outcome.UNCONFIRMED);
+            return;
+        }
+        final int key = messageKey(msg.header.destAddr, msg.header.bcastSeqNum);
+        awaitingAck.put(key, send);
+        //only Android neighbors acknowledge for sure, so only their links are judged by it
+        AODVLink link = getLink(msg.header.nextAddr, msg.header.nextId);
+        if (link != null && route.address == msg.header.destAddr && route.address == route.nextHopAddr && routes.getCCNeighborByAddress(route.address) != null) {
+            ackLinks.put(key, link);
+        }
+        //the destination may be an MK6, which never acknowledges
+        postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (routeTableLock) {
+                    if (awaitingAck.get(key) == send) {
+                        awaitingAck.remove(key);
+                        AODVLink link = ackLinks.remove(key);
+                        if (link != null) {
+                            link.onAckLost();
+                        }
+                        send.complete(AODVSend.Outcome.UNCONFIRMED);
+                    }
+                }
+            }
+        }, config.queueTimeout);
+    }
+
+    private static int messageKey(short address, short id) {
+        return (address & 0xFFFF) << 16 | (id & 0xFFFF);
+    }
+
+    private static void count(AtomicLongArray counts, AODVMessageType type) {
+        if (type != null) {
+            counts.incrementAndGet(type.ordinal());
+        }
+    }
+
+    private void sendMessage(AODVMessage msg) {
+        count(sentByType, msg.header.type);
+        msg.header.sendAddr = self.address;
+        msg.header.sendDevType = deviceType;
+        sign(msg);
+        InetSocketAddress udpAddress;
+        synchronized (routeTableLock) {
+            msg.header.nextId = selectInterface(msg.header.nextAddr, msg.header.nextId);
+            AODVLink link = getLink(msg.header.nextAddr, msg.header.nextId);
+            if (link != null) {
+                link.onSent(System.currentTimeMillis(), AODVPacket.AODV_HEADER_SIZE + msg.header.length);
+            }
+            udpAddress = getUDPAddress(msg.header.nextAddr);
+        }
+        if (msg.header.nextId != null) {
+            sendCCMessage(msg);
+        } else if (udpEnabled) {
+            sendUDP(AODVPacket.serializeAODVPacket(msg), msg, udpAddress);
+        }
+    }
+
+    //each neighbor gets it once, a dual-homed one over UDP if the UDP broadcast goes out anyway
+    private void broadcastMessage(AODVMessage msg) {
+        count(sentByType, msg.header.type);
+        msg.header.sendAddr = self.address;
+        msg.header.sendDevType = deviceType;
+        //only broadcasts go to every UDP neighbor, unicasts keep the next hop address
+        msg.header.nextAddr = UDP_BROADCAST_ADDR;
+        msg.header.nextId = null;
+        sign(msg);
+        //CC receivers don't look at nextAddr and nextId, so one encoding goes to every neighbor
+        List<String> endpointIds = new ArrayList<>();
+        boolean udp;
+        synchronized (routeTableLock) {
+            udp = udpEnabled && needsUDPBroadcast();
+            long timeMillis = System.currentTimeMillis();
+            for (AODVRoute neighbor : routes.ccNeighbors().values()) {
+                AODVRoute udpNeighbor = routes.getUDPNeighbor(neighbor.address);
+                if (!udp || udpNeighbor == null || !udpNeighbor.link.isUp(timeMillis, config.helloInterval)) {
+                    endpointIds.add(neighbor.nextHopId);
+                }
+            }
+        }
+        if (!endpointIds.isEmpty()) {
+            sendCCMessage(msg, endpointIds);
+        }
+        if (udp) {
+            broadcastUDPMessage(msg);
+        } else {
+            AODVLog.d(TAG, "broadcastMessage: every UDP neighbor is reached over CC, no UDP broadcast");
+        }
+    }
+
+    //must hold routeTableLock, false when every UDP neighbor is a CC neighbor better reached over CC
+    private boolean needsUDPBroadcast() {
+        if (routes.udpNeighbors().isEmpty()) {
+            //MK6 nodes we haven't heard from yet may still be listening
+            return true;
+        }
+        for (AODVRoute neighbor : routes.udpNeighbors()) {
+            AODVRoute ccNeighbor = routes.getCCNeighborByAddress(neighbor.nextHopAddr);
+            if (ccNeighbor == null || selectInterface(neighbor.nextHopAddr, ccNeighbor.nextHopId) == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //compact to the neighbors that can decode it, tAODVPacket or Java serialization to the rest
+    private void broadcastHELLO(AODVMessage msg) {
+        count(sentByType, msg.header.type);
+        msg.header.sendAddr = self.address;
+        msg.header.sendDevType = deviceType;
+        msg.header.flags |= AODVHeader.FLAG_COMPACT_HELLO;
+        sign(msg);
+        msg.header.nextAddr = UDP_BROADCAST_ADDR;
+        msg.header.nextId = null;
+        byte[] compact = helloCodec.encode(msg);
+        boolean udpCompact;
+        synchronized (routeTableLock) {
+            List<String> compactIds = new ArrayList<>();
+            List<String> serializedIds = new ArrayList<>();
+            for (AODVRoute neighbor : routes.ccNeighbors().values()) {
+                if (compact != null && neighbor.compactHello) {
+                    compactIds.add(neighbor.nextHopId);
+                } else {
+                    serializedIds.add(neighbor.nextHopId);
+                }
+            }
+            if (!compactIds.isEmpty()) {
+                sendCCBytes(msg, compactIds, compact);
+            }
+            if (!serializedIds.isEmpty()) {
+                sendCCMessage(msg, serializedIds);
+            }
+            //one UDP broadcast reaches everyone, so every UDP neighbor has to understand it
+            //decoders older than the trailing flags byte drop FLAG_DUAL, and a new dual-homed neighbor needs to see it
+            udpCompact = compact != null && !routes.udpNeighbors().isEmpty()
+                    && (msg.header.flags & AODVHeader.FLAG_DUAL) == 0;
+            for (AODVRoute neighbor : routes.udpNeighbors()) {
+                udpCompact &= neighbor.compactHello;
+            }
+        }
+        if (udpEnabled) {
+            if (udpCompact) {
+                sendUDP(compact, msg, null);
+            } else {
+                broadcastUDPMessage(msg);
+            }
+        }
+    }
+
+    //the tag covers flags, so they must be final by now. nextAddr isn't covered, so one
+    //signature serves every neighbor of a broadcast
+    private void sign(AODVMessage msg) {
+        AODVAuth auth = this.auth;
+        if (auth != null && AODVAuth.isControl(msg.header.type)) {
+            auth.sign(msg);
+        } else {
+            //forwarded messages may still carry the previous hop's tag
+            msg.header.flags &= ~AODVHeader.FLAG_AUTH;
+        }
+    }
+
+    //only called on the engine thread, so sends need no lock of their own
+    private void sendCCMessage(AODVMessage msg) {
+        sendCCMessage(msg, Collections.singletonList(msg.header.nextId));
+    }
+
+    //encoded once per layout however many endpoints it goes to
+    private void sendCCMessage(AODVMessage msg, List<String> endpointIds) {
+        if (msg.header.type == AODVMessageType.DATA) {
+            //DATA in tAODVPacket layout, so the next hop can forward it without decoding
+            List<String> packetIds = new ArrayList<>();
+            List<String> serializedIds = new ArrayList<>();
+            synchronized (routeTableLock) {
+                for (String endpointId : endpointIds) {
+                    AODVRoute neighbor = routes.getCCNeighbor(endpointId);
+                    if (neighbor != null && neighbor.packetData) {
+                        packetIds.add(endpointId);
+                    } else {
+                        serializedIds.add(endpointId);
+                    }
+                }
+            }
+            if (!packetIds.isEmpty()) {
+                sendCCBytes(msg, packetIds, AODVPacket.serializeAODVPacket(msg));
+            }
+            if (serializedIds.isEmpty()) {
+                return;
+            }
+            endpointIds = serializedIds;
+        }
+        try {
+            sendCCBytes(msg, endpointIds, SerializationHelper.serialize(msg));
+        } catch (IOException e) {
+            AODVLog.e(TAG, "ERROR: Serializing data failed");
+            e.printStackTrace();
+        }
+    }
+
+    //bytes is msg already encoded for the wire
+    private void sendCCBytes(AODVMessage msg, List<String> endpointIds, byte[] bytes) {
+        AODVCapture capture = this.capture;
+        if (capture != null) {
+            for (String endpointId : endpointIds) {
+                capture.record(AODVCapture.DIR_OUT, AODVCapture.TRANSPORT_CC, endpointId, msg);
+            }
+        }
+        ccTransport.sendCC(endpointIds, bytes);
+        ccSent.addAndGet(endpointIds.size());
+        ccBytes.addAndGet((long) bytes.length * endpointIds.size());
+        AODVLog.d(TAG, "sendMessage: Sent AODV CC message to " + endpointIds.size() + " endpoints");
+    }
+
+    private void broadcastUDPMessage(AODVMessage msg) {
+        sendUDP(AODVPacket.serializeAODVPacket(msg), msg, null);
+    }
+
+    //must hold routeTableLock, null when nextAddr isn't a UDP neighbor we have heard a hello from
+    private InetSocketAddress getUDPAddress(short nextAddr) {
+        AODVRoute neighbor = nextAddr != UDP_BROADCAST_ADDR ? routes.getUDPNeighbor(nextAddr) : null;
+        return neighbor != null ? neighbor.udpAddress : null;
+    }
+
+    //outBuffer is msg already encoded for the wire, captures always get the tAODVPacket layout
+    //msg is only needed for captures, forwardPacket passes null
+    //unicasts go to the next hop's address, broadcasts and unicasts to a neighbor not heard from
+    //yet go to every target, receivers check nextAddr
+    //only called on the engine thread like sendCCMessage, so no lock of its own
+    private void sendUDP(byte[] outBuffer, AODVMessage msg, InetSocketAddress address) {
+        DatagramSocket senderSocket = this.senderSocket;
+        if (senderSocket == null) {
+            return;
+        }
+        try {
+            boolean compact = AODVHelloCodec.isCompact(outBuffer, outBuffer.length);
+            if (address != null) {
+                sendUDP(senderSocket, outBuffer, msg, compact, address);
+                return;
+            }
+            for (InetSocketAddress target : getUDPTargets()) {
+                sendUDP(senderSocket, outBuffer, msg, compact, target);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void sendUDP(DatagramSocket senderSocket, byte[] outBuffer, AODVMessage msg, boolean compact,
+                         InetSocketAddress target) throws IOException {
+        DatagramPacket packet = new DatagramPacket(outBuffer, outBuffer.length, target);
+        senderSocket.send(packet);
+        udpSent.incrementAndGet();
+        udpBytes.addAndGet(outBuffer.length);
+        AODVCapture capture = this.capture;
+        if (capture != null && compact) {
+            //encoded into the ring in tAODVPacket layout, like CC messages
+            capture.record(AODVCapture.DIR_OUT, AODVCapture.TRANSPORT_UDP, target.getAddress(),
+                    target.getPort(), msg);
+        } else if (capture != null) {
+            capture.record(AODVCapture.DIR_OUT, AODVCapture.TRANSPORT_UDP, target.getAddress(),
+                    target.getPort(), outBuffer, 0, outBuffer.length);
+        }
+        AODVLog.d(TAG, String.format("AODVClient: Sent : %d bytes to %s", outBuffer.length, target));
+    }
+
+    private List<InetSocketAddress> getUDPTargets() throws UnknownHostException {
+        if (udpTargets != null) {
+            return udpTargets;
+        }
+        List<InetSocketAddress> targets = broadcastTargets;
+        if (targets == null) {
+            //InetAddress broadcastAddr = InetAddress.getByName("192.168.10.255");
+            //send to MK6 wifi
+            InetAddress broadcastAddr = InetAddress.getByName(config.udpBroadcastAddress);
+            targets = Collections.singletonList(new InetSocketAddress(broadcastAddr, config.udpPort));
+            broadcastTargets = targets;
+        }
+        return targets;
+    }
+
+    private void handleAODVMessage(AODVMessage msg) {
+        if (msg.header.sendId == null && msg.header.sendDevType == AODVDeviceType.AND
+                && !acceptsAndroidUDP(msg.header.sendAddr, msg)) {
+            return;
+        }
+        AODVAuth auth = this.auth;
+        if (auth != null && AODVAuth.isControl(msg.header.type) && !auth.verify(msg)) {
+            AODVLog.d(TAG, "handleAODVMessage: dropped unauthenticated " + msg.header.type
+                    + " from " + msg.header.sendAddr);
+            return;
+        }
+        count(receivedByType, msg.header.type);
+        switch (msg.header.type) {
+            case HELO:
+                handleHELLO(msg);
+                break;
+            case DATA:
+                handleDATA(msg);
+                break;
+            case RREQ:
+                handleRREQ(msg);
+                break;
+            case RREP:
+                handleRREP(msg);
+                break;
+            case RERR:
+                handleRERR(msg);
+                break;
+            case MACT:
+                handleMACT(msg);
+                break;
+            case GRPH:
+                handleGRPH(msg);
+                break;
+            default:
+                AODVLog.d(TAG, "handleAODVMessage: unknown type");
+        }
+    }
+
+    private void handleHELLO(AODVMessage msg) {
+        short sendAddr = msg.header.sendAddr;
+        String sendId = msg.header.sendId;
+        AODVLog.d(TAG, "handleHELLO: Received AODV HELLO from: " + sendAddr);
+        AODVRoute neighbor;
+        if (sendId != null && routes.getCCNeighbor(sendId) != null) {
+            neighbor = routes.getCCNeighbor(sendId);
+            //confirms or tells us the address the neighbor advertised
+            if (neighbor != null) {
+                routes.setAddress(neighbor, msg.header.srcAddr);
+                neighbor.nextHopAddr = sendAddr;
+                neighbor.seqNum = msg.header.srcSeqNum;
+                //neighbor.bcastSeqNum = msg.header.bcastSeqNum;
+                neighbor.helloCount++;
+                neighbor.link.onHello(System.currentTimeMillis(), config.helloInterval);
+                neighbor.twoHop = parseNeighbors(msg.payload);
+                updateCapabilities(neighbor, msg);
+                updateCluster(neighbor, msg);
+                updateZone(neighbor, msg);
+            } else {
+                AODVLog.d(TAG, "handleHello: CC neighbor was null");
+            }
+        } else if (routes.getUDPNeighbor(sendAddr) != null) {
+            neighbor = routes.getUDPNeighbor(sendAddr);
+            if (neighbor != null) {
+                if (msg.header.sendUDPAddress != null) {
+                    neighbor.udpAddress = msg.header.sendUDPAddress;
+                }
+                neighbor.seqNum = msg.header.srcSeqNum;
+                //neighbor.bcastSeqNum = msg.header.bcastSeqNum;
+                neighbor.timeout = System.currentTimeMillis() + config.routeTimeout;
+                neighbor.helloCount++;
+                neighbor.link.onHello(System.currentTimeMillis(), config.helloInterval);
+                neighbor.twoHop = parseNeighbors(msg.payload);
+                updateCapabilities(neighbor, msg);
+                updateCluster(neighbor, msg);
+                updateZone(neighbor, msg);
+            } else {
+                AODVLog.d(TAG, "handleHello: UDP neighbor was null");
+            }
+        } else {
+                //make new route for neighbor
+                AODVLog.d(TAG, "handleHELLO: Creating new route for UDP neighbor");
+                neighbor = new AODVRoute();
+                neighbor.address = msg.header.srcAddr;
+                neighbor.nextHopAddr = sendAddr;
+                neighbor.udpAddress = msg.header.sendUDPAddress;
+                neighbor.seqNum = msg.header.srcSeqNum;
+                //neighbor.bcastSeqNum = msg.header.bcastSeqNum;
+                //need a timeout for these neighbors because connection is only maintained by hellos
+                neighbor.timeout = System.currentTimeMillis() + config.routeTimeout;
+                neighbor.link = new AODVLink(UDP_LATENCY);
+                neighbor.link.onHello(System.currentTimeMillis(), config.helloInterval);
+                neighbor.twoHop = parseNeighbors(msg.payload);
+                updateCapabilities(neighbor, msg);
+                updateCluster(neighbor, msg);
+                updateZone(neighbor, msg);
+                routes.putUDPNeighbor(neighbor);
+        }
+    }
+
+    private void updateCapabilities(AODVRoute neighbor, AODVMessage msg) {
+        neighbor.deflate = (msg.header.flags & AODVHeader.FLAG_DEFLATE) != 0;
+        neighbor.packetData = (msg.header.flags & AODVHeader.FLAG_PACKET_DATA) != 0;
+        boolean compactHello = (msg.header.flags & AODVHeader.FLAG_COMPACT_HELLO) != 0;
+        if (compactHello && !neighbor.compactHello) {
+            //deltas are useless to it until it has a keyframe
+            helloCodec.requestKeyframe();
+        }
+        neighbor.compactHello = compactHello;
+    }
+
+    //MK6 and compact hellos never say, so those neighbors count as not clustering
+    private void updateCluster(AODVRoute neighbor, AODVMessage msg) {
+        if (config.clustering) {
+            boolean clustered = (msg.header.flags & AODVHeader.FLAG_CLUSTER) != 0;
+            cluster.onHello(msg.header.srcAddr, clustered, msg.header.destAddr, neighbor.twoHop,
+                    parseRelays(msg.payload), System.currentTimeMillis());
+        }
+    }
+
+    private void updateZone(AODVRoute neighbor, AODVMessage msg) {
+        if (zone != null) {
+            if (neighbor.helloCount <= 1) {
+                zone.requestRefresh();
+            }
+            zone.onHello(msg.header.srcAddr, msg.header.srcSeqNum, neighbor.twoHop, section(msg.payload, '|'),
+                    System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * must hold routeTableLock. Routes to everyone in our zone, and zone routes that left it are
+     * dropped. Routes that were discovered stay until they expire.
+     */
+    private void updateZoneRoutes() {
+        long timeMillis = System.currentTimeMillis();
+        List<Short> neighbors = getNeighborAddresses();
+        short[] firstHops = new short[neighbors.size()];
+        for (int i = 0; i < firstHops.length; i++) {
+            firstHops[i] = neighbors.get(i);
+        }
+        zone.compute(self.address, firstHops, timeMillis, config.helloInterval);
+        for (AODVRoute route : new ArrayList<>(routes.routes())) {
+            //and a neighbor now, which the route would hide
+            if (route.zone && (!zone.contains(route.address) || zone.getHopCount(route.address) == 1)) {
+                routes.removeRoute(route.address);
+            }
+        }
+        for (short destAddr : zone.getDestinations()) {
+            AODVRoute route = routes.get(destAddr);
+            AODVRoute nextHop = getNeighborByAddress(zone.getNextHop(destAddr));
+            if ((route != null && !route.zone) || nextHop == null) {
+                continue;
+            }
+            boolean sameNextHop = route != null && route.nextHopAddr == nextHop.nextHopAddr
+                    && (route.nextHopId == null ? nextHop.nextHopId == null : route.nextHopId.equals(nextHop.nextHopId));
+            if (!sameNextHop) {
+                route = new AODVRoute();
+                route.address = destAddr;
+                route.nextHopAddr = nextHop.nextHopAddr;
+                route.nextHopId = nextHop.nextHopId;
+                route.zone = true;
+                routes.putRoute(route);
+            }
+            route.seqNum = zone.getSeqNum(destAddr);
+            route.hopCnt = zone.getHopCount(destAddr);
+            route.timeout = timeMillis + config.routeTimeout;
+        }
+    }
+
+    //hello payloads list the sender's neighbors as comma separated addresses, MK6 hellos are empty.
+    //Cluster heads follow them with ';' and the relays they picked, zone routing with '|' and the
+    //neighbor lists it passes on, see AODVZone
+    private static short[] parseNeighbors(String payload) {
+        return parseAddresses(section(payload, (char) 0));
+    }
+
+    private static short[] parseRelays(String payload) {
+        return parseAddresses(section(payload, ';'));
+    }
+
+    //what follows marker in a hello payload, up to the next marker, null if it isn't there
+    private static String section(String payload, char marker) {
+        if (payload == null) {
+            return null;
+        }
+        int start = 0;
+        if (marker != 0) {
+            start = payload.indexOf(marker);
+            if (start < 0) {
+                return null;
+            }
+            start++;
+        }
+        if (marker == '|') {
+            return payload.substring(start);
+        }
+        int end = start;
+        while (end < payload.length() && payload.charAt(end) != ';' && payload.charAt(end) != '|') {
+            end++;
+        }
+        return payload.substring(start, end);
+    }
+
+    private static short[] parseAddresses(String payload) {
+        if (payload == null || payload.isEmpty()) {
+            return new short[0];
+        }
+        String[] fields = payload.split(",");
+        short[] addresses = new short[fields.length];
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                addresses[i] = Short.parseShort(fields[i]);
+            }
+        } catch (NumberFormatException e) {
+            AODVLog.d(TAG, "parseAddresses: bad hello payload " + payload);
+            return new short[0];
+        }
+        return addresses;
+    }
+
+    private void handleDATA(AODVMessage msg) {
+        AODVLog.d(TAG, "handleData: Received AODV DATA message");
+        short destAddr = msg.header.destAddr;
+        if (AODVGroup.isGroup(destAddr)) {
+            handleGroupDATA(msg);
+        } else if (destAddr == UDP_BROADCAST_ADDR) {
+            handleBroadcastDATA(msg);
+        } else if (destAddr == self.address && (msg.header.flags & AODVHeader.FLAG_ACK) != 0) {
+            extendLifetime(getRouteByAddress(msg.header.srcAddr), System.currentTimeMillis());
+            int key = messageKey(msg.header.srcAddr, msg.header.bcastSeqNum);
+            AODVSend send = awaitingAck.remove(key);
+            AODVLink link = ackLinks.remove(key);
+            if (send != null) {
+                send.complete(AODVSend.Outcome.DELIVERED);
+                if (link != null) {
+                    link.onAck(send.getLatencyMillis());
+                }
+            }
+        } else if (destAddr == self.address) {
+            AODVLog.d(TAG, "handleData: DATA reached destination: " + destAddr);
+            //the way back, for acknowledgements and replies
+            extendLifetime(getRouteByAddress(msg.header.srcAddr), System.currentTimeMillis());
+            if (msg.body != null) {
+                String payload = compression.decompress(msg);
+                if (payload == null) {
+                    AODVLog.d(TAG, "handleData: dropping DATA that doesn't inflate from " + msg.header.srcAddr);
+                    return;
+                }
+                msg.payload = payload;
+                msg.body = null;
+                msg.header.length = (short) payload.length();
+            }
+            deliver(msg.header.srcAddr, msg.payload);
+            if ((msg.header.flags & AODVHeader.FLAG_ACK_REQ) != 0) {
+                sendAck(msg);
+            }
+        } else {
+            AODVLog.d(TAG, "handleData: DATA in transit to: " + destAddr);
+            AODVRoute route = resolveRoute(msg);
+            if (route != null) {
+                msg.header.nextId = route.nextHopId;
+                msg.header.nextAddr = route.nextHopAddr;
+                sendMessage(msg);
+                long timeMillis = System.currentTimeMillis();
+                extendLifetime(route, timeMillis);
+                extendLifetime(getRouteByAddress(msg.header.srcAddr), timeMillis);
+                if (load != null) {
+                    load.onForwarded(timeMillis);
+                }
+                relayed.incrementAndGet();
+                AODVLog.d(TAG, "handleData: Sent DATA to next hop: " + route.nextHopAddr);
+            } else if (config.clustering && cluster.isHead() && (msg.header.flags & AODVHeader.FLAG_CLUSTER) == 0) {
+                //from one of our members, we find the destination's cluster for it
+                sendOrQueue(msg, null, !isQueued(destAddr));
+            } else {
+                AODVLog.d(TAG, "handleData: DATA error for: " + destAddr);
+                short srcAddr = msg.header.srcAddr;
+                AODVMessage rerr = initRERR(srcAddr);
+                if (rerr != null) {
+                    //tells the source which destination failed
+                    rerr.payload = Short.toString(destAddr);
+                    rerr.header.length = (short) rerr.payload.length();
+                    self.seqNum++; //increase seq num for rerr?
+                    reserveSeqNums();
+                    sendMessage(rerr);
+                } else {
+                    //nothing can be done, drop message
+                    AODVLog.d(TAG, "handleData: dropping RERR message");
+                }
+            }
+        }
+    }
+
+    //do whatever with data, in our case post it to the text view
+    private void deliver(short srcAddr, String payload) {
+        if (listener != null) {
+            listener.onDataReceived(srcAddr, payload);
+        }
+        events.publish(AODVEvent.data(srcAddr, payload));
+    }
+
+    /**
+     * Counter-based flooding: the first copy is delivered and rebroadcast after a random wait.
+     * Copies heard during the wait mean the neighbors already have it, so enough of them cancel
+     * the rebroadcast.
+     */
+    private void handleBroadcastDATA(AODVMessage msg) {
+        short srcAddr = msg.header.srcAddr;
+        short id = msg.header.bcastSeqNum;
+        if (!seenBroadcasts.add(srcAddr, id)) {
+            AODVTxBroadcast pending = pendingBroadcasts.get(messageKey(srcAddr, id));
+            if (pending != null) {
+                pending.copies++;
+            }
+            return;
+        }
+        String payload = msg.payload;
+        if ((msg.header.flags & AODVHeader.FLAG_GEO) != 0) {
+            AODVGeoScope scope = AODVGeoScope.parse(payload);
+            if (scope == null) {
+                AODVLog.d(TAG, "handleBroadcastDATA: dropping broadcast with a bad scope from " + srcAddr);
+                return;
+            }
+            if (!Double.isNaN(latitude) && !scope.contains(latitude, longitude)) {
+                AODVLog.d(TAG, "handleBroadcastDATA: outside the scope of a broadcast from " + srcAddr);
+                return;
+            }
+            payload = AODVGeoScope.strip(payload);
+        }
+        deliver(srcAddr, payload);
+        if (msg.header.hopCnt <= 1) {
+            return;
+        }
+        msg.header.hopCnt--;
+        final int key = messageKey(srcAddr, id);
+        final AODVTxBroadcast pending = new AODVTxBroadcast(msg);
+        pendingBroadcasts.put(key, pending);
+        postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (routeTableLock) {
+                    if (pendingBroadcasts.get(key) != pending) {
+                        return;
+                    }
+                    pendingBroadcasts.remove(key);
+                    if (pending.copies < config.broadcastSuppression) {
+                        broadcastMessage(pending.msg);
+                    } else {
+                        AODVLog.d(TAG, "handleBroadcastDATA: suppressed after " + pending.copies + " copies");
+                    }
+                }
+            }
+        }, (long) (random.nextDouble() * config.broadcastJitter));
+    }
+
+    private void handleGroupDATA(AODVMessage msg) {
+        short groupAddr = msg.header.destAddr;
+        AODVGroup group = groups.get(groupAddr);
+        boolean broadcast = msg.header.nextAddr == UDP_BROADCAST_ADDR;
+        if (group != null && group.isOnTree()) {
+            short sendAddr = msg.header.sendAddr;
+            //a UDP copy for the tree links of a node that isn't one of ours
+            if (broadcast && !group.links.contains(sendAddr)) {
+                return;
+            }
+            if (!seenGroupData.add(msg.header.srcAddr, msg.header.bcastSeqNum)) {
+                AODVLog.d(TAG, "handleGroupDATA: dropping duplicate from " + msg.header.srcAddr);
+                return;
+            }
+            if (group.member) {
+                deliver(msg.header.srcAddr, msg.payload);
+            }
+            forwardOnTree(msg, group, sendAddr);
+        } else if (!broadcast) {
+            //a sender off the tree unicasts towards it
+            AODVRoute route = getRouteByAddress(groupAddr);
+            if (route != null) {
+                msg.header.nextId = route.nextHopId;
+                msg.header.nextAddr = route.nextHopAddr;
+                sendMessage(msg);
+            } else {
+                AODVLog.d(TAG, "handleGroupDATA: no route to the tree of " + groupAddr);
+            }
+        }
+    }
+
+    //one copy per tree link except the one it came from, UDP links share one broadcast
+    private void forwardOnTree(AODVMessage msg, AODVGroup group, short fromAddr) {
+        boolean udp = false;
+        for (short link : group.links) {
+            if (link == fromAddr || link == msg.header.srcAddr) {
+                continue;
+            }
+            AODVRoute neighbor = getNeighborByAddress(link);
+            if (neighbor == null) {
+                continue;
+            }
+            if (neighbor.nextHopId != null) {
+                msg.header.nextId = neighbor.nextHopId;
+                msg.header.nextAddr = link;
+                sendMessage(msg);
+            } else {
+                udp = true;
+            }
+        }
+        if (udp && udpEnabled) {
+            msg.header.nextId = null;
+            msg.header.nextAddr = UDP_BROADCAST_ADDR;
+            sendMessage(msg);
+        }
+    }
+
+    private void handleRREQ(AODVMessage msg) {
+        short srcAddr = msg.header.srcAddr;
+        short destAddr = msg.header.destAddr;
+        AODVLog.d(TAG, "handleRREQ: Received AODV RREQ from: " + srcAddr);
+        if (srcAddr == self.address) {
+            return;
+        }
+        boolean clustered = config.clustering && cluster.getHead() != AODVCluster.NONE
+                && (msg.header.flags & AODVHeader.FLAG_CLUSTER) != 0;
+        if (clustered && !cluster.isBackbone()) {
+            //our head answers for us and the relays carry it on, no route to keep
+            return;
+        }
+        int pathLoad = AODVLoad.parse(msg.payload);
+        AODVRoute srcRoute = getRouteByAddress(srcAddr);
+        //set up reverse route to src if one doesn't exist
+        if (srcRoute == null) {
+            AODVLog.d(TAG, "handleRREQ: creating reverse route to: " + srcAddr);
+            srcRoute = putReverseRoute(msg, null, pathLoad);
+        }
+        //the destination answers over the path of the copy it answers, so it can pick the lighter one
+        boolean loadAware = load != null && destAddr == self.address && srcRoute.link == null;
+        //check bcast seq num for route freshness and to prevent loops
+        if (msg.header.bcastSeqNum <= srcRoute.bcastSeqNum) {
+            if (loadAware && msg.header.bcastSeqNum == srcRoute.bcastSeqNum
+                    && pathLoad + AODVLoad.MARGIN <= srcRoute.load) {
+                AODVLog.d(TAG, String.format("handleRREQ: answering a copy from %d that came a lighter way, load %d",
+                        srcAddr, pathLoad));
+                putReverseRoute(msg, srcRoute, pathLoad);
+                sendRREP(msg, null, pathLoad);
+            }
+            return;
+        }
+        //RFC 3561 6.5, a fresher or shorter way back replaces the reverse route
+        if (loadAware || msg.header.srcSeqNum > srcRoute.seqNum
+                || (msg.header.srcSeqNum == srcRoute.seqNum && msg.header.hopCnt + 1 < srcRoute.hopCnt)) {
+            AODVRoute old = srcRoute;
+            srcRoute = putReverseRoute(msg, srcRoute, pathLoad);
+            if (srcRoute != old) {
+                AODVLog.d(TAG, "handleRREQ: updating reverse route to: " + srcAddr);
+            }
+        }
+        srcRoute.bcastSeqNum = msg.header.bcastSeqNum;
+        //the RREP comes back this way
+        extendLifetime(srcRoute, System.currentTimeMillis());
+        srcRoute.deflate = (msg.header.flags & AODVHeader.FLAG_DEFLATE) != 0;
+        //hops from the originator to whoever we pass it on to
+        msg.header.hopCnt++;
+        if (AODVGroup.isGroup(destAddr)) {
+            handleGroupRREQ(msg);
+            return;
+        }
+        if (clustered) {
+            handleClusterRREQ(msg);
+            return;
+        }
+
+        AODVRoute destRoute = getRouteByAddress(destAddr);
+        //a zone route is as fresh as the hellos it came from
+        if (destAddr == self.address
+                || (destRoute != null && (destRoute.zone || msg.header.destSeqNum <= destRoute.seqNum))) {
+            sendRREP(msg, destAddr == self.address ? null : destRoute, pathLoad);
+        } else if (zone != null && !reachesPast(msg.header.sendAddr)) {
+            AODVLog.d(TAG, "handleRREQ: not rebroadcasting RREQ for: " + destAddr + ", no one new would hear it");
+        } else {
+            rebroadcastRREQ(msg);
+        }
+    }
+
+    //must hold routeTableLock. destRoute is null when we are the destination
+    private void sendRREP(AODVMessage rreq, AODVRoute destRoute, int pathLoad) {
+        short srcAddr = rreq.header.srcAddr;
+        self.seqNum++; //inc seq num?
+        reserveSeqNums();
+        AODVMessage rrep = initRREP(rreq.header.destAddr, srcAddr);
+        if (rrep != null) {
+            if (destRoute == null || destRoute.deflate) {
+                rrep.header.flags |= AODVHeader.FLAG_DEFLATE;
+            }
+            if (load != null) {
+                addLoad(rrep, destRoute == null ? pathLoad : Math.max(pathLoad, destRoute.load));
+            }
+            AODVLog.d(TAG, "handleRREQ: sending RREP to: " + srcAddr);
+            sendMessage(rrep);
+            if (destRoute != null && (rreq.header.flags & AODVHeader.FLAG_GRATUITOUS) != 0) {
+                sendGratuitousRREP(rreq, pathLoad);
+            }
+        } else {
+            AODVLog.d(TAG, "handleRREQ: dropping RREP to: " + srcAddr);
+        }
+    }
+
+    /**
+     * must hold routeTableLock. We answered for the destination from our own route, so it never
+     * saw the RREQ. This gives it the route back to the originator, with the originator's seq num,
+     * so its first reply doesn't flood another RREQ.
+     */
+    private void sendGratuitousRREP(AODVMessage rreq, int pathLoad) {
+        AODVMessage rrep = initRREP(rreq.header.srcAddr, rreq.header.destAddr);
+        if (rrep == null) {
+            return;
+        }
+        rrep.header.srcSeqNum = rreq.header.srcSeqNum;
+        rrep.header.flags |= AODVHeader.FLAG_GRATUITOUS;
+        if ((rreq.header.flags & AODVHeader.FLAG_DEFLATE) != 0) {
+            rrep.header.flags |= AODVHeader.FLAG_DEFLATE;
+        }
+        if (load != null) {
+            addLoad(rrep, pathLoad);
+        }
+        AODVLog.d(TAG, "handleRREQ: sending gratuitous RREP for " + rreq.header.srcAddr + " to: " + rreq.header.destAddr);
+        sendMessage(rrep);
+    }
+
+    /**
+     * must hold routeTableLock. The route back to an RREQ's source along the way this copy came,
+     * replacing old unless that is a neighbor or a zone route. pathLoad is the load the copy carried.
+     */
+    private AODVRoute putReverseRoute(AODVMessage rreq, AODVRoute old, int pathLoad) {
+        if (old != null && (old.link != null || old.zone)) {
+            return old;
+        }
+        long timeMillis = System.currentTimeMillis();
+        AODVRoute route = new AODVRoute();
+        route.address = rreq.header.srcAddr;
+        route.seqNum = rreq.header.srcSeqNum;
+        route.nextHopId = rreq.header.sendId;
+        route.nextHopAddr = rreq.header.sendAddr;
+        route.hopCnt = (byte) (rreq.header.hopCnt + 1);
+        route.timeout = timeMillis + config.routeTimeout;
+        route.discovered = timeMillis;
+        route.load = pathLoad;
+        if (old != null) {
+            route.bcastSeqNum = old.bcastSeqNum;
+            route.deflate = old.deflate;
+            route.sent = old.sent;
+        }
+        routes.putRoute(route);
+        return route;
+    }
+
+    /**
+     * must hold routeTableLock. With load-aware discovery a busy node waits before passing an
+     * RREQ on, longer the busier it is, so copies that came a quieter way get ahead. An
+     * overloaded one leaves it to the sender's other neighbors.
+     */
+    private void rebroadcastRREQ(final AODVMessage msg) {
+        short destAddr = msg.header.destAddr;
+        int ours = load != null ? getLoad() : 0;
+        if (ours >= AODVLoad.SKIP_LOAD && hasOtherNeighbors(msg.header.sendAddr)) {
+            AODVLog.d(TAG, "handleRREQ: too busy to rebroadcast RREQ for: " + destAddr + ", load " + ours);
+            return;
+        }
+        long delay = AODVLoad.rebroadcastDelay(ours, config.broadcastJitter);
+        //make sure no loops are happening with this
+        AODVLog.d(TAG, "handleRREQ: rebroadcasting RREQ for: " + destAddr + (delay > 0 ? " in " + delay + " ms" : ""));
+        if (delay == 0) {
+            broadcastRREQ(msg);
+            return;
+        }
+        postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (routeTableLock) {
+                    broadcastRREQ(msg);
+                }
+            }
+        }, delay);
+    }
+
+    //must hold routeTableLock. With load-aware discovery the RREQ says how busy its path is so far
+    private void broadcastRREQ(AODVMessage rreq) {
+        if (load != null) {
+            addLoad(rreq, AODVLoad.parse(rreq.payload));
+        }
+        broadcastMessage(rreq);
+    }
+
+    //must hold routeTableLock. The higher of pathLoad and ours goes at the end of the payload
+    private void addLoad(AODVMessage msg, int pathLoad) {
+        msg.payload = AODVLoad.append(msg.payload, Math.max(pathLoad, getLoad()));
+        msg.header.length = (short) msg.payload.length();
+    }
+
+    //must hold routeTableLock, only with load-aware discovery
+    private int getLoad() {
+        //not counting the message being handled
+        return load.get(System.currentTimeMillis(), Math.max(0, pendingCount.get() - 1));
+    }
+
+    //must hold routeTableLock. Whether sendAddr's last hello listed someone besides us
+    private boolean hasOtherNeighbors(short sendAddr) {
+        AODVRoute sender = getNeighborByAddress(sendAddr);
+        if (sender == null) {
+            return false;
+        }
+        for (short address : sender.twoHop) {
+            if (address != self.address) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * must hold routeTableLock. Whether we have a neighbor that neither sendAddr nor any of its
+     * neighbors is, so a rebroadcast would reach someone its broadcast didn't. If not, the RREQ
+     * already got to all our neighbors, and on past the zone edge to the nodes that answer from
+     * their own zone.
+     */
+    private boolean reachesPast(short sendAddr) {
+        AODVRoute sender = getNeighborByAddress(sendAddr);
+        if (sender == null) {
+            return true;
+        }
+        Set<Short> heard = new HashSet<>();
+        heard.add(sendAddr);
+        for (short address : sender.twoHop) {
+            heard.add(address);
+        }
+        for (short address : getNeighborAddresses()) {
+            if (!heard.contains(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Heads answer for their members and themselves, with their own address as the RREP's source,
+     * and learn the cluster of the member the asking head is after a route for. Relays and heads
+     * carry the RREQ on, there are no intermediate replies between clusters.
+     */
+    private void handleClusterRREQ(AODVMessage msg) {
+        short srcAddr = msg.header.srcAddr;
+        short destAddr = msg.header.destAddr;
+        if (!cluster.isHead()) {
+            AODVLog.d(TAG, "handleClusterRREQ: relaying RREQ for: " + destAddr);
+            broadcastRREQ(msg);
+            return;
+        }
+        short member = parseAddress(msg.payload);
+        if (member != 0) {
+            cluster.learn(member, srcAddr);
+        }
+        if (destAddr != self.address && !cluster.isMember(destAddr)) {
+            AODVLog.d(TAG, "handleClusterRREQ: rebroadcasting RREQ for: " + destAddr);
+            broadcastRREQ(msg);
+            return;
+        }
+        self.seqNum++;
+        reserveSeqNums();
+        AODVMessage rrep = initRREP(self.address, srcAddr);
+        if (rrep != null) {
+            rrep.header.flags |= AODVHeader.FLAG_CLUSTER;
+            if (destAddr == self.address) {
+                rrep.header.flags |= AODVHeader.FLAG_DEFLATE;
+            }
+            rrep.payload = Short.toString(destAddr);
+            rrep.header.length = (short) rrep.payload.length();
+            if (load != null) {
+                addLoad(rrep, AODVLoad.parse(msg.payload));
+            }
+            AODVLog.d(TAG, "handleClusterRREQ: sending RREP for " + destAddr + " to: " + srcAddr);
+            sendMessage(rrep);
+        } else {
+            AODVLog.d(TAG, "handleClusterRREQ: dropping RREP to: " + srcAddr);
+        }
+    }
+
+    /**
+     * Tree nodes answer, other senders may also use a route to the tree. destSeqNum of a join
+     * is the joiner's leader, 0 for a lone member. The tree answers lone members, a lone member
+     * only answers higher addresses and a fragment only answers leaders higher than its own.
+     */
+    private void handleGroupRREQ(AODVMessage msg) {
+        short groupAddr = msg.header.destAddr;
+        short srcAddr = msg.header.srcAddr;
+        AODVGroup group = groups.get(groupAddr);
+        boolean onTree = group != null && group.isOnTree();
+        boolean answer;
+        if ((msg.header.flags & AODVHeader.FLAG_JOIN) == 0) {
+            answer = onTree || getRouteByAddress(groupAddr) != null;
+        } else if (!onTree) {
+            answer = false;
+        } else if (msg.header.destSeqNum == 0) {
+            answer = !group.links.isEmpty() || self.address < srcAddr;
+        } else {
+            answer = group.leader < msg.header.destSeqNum;
+        }
+        if (!answer) {
+            broadcastMessage(msg);
+            return;
+        }
+        AODVMessage rrep = initRREP(groupAddr, srcAddr);
+        if (rrep != null) {
+            if ((msg.header.flags & AODVHeader.FLAG_JOIN) != 0) {
+                rrep.header.flags |= AODVHeader.FLAG_JOIN;
+                rrep.header.destSeqNum = group.leader;
+            }
+            AODVLog.d(TAG, String.format("handleGroupRREQ: answering %d for group %d", srcAddr, groupAddr));
+            sendMessage(rrep);
+        }
+    }
+
+    private void handleRREP(AODVMessage msg) {
+        short srcAddr = msg.header.srcAddr;
+        short destAddr = msg.header.destAddr;
+        if (AODVGroup.isGroup(srcAddr) && (msg.header.flags & AODVHeader.FLAG_JOIN) != 0) {
+            handleJoinRREP(msg);
+            return;
+        }
+        AODVLog.d(TAG, "handleRREP: Received AODV RREP message from: " + srcAddr);
+        AODVRoute srcRoute = getRouteByAddress(srcAddr);
+        //to prevent loops, only forward one of each rrep
+        //is this correct?
+        int pathLoad = AODVLoad.parse(msg.payload);
+        //of competing answers to our own RREQ, the one that came the lighter way wins
+        boolean lighter = load != null && destAddr == self.address && srcRoute != null && srcRoute.link == null
+                && msg.header.srcSeqNum == srcRoute.seqNum && pathLoad + AODVLoad.MARGIN <= srcRoute.load;
+        boolean stale = srcRoute != null && msg.header.srcSeqNum <= srcRoute.seqNum && !lighter;
+        //a gratuitous RREP about the same RREQ our route came from still has to get to its destination
+        boolean passOn = stale && (msg.header.flags & AODVHeader.FLAG_GRATUITOUS) != 0
+                && msg.header.srcSeqNum == srcRoute.seqNum && destAddr != self.address;
+        if (stale && !passOn) {
+            AODVLog.d(TAG, String.format("Dropping RREP from %d to %d", srcAddr, destAddr));
+            return;
+        }
+        if (passOn) {
+            AODVLog.d(TAG, "handleRREP: passing on gratuitous RREP for: " + srcAddr);
+        } else if (srcRoute == null || srcRoute.link == null) {
+            //a fresher RREP replaces a multi-hop route, e.g. one refreshBusyRoutes asked for
+            AODVLog.d(TAG, (srcRoute == null ? "handleRREP: Creating" : "handleRREP: Updating")
+                    + " forward route to: " + srcAddr);
+            AODVRoute old = srcRoute;
+            srcRoute = new AODVRoute();
+            srcRoute.address = srcAddr;
+            srcRoute.nextHopId = msg.header.sendId;
+            srcRoute.nextHopAddr = msg.header.sendAddr;
+            srcRoute.seqNum = msg.header.srcSeqNum;
+            srcRoute.hopCnt = (byte) (msg.header.hopCnt - 1);
+            srcRoute.discovered = System.currentTimeMillis();
+            srcRoute.load = pathLoad;
+            if (old != null) {
+                srcRoute.bcastSeqNum = old.bcastSeqNum;
+            }
+            routes.putRoute(srcRoute);
+        }
+        srcRoute.timeout = System.currentTimeMillis() + config.routeTimeout;
+        //lost if an MK6 on the way rewrote the header, then we don't compress
+        srcRoute.deflate = (msg.header.flags & AODVHeader.FLAG_DEFLATE) != 0;
+        short member = parseAddress(msg.payload);
+        if (config.clustering && (msg.header.flags & AODVHeader.FLAG_CLUSTER) != 0 && member != 0) {
+            //the head that answered is who the member's DATA goes to
+            cluster.learn(member, srcAddr);
+        }
+        AODVRoute destRoute = getRouteByAddress(destAddr);
+        if (destAddr == self.address) {
+            AODVLog.d(TAG, "handleRREP: RREP reached destination");
+        } else if (destRoute != null) {
+            AODVLog.d(TAG, "handleRREP: Forwarding RREP to next hop");
+            msg.header.nextId = destRoute.nextHopId;
+            msg.header.nextAddr = destRoute.nextHopAddr;
+            msg.header.hopCnt--;
+            if (load != null) {
+                addLoad(msg, pathLoad);
+            }
+            sendMessage(msg);
+        } else {
+            AODVLog.d(TAG, String.format("handleRREP: ERROR in RREP from %s to %s", srcAddr, destAddr));
+            //self.seqNum++;
+            AODVMessage rerr = initRERR(srcAddr);
+            if (rerr != null) {
+                sendMessage(rerr);
+            } else {
+                AODVLog.d(TAG, "handleRREP: dropping RERR to: " + srcAddr);
+            }
+        }
+        /*
+        if (destAddr == self.address || srcRoute != null) {
+            if (destAddr == self.address || msg.header.srcSeqNum <= srcRoute.seqNum) {
+                //create forward route to dest
+                AODVRoute destRoute = getRouteByAddress(destAddr);
+                if (srcRoute == null) {
+                    AODVLog.d(TAG, "handleRREP: Creating forward route to: " + srcAddr);
+                    srcRoute = new AODVRoute();
+                    srcRoute.address = srcAddr;
+                    srcRoute.nextHopId = msg.header.sendId;
+                    srcRoute.nextHopAddr = msg.header.sendAddr;
+                    srcRoute.hopCnt = (byte) (msg.header.hopCnt - 1);
+                }
+                //to prevent loops, only forward one of each rrep
+                if (srcRoute.seqNum >= msg.header.srcSeqNum) {
+                    return;
+                }
+                srcRoute.seqNum = msg.header.srcSeqNum;
+                srcRoute.timeout = System.currentTimeMillis() + config.routeTimeout;
+            }
+
+            if (destAddr == self.address) {
+                AODVLog.d(TAG, "handleRREP: RREP reached destination");
+            } else {
+                msg.header.nextId = destRoute.nextHopId;
+                msg.header.nextAddr = destRoute.nextHopAddr;
+                msg.header.hopCnt--;
+                AODVLog.d(TAG, "handleRREP: Forwarding RREP to next hop");
+                sendMessage(msg);
+            }
+        } else {
+            AODVLog.d(TAG, String.format("handleRREP: ERROR in RREP from %s to %s", srcAddr, destAddr));
+            AODVMessage rerr = initRERR(srcAddr);
+            if (rerr != null) {
+                sendMessage(rerr);
+            } else {
+                AODVLog.d(TAG, "handleRREP: dropping RERR to: " + srcAddr);
+            }
+        }
+         */
+    }
+
+    //remembers the branch it came along, the joiner's MACT activates one of them
+    private void handleJoinRREP(AODVMessage msg) {
+        short groupAddr = msg.header.srcAddr;
+        short joiner = msg.header.destAddr;
+        AODVGroup group = groups.get(groupAddr);
+        if (joiner == self.address) {
+            //the first answer wins, later ones would make a loop
+            short leader = msg.header.destSeqNum;
+            boolean lone = group != null && group.member && group.links.isEmpty();
+            boolean leading = group != null && group.member && group.leader == self.address;
+            if (lone || (leading && leader < self.address)) {
+                AODVLog.d(TAG, String.format("handleJoinRREP: grafting onto group %d via %d, leader %d",
+                        groupAddr, msg.header.sendAddr, leader));
+                long timeMillis = System.currentTimeMillis();
+                group.links.add(msg.header.sendAddr);
+                group.setLeader((short) Math.min(leader, self.address), timeMillis);
+                group.leaderTimeout = timeMillis + GROUP_HELLO_LOSS * config.routeExpiryInterval;
+                group.joinAttempts = 0;
+                sendMACT(groupAddr, joiner, msg.header.sendAddr, (byte) 0);
+            }
+            return;
+        }
+        AODVRoute route = getRouteByAddress(joiner);
+        if (route == null) {
+            AODVLog.d(TAG, "handleJoinRREP: no route back to " + joiner);
+            return;
+        }
+        if (group == null) {
+            group = new AODVGroup(groupAddr);
+            groups.put(groupAddr, group);
+        }
+        if (!group.grafts.containsKey(joiner)) {
+            group.grafts.put(joiner, msg.header.sendAddr);
+        }
+        group.graftTimeout = System.currentTimeMillis() + config.routeTimeout;
+        msg.header.nextId = route.nextHopId;
+        msg.header.nextAddr = route.nextHopAddr;
+        msg.header.hopCnt++;
+        sendMessage(msg);
+    }
+
+    //grafts walk from the joiner up to the tree, prunes go one hop
+    private void handleMACT(AODVMessage msg) {
+        short groupAddr = msg.header.destAddr;
+        short joiner = msg.header.srcAddr;
+        short sendAddr = msg.header.sendAddr;
+        AODVGroup group = groups.get(groupAddr);
+        if ((msg.header.flags & AODVHeader.FLAG_PRUNE) != 0) {
+            if (group != null) {
+                AODVLog.d(TAG, String.format("handleMACT: %d left the tree of group %d", sendAddr, groupAddr));
+                group.links.remove(sendAddr);
+                pruneIfLeaf(group);
+            }
+            return;
+        }
+        if (group == null) {
+            sendMACT(groupAddr, joiner, sendAddr, AODVHeader.FLAG_PRUNE);
+            return;
+        }
+        boolean onTree = group.isOnTree();
+        group.links.add(sendAddr);
+        if (onTree) {
+            AODVLog.d(TAG, String.format("handleMACT: %d grafted onto group %d", joiner, groupAddr));
+            return;
+        }
+        Short upstream = group.grafts.remove(joiner);
+        if (upstream == null || getNeighborByAddress(upstream) == null) {
+            //the branch is gone, the joiner tries again
+            group.links.remove(sendAddr);
+            sendMACT(groupAddr, joiner, sendAddr, AODVHeader.FLAG_PRUNE);
+            return;
+        }
+        group.links.add(upstream);
+        sendMACT(groupAddr, joiner, upstream, (byte) 0);
+    }
+
+    //a forwarder with a single link serves nobody
+    private void pruneIfLeaf(AODVGroup group) {
+        if (!group.member && group.links.size() == 1) {
+            short last = group.links.iterator().next();
+            group.links.clear();
+            sendMACT(group.address, self.address, last, AODVHeader.FLAG_PRUNE);
+        }
+        if (!group.isOnTree() && group.grafts.isEmpty()) {
+            groups.remove(group.address);
+        }
+    }
+
+    //must hold routeTableLock, every routeExpiryInterval
+    private void maintainGroups(long timeMillis) {
+        long interval = config.routeExpiryInterval;
+        for (AODVGroup group : new ArrayList<>(groups.values())) {
+            Iterator<Short> it = group.links.iterator();
+            while (it.hasNext()) {
+                if (getNeighborByAddress(it.next()) == null) {
+                    it.remove();
+                }
+            }
+            if (group.graftTimeout < timeMillis) {
+                group.grafts.clear();
+            }
+            boolean leading = group.member && group.leader == self.address;
+            if (leading) {
+                group.leaderTimeout = timeMillis + GROUP_HELLO_LOSS * interval;
+                if (!group.links.isEmpty()) {
+                    AODVMessage grph = initGRPH(group.address);
+                    seenGroupData.add(self.address, grph.header.bcastSeqNum);
+                    forwardOnTree(grph, group, self.address);
+                }
+            } else if (group.leaderTimeout < timeMillis) {
+                //the leader left or we were cut off, the lowest member left takes over
+                group.setLeader(group.member ? self.address : AODVGroup.NO_LEADER, timeMillis);
+                group.leaderTimeout = timeMillis + GROUP_HELLO_LOSS * interval;
+            }
+            if (group.member && group.links.isEmpty()) {
+                if (group.nextJoin <= timeMillis) {
+                    joinTree(group, timeMillis);
+                }
+            } else if (leading) {
+                //only once our own fragment agrees on us, otherwise it could answer itself
+                if (timeMillis - group.leaderSince >= GROUP_HELLO_LOSS * interval && group.nextJoin <= timeMillis) {
+                    joinTree(group, timeMillis);
+                }
+            } else if (!group.member) {
+                pruneIfLeaf(group);
+            }
+        }
+    }
+
+    //a lone member asks to join, a leader looks for fragments with a lower leader
+    private void joinTree(AODVGroup group, long timeMillis) {
+        AODVLog.d(TAG, "joinTree: looking for the tree of group " + group.address);
+        AODVMessage rreq = initRREQ(group.address);
+        rreq.header.flags |= AODVHeader.FLAG_JOIN;
+        rreq.header.destSeqNum = group.links.isEmpty() ? 0 : group.leader;
+        broadcastMessage(rreq);
+        group.nextJoin = timeMillis + (config.routeExpiryInterval << Math.min(group.joinAttempts, MAX_JOIN_BACKOFF));
+        group.joinAttempts++;
+    }
+
+    /**
+     * A lower leader wins, our own leader's GRPH keeps it alive. It is answered with a MACT, so
+     * the link it came over is restored if the other end dropped it, e.g. after missed hellos.
+     */
+    private void handleGRPH(AODVMessage msg) {
+        AODVGroup group = groups.get(msg.header.destAddr);
+        if (group == null || !group.links.contains(msg.header.sendAddr)
+                || !seenGroupData.add(msg.header.srcAddr, msg.header.bcastSeqNum)) {
+            return;
+        }
+        long timeMillis = System.currentTimeMillis();
+        short leader = msg.header.srcAddr;
+        boolean stale = group.leaderTimeout < timeMillis;
+        if ((leader <= group.leader || stale) && !(group.member && self.address < leader)) {
+            group.setLeader(leader, timeMillis);
+            group.leaderTimeout = timeMillis + GROUP_HELLO_LOSS * config.routeExpiryInterval;
+            forwardOnTree(msg, group, msg.header.sendAddr);
+            sendMACT(group.address, self.address, msg.header.sendAddr, (byte) 0);
+        }
+    }
+
+    private void sendMACT(short groupAddr, short joiner, short neighborAddr, byte flags) {
+        AODVRoute neighbor = getNeighborByAddress(neighborAddr);
+        if (neighbor == null) {
+            return;
+        }
+        AODVMessage mact = initMACT(groupAddr, joiner, flags);
+        mact.header.nextId = neighbor.nextHopId;
+        mact.header.nextAddr = neighborAddr;
+        sendMessage(mact);
+    }
+
+    private void handleRERR(AODVMessage msg) {
+        short srcAddr = msg.header.srcAddr;
+        short destAddr = msg.header.destAddr;
+        AODVLog.d(TAG, "handleRERR: Received AODV RERR message from: " + srcAddr);
+        removeRouteByAddress(srcAddr);
+        short unreachable = parseAddress(msg.payload);
+        if (unreachable != 0 && config.clustering) {
+            //it may have moved to another cluster
+            cluster.forget(unreachable);
+        }
+        if (unreachable != 0) {
+            //only drop our route if it went through the node that sent the RERR
+            AODVRoute route = getRouteByAddress(unreachable);
+            if (route != null && route.nextHopAddr == msg.header.sendAddr) {
+                removeRouteByAddress(unreachable);
+            }
+        }
+        if (destAddr == self.address) {
+            AODVLog.d(TAG, "handleRERR: RERR reached destination");
+            if (unreachable != 0) {
+                failAwaitingAck(unreachable);
+            }
+        } else {
+            AODVRoute route = resolveRoute(msg);
+            if (route != null) {
+                AODVLog.d(TAG, "handleRERR: Forwarding RERR to next hop: " + route.nextHopAddr);
+                msg.header.nextId = route.nextHopId;
+                msg.header.nextAddr = route.nextHopAddr;
+                //msg.header.sendAddr = self.address;
+                sendMessage(msg);
+            } else {
+                AODVLog.d(TAG, "handleRERR: Dropping RERR to: " + destAddr);
+            }
+        }
+    }
+
+    //0 for RERRs from nodes that don't say which destination failed, and payloads that aren't an address.
+    //An RREQ or RREP's path load is ignored
+    private static short parseAddress(String payload) {
+        payload = AODVLoad.strip(payload);
+        if (payload.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Short.parseShort(payload);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    //must hold routeTableLock
+    private void failAwaitingAck(short destAddr) {
+        Iterator<Map.Entry<Integer, AODVSend>> it = awaitingAck.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, AODVSend> entry = it.next();
+            AODVSend send = entry.getValue();
+            if (send.getDestAddr() == destAddr) {
+                it.remove();
+                ackLinks.remove(entry.getKey());
+                send.complete(AODVSend.Outcome.FAILED);
+            }
+        }
+    }
+
+    //an intermediate node may have answered the RREQ, then there is no reverse route yet
+    private void sendAck(AODVMessage data) {
+        short srcAddr = data.header.srcAddr;
+        AODVMessage ack = initDATA(srcAddr, "");
+        ack.header.flags |= AODVHeader.FLAG_ACK;
+        ack.header.bcastSeqNum = data.header.bcastSeqNum;
+        sendOrQueue(ack, null, !isQueued(srcAddr));
+    }
+
+    //must hold routeTableLock
+    private boolean isQueued(short destAddr) {
+        for (AODVTxData txData : dataTxQueue) {
+            if (txData.msg.header.destAddr == destAddr) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //must hold routeTableLock. Dual-homed neighbors once, CC neighbors that haven't said theirs not at all
+    private List<Short> getNeighborAddresses() {
+        List<Short> addresses = new ArrayList<>();
+        for (AODVRoute neighbor : routes.ccNeighbors().values()) {
+            if (neighbor.address != DEFAULT_NAME) {
+                addresses.add(neighbor.address);
+            }
+        }
+        for (AODVRoute neighbor : routes.udpNeighbors()) {
+            if (routes.getCCNeighborByAddress(neighbor.address) == null) {
+                addresses.add(neighbor.address);
+            }
+        }
+        return addresses;
+    }
+
+    //always broadcast these to all neighbors
+    private AODVMessage initHELLO() {
+        AODVLog.d(TAG, "initHELLO: initiating HELLO message");
+        AODVMessage msg = new AODVMessage();
+        msg.header.type = AODVMessageType.HELO;
+        msg.header.flags = (byte) (AODVHeader.FLAG_DEFLATE | AODVHeader.FLAG_PACKET_DATA);
+        if (dualHoming && udpEnabled && deviceType == AODVDeviceType.AND) {
+            msg.header.flags |= AODVHeader.FLAG_DUAL;
+        }
+        msg.header.srcAddr = self.address;
+        //msg.header.bcastSeqNum = self.bcastSeqNum;
+        msg.header.hopCnt = 0;
+        //our neighbors, so receivers learn who is two hops away
+        StringBuilder neighbors = new StringBuilder();
+        synchronized (routeTableLock) {
+            for (short address : getNeighborAddresses()) {
+                neighbors.append(neighbors.length() > 0 ? "," : "").append(address);
+            }
+            if (zone != null && zone.getRadius() > 2 && !neighbors.toString().equals(lastHelloNeighbors)) {
+                //a new version of our list for the zones it is passed on in
+                self.seqNum++;
+                reserveSeqNums();
+                lastHelloNeighbors = neighbors.toString();
+            }
+            msg.header.srcSeqNum = self.seqNum;
+            if (config.clustering) {
+                //never compact, the codec has no room for the head
+                msg.header.flags |= AODVHeader.FLAG_CLUSTER;
+                msg.header.destAddr = cluster.getHead();
+                short[] relays = cluster.getRelays();
+                for (int i = 0; i < relays.length; i++) {
+                    neighbors.append(i == 0 ? ";" : ",").append(relays[i]);
+                }
+            }
+            String relayed = zone != null ? zone.encode() : "";
+            if (!relayed.isEmpty()) {
+                neighbors.append('|').append(relayed);
+            }
+        }
+        msg.payload = neighbors.toString();
+        msg.header.length = (short) msg.payload.length();
+        return msg;
+    }
+
+    //ids need to get set somewhere else because route may not exist or may change
+    private AODVMessage initDATA(short destAddr, String data) {
+        AODVLog.d(TAG, "initDATA: initiating DATA message to: " + destAddr);
+        AODVMessage msg = new AODVMessage();
+        msg.header.type = AODVMessageType.DATA;
+        msg.header.srcAddr = self.address;
+        msg.header.srcSeqNum = self.seqNum;
+        //msg.header.bcastSeqNum = self.bcastSeqNum;
+        msg.header.destAddr = destAddr;
+        if (AODVGroup.isGroup(destAddr) || destAddr == UDP_BROADCAST_ADDR) {
+            //for duplicate suppression on the tree or in the flood
+            msg.header.bcastSeqNum = ++dataId;
+        }
+        msg.header.length = (short) data.length();
+        msg.payload = data;
+        return msg;
+    }
+
+    //always broadcast these to all neighbors
+    private AODVMessage initRREQ(short destAddr) {
+        AODVLog.d(TAG, "initRREQ: initiating RREQ message for: " + destAddr);
+        AODVMessage msg = new AODVMessage();
+        msg.header.type = AODVMessageType.RREQ;
+        msg.header.flags = AODVHeader.FLAG_DEFLATE;
+        msg.header.srcAddr = self.address;
+        msg.header.srcSeqNum = self.seqNum;
+        msg.header.sendAddr = self.address;
+        msg.header.bcastSeqNum = ++self.bcastSeqNum; //inc on each rreq
+        reserveSeqNums();
+        msg.header.destAddr = destAddr;
+        msg.header.length = 0;
+        if (!AODVGroup.isGroup(destAddr)) {
+            msg.header.flags |= AODVHeader.FLAG_GRATUITOUS;
+        }
+        //may still have active route but need updated information
+        AODVRoute route = getRouteByAddress(destAddr);
+        msg.header.destSeqNum = route != null ? route.seqNum : 0;
+        //counts the hops it travels, so reverse routes can tell the shorter way
+        msg.header.hopCnt = 0;
+        return msg;
+    }
+
+    private AODVMessage initRREP(short srcAddr, short destAddr) {
+        AODVLog.d(TAG, "initRREP: initiating RREP message for: " + destAddr);
+        AODVMessage msg = null;
+        AODVRoute destRoute = getRouteByAddress(destAddr);
+        if (destRoute != null) {
+            msg = new AODVMessage();
+            msg.header.type = AODVMessageType.RREP;
+            msg.header.srcAddr = srcAddr;
+            msg.header.srcSeqNum = self.seqNum;
+            //msg.header.bcastSeqNum = self.bcastSeqNum;
+            msg.header.destAddr = destRoute.address;
+            msg.header.destSeqNum = destRoute.seqNum;
+            msg.header.nextId = destRoute.nextHopId;
+            msg.header.nextAddr = destRoute.nextHopAddr;
+            msg.header.hopCnt = destRoute.hopCnt;
+            msg.header.length = 0;
+        }
+        return msg;
+    }
+
+    //unicast to one tree neighbor, srcAddr is the joiner whose graft it activates
+    private AODVMessage initMACT(short groupAddr, short joiner, byte flags) {
+        AODVLog.d(TAG, "initMACT: initiating MACT message for group: " + groupAddr);
+        AODVMessage msg = new AODVMessage();
+        msg.header.type = AODVMessageType.MACT;
+        msg.header.flags = flags;
+        msg.header.srcAddr = joiner;
+        msg.header.srcSeqNum = self.seqNum;
+        msg.header.destAddr = groupAddr;
+        msg.header.length = 0;
+        return msg;
+    }
+
+    //sent by a group's leader down its tree every routeExpiryInterval
+    private AODVMessage initGRPH(short groupAddr) {
+        AODVMessage msg = new AODVMessage();
+        msg.header.type = AODVMessageType.GRPH;
+        msg.header.srcAddr = self.address;
+        msg.header.srcSeqNum = self.seqNum;
+        msg.header.destAddr = groupAddr;
+        msg.header.bcastSeqNum = ++dataId;
+        msg.header.length = 0;
+        return msg;
+    }
+
+    private AODVMessage initRERR(short destAddr) {
+        AODVLog.d(TAG, "initRERR: initiating RERR message for: " + destAddr);
+        AODVMessage msg = new AODVMessage();
+        msg.header.type = AODVMessageType.RERR;
+        msg.header.srcAddr = self.address;
+        msg.header.srcSeqNum = self.seqNum;
+        msg.header.bcastSeqNum = self.bcastSeqNum;
+        msg.header.destAddr = destAddr;
+        //need an active route to dest, or with clustering to its head
+        AODVRoute route = resolveRoute(msg);
+        if (route == null) {
+            return null;
+        }
+        if ((msg.header.flags & AODVHeader.FLAG_CLUSTER) == 0) {
+            msg.header.destSeqNum = route.seqNum;
+        }
+        msg.header.nextId = route.nextHopId;
+        msg.header.nextAddr = route.nextHopAddr;
+        msg.header.hopCnt = Byte.MAX_VALUE; //signifying broken link to prevent loops
+        msg.header.length = 0;
+        return msg;
+    }
+
+    private static class AODVTxBroadcast {
+
+        AODVMessage msg;
+        int copies; //received so far, counting the first
+
+        AODVTxBroadcast(AODVMessage msg) {
+            this.msg = msg;
+            this.copies = 1;
+        }
+
+    }
+
+    private static class AODVDiscovery {
+
+        int attempts; //RREQs sent so far
+        long retryAt; //when to send the next one if there is still no route
+
+    }
+
+    private static class AODVTxData {
+
+        AODVMessage msg;
+        AODVSend send; //null for sendMessage
+        long lifetime; //for expiration of message in data queue
+
+        AODVTxData(AODVMessage msg, AODVSend send, long timeout) {
+            this.msg = msg;
+            this.send = send;
+            this.lifetime = System.currentTimeMillis() + timeout;
+        }
+
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//recently seen (source, id) pairs for duplicate suppression, the oldest are forgotten first
+class AODVSeenCache {
+
+    private final Map<Integer, Boolean> seen;
+
+    AODVSeenCache(final int capacity) {
+        this.seen = new LinkedHashMap<Integer, Boolean>(capacity * 2, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    //false if the pair was seen before
+    boolean add(short srcAddr, short id) {
+        return seen.put((srcAddr & 0xFFFF) << 16 | (id & 0xFFFF), Boolean.TRUE) == null;
+    }
+
+}
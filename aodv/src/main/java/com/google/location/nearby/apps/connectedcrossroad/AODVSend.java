@@ -0,0 +1,200 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One DATA message handed to {@link AODVRouter#send} or {@link AODVRouter#sendAll} and what
+ * became of it. The destination acknowledges it, so DELIVERED means it got there. MK6 nodes
+ * don't acknowledge, so sends to them end as UNCONFIRMED once the next hop has them, and so do
+ * sends to a group address and broadcasts.
+ *
+ * Callbacks run on the router's engine thread, or right away if the send is already done.
+ * {@link #then} chains a send onto another one without blocking in between.
+ */
+public class AODVSend {
+
+    public enum Outcome {
+        PENDING, //waiting for a route or an acknowledgement
+        DELIVERED, //the destination acknowledged it
+        UNCONFIRMED, //handed to the next hop but no acknowledgement came back
+        EXPIRED, //no route was found within queueTimeout
+        FAILED, //a RERR said the destination is unreachable
+        CANCELLED //cancelled or the router was stopped
+    }
+
+    public interface Callback {
+        void onComplete(AODVSend send);
+    }
+
+    //what to send once a send is done, null to send nothing
+    public interface Continuation {
+        AODVSend onComplete(AODVSend send);
+    }
+
+    private short destAddr;
+    private String data;
+    private final long createdAt = System.nanoTime();
+
+    private Outcome outcome = Outcome.PENDING;
+    private short nextHopAddr;
+    private int hopCnt = -1;
+    private long completedAt;
+    private List<Callback> callbacks = new ArrayList<>();
+
+    public AODVSend(short destAddr, String data) {
+        this.destAddr = destAddr;
+        this.data = data;
+    }
+
+    public synchronized short getDestAddr() {
+        return destAddr;
+    }
+
+    public synchronized String getData() {
+        return data;
+    }
+
+    public synchronized Outcome getOutcome() {
+        return outcome;
+    }
+
+    public synchronized boolean isDone() {
+        return outcome != Outcome.PENDING;
+    }
+
+    //next hop of the route the message went out on, 0 if it never had one
+    public synchronized short getNextHopAddr() {
+        return nextHopAddr;
+    }
+
+    //hop count of the route used, -1 if it never had one
+    public synchronized int getHopCount() {
+        return hopCnt;
+    }
+
+    //from the send call to the outcome, for DELIVERED a round trip including route discovery
+    public synchronized double getLatencyMillis() {
+        return outcome == Outcome.PENDING ? -1 : (completedAt - createdAt) / 1e6;
+    }
+
+    public void addCallback(Callback callback) {
+        synchronized (this) {
+            if (outcome == Outcome.PENDING) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        callback.onComplete(this);
+    }
+
+    /**
+     * Runs next once this send is done, e.g. to send a reply only after the request was
+     * delivered. The returned handle describes this send until next has run and then the one next
+     * returned, and completes with that one's outcome, or with this one's if next returned null.
+     * Its latency covers the whole chain. Cancelling it cancels whichever of the two is pending.
+     */
+    public AODVSend then(final Continuation next) {
+        final AODVSend chained = new AODVSend(destAddr, data);
+        chained.addCallback(new Callback() {
+            @Override
+            public void onComplete(AODVSend send) {
+                if (send.getOutcome() == Outcome.CANCELLED) {
+                    cancel();
+                }
+            }
+        });
+        addCallback(new Callback() {
+            @Override
+            public void onComplete(AODVSend send) {
+                if (chained.isDone()) {
+                    return;
+                }
+                final AODVSend following = next.onComplete(send);
+                if (following == null) {
+                    chained.completeAs(send);
+                    return;
+                }
+                chained.addCallback(new Callback() {
+                    @Override
+                    public void onComplete(AODVSend send) {
+                        if (send.getOutcome() == Outcome.CANCELLED) {
+                            following.cancel();
+                        }
+                    }
+                });
+                following.addCallback(new Callback() {
+                    @Override
+                    public void onComplete(AODVSend send) {
+                        chained.completeAs(send);
+                    }
+                });
+            }
+        });
+        return chained;
+    }
+
+    //false if the outcome was already decided
+    public boolean cancel() {
+        return complete(Outcome.CANCELLED);
+    }
+
+    //waits for the outcome, PENDING if the timeout passed first
+    public synchronized Outcome await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (outcome == Outcome.PENDING) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return outcome;
+    }
+
+    synchronized void setRoute(short nextHopAddr, int hopCnt) {
+        this.nextHopAddr = nextHopAddr;
+        this.hopCnt = hopCnt;
+    }
+
+    //takes over the destination, route and outcome of the send it stands for
+    private void completeAs(AODVSend other) {
+        synchronized (other) {
+            synchronized (this) {
+                if (outcome != Outcome.PENDING) {
+                    return;
+                }
+                destAddr = other.destAddr;
+                data = other.data;
+                nextHopAddr = other.nextHopAddr;
+                hopCnt = other.hopCnt;
+            }
+        }
+        complete(other.getOutcome());
+    }
+
+    boolean complete(Outcome outcome) {
+        List<Callback> callbacks;
+        synchronized (this) {
+            if (this.outcome != Outcome.PENDING) {
+                return false;
+            }
+            this.outcome = outcome;
+            this.completedAt = System.nanoTime();
+            callbacks = this.callbacks;
+            this.callbacks = null;
+            notifyAll();
+        }
+        for (Callback callback : callbacks) {
+            callback.onComplete(this);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s to %d via %d (%d hops)", outcome, destAddr, nextHopAddr, hopCnt);
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What a running router looked like at one moment: its routes and neighbors with their link
+ * quality, how much is waiting where, and running totals of what it sent, received and relayed.
+ * The router copies it all while holding routeTableLock, formatting happens afterwards on the
+ * caller's thread. See AODVIntrospection for the text and JSON forms.
+ */
+public final class AODVSnapshot {
+
+    //one route or neighbor
+    public static final class Entry {
+
+        public final String kind; //route, zone, udp or cc
+        public final short address;
+        public final short nextHopAddr;
+        public final String nextHopId; //CC endpoint, null over UDP
+        public final short seqNum;
+        public final int hopCnt;
+        public final long expiresIn; //ms until it times out, -1 for CC neighbors, which don't
+        public final int load; //AODVLoad on its path, from discovery
+        public final double delivery; //link quality of neighbors, NaN for routes
+        public final double rtt; //ms, NaN until an acknowledgement timed it
+        public final double throughput; //bytes per second
+        public final long helloAge; //ms since the last hello, -1 for routes
+
+        Entry(String kind, AODVRoute route, long timeMillis) {
+            this.kind = kind;
+            this.address = route.address;
+            this.nextHopAddr = route.nextHopAddr;
+            this.nextHopId = route.nextHopId;
+            this.seqNum = route.seqNum;
+            this.hopCnt = route.link != null ? 1 : route.hopCnt;
+            this.expiresIn = kind.equals("cc") ? -1 : route.timeout - timeMillis;
+            this.load = route.load;
+            AODVLink link = route.link;
+            this.delivery = link != null ? link.getDeliveryRatio() : Double.NaN;
+            this.rtt = link != null ? link.getLatency() : Double.NaN;
+            this.throughput = link != null ? link.getThroughput() : Double.NaN;
+            this.helloAge = link != null && link.getLastHello() != 0 ? timeMillis - link.getLastHello() : -1;
+        }
+
+    }
+
+    public final long timeMillis;
+    public final short address;
+    //running totals, a client turns them into rates
+    public final Map<String, Long> counters;
+    //current values
+    public final Map<String, Long> gauges;
+    public final List<Entry> entries;
+
+    AODVSnapshot(long timeMillis, short address, Map<String, Long> counters, Map<String, Long> gauges,
+                 List<Entry> entries) {
+        this.timeMillis = timeMillis;
+        this.address = address;
+        this.counters = Collections.unmodifiableMap(new LinkedHashMap<>(counters));
+        this.gauges = Collections.unmodifiableMap(new LinkedHashMap<>(gauges));
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * "snapshot TIME ADDRESS", a "counters" and a "gauges" line of key=value pairs, one line per
+     * entry and "end":
+     *
+     *   route 5 via 2 hops 3 seq 7 expires 4200 load 0
+     *   udp 2 via 2 hops 1 seq 0 expires 5800 load 0 delivery 0.98 rtt 1.2 throughput 310 hello 400
+     *
+     * rtt is "-" until an acknowledgement timed the link.
+     */
+    public String toText() {
+        StringBuilder out = new StringBuilder();
+        out.append("snapshot ").append(timeMillis).append(' ').append(address).append('\n');
+        appendPairs(out.append("counters"), counters);
+        appendPairs(out.append("gauges"), gauges);
+        for (Entry entry : entries) {
+            out.append(entry.kind).append(' ').append(entry.address).append(" via ").append(entry.nextHopAddr);
+            if (entry.nextHopId != null) {
+                out.append('/').append(entry.nextHopId);
+            }
+            out.append(" hops ").append(entry.hopCnt).append(" seq ").append(entry.seqNum)
+                    .append(" expires ").append(entry.expiresIn).append(" load ").append(entry.load);
+            if (!Double.isNaN(entry.delivery)) {
+                out.append(String.format(Locale.US, " delivery %.2f rtt %s throughput %.0f hello %d",
+                        entry.delivery, Double.isNaN(entry.rtt) ? "-" : String.format(Locale.US, "%.1f", entry.rtt),
+                        entry.throughput, entry.helloAge));
+            }
+            out.append('\n');
+        }
+        return out.append("end\n").toString();
+    }
+
+    private static void appendPairs(StringBuilder out, Map<String, Long> pairs) {
+        for (Map.Entry<String, Long> pair : pairs.entrySet()) {
+            out.append(' ').append(pair.getKey()).append('=').append(pair.getValue());
+        }
+        out.append('\n');
+    }
+
+    //the same on one line, NaN becomes null
+    public String toJson() {
+        StringBuilder out = new StringBuilder();
+        out.append("{\"time\":").append(timeMillis).append(",\"address\":").append(address);
+        appendObject(out.append(",\"counters\":"), counters);
+        appendObject(out.append(",\"gauges\":"), gauges);
+        out.append(",\"entries\":[");
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            out.append(i > 0 ? "," : "").append("{\"kind\":\"").append(entry.kind)
+                    .append("\",\"address\":").append(entry.address)
+                    .append(",\"nextHop\":").append(entry.nextHopAddr)
+                    .append(",\"endpoint\":").append(entry.nextHopId == null ? "null" : quote(entry.nextHopId))
+                    .append(",\"hops\":").append(entry.hopCnt)
+                    .append(",\"seq\":").append(entry.seqNum)
+                    .append(",\"expires\":").append(entry.expiresIn)
+                    .append(",\"load\":").append(entry.load)
+                    .append(",\"delivery\":").append(number(entry.delivery))
+                    .append(",\"rtt\":").append(number(entry.rtt))
+                    .append(",\"throughput\":").append(number(entry.throughput))
+                    .append(",\"hello\":").append(entry.helloAge).append('}');
+        }
+        return out.append("]}").toString();
+    }
+
+    private static void appendObject(StringBuilder out, Map<String, Long> pairs) {
+        out.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Long> pair : pairs.entrySet()) {
+            out.append(first ? "" : ",").append(quote(pair.getKey())).append(':').append(pair.getValue());
+            first = false;
+        }
+        out.append('}');
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.format(Locale.US, "%.3f", value);
+    }
+
+    private static String quote(String value) {
+        StringBuilder out = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+
+}
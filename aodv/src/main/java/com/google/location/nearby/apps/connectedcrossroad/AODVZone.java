@@ -0,0 +1,232 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Who is within radius hops, and which neighbor leads there, kept up to date proactively so
+ * DATA to nearby destinations never waits for an RREQ. Every hello already lists the sender's
+ * neighbors, which is all a radius of 2 needs. For larger zones, nodes also pass on the lists
+ * they heard, up to radius - 1 hops from where they came from, so everyone learns the links of
+ * the nodes up to radius - 1 hops out and with them the nodes radius hops out.
+ *
+ * A list is versioned by its origin's sequence number, which the router bumps whenever its own
+ * neighbors change. Hellos only carry the lists that changed since the last hello, and all of
+ * them every REFRESH_HELLOS hellos or right after a new neighbor shows up, so in a quiet
+ * mesh hellos stay small. Lists not heard again within HELLO_LOSS refreshes are forgotten.
+ *
+ * Times are passed in, so the simulator can run it on virtual time. Not thread-safe, the router only touches it while holding routeTableLock.
+ */
+public class AODVZone {
+
+    //hellos between two that carry every list we pass on
+    public static final int REFRESH_HELLOS = 5;
+    //refreshes without hearing a list again before it is forgotten
+    private static final double HELLO_LOSS = 2.5;
+
+    private static class LinkState {
+
+        short seqNum;
+        byte hops; //from its origin to us
+        short[] neighbors;
+        long heard;
+        boolean changed; //since our last hello
+
+    }
+
+    private final int radius;
+    //neighbor lists by origin, ours isn't among them
+    private final Map<Short, LinkState> states = new HashMap<>();
+    private int sinceRefresh = REFRESH_HELLOS;
+    //next hop and hop count by destination, from the last compute
+    private final Map<Short, Short> nextHops = new HashMap<>();
+    private final Map<Short, Byte> hopCounts = new HashMap<>();
+
+    public AODVZone(int radius) {
+        this.radius = radius;
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * A hello from a neighbor, with its neighbor list and version, and the lists it passed on
+     * in the payload format of encode, null if it passed on none.
+     */
+    public void onHello(short neighbor, short seqNum, short[] neighborNeighbors, String relayed, long timeMillis) {
+        //straight from the origin, so it's always the latest
+        put(neighbor, seqNum, (byte) 1, neighborNeighbors, timeMillis, true);
+        if (relayed == null || relayed.isEmpty()) {
+            return;
+        }
+        for (String field : relayed.split("\\|")) {
+            String[] parts = field.split(":", 4);
+            if (parts.length < 3) {
+                continue;
+            }
+            try {
+                short origin = Short.parseShort(parts[0]);
+                short originSeqNum = Short.parseShort(parts[1]);
+                int hops = Integer.parseInt(parts[2]) + 1;
+                short[] originNeighbors = parseAddresses(parts.length > 3 ? parts[3] : "");
+                if (hops < radius) {
+                    put(origin, originSeqNum, (byte) hops, originNeighbors, timeMillis, false);
+                }
+            } catch (NumberFormatException e) {
+                //skip it, the next refresh brings it again
+            }
+        }
+    }
+
+    private void put(short origin, short seqNum, byte hops, short[] neighbors, long timeMillis, boolean direct) {
+        LinkState state = states.get(origin);
+        if (state != null && !direct) {
+            int age = (short) (seqNum - state.seqNum);
+            //older, or the same list heard farther away
+            if (age < 0 || (age == 0 && hops >= state.hops)) {
+                if (age == 0 && hops == state.hops) {
+                    state.heard = timeMillis;
+                }
+                return;
+            }
+        }
+        if (state == null) {
+            state = new LinkState();
+            states.put(origin, state);
+        }
+        state.changed |= state.seqNum != seqNum || state.hops != hops || !sameNeighbors(state.neighbors, neighbors);
+        state.seqNum = seqNum;
+        state.hops = hops;
+        state.neighbors = neighbors;
+        state.heard = timeMillis;
+    }
+
+    private static boolean sameNeighbors(short[] a, short[] b) {
+        return a != null && Arrays.equals(a, b);
+    }
+
+    //a new neighbor knows nothing yet, so the next hello passes everything on
+    public void requestRefresh() {
+        sinceRefresh = REFRESH_HELLOS;
+    }
+
+    /**
+     * The lists our next hello passes on, "origin:seqNum:hops:neighbor,neighbor|..." with the
+     * hops to us, or an empty string. Only lists that still have hops to go, and with radius 2
+     * there are never any.
+     */
+    public String encode() {
+        boolean refresh = sinceRefresh >= REFRESH_HELLOS;
+        sinceRefresh = refresh ? 1 : sinceRefresh + 1;
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<Short, LinkState> entry : states.entrySet()) {
+            LinkState state = entry.getValue();
+            if (state.hops < radius - 1 && (refresh || state.changed)) {
+                out.append(out.length() > 0 ? "|" : "").append(entry.getKey()).append(':').append(state.seqNum)
+                        .append(':').append(state.hops).append(':');
+                for (int i = 0; i < state.neighbors.length; i++) {
+                    out.append(i > 0 ? "," : "").append(state.neighbors[i]);
+                }
+            }
+            state.changed = false;
+        }
+        return out.toString();
+    }
+
+    /**
+     * Forgets lists not heard in a while and works out the shortest way to everyone within
+     * radius hops. neighbors are the ones we hear right now, the only first hops there are.
+     */
+    public void compute(short self, short[] neighbors, long timeMillis, long helloInterval) {
+        Iterator<LinkState> it = states.values().iterator();
+        while (it.hasNext()) {
+            if (timeMillis - it.next().heard >= HELLO_LOSS * REFRESH_HELLOS * helloInterval) {
+                it.remove();
+            }
+        }
+        nextHops.clear();
+        hopCounts.clear();
+        ArrayDeque<Short> queue = new ArrayDeque<>();
+        for (short neighbor : neighbors) {
+            if (neighbor != self && !nextHops.containsKey(neighbor)) {
+                nextHops.put(neighbor, neighbor);
+                hopCounts.put(neighbor, (byte) 1);
+                queue.add(neighbor);
+            }
+        }
+        while (!queue.isEmpty()) {
+            short node = queue.poll();
+            byte hops = hopCounts.get(node);
+            LinkState state = states.get(node);
+            if (hops >= radius || state == null) {
+                continue;
+            }
+            for (short next : state.neighbors) {
+                if (next != self && !nextHops.containsKey(next)) {
+                    nextHops.put(next, nextHops.get(node));
+                    hopCounts.put(next, (byte) (hops + 1));
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    //destinations more than one hop away, for the router to keep routes to
+    public List<Short> getDestinations() {
+        List<Short> destinations = new ArrayList<>();
+        for (Map.Entry<Short, Byte> entry : hopCounts.entrySet()) {
+            if (entry.getValue() > 1) {
+                destinations.add(entry.getKey());
+            }
+        }
+        return destinations;
+    }
+
+    public boolean contains(short address) {
+        return nextHops.containsKey(address);
+    }
+
+    public short getNextHop(short address) {
+        return nextHops.get(address);
+    }
+
+    public byte getHopCount(short address) {
+        return hopCounts.get(address);
+    }
+
+    //the latest version of its list we heard, 0 if none
+    public short getSeqNum(short address) {
+        LinkState state = states.get(address);
+        return state != null ? state.seqNum : 0;
+    }
+
+    public int size() {
+        return nextHops.size();
+    }
+
+    public void clear() {
+        states.clear();
+        nextHops.clear();
+        hopCounts.clear();
+        sinceRefresh = REFRESH_HELLOS;
+    }
+
+    private static short[] parseAddresses(String list) {
+        if (list.isEmpty()) {
+            return new short[0];
+        }
+        String[] fields = list.split(",");
+        short[] addresses = new short[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            addresses[i] = Short.parseShort(fields[i]);
+        }
+        return addresses;
+    }
+
+}
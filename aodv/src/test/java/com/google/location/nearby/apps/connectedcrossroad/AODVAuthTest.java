@@ -0,0 +1,154 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+//known answers for the hand-rolled SHA-256 and HMAC, and what the tag has to cover
+public class AODVAuthTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final String KEY = "000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f";
+
+    @Test
+    public void sha256MatchesFips180Vectors() {
+        AODVAuth auth = AODVAuth.fromHex(KEY);
+        assertHex("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", auth.sha256(new byte[0]));
+        assertHex("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", auth.sha256(ascii("abc")));
+        //two blocks, the padding doesn't fit after the message
+        assertHex("248d6a61d20638b8e5c026930c3e6039a33ce45964ff2167f6ecedd419db06c1",
+                auth.sha256(ascii("abcdbcdecdefdefgefghfghighijhijkijkljklmklmnlmnomnopnopq")));
+        byte[] thousand = new byte[1000];
+        Arrays.fill(thousand, (byte) 'a');
+        assertHex("41edece42d63e8d9bf515a9ba6932e1c20cbc9f5a5d134645adb5db1b9737ea3", auth.sha256(thousand));
+    }
+
+    //RFC 4231, the cases with keys of at least 16 bytes
+    @Test
+    public void hmacMatchesRfc4231Vectors() {
+        assertHex("b0344c61d8db38535ca8afceaf0bf12b881dc200c9833da726e9376c2e32cff7",
+                new AODVAuth(repeat(0x0b, 20)).hmac(ascii("Hi There")));
+        byte[] key = new byte[25];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) (i + 1);
+        }
+        assertHex("82558a389a443c0ea4cc819899f2083a85f0faa3e578f8077a2e3ff46729665b",
+                new AODVAuth(key).hmac(repeat(0xcd, 50)));
+        //keys longer than a block are hashed first
+        assertHex("60e431591ee0b67f0d8a26aacbf5b77f8e0bc6213728c5140546040f0ee37f54",
+                new AODVAuth(repeat(0xaa, 131)).hmac(ascii("Test Using Larger Than Block-Size Key - Hash Key First")));
+        assertHex("9b09ffa71b942fcb27635fbcd5b0e944bfdc63644f0713938a7f51535c3a35e2",
+                new AODVAuth(repeat(0xaa, 131)).hmac(ascii("This is a test using a larger than block-size key "
+                        + "and a larger than block-size data. The key needs to be hashed before being used by the "
+                        + "HMAC algorithm.")));
+    }
+
+    //pins the canonical header encoding, a peer computing it differently can't talk to us
+    @Test
+    public void verifiesKnownTag() {
+        AODVMessage msg = rreq();
+        msg.header.flags = AODVHeader.FLAG_AUTH | AODVHeader.FLAG_GRATUITOUS;
+        msg.header.authCounter = 1000;
+        msg.header.authTag = 0xadb168e3894acadaL;
+        assertTrue(AODVAuth.fromHex(KEY).verify(msg));
+    }
+
+    @Test
+    public void signedMessageVerifiesOnce() {
+        AODVMessage msg = rreq();
+        AODVAuth.fromHex(KEY).sign(msg);
+        AODVAuth receiver = AODVAuth.fromHex(KEY);
+        assertTrue(receiver.verify(msg));
+        assertFalse("replay", receiver.verify(msg));
+    }
+
+    //a dual-homed neighbor's broadcast arrives once over CC and once over UDP
+    @Test
+    public void eachTransportHasItsOwnReplayWindow() {
+        AODVMessage msg = rreq();
+        AODVAuth.fromHex(KEY).sign(msg);
+        AODVAuth receiver = AODVAuth.fromHex(KEY);
+        assertTrue("UDP", receiver.verify(msg));
+        assertFalse("UDP replay", receiver.verify(msg));
+        msg.header.sendId = "endpoint";
+        assertTrue("CC", receiver.verify(msg));
+        assertFalse("CC replay", receiver.verify(msg));
+    }
+
+    @Test
+    public void flippedFlagFailsVerification() {
+        AODVAuth sender = AODVAuth.fromHex(KEY);
+        for (int bit = 1; bit < 8; bit++) {
+            AODVMessage msg = rreq();
+            sender.sign(msg);
+            msg.header.flags ^= (byte) (1 << bit);
+            assertFalse("flag bit " + bit, AODVAuth.fromHex(KEY).verify(msg));
+        }
+    }
+
+    @Test
+    public void otherKeyFailsVerification() {
+        AODVMessage msg = rreq();
+        AODVAuth.fromHex(KEY).sign(msg);
+        assertFalse(new AODVAuth(repeat(0x42, 32)).verify(msg));
+    }
+
+    //flags the compact bitmap has no bit for still arrive, or the tag wouldn't match
+    @Test
+    public void compactHelloWithDualVerifies() {
+        AODVMessage hello = new AODVMessage();
+        hello.header.type = AODVMessageType.HELO;
+        hello.header.srcAddr = 3;
+        hello.header.sendAddr = 3;
+        hello.header.flags = AODVHeader.FLAG_COMPACT_HELLO | AODVHeader.FLAG_DEFLATE | AODVHeader.FLAG_DUAL;
+        hello.payload = "1,2,7";
+        AODVAuth.fromHex(KEY).sign(hello);
+        byte[] bytes = new AODVHelloCodec().encode(hello);
+        assertNotNull(bytes);
+        AODVMessage decoded = new AODVHelloCodec().decode(bytes, 0, bytes.length);
+        assertNotNull(decoded);
+        assertEquals(hello.header.flags, decoded.header.flags);
+        assertTrue(AODVAuth.fromHex(KEY).verify(decoded));
+    }
+
+    private static AODVMessage rreq() {
+        AODVMessage msg = new AODVMessage();
+        msg.header.type = AODVMessageType.RREQ;
+        msg.header.flags = AODVHeader.FLAG_GRATUITOUS;
+        msg.header.srcAddr = 1;
+        msg.header.srcSeqNum = 7;
+        msg.header.destAddr = 5;
+        msg.header.destSeqNum = 3;
+        msg.header.sendAddr = 2;
+        msg.header.bcastSeqNum = 9;
+        msg.header.hopCnt = 1;
+        msg.payload = "~40";
+        return msg;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(US_ASCII);
+    }
+
+    private static byte[] repeat(int value, int length) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    private static void assertHex(String expected, byte[] actual) {
+        byte[] bytes = new byte[expected.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(expected.substring(2 * i, 2 * i + 2), 16);
+        }
+        assertArrayEquals(bytes, actual);
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+public class AODVCaptureTest {
+
+    //replay sends to the recorded peers, so their addresses have to come back exactly
+    @Test
+    public void udpEndpointsRoundTrip() throws IOException {
+        File file = File.createTempFile("aodv", ".capture");
+        file.deleteOnExit();
+        InetAddress ipv4 = InetAddress.getByName("192.168.10.7");
+        InetAddress ipv6 = InetAddress.getByName("fe80::1:2:3:4");
+        byte[] packet = {124, 0, 1, 2, 3};
+        AODVCapture capture = new AODVCapture(file, 4096, (short) 1);
+        capture.record(AODVCapture.DIR_IN, AODVCapture.TRANSPORT_UDP, ipv4, 5055, packet, 0, packet.length);
+        capture.record(AODVCapture.DIR_OUT, AODVCapture.TRANSPORT_UDP, ipv6, 65000, packet, 1, 3);
+        capture.close();
+
+        AODVCapture.Contents contents = AODVCapture.read(file);
+        assertEquals(2, contents.records.size());
+        AODVCapture.Record first = contents.records.get(0);
+        assertEquals(ipv4, first.address);
+        assertEquals(5055, first.port);
+        assertArrayEquals(packet, first.packet);
+        AODVCapture.Record second = contents.records.get(1);
+        assertEquals(ipv6, second.address);
+        assertEquals(65000, second.port);
+        assertArrayEquals(new byte[]{0, 1, 2}, second.packet);
+    }
+
+}
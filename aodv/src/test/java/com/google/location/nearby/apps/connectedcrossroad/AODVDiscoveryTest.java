@@ -0,0 +1,39 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AODVDiscoveryTest {
+
+    //nobody answers here, as if every RREQ or RREP were lost
+    @Test
+    public void lostRREQIsRepeatedWithBackoffUntilDataExpires() throws InterruptedException {
+        AODVRouter router = new AODVRouter(null, null, null);
+        router.setAddress((short) 1);
+        router.setUDPEnabled(false);
+        router.setConfig(AODVConfig.DEFAULT.toBuilder().setQueueInterval(100).setQueueTimeout(4500).build());
+        router.start();
+        try {
+            AODVSend first = router.send((short) 5, "a");
+            AODVSend second = router.send((short) 5, "b");
+            //sent at 0, 1 and 3 s, the next would be at 7 s
+            Thread.sleep(3500);
+            assertEquals(3L, sentRREQs(router));
+            assertEquals(AODVSend.Outcome.EXPIRED, first.await(2, TimeUnit.SECONDS));
+            assertEquals(AODVSend.Outcome.EXPIRED, second.await(2, TimeUnit.SECONDS));
+            Thread.sleep(1500);
+            assertEquals(3L, sentRREQs(router));
+        } finally {
+            router.stop();
+        }
+    }
+
+    private static long sentRREQs(AODVRouter router) {
+        Long sent = router.snapshot().counters.get("sent." + AODVMessageType.RREQ);
+        return sent != null ? sent : 0;
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+//three phones in a line over loopback UDP and an in-process CC, every link dual-homed
+public class AODVDualHomingTest {
+
+    private static final String KEY = "000102030405060708090a0b0c0d0e0f";
+
+    private final List<AODVRouter> routers = new ArrayList<>();
+
+    //neighbors get each signed broadcast over both transports, neither copy is a replay
+    @Test
+    public void signedMeshDeliversOverBothTransports() throws Exception {
+        build(3, AODVConfig.DEFAULT.toBuilder().setHelloInterval(300).setNetworkKey(KEY).build());
+        try {
+            Thread.sleep(2000);
+            AODVSnapshot middle = routers.get(1).snapshot();
+            assertEquals(2L, (long) middle.gauges.get("ccNeighbors"));
+            assertEquals(2L, (long) middle.gauges.get("udpNeighbors"));
+            List<AODVSend> sends = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                sends.add(routers.get(0).send((short) 3, "message " + i));
+            }
+            for (AODVSend send : sends) {
+                assertEquals(AODVSend.Outcome.DELIVERED, send.await(5, TimeUnit.SECONDS));
+            }
+            assertEquals(2L, (long) routers.get(1).snapshot().gauges.get("udpNeighbors"));
+        } finally {
+            for (AODVRouter router : routers) {
+                router.stop();
+            }
+        }
+    }
+
+    private void build(int count, AODVConfig config) throws IOException {
+        int[] ports = new int[count];
+        for (int i = 0; i < count; i++) {
+            DatagramSocket socket = new DatagramSocket(0);
+            ports[i] = socket.getLocalPort();
+            socket.close();
+        }
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            AODVRouter router = new AODVRouter(new AODVRouter.CCTransport() {
+                @Override
+                public void sendCC(List<String> endpointIds, byte[] bytes) {
+                    for (String endpointId : endpointIds) {
+                        routers.get(Integer.parseInt(endpointId) - 1).receiveCC(Integer.toString(index + 1),
+                                bytes.clone());
+                    }
+                }
+            }, new AODVRouter.Listener() {
+                @Override
+                public void onDataReceived(short srcAddr, String data) {
+                }
+
+                @Override
+                public void onNeighborsChanged() {
+                }
+            }, null);
+            router.setAddress((short) (i + 1));
+            router.setDualHoming(true);
+            router.setConfig(config.toBuilder().setUDPPort(ports[i]).build());
+            List<InetSocketAddress> targets = new ArrayList<>();
+            if (i > 0) {
+                targets.add(new InetSocketAddress(loopback, ports[i - 1]));
+            }
+            if (i < count - 1) {
+                targets.add(new InetSocketAddress(loopback, ports[i + 1]));
+            }
+            router.setUDPTargets(targets);
+            routers.add(router);
+        }
+        for (AODVRouter router : routers) {
+            router.start();
+        }
+        for (int i = 0; i + 1 < count; i++) {
+            routers.get(i).addCCNeighbor(Integer.toString(i + 2), (short) (i + 2));
+            routers.get(i + 1).addCCNeighbor(Integer.toString(i + 1), (short) (i + 1));
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+//compact hellos have to decode to the message that was signed, field for field
+public class AODVHelloCodecTest {
+
+    private static final String KEY = "000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f";
+
+    //MAGIC, bitmap, then sendAddr as a one byte varint and the reference id for the addresses used here
+    private static final int BITMAP = 1;
+    private static final int REFERENCE_ID = 3;
+    private static final int KEYFRAME = 0x01;
+
+    @Test
+    public void keyframeThenDeltaRoundTrip() {
+        AODVHelloCodec sender = new AODVHelloCodec();
+        AODVHelloCodec receiver = new AODVHelloCodec();
+        AODVMessage first = hello(3, 40, "1,2,7");
+        byte[] keyframe = sender.encode(first);
+        assertNotNull(keyframe);
+        assertTrue((keyframe[BITMAP] & KEYFRAME) != 0);
+        assertSameHello(first, receiver.decode(keyframe, 0, keyframe.length));
+
+        AODVMessage second = hello(3, 42, "1,2,7");
+        byte[] delta = sender.encode(second);
+        assertEquals(0, delta[BITMAP] & KEYFRAME);
+        assertEquals(keyframe[REFERENCE_ID], delta[REFERENCE_ID]);
+        //the neighbor list is unchanged, so only the seq num delta is carried
+        assertTrue(delta.length < keyframe.length);
+        assertSameHello(second, receiver.decode(delta, 0, delta.length));
+
+        //a changed neighbor list and a seq num that went down still come through a delta
+        AODVMessage third = hello(3, 41, "2,7,300");
+        byte[] changed = sender.encode(third);
+        assertEquals(0, changed[BITMAP] & KEYFRAME);
+        assertSameHello(third, receiver.decode(changed, 0, changed.length));
+        assertEquals(0, receiver.getUndecodable());
+    }
+
+    @Test
+    public void deltaAfterLostKeyframeIsDropped() {
+        AODVHelloCodec sender = new AODVHelloCodec();
+        AODVHelloCodec receiver = new AODVHelloCodec();
+        sender.encode(hello(3, 40, "1,2"));
+        byte[] delta = sender.encode(hello(3, 41, "1,2"));
+        assertNull(receiver.decode(delta, 0, delta.length));
+        assertEquals(1, receiver.getUndecodable());
+
+        //a keyframe makes the following deltas decodable again
+        sender.requestKeyframe();
+        byte[] keyframe = sender.encode(hello(3, 42, "1,2"));
+        assertTrue((keyframe[BITMAP] & KEYFRAME) != 0);
+        assertNotNull(receiver.decode(keyframe, 0, keyframe.length));
+        AODVMessage next = hello(3, 43, "1,2");
+        delta = sender.encode(next);
+        assertSameHello(next, receiver.decode(delta, 0, delta.length));
+
+        //losing a later keyframe makes its deltas refer to an id the receiver doesn't hold
+        for (int i = 0; i < AODVHelloCodec.KEYFRAME_HELLOS; i++) {
+            sender.encode(hello(3, 44 + i, "1,2"));
+        }
+        delta = sender.encode(hello(3, 50, "1,2"));
+        assertEquals(0, delta[BITMAP] & KEYFRAME);
+        assertNull(receiver.decode(delta, 0, delta.length));
+        assertEquals(2, receiver.getUndecodable());
+    }
+
+    //each keyframe starts a new reference, the deltas after it name that one
+    @Test
+    public void referenceIdAdvancesWithEachKeyframe() {
+        AODVHelloCodec sender = new AODVHelloCodec();
+        byte previous = sender.encode(hello(3, 1, "1"))[REFERENCE_ID];
+        for (int i = 1; i < AODVHelloCodec.KEYFRAME_HELLOS; i++) {
+            assertEquals(previous, sender.encode(hello(3, 1 + i, "1"))[REFERENCE_ID]);
+        }
+        byte[] keyframe = sender.encode(hello(3, 10, "1"));
+        assertTrue((keyframe[BITMAP] & KEYFRAME) != 0);
+        assertEquals((byte) (previous + 1), keyframe[REFERENCE_ID]);
+    }
+
+    @Test
+    public void dualFlagSurvivesKeyframeAndDelta() {
+        AODVHelloCodec sender = new AODVHelloCodec();
+        AODVHelloCodec receiver = new AODVHelloCodec();
+        for (int i = 0; i < 2; i++) {
+            AODVMessage msg = hello(3, 40 + i, "1,2");
+            msg.header.flags |= AODVHeader.FLAG_DUAL;
+            byte[] bytes = sender.encode(msg);
+            //the bitmap has no bit for it, it goes in the trailing byte
+            assertEquals(AODVHeader.FLAG_DUAL, bytes[bytes.length - 1]);
+            AODVMessage decoded = receiver.decode(bytes, 0, bytes.length);
+            assertSameHello(msg, decoded);
+            assertTrue((decoded.header.flags & AODVHeader.FLAG_DUAL) != 0);
+        }
+    }
+
+    //no trailing byte without such flags, so decoders that predate it read the same bytes
+    @Test
+    public void trailingFlagsByteOnlyWhenNeeded() {
+        AODVMessage plain = hello(3, 40, "1,2");
+        AODVMessage dual = hello(3, 40, "1,2");
+        dual.header.flags |= AODVHeader.FLAG_DUAL;
+        byte[] plainBytes = new AODVHelloCodec().encode(plain);
+        byte[] dualBytes = new AODVHelloCodec().encode(dual);
+        assertEquals(plainBytes.length + 1, dualBytes.length);
+        AODVMessage decoded = new AODVHelloCodec().decode(plainBytes, 0, plainBytes.length);
+        assertEquals(plain.header.flags, decoded.header.flags);
+    }
+
+    @Test
+    public void authTrailerRoundTripsAndVerifies() {
+        AODVAuth signer = AODVAuth.fromHex(KEY);
+        AODVAuth verifier = AODVAuth.fromHex(KEY);
+        AODVHelloCodec sender = new AODVHelloCodec();
+        AODVHelloCodec receiver = new AODVHelloCodec();
+        for (int i = 0; i < 2; i++) {
+            AODVMessage msg = hello(3, 40 + i, "1,2,7");
+            msg.header.flags |= AODVHeader.FLAG_DEFLATE;
+            signer.sign(msg);
+            byte[] bytes = sender.encode(msg);
+            AODVMessage decoded = receiver.decode(bytes, 0, bytes.length);
+            assertSameHello(msg, decoded);
+            assertEquals(msg.header.authCounter, decoded.header.authCounter);
+            assertEquals(msg.header.authTag, decoded.header.authTag);
+            assertTrue(verifier.verify(decoded));
+        }
+    }
+
+    @Test
+    public void otherFieldsRoundTrip() {
+        AODVHelloCodec receiver = new AODVHelloCodec();
+        AODVMessage msg = hello(300, 40, "-5,0,32767");
+        msg.header.srcAddr = 301;
+        msg.header.sendDevType = AODVDeviceType.MK6;
+        byte[] bytes = new AODVHelloCodec().encode(msg);
+        assertSameHello(msg, receiver.decode(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void helloThatCannotBeCompactIsNotEncoded() {
+        AODVMessage msg = hello(3, 40, "1,x");
+        assertNull(new AODVHelloCodec().encode(msg));
+        msg = hello(3, 40, "01");
+        assertNull(new AODVHelloCodec().encode(msg));
+        msg = hello(3, 40, "1");
+        msg.header.flags |= AODVHeader.FLAG_CLUSTER;
+        assertNull(new AODVHelloCodec().encode(msg));
+    }
+
+    private static AODVMessage hello(int address, int seqNum, String neighbors) {
+        AODVMessage msg = new AODVMessage();
+        msg.header.type = AODVMessageType.HELO;
+        msg.header.flags = AODVHeader.FLAG_COMPACT_HELLO;
+        msg.header.srcAddr = (short) address;
+        msg.header.sendAddr = (short) address;
+        msg.header.sendDevType = AODVDeviceType.AND;
+        msg.header.srcSeqNum = (short) seqNum;
+        msg.payload = neighbors;
+        return msg;
+    }
+
+    private static void assertSameHello(AODVMessage expected, AODVMessage actual) {
+        assertNotNull(actual);
+        assertEquals(AODVMessageType.HELO, actual.header.type);
+        assertEquals(expected.header.flags, actual.header.flags);
+        assertEquals(expected.header.srcAddr, actual.header.srcAddr);
+        assertEquals(expected.header.sendAddr, actual.header.sendAddr);
+        assertEquals(expected.header.sendDevType, actual.header.sendDevType);
+        assertEquals(expected.header.srcSeqNum, actual.header.srcSeqNum);
+        assertEquals(expected.payload, actual.payload);
+        assertEquals(expected.payload.length(), actual.header.length);
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+//the forwarding fast path has to put out exactly what decoding and re-encoding would
+public class AODVPacketTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    //one, two, three and four byte sequences
+    private static final String PAYLOAD = "speed 42 km/h \u00e9 \u2713 \ud83d\ude97";
+
+    @Test
+    public void patchForwardWritesTheForwardingFields() {
+        byte[] packet = AODVPacket.serializeAODVPacket(data());
+        byte[] patched = packet.clone();
+        AODVPacket.patchForward(patched, (short) 0x1234, (short) -2, AODVDeviceType.MK6);
+        //nextAddr at 10, sendAddr at 12, sendDevType at 14, big-endian
+        assertEquals(0x12, patched[10]);
+        assertEquals(0x34, patched[11]);
+        assertEquals((byte) 0xFF, patched[12]);
+        assertEquals((byte) 0xFE, patched[13]);
+        assertEquals(AODVDeviceType.MK6.getValue(), patched[14]);
+        for (int i = 0; i < packet.length; i++) {
+            if (i < 10 || i > 14) {
+                assertEquals("byte " + i, packet[i], patched[i]);
+            }
+        }
+        assertEquals((short) 0x1234, AODVPacket.getNextAddr(patched));
+        assertEquals((short) -2, AODVPacket.getSendAddr(patched));
+        assertEquals(AODVDeviceType.MK6, AODVPacket.getSendDevType(patched));
+    }
+
+    @Test
+    public void patchedPacketMatchesReserializedMessage() {
+        AODVMessage msg = data();
+        byte[] packet = AODVPacket.serializeAODVPacket(msg);
+
+        //what handleDATA does with the decoded message before passing it on
+        AODVMessage forwarded = AODVPacket.deserializeAODVPacket(packet);
+        assertNotNull(forwarded);
+        forwarded.header.nextAddr = 9;
+        forwarded.header.sendAddr = 4;
+        forwarded.header.sendDevType = AODVDeviceType.AND;
+        byte[] reserialized = AODVPacket.serializeAODVPacket(forwarded);
+
+        byte[] patched = packet.clone();
+        AODVPacket.patchForward(patched, (short) 9, (short) 4, AODVDeviceType.AND);
+        assertArrayEquals(reserialized, patched);
+
+        AODVMessage decoded = AODVPacket.deserializeAODVPacket(patched);
+        assertNotNull(decoded);
+        assertEquals(msg.header.type, decoded.header.type);
+        assertEquals(msg.header.flags, decoded.header.flags);
+        assertEquals(msg.header.srcAddr, decoded.header.srcAddr);
+        assertEquals(msg.header.srcSeqNum, decoded.header.srcSeqNum);
+        assertEquals(msg.header.destAddr, decoded.header.destAddr);
+        assertEquals(msg.header.destSeqNum, decoded.header.destSeqNum);
+        assertEquals((short) 9, decoded.header.nextAddr);
+        assertEquals((short) 4, decoded.header.sendAddr);
+        assertEquals(AODVDeviceType.AND, decoded.header.sendDevType);
+        assertEquals(msg.header.bcastSeqNum, decoded.header.bcastSeqNum);
+        assertEquals(msg.header.hopCnt, decoded.header.hopCnt);
+        assertEquals(PAYLOAD, decoded.payload);
+        //the length field counts encoded bytes, not chars
+        int utf8Length = PAYLOAD.getBytes(UTF_8).length;
+        assertEquals(utf8Length, AODVPacket.utf8Length(PAYLOAD));
+        assertEquals(utf8Length, decoded.header.length);
+        assertEquals(AODVPacket.AODV_HEADER_SIZE + utf8Length, patched.length);
+    }
+
+    private static AODVMessage data() {
+        AODVMessage msg = new AODVMessage();
+        msg.header.type = AODVMessageType.DATA;
+        msg.header.flags = AODVHeader.FLAG_ACK_REQ;
+        msg.header.srcAddr = 1;
+        msg.header.srcSeqNum = 300;
+        msg.header.destAddr = 5;
+        msg.header.destSeqNum = -7;
+        msg.header.nextAddr = 2;
+        msg.header.sendAddr = 1;
+        msg.header.sendDevType = AODVDeviceType.AND;
+        msg.header.bcastSeqNum = 11;
+        msg.header.hopCnt = 3;
+        msg.payload = PAYLOAD;
+        msg.header.length = (short) PAYLOAD.length();
+        return msg;
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class AODVRouteCacheTest {
+
+    //a crash can come at any point between saves, what is stored has to be ahead of what was sent
+    @Test
+    public void restoredSeqNumsAreAheadAfterManyIncrements() throws IOException {
+        File file = File.createTempFile("aodv", ".cache");
+        file.deleteOnExit();
+        AODVRouteCache cache = new AODVRouteCache(file);
+        AODVRoute self = new AODVRoute();
+        self.address = 7;
+        for (int i = 0; i < 1000; i++) {
+            self.seqNum++;
+            self.bcastSeqNum += 3;
+            //what the router does after every increment
+            if (cache.isExhausted(self)) {
+                save(cache, self);
+            }
+            AODVRouteCache.Snapshot snapshot = new AODVRouteCache(file).load();
+            assertNotNull(snapshot);
+            assertTrue("seqNum at " + i, (short) (snapshot.seqNum - self.seqNum) > 0);
+            assertTrue("bcastSeqNum at " + i, (short) (snapshot.bcastSeqNum - self.bcastSeqNum) > 0);
+        }
+    }
+
+    @Test
+    public void savesOnlyWhenTheLimitIsReached() throws IOException {
+        File file = File.createTempFile("aodv", ".cache");
+        file.deleteOnExit();
+        AODVRouteCache cache = new AODVRouteCache(file);
+        AODVRoute self = new AODVRoute();
+        self.address = 7;
+        assertTrue(cache.isExhausted(self));
+        save(cache, self);
+        for (int i = 1; i < AODVRouteCache.SEQ_NUM_GAP; i++) {
+            self.seqNum++;
+            assertFalse(cache.isExhausted(self));
+        }
+        self.seqNum++;
+        assertTrue(cache.isExhausted(self));
+        save(cache, self);
+        assertEquals((short) (2 * AODVRouteCache.SEQ_NUM_GAP), new AODVRouteCache(file).load().seqNum);
+    }
+
+    //a periodic snapshot written after the lock is released must not undo a reserve taken meanwhile
+    @Test
+    public void staleImageIsNotWritten() throws IOException {
+        File file = File.createTempFile("aodv", ".cache");
+        file.deleteOnExit();
+        AODVRouteCache cache = new AODVRouteCache(file);
+        AODVRoute self = new AODVRoute();
+        self.address = 7;
+        save(cache, self);
+        AODVRouteCache.Image periodic = cache.snapshot(self, Collections.<AODVRoute>emptyList(),
+                Collections.<AODVRoute>emptyList());
+        assertFalse(periodic.reserves);
+        self.seqNum += AODVRouteCache.SEQ_NUM_GAP;
+        AODVRouteCache.Image reserve = cache.snapshot(self, Collections.<AODVRoute>emptyList(),
+                Collections.<AODVRoute>emptyList());
+        assertTrue(reserve.reserves);
+        cache.write(reserve);
+        cache.write(periodic);
+        assertEquals((short) (2 * AODVRouteCache.SEQ_NUM_GAP), new AODVRouteCache(file).load().seqNum);
+    }
+
+    private static void save(AODVRouteCache cache, AODVRoute self) {
+        cache.save(self, Collections.<AODVRoute>emptyList(), Collections.<AODVRoute>emptyList());
+    }
+
+}
@@ -0,0 +1,215 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+//every lookup has to agree with the tables after any mix of adds and removes
+public class AODVRouteIndexTest {
+
+    private final AODVRouteIndex index = new AODVRouteIndex();
+    private final List<String> resolved = new ArrayList<>();
+
+    public AODVRouteIndexTest() {
+        index.setListener(new AODVRouteIndex.Listener() {
+            @Override
+            public void onResolved(short address, AODVRoute route) {
+                resolved.add(address + (route == null ? " none" : route.nextHopId != null ? " cc" : " udp"));
+            }
+        });
+    }
+
+    @Test
+    public void udpNeighborAndItsRoutes() {
+        AODVRoute neighbor = udpNeighbor(5);
+        index.putUDPNeighbor(neighbor);
+        AODVRoute route = udpRoute(9, 5);
+        index.putRoute(route);
+        assertSame(neighbor, index.get((short) 5));
+        assertSame(neighbor, index.getNeighbor((short) 5));
+        assertSame(neighbor, index.getUDPNeighbor((short) 5));
+        assertSame(route, index.get((short) 9));
+        assertNull(index.getNeighbor((short) 9));
+
+        assertEquals(Collections.singletonList(route), index.removeUDPNeighbor((short) 5));
+        assertGone(5);
+        assertGone(9);
+        assertTrue(index.routes().isEmpty());
+        assertTrue(index.udpNeighbors().isEmpty());
+        assertEquals(listOf("5 udp", "9 udp", "5 none", "9 none"), resolved);
+    }
+
+    @Test
+    public void ccNeighborAndItsRoutes() {
+        AODVRoute neighbor = ccNeighbor("a", 0);
+        index.putCCNeighbor(neighbor);
+        //not addressable until its hello arrives
+        assertNull(index.get((short) 6));
+        index.setAddress(neighbor, (short) 6);
+        assertSame(neighbor, index.get((short) 6));
+        assertSame(neighbor, index.getNeighbor((short) 6));
+        assertSame(neighbor, index.getCCNeighborByAddress((short) 6));
+        AODVRoute route = ccRoute(9, 6, "a");
+        index.putRoute(route);
+        assertSame(route, index.get((short) 9));
+
+        assertEquals(Collections.singletonList(route), index.removeCCNeighbor("a"));
+        assertGone(6);
+        assertGone(9);
+        assertNull(index.getCCNeighbor("a"));
+        assertTrue(index.ccNeighbors().isEmpty());
+        assertEquals(listOf("6 cc", "9 cc", "6 none", "9 none"), resolved);
+    }
+
+    //UDP wins while both are up, losing either leaves the other reachable
+    @Test
+    public void neighborOnBothTransports() {
+        AODVRoute cc = ccNeighbor("a", 5);
+        AODVRoute udp = udpNeighbor(5);
+        index.putCCNeighbor(cc);
+        index.putUDPNeighbor(udp);
+        assertSame(udp, index.get((short) 5));
+        assertSame(udp, index.getNeighbor((short) 5));
+
+        index.removeUDPNeighbor((short) 5);
+        assertSame(cc, index.get((short) 5));
+        assertSame(cc, index.getNeighbor((short) 5));
+        index.putUDPNeighbor(udp);
+        index.removeCCNeighbor("a");
+        assertSame(udp, index.get((short) 5));
+        assertNull(index.getCCNeighborByAddress((short) 5));
+        index.removeUDPNeighbor((short) 5);
+        assertGone(5);
+    }
+
+    //the old next hop must not take the route with it once the route moved to the other transport
+    @Test
+    public void routeMovesBetweenTransports() {
+        index.putCCNeighbor(ccNeighbor("a", 6));
+        index.putUDPNeighbor(udpNeighbor(5));
+        AODVRoute overCC = ccRoute(9, 6, "a");
+        index.putRoute(overCC);
+        AODVRoute overUDP = udpRoute(9, 5);
+        index.putRoute(overUDP);
+        assertSame(overUDP, index.get((short) 9));
+        assertTrue(index.removeCCNeighbor("a").isEmpty());
+        assertSame(overUDP, index.get((short) 9));
+
+        index.putCCNeighbor(ccNeighbor("a", 6));
+        AODVRoute back = ccRoute(9, 6, "a");
+        index.putRoute(back);
+        assertTrue(index.removeUDPNeighbor((short) 5).isEmpty());
+        assertSame(back, index.get((short) 9));
+        assertEquals(Collections.singletonList(back), index.removeCCNeighbor("a"));
+        assertGone(9);
+        assertEquals(1, countOf("9 none"));
+    }
+
+    //a multi-hop route to a neighbor's address resolves first, the neighbor shows again without it
+    @Test
+    public void routeShadowsNeighbor() {
+        AODVRoute neighbor = udpNeighbor(5);
+        index.putUDPNeighbor(neighbor);
+        index.putUDPNeighbor(udpNeighbor(4));
+        AODVRoute route = udpRoute(5, 4);
+        index.putRoute(route);
+        assertSame(route, index.get((short) 5));
+        assertSame(neighbor, index.getNeighbor((short) 5));
+        index.removeRoute((short) 5);
+        assertSame(neighbor, index.get((short) 5));
+        //removing the route's next hop no longer touches 5
+        assertTrue(index.removeUDPNeighbor((short) 4).isEmpty());
+        assertSame(neighbor, index.get((short) 5));
+    }
+
+    @Test
+    public void ccNeighborChangesAddress() {
+        AODVRoute first = ccNeighbor("a", 6);
+        AODVRoute second = ccNeighbor("b", 6);
+        index.putCCNeighbor(first);
+        index.putCCNeighbor(second);
+        //the first endpoint claiming an address keeps it
+        assertSame(first, index.get((short) 6));
+
+        index.setAddress(first, (short) 7);
+        assertNull(index.get((short) 6));
+        assertSame(first, index.get((short) 7));
+        index.setAddress(second, (short) 6);
+        assertSame(second, index.get((short) 6));
+        index.removeCCNeighbor("a");
+        assertGone(7);
+        assertSame(second, index.get((short) 6));
+    }
+
+    //RERRs name an address without saying which kind of route it was
+    @Test
+    public void removeByAddressPicksWhatResolves() {
+        index.putUDPNeighbor(udpNeighbor(5));
+        index.putCCNeighbor(ccNeighbor("a", 6));
+        index.putRoute(udpRoute(9, 5));
+        index.putRoute(ccRoute(10, 6, "a"));
+        index.remove((short) 9);
+        assertGone(9);
+        assertSame(index.getUDPNeighbor((short) 5), index.get((short) 5));
+        index.remove((short) 6);
+        assertGone(6);
+        assertGone(10);
+        index.remove((short) 5);
+        assertGone(5);
+        assertTrue(index.routes().isEmpty());
+    }
+
+    private void assertGone(int address) {
+        assertNull(index.get((short) address));
+        assertNull(index.getNeighbor((short) address));
+        assertNull(index.getUDPNeighbor((short) address));
+        assertNull(index.getCCNeighborByAddress((short) address));
+    }
+
+    private int countOf(String event) {
+        return Collections.frequency(resolved, event);
+    }
+
+    private static List<String> listOf(String... events) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, events);
+        return list;
+    }
+
+    private static AODVRoute udpNeighbor(int address) {
+        AODVRoute route = new AODVRoute();
+        route.address = (short) address;
+        route.nextHopAddr = (short) address;
+        return route;
+    }
+
+    private static AODVRoute ccNeighbor(String endpointId, int address) {
+        AODVRoute route = new AODVRoute();
+        route.id = endpointId;
+        route.address = (short) address;
+        route.nextHopAddr = (short) address;
+        route.nextHopId = endpointId;
+        return route;
+    }
+
+    private static AODVRoute udpRoute(int address, int nextHopAddr) {
+        AODVRoute route = new AODVRoute();
+        route.address = (short) address;
+        route.nextHopAddr = (short) nextHopAddr;
+        return route;
+    }
+
+    private static AODVRoute ccRoute(int address, int nextHopAddr, String nextHopId) {
+        AODVRoute route = udpRoute(address, nextHopAddr);
+        route.nextHopId = nextHopId;
+        return route;
+    }
+
+}
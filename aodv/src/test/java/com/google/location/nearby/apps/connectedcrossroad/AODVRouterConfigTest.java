@@ -0,0 +1,54 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AODVRouterConfigTest {
+
+    private static final String KEY = "000102030405060708090a0b0c0d0e0f";
+
+    //changes that need a restart are kept for it, not dropped
+    @Test
+    public void restartOnlyChangesApplyOnNextStart() {
+        AODVRouter router = new AODVRouter(null, null, null);
+        router.setUDPEnabled(false);
+        router.start();
+        try {
+            router.setConfig(AODVConfig.DEFAULT.toBuilder().setHelloInterval(1500).setNetworkKey(KEY).build());
+            assertEquals(1500, router.getConfig().helloInterval);
+            assertEquals("", router.getConfig().networkKey);
+        } finally {
+            router.stop();
+        }
+        router.start();
+        try {
+            assertEquals(1500, router.getConfig().helloInterval);
+            assertEquals(KEY, router.getConfig().networkKey);
+        } finally {
+            router.stop();
+        }
+    }
+
+    //a later change that needs no restart cancels the pending one
+    @Test
+    public void safeChangeReplacesPendingConfig() {
+        AODVRouter router = new AODVRouter(null, null, null);
+        router.setUDPEnabled(false);
+        router.start();
+        try {
+            router.setConfig(AODVConfig.DEFAULT.toBuilder().setNetworkKey(KEY).build());
+            router.setConfig(AODVConfig.DEFAULT.toBuilder().setHelloInterval(1500).build());
+        } finally {
+            router.stop();
+        }
+        router.start();
+        try {
+            assertEquals(1500, router.getConfig().helloInterval);
+            assertEquals("", router.getConfig().networkKey);
+        } finally {
+            router.stop();
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AODVRouterStopTest {
+
+    //stopping ends every Nearby connection without disconnect callbacks, so the router forgets them
+    @Test
+    public void stopDropsCCNeighbors() {
+        AODVRouter router = new AODVRouter(null, null, null);
+        router.setUDPEnabled(false);
+        router.start();
+        try {
+            assertTrue(router.addCCNeighbor("endpoint", (short) 2));
+            assertTrue(router.isCCNeighbor("endpoint"));
+        } finally {
+            router.stop();
+        }
+        assertFalse(router.isCCNeighbor("endpoint"));
+        router.start();
+        try {
+            assertFalse(router.isCCNeighbor("endpoint"));
+            assertTrue(router.addCCNeighbor("endpoint", (short) 2));
+        } finally {
+            router.stop();
+        }
+    }
+
+    //a restart may reconnect to endpoints that never reported a disconnect
+    @Test
+    public void resetForgetsEndpoints() {
+        AODVConnectionManager manager = new AODVConnectionManager(null, new AODVConnectionManager.Scheduler() {
+            @Override
+            public long now() {
+                return 0;
+            }
+
+            @Override
+            public void schedule(Runnable task, long delayMillis) {
+            }
+        }, new Random(1));
+        manager.onConnected("endpoint");
+        assertEquals(AODVConnectionManager.State.CONNECTED, manager.getState("endpoint"));
+        manager.reset();
+        assertEquals(AODVConnectionManager.State.IDLE, manager.getState("endpoint"));
+    }
+}
@@ -0,0 +1,67 @@
+package com.google.location.nearby.apps.connectedcrossroad;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class AODVSendTest {
+
+    @Test
+    public void thenCompletesWithTheFollowingSend() {
+        AODVSend request = new AODVSend((short) 5, "ping");
+        final AODVSend reply = new AODVSend((short) 7, "pong");
+        final AODVSend[] seen = new AODVSend[1];
+        AODVSend chained = request.then(new AODVSend.Continuation() {
+            @Override
+            public AODVSend onComplete(AODVSend send) {
+                seen[0] = send;
+                return reply;
+            }
+        });
+        assertEquals(5, chained.getDestAddr());
+        request.complete(AODVSend.Outcome.DELIVERED);
+        assertSame(request, seen[0]);
+        assertFalse(chained.isDone());
+        reply.setRoute((short) 6, 2);
+        reply.complete(AODVSend.Outcome.UNCONFIRMED);
+        assertEquals(AODVSend.Outcome.UNCONFIRMED, chained.getOutcome());
+        assertEquals(7, chained.getDestAddr());
+        assertEquals("pong", chained.getData());
+        assertEquals(6, chained.getNextHopAddr());
+        assertEquals(2, chained.getHopCount());
+    }
+
+    @Test
+    public void thenWithoutFollowingSendKeepsTheOutcome() {
+        AODVSend request = new AODVSend((short) 5, "ping");
+        AODVSend chained = request.then(new AODVSend.Continuation() {
+            @Override
+            public AODVSend onComplete(AODVSend send) {
+                return null;
+            }
+        });
+        request.complete(AODVSend.Outcome.EXPIRED);
+        assertEquals(AODVSend.Outcome.EXPIRED, chained.getOutcome());
+    }
+
+    //nothing more goes out for a chain nobody waits for
+    @Test
+    public void cancellingTheChainCancelsThePendingSend() {
+        AODVSend request = new AODVSend((short) 5, "ping");
+        final AODVSend[] seen = new AODVSend[1];
+        AODVSend chained = request.then(new AODVSend.Continuation() {
+            @Override
+            public AODVSend onComplete(AODVSend send) {
+                seen[0] = send;
+                return null;
+            }
+        });
+        chained.cancel();
+        assertEquals(AODVSend.Outcome.CANCELLED, request.getOutcome());
+        assertNull(seen[0]);
+    }
+
+}
@@ -1,15 +1,20 @@
 package com.google.location.nearby.apps.connectedcrossroad;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 
+import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.nearby.connection.AdvertisingOptions;
 import com.google.android.gms.nearby.connection.ConnectionInfo;
 import com.google.android.gms.nearby.connection.ConnectionLifecycleCallback;
 import com.google.android.gms.nearby.connection.ConnectionResolution;
 import com.google.android.gms.nearby.connection.ConnectionsClient;
+import com.google.android.gms.nearby.connection.ConnectionsStatusCodes;
 import com.google.android.gms.nearby.connection.DiscoveredEndpointInfo;
 import com.google.android.gms.nearby.connection.DiscoveryOptions;
 import com.google.android.gms.nearby.connection.EndpointDiscoveryCallback;
@@ -19,317 +24,116 @@ import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
 import com.google.android.gms.nearby.connection.Strategy;
 import com.google.android.gms.tasks.OnFailureListener;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.SocketException;
-import java.nio.BufferOverflowException;
-import java.nio.BufferUnderflowException;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
 
-class AODVNetwork {
+/**
+ * Android side of the AODV network: discovery, advertising and connections over Nearby
+ * Connections, plus the UI. Routing itself is done by the {@link AODVRouter}.
+ */
+class AODVNetwork implements AODVRouter.CCTransport, AODVRouter.Connector {
 
     private static final String TAG = "connectedcrossroad";
-    private static final Strategy STRATEGY = Strategy.P2P_CLUSTER;
-    private static final short DEFAULT_NAME = 0;
 
-    private static final int UDP_PORT = 5055;
-    private static final int UDP_BUFSIZE = 2048;
-    private static final short UDP_BROADCAST_ADDR = (short) 0xFFFF;
-
-    private static final int AODV_HEADER_SIZE = 20; //bytes for UDP header
-
-    private static final int MAX_NEIGHBORS = 3;
-
-    private static final long HELLO_INTERVAL = 2000;
-    private static final long ROUTE_EXPIRY_INTERVAL = 3000;
-    private static final long ROUTE_TIMEOUT = 7000;
-    private static final long QUEUE_TIMEOUT = 7000;
-    private static final long QUEUE_INTERVAL = 500;
-    private static final long QUEUE_POLLING_TIMEOUT = 5000;
-
-    //self routing info
-    private final AODVRoute self;
-
-    //key is address, value is route
-    private final Map<Short, AODVRoute> routeTable;
-
-    //key is endpointId, value is route
-    private final Map<String, AODVRoute> ccNeighborsTable;
-
-    //key is address, value is route
-    private final Map<Short, AODVRoute> udpNeighborsTable;
-
-    //key is address, value is endpointId
-    private final Map<Short, String> neighborAddressToId;
-
-    //lock to synchronize threads when modifying route tables
-    private final Object routeTableLock = new Object();
+    static {
+        //send router logs to Logcat
+        AODVLog.setPrinter(new AODVLog.Printer() {
+            @Override
+            public void print(int priority, String tag, String msg) {
+                Log.println(priority, tag, msg);
+            }
+        });
+    }
 
-    //queue to store data while waiting for RREP
-    private BlockingQueue<AODVTxData> dataTxQueue;
-    //queue for udp messages
-    private final BlockingQueue<AODVMessage> udpTxQueue;
-    //queue to handle incoming AODV messages
-    private final BlockingQueue<AODVMessage> handleAODVQueue;
+    //routing core, shared with the JVM tools
+    private final AODVRouter router;
 
     //handles discovery, advertising, and connecting
     private final ConnectionsClient connectionsClient;
+    //decides who initiates and when to retry, calls back into requestConnection/disconnect
+    private final AODVConnectionManager connectionManager;
 
     //Text view to display messages received to user
     private final TextView lastMessageRx;
     //Text view to display number of connected nodes to user
     private final TextView numConnectedText;
 
-    //sockets for communicating with MK6s over UDP
-    private DatagramSocket listenerSocket;
-    private DatagramSocket senderSocket;
-
-    //Thread to periodically send hello messages to neighbors to update information
-    private final Thread helloTxThread;
-    //Thread to pull from queue and send data, waiting for RREPs if necessary
-    private final Thread dataTxThread;
-    //Thread to periodically check for expired route entries
-    private final Thread routeExpiryThread;
-    //Thread to receive UDP messages from MK6 nodes
-    private final Thread udpServerThread;
-    //Thread for send udp messages so it's not on the main thread
-    private final Thread udpTxThread;
-    //Thread to handle incoming AODV messages;
-    private final Thread handleAODVThread;
-
     private boolean searching = false;
 
-    AODVNetwork(ConnectionsClient connectionsClient, TextView numConnectedText, TextView lastMessageRx) {
+    //addresses from endpoint names, key is endpointId
+    private final Map<String, Short> endpointAddresses = new ConcurrentHashMap<>();
 
-        this.self = new AODVRoute();
-        this.self.address = DEFAULT_NAME;
-        this.routeTable = Collections.synchronizedMap(new HashMap<Short, AODVRoute>());
-        this.ccNeighborsTable = Collections.synchronizedMap(new HashMap<String, AODVRoute>());
-        this.udpNeighborsTable = Collections.synchronizedMap(new HashMap<Short, AODVRoute>());
-        this.neighborAddressToId = Collections.synchronizedMap(new HashMap<Short, String>());
-        this.dataTxQueue = new LinkedBlockingQueue<>();
-        this.udpTxQueue = new LinkedBlockingQueue<>();
-        this.handleAODVQueue = new LinkedBlockingQueue<>();
-        this.connectionsClient = connectionsClient;
-        this.lastMessageRx = lastMessageRx;
-        this.numConnectedText = numConnectedText;
-
-        Runnable helloTxRunnable = new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    senderSocket = new DatagramSocket(null);
-                    senderSocket.setReuseAddress(true);
-                    senderSocket.setBroadcast(true);
-                    //set to MK6 wifi address, make this configurable
-                    //senderSocket.bind(new InetSocketAddress("192.168.10.255", UDP_PORT));
-                    //senderSocket.bind(new InetSocketAddress(UDP_PORT));
-                    while (!Thread.interrupted()) {
-                        //send a hello message to neighbors every hello interval
-                        AODVMessage helloMsg = initHELLO();
-                        broadcastMessage(helloMsg);
-                        Thread.sleep(HELLO_INTERVAL);
-                    }
-                } catch (SocketException | InterruptedException e) {
-                    e.printStackTrace();
-                } finally {
-                    senderSocket.close();
-                }
-            }
-        };
-        this.helloTxThread = new Thread(helloTxRunnable);
+    AODVNetwork(ConnectionsClient connectionsClient, TextView numConnectedText, TextView lastMessageRx) {
+        this(connectionsClient, numConnectedText, lastMessageRx, null);
+    }
 
-        Runnable dataTxRunnable = new Runnable() {
+    AODVNetwork(ConnectionsClient connectionsClient, TextView numConnectedText, TextView lastMessageRx,
+                File routeCacheFile) {
+        //received data and neighbor counts come through the router's event bus instead of a listener
+        this.router = new AODVRouter(this, null, routeCacheFile);
+        final Handler handler = new Handler(Looper.getMainLooper());
+        this.connectionManager = new AODVConnectionManager(this, new AODVConnectionManager.Scheduler() {
             @Override
-            public void run() {
-                while (!Thread.interrupted()) {
-                    Collection<AODVTxData> txDatas = new ArrayList<>();
-                    try {
-                        while(!dataTxQueue.isEmpty()) {
-                            AODVTxData txData = dataTxQueue.poll(QUEUE_POLLING_TIMEOUT, TimeUnit.MILLISECONDS);
-                            if (txData != null && txData.msg != null) {
-                                Log.d(TAG, "dataTxThread: Pulled AODV data from queue");
-                                AODVMessage msg = txData.msg;
-                                synchronized (routeTableLock) {
-                                    AODVRoute route = getRouteByAddress(msg.header.destAddr);
-                                    //if we have a route to the destination, send the message
-                                    if (route != null) {
-                                        msg.header.nextId = route.nextHopId;
-                                        msg.header.nextAddr = route.nextHopAddr;
-                                        msg.header.hopCnt = route.hopCnt;
-                                        Log.d(TAG, String.format("dataTxRunnable: Sending AODV DATA to: %s via %s",
-                                                msg.header.destAddr, msg.header.nextAddr));
-                                        sendMessage(msg);
-                                    } else if (txData.lifetime > System.currentTimeMillis()) {
-                                        //add message back to queue if it has not expired and rrep may not have returned
-                                        Log.d(TAG, "dataTxRunnable: Adding unexpired message back to queue");
-                                        txDatas.add(txData);
-                                    } else {
-                                        //drop the message if the time is expired
-                                        Log.d(TAG, "dataTxRunnable: Dropping expired message");
-                                    }
-                                }
-                            }
-                            //need this so we don't poll infinitely when there is one rreq waiting
-                        }
-                        Thread.sleep(QUEUE_INTERVAL);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    } finally {
-                        dataTxQueue.drainTo(txDatas);
-                        dataTxQueue = new LinkedBlockingQueue<>(txDatas);
-                    }
-                }
+            public long now() {
+                return SystemClock.elapsedRealtime();
             }
-        };
-        this.dataTxThread = new Thread(dataTxRunnable);
 
-        Runnable routeExpiryRunnable = new Runnable() {
             @Override
-            public void run() {
-                while (!Thread.interrupted()) {
-                    try {
-                        synchronized (routeTableLock) {
-                            long timeMillis = System.currentTimeMillis();
-                            //remove expired routes
-                            for (AODVRoute route : routeTable.values()) {
-                                if (route.timeout < timeMillis) {
-                                    removeRouteByAddress(route.address);
-                                    Log.d(TAG, "routeExpiryRunnable: removed route to " + route.address);
-                                }
-                            }
-                            //remove expired udp neighbors
-                            for (AODVRoute route : udpNeighborsTable.values()) {
-                                if (route.timeout < timeMillis) {
-                                    removeRouteByAddress(route.address);
-                                    Log.d(TAG, "routeExpiryRunnable: removed route to " + route.address);
-                                }
-                            }
-                        }
-                        //connections may have been removed so update num connected on main thread somehow
-                        Thread.sleep(ROUTE_EXPIRY_INTERVAL);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
+            public void schedule(Runnable task, long delayMillis) {
+                handler.postDelayed(task, delayMillis);
             }
-        };
-        this.routeExpiryThread = new Thread(routeExpiryRunnable);
-
-        Runnable udpServerRunnable = new Runnable() {
+        }, new Random());
+        this.router.setConnector(connectionManager);
+        this.connectionsClient = connectionsClient;
+        this.lastMessageRx = lastMessageRx;
+        this.numConnectedText = numConnectedText;
+        //the views only need the latest state, at most once a frame on the main thread
+        router.getEvents().subscribe(new AODVEventBus.Subscriber() {
             @Override
-            public void run() {
-                try {
-                    listenerSocket = new DatagramSocket(null);
-                    listenerSocket.setReuseAddress(true);
-                    listenerSocket.setBroadcast(true);
-                    //set to MK6 wifi address, make this configurable
-                    //listenerSocket.bind(new InetSocketAddress("192.168.10.255", UDP_PORT));
-                    listenerSocket.bind(new InetSocketAddress(UDP_PORT));
-                    byte[] inBuffer = new byte[UDP_BUFSIZE];
-                    Log.d(TAG, "AODVServer: Started UDP Server thread, listening on port " + UDP_PORT);
-                    while (!Thread.interrupted()) {
-                        DatagramPacket packet = new DatagramPacket(inBuffer, inBuffer.length);
-                        listenerSocket.receive(packet);
-                        String received = new String(packet.getData(), 0, packet.getLength());
-                        Log.d(TAG, String.format(Locale.US, "AODVServer: Received message: %d bytes from %s",
-                                received.length(), packet.getAddress().getHostAddress()));
-                        AODVMessage recv = deserializeAODVPacket(packet.getData());
-                        if (recv != null && recv.header.sendDevType != AODVDeviceType.AND &&
-                                (recv.header.nextAddr == self.address || recv.header.nextAddr == UDP_BROADCAST_ADDR)) {
-                            Log.d(TAG, "AODVServer: handling AODV UDP message");
-                            handleAODVQueue.add(recv);
-                            //handleAODVMessage(recv);
-                        } /*else {
-                            Log.d(TAG, "AODVServer: Dropping UDP message");
-                        }*/
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } finally {
-                    listenerSocket.close();
-                }
+            public void onEvents(List<AODVEvent> events) {
+                updateViews(events);
             }
-        };
-        this.udpServerThread = new Thread(udpServerRunnable);
-
-        Runnable udpTxRunnable = new Runnable() {
+        }, AODVEventBus.ALL, new AODVEventBus.Scheduler() {
             @Override
-            public void run() {
-                while (!Thread.interrupted()) {
-                    try {
-                        AODVMessage msg;
-                        msg = udpTxQueue.poll(QUEUE_POLLING_TIMEOUT, TimeUnit.MILLISECONDS);
-                        if (msg != null) {
-                            broadcastUDPMessage(msg);
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
+            public void schedule(Runnable task, long delayMillis) {
+                handler.postDelayed(task, delayMillis);
             }
-        };
-        this.udpTxThread = new Thread(udpTxRunnable);
-
-        Runnable handleAODVRunnable = new Runnable() {
+        }, AODVEventBus.FRAME_MILLIS, AODVEventBus.DEFAULT_CAPACITY);
+        //every received message goes to Logcat, off the main thread
+        router.getEvents().subscribe(new AODVEventBus.Subscriber() {
             @Override
-            public void run() {
-                while(!Thread.interrupted()) {
-                    try {
-                        AODVMessage msg;
-                        msg = handleAODVQueue.poll(QUEUE_POLLING_TIMEOUT, TimeUnit.MILLISECONDS);
-                        if (msg != null) {
-                            synchronized (routeTableLock) {
-                                handleAODVMessage(msg);
-                            }
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-
+            public void onEvents(List<AODVEvent> events) {
+                for (AODVEvent event : events) {
+                    Log.d(TAG, "onEvents: " + event);
                 }
             }
-        };
-        this.handleAODVThread = new Thread(handleAODVRunnable);
+        }, AODVEventBus.ofType(AODVEvent.Type.DATA));
+    }
 
+    //subscribe to received data and neighbor changes, see AODVEventBus for threading
+    AODVEventBus getEvents() {
+        return router.getEvents();
     }
 
     void start() {
         startAdvertising();
         startDiscovery();
-        helloTxThread.start();
-        dataTxThread.start();
-        routeExpiryThread.start();
-        udpServerThread.start();
-        udpTxThread.start();
-        handleAODVThread.start();
+        router.start();
         Log.d(TAG, "Started AODV network");
     }
 
     void stop() {
-        helloTxThread.interrupt();
-        dataTxThread.interrupt();
-        routeExpiryThread.interrupt();
-        udpServerThread.interrupt();
-        udpTxThread.interrupt();
-        handleAODVThread.interrupt();
+        router.stop();
         stopDiscovery();
         stopAdvertising();
         connectionsClient.stopAllEndpoints();
+        //no onDisconnected comes for these, the router already dropped them in stop
+        connectionManager.reset();
         Log.d(TAG, "Stopped AODV network");
     }
 
@@ -338,7 +142,7 @@ class AODVNetwork {
             searching = true;
             connectionsClient.startDiscovery(
                     TAG, endpointDiscoveryCallback,
-                    new DiscoveryOptions.Builder().setStrategy(STRATEGY).build()
+                    new DiscoveryOptions.Builder().setStrategy(getStrategy()).build()
             );
             Log.d(TAG, "startDiscovery: started discovery");
         }
@@ -355,8 +159,8 @@ class AODVNetwork {
     void startAdvertising() {
         //Advertising may fail. To keep this demo simple, we don't handle failures.
         connectionsClient.startAdvertising(
-                String.valueOf(self.address), TAG, connectionLifecycleCallback,
-                new AdvertisingOptions.Builder().setStrategy(STRATEGY).build()
+                String.valueOf(router.getAddress()), TAG, connectionLifecycleCallback,
+                new AdvertisingOptions.Builder().setStrategy(getStrategy()).build()
         );
         Log.d(TAG, "startAdvertising: started advertising");
     }
@@ -368,695 +172,136 @@ class AODVNetwork {
 
     //Give the device a human readable address (one-time at startup before advertising)
     void setAddress(short address) {
-        this.self.address = address;
-        Log.d(TAG, "setName: set address to " + address);
+        router.setAddress(address);
+        connectionManager.setAddress(address);
     }
 
     short getAddress() {
-        return self.address;
-    }
-
-    public int getLocalSize() {
-        synchronized (routeTableLock) {
-            return 1 + ccNeighborsTable.size() + udpNeighborsTable.size();
-        }
-    }
-
-    private AODVRoute getRouteByAddress(short address) {
-        AODVRoute route = null;
-        if (routeTable.containsKey(address)) {
-            route = routeTable.get(address);
-        } else if (udpNeighborsTable.containsKey(address)) {
-            route = udpNeighborsTable.get(address);
-        } else if (ccNeighborsTable.containsKey(neighborAddressToId.get(address))) {
-            route = ccNeighborsTable.get(neighborAddressToId.get(address));
-        }
-        return route;
+        return router.getAddress();
     }
 
-
-    private void removeRouteByAddress(short address) {
-        if (routeTable.containsKey(address)) {
-            routeTable.remove(address);
-        } else if (udpNeighborsTable.containsKey(address)) {
-            udpNeighborsTable.remove(address);
-        } else if (ccNeighborsTable.containsKey(neighborAddressToId.get(address))) {
-            ccNeighborsTable.remove(neighborAddressToId.get(address));
-            neighborAddressToId.remove(address);
-        }
+    //can be called again while running to hot-reload the timing parameters
+    void setConfig(AODVConfig config) {
+        router.setConfig(config);
     }
 
-    void sendMessage(short address, String data) {
-        synchronized (routeTableLock) {
-            AODVMessage userMessage = initDATA(address, data);
-            AODVRoute route = getRouteByAddress(address);
-            if (route != null) {
-                Log.d(TAG, "sendMessage: Sending AODV DATA to: " + route.address);
-                userMessage.header.nextId = route.nextHopId;
-                userMessage.header.hopCnt = route.hopCnt;
-                userMessage.header.destSeqNum = route.seqNum;
-                sendMessage(userMessage);
-                Log.d(TAG, "sendMessage: Sent AODV DATA to: " + route.address);
-            } else {
-                Log.d(TAG, "sendMessage: Initiating RREQ for route to " + address);
-                AODVTxData txData = new AODVTxData(userMessage);
-                //add to message queue to be processed when route is available
-                dataTxQueue.add(txData);
-                AODVMessage rreq = initRREQ(address);
-                Log.d(TAG, "sendMessage: Sending AODV RREQ");
-                broadcastMessage(rreq);
-            }
-        }
+    AODVConfig getConfig() {
+        return router.getConfig();
     }
 
-    private void sendMessage(AODVMessage msg) {
-        msg.header.sendAddr = self.address;
-        msg.header.sendDevType = AODVDeviceType.AND;
-        if (msg.header.nextId != null) {
-            sendCCMessage(msg);
-        } else {
-            udpTxQueue.add(msg);
+    private Strategy getStrategy() {
+        switch (router.getConfig().strategy) {
+            case "P2P_STAR":
+                return Strategy.P2P_STAR;
+            case "P2P_POINT_TO_POINT":
+                return Strategy.P2P_POINT_TO_POINT;
+            default:
+                return Strategy.P2P_CLUSTER;
         }
     }
 
-    private void broadcastMessage(AODVMessage msg) {
-        msg.header.sendAddr = self.address;
-        broadcastCCMessage(msg);
-        udpTxQueue.add(msg);
+    public int getLocalSize() {
+        return router.getLocalSize();
     }
 
-    private synchronized void sendCCMessage(AODVMessage msg) {
+    //record all AODV packets to a capture file for offline analysis
+    void startCapture(File captureFile) {
         try {
-            byte[] bytes = SerializationHelper.serialize(msg);
-            Payload payload = Payload.fromBytes(bytes);
-            connectionsClient.sendPayload(msg.header.nextId, payload);
-            Log.d(TAG, "sendMessage: Sent AODV CC message");
+            router.setCapture(new AODVCapture(captureFile, AODVCapture.DEFAULT_CAPACITY, router.getAddress()));
         } catch (IOException e) {
-            Log.e(TAG, "ERROR: Serializing data failed");
+            Log.e(TAG, "startCapture: failed to open " + captureFile);
             e.printStackTrace();
         }
     }
 
-    private void broadcastCCMessage(AODVMessage msg) {
-        synchronized (routeTableLock) {
-            for (AODVRoute neighbor : ccNeighborsTable.values()) {
-                msg.header.nextAddr = neighbor.address;
-                msg.header.nextId = neighbor.nextHopId;
-                sendCCMessage(msg);
-            }
-        }
-        Log.d(TAG, "broadcastMessage: sent AODV CC broadcast message");
-    }
-
-    private synchronized void broadcastUDPMessage(AODVMessage msg) {
-        try {
-                msg.header.nextAddr = UDP_BROADCAST_ADDR;
-                byte[] outBuffer = serializeAODVPacket(msg);
-                InetAddress broadcastAddr = InetAddress.getByName("255.255.255.255");
-                //InetAddress broadcastAddr = InetAddress.getByName("192.168.10.255");
-                //DatagramPacket packet = new DatagramPacket(outBuffer, outBuffer.length, broadcastAddr, UDP_PORT);
-                //send to MK6 wifi
-                DatagramPacket packet = new DatagramPacket(outBuffer, outBuffer.length, broadcastAddr, UDP_PORT);
-                senderSocket.send(packet);
-                Log.d(TAG, String.format("AODVClient: Sent broadcast : %d bytes to %s", outBuffer.length, broadcastAddr));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    //the handle's callbacks run on the router's engine thread
+    AODVSend sendMessage(short address, String data) {
+        return router.send(address, data);
     }
 
-    private void handleAODVMessage(AODVMessage msg) {
-        switch (msg.header.type) {
-            case HELO:
-                handleHELLO(msg);
-                break;
-            case DATA:
-                handleDATA(msg);
-                break;
-            case RREQ:
-                handleRREQ(msg);
-                break;
-            case RREP:
-                handleRREP(msg);
-                break;
-            case RERR:
-                handleRERR(msg);
-                break;
-            default:
-                Log.d(TAG, "handleAODVMessage: unknown type");
-        }
+    @Override
+    public void sendCC(List<String> endpointIds, byte[] bytes) {
+        Payload payload = Payload.fromBytes(bytes);
+        connectionsClient.sendPayload(endpointIds, payload);
     }
 
-    private void handleHELLO(AODVMessage msg) {
-        short sendAddr = msg.header.sendAddr;
-        String sendId = msg.header.sendId;
-        Log.d(TAG, "handleHELLO: Received AODV HELLO from: " + sendAddr);
-        AODVRoute neighbor;
-        if (ccNeighborsTable.containsKey(sendId)) {
-            neighbor = ccNeighborsTable.get(sendId);
-            //we can only know neighbor Addr from hello messages
-            if (neighbor != null) {
-                if (!neighborAddressToId.containsKey(sendAddr)) {
-                    neighborAddressToId.put(sendAddr, sendId);
-                }
-                neighbor.address = msg.header.srcAddr;
-                neighbor.nextHopAddr = sendAddr;
-                neighbor.seqNum = msg.header.srcSeqNum;
-                //neighbor.bcastSeqNum = msg.header.bcastSeqNum;
-            } else {
-                Log.d(TAG, "handleHello: CC neighbor was null");
-            }
-        } else if (udpNeighborsTable.containsKey(sendAddr)) {
-            neighbor = udpNeighborsTable.get(sendAddr);
-            if (neighbor != null) {
-                neighbor.seqNum = msg.header.srcSeqNum;
-                //neighbor.bcastSeqNum = msg.header.bcastSeqNum;
-                neighbor.timeout = System.currentTimeMillis() + ROUTE_TIMEOUT;
-            } else {
-                Log.d(TAG, "handleHello: UDP neighbor was null");
-            }
-        } else {
-                //make new route for neighbor
-                Log.d(TAG, "handleHELLO: Creating new route for UDP neighbor");
-                neighbor = new AODVRoute();
-                neighbor.address = msg.header.srcAddr;
-                neighbor.nextHopAddr = sendAddr;
-                neighbor.seqNum = msg.header.srcSeqNum;
-                //neighbor.bcastSeqNum = msg.header.bcastSeqNum;
-                //need a timeout for these neighbors because connection is only maintained by hellos
-                neighbor.timeout = System.currentTimeMillis() + ROUTE_TIMEOUT;
-                udpNeighborsTable.put(sendAddr, neighbor);
-        }
-    }
-
-    private void handleDATA(AODVMessage msg) {
-        Log.d(TAG, "handleData: Received AODV DATA message");
-        short destAddr = msg.header.destAddr;
-        if (destAddr == self.address) {
-            Log.d(TAG, "handleData: DATA reached destination: " + destAddr);
-            //do whatever with data, in our case post it to the text view
-            updateLastMessageRx(msg.header.srcAddr, msg.payload);
-        } else {
-            Log.d(TAG, "handleData: DATA in transit to: " + destAddr);
-            AODVRoute route = getRouteByAddress(destAddr);
-            if (route != null) {
-                msg.header.nextId = route.nextHopId;
-                sendMessage(msg);
-                Log.d(TAG, "handleData: Sent DATA to next hop: " + route.nextHopAddr);
-            } else {
-                Log.d(TAG, "handleData: DATA error for: " + destAddr);
-                short srcAddr = msg.header.srcAddr;
-                AODVMessage rerr = initRERR(srcAddr);
-                if (rerr != null) {
-                    self.seqNum++; //increase seq num for rerr?
-                    sendMessage(rerr);
-                } else {
-                    //nothing can be done, drop message
-                    Log.d(TAG, "handleData: dropping RERR message");
-                }
-            }
-        }
-    }
-
-    private void handleRREQ(AODVMessage msg) {
-        short srcAddr = msg.header.srcAddr;
-        short destAddr = msg.header.destAddr;
-        Log.d(TAG, "handleRREQ: Received AODV RREQ from: " + srcAddr);
-        if (srcAddr == self.address) {
-            return;
-        }
-        AODVRoute srcRoute = getRouteByAddress(srcAddr);
-        //set up reverse route to src if one doesn't exist
-        if (srcRoute == null) {
-            Log.d(TAG, "handleRREQ: creating reverse route to: " + srcAddr);
-            String sendId = msg.header.sendId;
-            srcRoute = new AODVRoute();
-            srcRoute.address = srcAddr;
-            srcRoute.seqNum = msg.header.srcSeqNum;
-            srcRoute.nextHopId = sendId;
-            srcRoute.nextHopAddr = msg.header.sendAddr;
-            srcRoute.hopCnt = (byte) (msg.header.hopCnt + 1);
-            srcRoute.timeout = System.currentTimeMillis() + ROUTE_TIMEOUT;
-            routeTable.put(srcAddr, srcRoute);
-        }
-        //check bcast seq num for route freshness and to prevent loops
-        if (msg.header.bcastSeqNum <= srcRoute.bcastSeqNum) {
-            return;
-        }
-        srcRoute.bcastSeqNum = msg.header.bcastSeqNum;
-
-        AODVRoute destRoute = getRouteByAddress(destAddr);
-        if (destAddr == self.address || (destRoute != null && msg.header.destSeqNum <= destRoute.seqNum)) {
-            self.seqNum++; //inc seq num?
-            AODVMessage rrep = initRREP(destAddr, srcAddr);
-            if (rrep != null) {
-                Log.d(TAG, "handleRREQ: sending RREP to: " + srcAddr);
-                sendMessage(rrep);
-            } else {
-                Log.d(TAG, "handleRREQ: dropping RREP to: " + srcAddr);
-            }
-        } else {
-            //make sure no loops are happening with this
-            Log.d(TAG, "handleRREQ: rebroadcasting RREQ for: " + destAddr);
-            broadcastMessage(msg);
-        }
-    }
-
-    private void handleRREP(AODVMessage msg) {
-        short srcAddr = msg.header.srcAddr;
-        short destAddr = msg.header.destAddr;
-        Log.d(TAG, "handleRREP: Received AODV RREP message from: " + srcAddr);
-        AODVRoute srcRoute = getRouteByAddress(srcAddr);
-        //to prevent loops, only forward one of each rrep
-        //is this correct?
-        if (srcRoute != null && msg.header.srcSeqNum <= srcRoute.seqNum) {
-            Log.d(TAG, String.format("Dropping RREP from %d to %d", srcAddr, destAddr));
-            return;
-        }
-        if (srcRoute == null) {
-            Log.d(TAG, "handleRREP: Creating forward route to: " + srcAddr);
-            srcRoute = new AODVRoute();
-            srcRoute.address = srcAddr;
-            srcRoute.nextHopId = msg.header.sendId;
-            srcRoute.nextHopAddr = msg.header.sendAddr;
-            srcRoute.seqNum = msg.header.srcSeqNum;
-            srcRoute.hopCnt = (byte) (msg.header.hopCnt - 1);
-            routeTable.put(srcAddr, srcRoute);
-        }
-        srcRoute.timeout = System.currentTimeMillis() + ROUTE_TIMEOUT;
-        AODVRoute destRoute = getRouteByAddress(destAddr);
-        if (destAddr == self.address) {
-            Log.d(TAG, "handleRREP: RREP reached destination");
-        } else if (destRoute != null) {
-            Log.d(TAG, "handleRREP: Forwarding RREP to next hop");
-            msg.header.nextId = destRoute.nextHopId;
-            msg.header.nextAddr = destRoute.nextHopAddr;
-            msg.header.hopCnt--;
-            sendMessage(msg);
-        } else {
-            Log.d(TAG, String.format("handleRREP: ERROR in RREP from %s to %s", srcAddr, destAddr));
-            //self.seqNum++;
-            AODVMessage rerr = initRERR(srcAddr);
-            if (rerr != null) {
-                sendMessage(rerr);
-            } else {
-                Log.d(TAG, "handleRREP: dropping RERR to: " + srcAddr);
-            }
-        }
-        /*
-        if (destAddr == self.address || srcRoute != null) {
-            if (destAddr == self.address || msg.header.srcSeqNum <= srcRoute.seqNum) {
-                //create forward route to dest
-                AODVRoute destRoute = getRouteByAddress(destAddr);
-                if (srcRoute == null) {
-                    Log.d(TAG, "handleRREP: Creating forward route to: " + srcAddr);
-                    srcRoute = new AODVRoute();
-                    srcRoute.address = srcAddr;
-                    srcRoute.nextHopId = msg.header.sendId;
-                    srcRoute.nextHopAddr = msg.header.sendAddr;
-                    srcRoute.hopCnt = (byte) (msg.header.hopCnt - 1);
-                }
-                //to prevent loops, only forward one of each rrep
-                if (srcRoute.seqNum >= msg.header.srcSeqNum) {
-                    return;
-                }
-                srcRoute.seqNum = msg.header.srcSeqNum;
-                srcRoute.timeout = System.currentTimeMillis() + ROUTE_TIMEOUT;
-            }
-
-            if (destAddr == self.address) {
-                Log.d(TAG, "handleRREP: RREP reached destination");
-            } else {
-                msg.header.nextId = destRoute.nextHopId;
-                msg.header.nextAddr = destRoute.nextHopAddr;
-                msg.header.hopCnt--;
-                Log.d(TAG, "handleRREP: Forwarding RREP to next hop");
-                sendMessage(msg);
-            }
-        } else {
-            Log.d(TAG, String.format("handleRREP: ERROR in RREP from %s to %s", srcAddr, destAddr));
-            AODVMessage rerr = initRERR(srcAddr);
-            if (rerr != null) {
-                sendMessage(rerr);
-            } else {
-                Log.d(TAG, "handleRREP: dropping RERR to: " + srcAddr);
-            }
-        }
-         */
-    }
-
-    private void handleRERR(AODVMessage msg) {
-        short srcAddr = msg.header.srcAddr;
-        short destAddr = msg.header.destAddr;
-        Log.d(TAG, "handleRERR: Received AODV RERR message from: " + srcAddr);
-        removeRouteByAddress(srcAddr);
-        if (destAddr == self.address) {
-            Log.d(TAG, "handleRERR: RERR reached destination");
-        } else {
-            AODVRoute route = getRouteByAddress(destAddr);
-            if (route != null) {
-                Log.d(TAG, "handleRERR: Forwarding RERR to next hop: " + route.nextHopAddr);
-                msg.header.nextId = route.nextHopId;
-                //msg.header.sendAddr = self.address;
-                sendMessage(msg);
-            } else {
-                Log.d(TAG, "handleRERR: Dropping RERR to: " + destAddr);
+    //called by the connection manager for each attempt
+    @Override
+    public void requestConnection(final String endpointId) {
+        connectionsClient.requestConnection(String.valueOf(router.getAddress()),
+                                            endpointId,
+                                            connectionLifecycleCallback
+        ).addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                Log.d(TAG, "requestConnection: Connection request failure " + e.getMessage());
+                //8012: STATUS_ENDPOINT_IO_ERROR is the simultaneous connection request error
+                boolean clash = e instanceof ApiException
+                        && ((ApiException) e).getStatusCode() == ConnectionsStatusCodes.STATUS_ENDPOINT_IO_ERROR;
+                connectionManager.onConnectionFailed(endpointId, clash);
             }
-        }
+        });
     }
 
-    //always broadcast these to all neighbors
-    private AODVMessage initHELLO() {
-        Log.d(TAG, "initHELLO: initiating HELLO message");
-        AODVMessage msg = new AODVMessage();
-        msg.header.type = AODVMessageType.HELO;
-        msg.header.srcAddr = self.address;
-        msg.header.srcSeqNum = self.seqNum;
-        //msg.header.bcastSeqNum = self.bcastSeqNum;
-        msg.header.hopCnt = 0;
-        msg.header.length = 0;
-        return msg;
+    //called by the connection manager, e.g. when a weaker neighbor is swapped out
+    @Override
+    public void disconnect(String endpointId) {
+        connectionsClient.disconnectFromEndpoint(endpointId);
     }
 
-    //ids need to get set somewhere else because route may not exist or may change
-    private AODVMessage initDATA(short destAddr, String data) {
-        Log.d(TAG, "initDATA: initiating DATA message to: " + destAddr);
-        AODVMessage msg = new AODVMessage();
-        msg.header.type = AODVMessageType.DATA;
-        msg.header.srcAddr = self.address;
-        msg.header.srcSeqNum = self.seqNum;
-        //msg.header.bcastSeqNum = self.bcastSeqNum;
-        msg.header.destAddr = destAddr;
-        msg.header.length = (short) data.length();
-        msg.payload = data;
-        return msg;
-    }
-
-    //always broadcast these to all neighbors
-    private AODVMessage initRREQ(short destAddr) {
-        Log.d(TAG, "initRREQ: initiating RREQ message for: " + destAddr);
-        AODVMessage msg = new AODVMessage();
-        msg.header.type = AODVMessageType.RREQ;
-        msg.header.srcAddr = self.address;
-        msg.header.srcSeqNum = self.seqNum;
-        msg.header.sendAddr = self.address;
-        msg.header.bcastSeqNum = ++self.bcastSeqNum; //inc on each rreq
-        msg.header.destAddr = destAddr;
-        msg.header.length = 0;
-        //may still have active route but need updated information
-        AODVRoute route = getRouteByAddress(destAddr);
-        if (route != null) {
-            msg.header.destSeqNum = route.seqNum;
-            msg.header.hopCnt = route.hopCnt;
-        } else {
-            msg.header.destSeqNum = 0;
-            msg.header.hopCnt = 0;
-        }
-        return msg;
-    }
-
-    private AODVMessage initRREP(short srcAddr, short destAddr) {
-        Log.d(TAG, "initRREP: initiating RREP message for: " + destAddr);
-        AODVMessage msg = null;
-        AODVRoute destRoute = getRouteByAddress(destAddr);
-        if (destRoute != null) {
-            msg = new AODVMessage();
-            msg.header.type = AODVMessageType.RREP;
-            msg.header.srcAddr = srcAddr;
-            msg.header.srcSeqNum = self.seqNum;
-            //msg.header.bcastSeqNum = self.bcastSeqNum;
-            msg.header.destAddr = destRoute.address;
-            msg.header.destSeqNum = destRoute.seqNum;
-            msg.header.nextId = destRoute.nextHopId;
-            msg.header.nextAddr = destRoute.nextHopAddr;
-            msg.header.hopCnt = destRoute.hopCnt;
-            msg.header.length = 0;
+    //we advertise our address as the endpoint name
+    private void putEndpointAddress(String endpointId, String endpointName) {
+        try {
+            endpointAddresses.put(endpointId, Short.parseShort(endpointName));
+        } catch (NumberFormatException e) {
+            Log.d(TAG, "putEndpointAddress: not an address: " + endpointName);
         }
-        return msg;
     }
 
-    private AODVMessage initRERR(short destAddr) {
-        Log.d(TAG, "initRERR: initiating RERR message for: " + destAddr);
-        AODVMessage msg = null;
-        //need an active route to dest;
-        AODVRoute route = getRouteByAddress(destAddr);
-        if (route != null) {
-            msg = new AODVMessage();
-            msg.header.type = AODVMessageType.RERR;
-            msg.header.srcAddr = self.address;
-            msg.header.srcSeqNum = self.seqNum;
-            msg.header.bcastSeqNum = self.bcastSeqNum;
-            msg.header.destAddr = route.address;
-            msg.header.destSeqNum = route.seqNum;
-            msg.header.nextId = route.nextHopId;
-            msg.header.nextAddr = route.nextHopAddr;
-            msg.header.hopCnt = Byte.MAX_VALUE; //signifying broken link to prevent loops
-            msg.header.length = 0;
-        }
-        return msg;
+    private short getEndpointAddress(String endpointId) {
+        Short address = endpointAddresses.get(endpointId);
+        return address != null ? address : 0;
     }
 
-    //numbers don't really mean anything, for compatibility with C version
-    private enum AODVMessageType implements Serializable {
-        NONE((byte) 0),
-        RREQ((byte) 120),
-        RREP((byte) 121),
-        RERR((byte) 122),
-        HELO((byte) 123),
-        DATA((byte) 124);
-
-        private final byte id;
-        private static final Map<Byte, AODVMessageType> valToType = new HashMap<>();
-        static {
-            for (AODVMessageType type : AODVMessageType.values()) {
-                valToType.put(type.getValue(), type);
+    //on the main thread, the last event of each type wins
+    private void updateViews(List<AODVEvent> events) {
+        AODVEvent lastData = null;
+        AODVEvent lastNeighbors = null;
+        for (AODVEvent event : events) {
+            if (event.type == AODVEvent.Type.DATA) {
+                lastData = event;
+            } else if (event.type == AODVEvent.Type.NEIGHBORS) {
+                lastNeighbors = event;
             }
         }
-
-        AODVMessageType(byte id) { this.id = id; }
-
-        byte getValue() { return id; }
-
-        static AODVMessageType valueOf(byte id) {
-            return valToType.containsKey(id) ? valToType.get(id) : NONE;
-        }
-    }
-
-    private enum AODVDeviceType implements Serializable {
-        NONE((byte) 0),
-        AND((byte) 1),
-        MK6((byte) 2);
-
-        private final byte id;
-        private static final Map<Byte, AODVDeviceType> valToType = new HashMap<>();
-        static {
-            for (AODVDeviceType type : AODVDeviceType.values()) {
-                valToType.put(type.getValue(), type);
-            }
-        }
-        AODVDeviceType(byte id) { this.id = id; }
-
-        byte getValue() { return id; }
-
-        static AODVDeviceType valueOf(byte id) {
-            return valToType.containsKey(id) ? valToType.get(id) : NONE;
-        }
-    }
-
-    private static class AODVHeader implements Serializable {
-
-        //shorts for compatibility with C version (Java doesn't have unsigned types...)
-        //if these overflow there will be issues, shouldn't happen unless its running for a long time
-        AODVMessageType type;
-        short srcAddr; //origination of packet
-        short destAddr; //final destination of packet
-        short nextAddr;
-        String nextId; //endpointId for routing
-        short sendAddr;
-        String sendId; //endpointId for routing, this will be set in onReceivedPayload;
-        AODVDeviceType sendDevType;
-        short srcSeqNum;
-        short bcastSeqNum;
-        short destSeqNum;
-        byte hopCnt;
-        short length; //length of payload
-
-        AODVHeader() {
-            this.type = AODVMessageType.NONE;
-            this.srcAddr = 0;
-            this.destAddr = 0;
-            this.nextAddr = 0;
-            this.nextId = null;
-            this.sendAddr = 0;
-            this.sendId = null;
-            this.sendDevType = AODVDeviceType.AND;
-            this.srcSeqNum = 0;
-            this.bcastSeqNum = 0;
-            this.destSeqNum = 0;
-            this.hopCnt = 0;
-            this.length = 0;
+        if (lastNeighbors != null) {
+            String display = String.format(Locale.US, "Devices in local network: %d", lastNeighbors.localSize);
+            numConnectedText.setText(display);
+            Log.d(TAG, "updateViews: " + display);
         }
-
-    }
-
-    private static class AODVMessage implements Serializable {
-
-        AODVHeader header;
-        String payload;
-
-        AODVMessage() {
-            this.header = new AODVHeader();
-            this.payload = null;
-        }
-
-    }
-
-    private static class AODVTxData {
-
-        AODVMessage msg;
-        long lifetime; //for expiration of message in data queue
-
-        AODVTxData(AODVMessage msg) {
-            this.msg = msg;
-            this.lifetime = System.currentTimeMillis() + QUEUE_TIMEOUT;
-        }
-
-    }
-
-    private static class AODVRoute {
-
-        short address; //final destination of route
-        String id;
-        short nextHopAddr;
-        String nextHopId; //for routing control
-        short seqNum;
-        short bcastSeqNum;
-        byte hopCnt;
-        long timeout;
-        //final Object lock = new Object();
-
-        AODVRoute() {
-            this.address = 0;
-            this.id = null;
-            this.nextHopAddr = 0;
-            this.nextHopId = null;
-            this.seqNum = 0;
-            this.bcastSeqNum = 0;
-            this.hopCnt = 0;
-            this.timeout = 0L;
-        }
-
-    }
-
-    //map from Java AODVMessage to C tAODVPacket
-    private byte[] serializeAODVPacket(AODVMessage msg) {
-        byte[] bytes = null;
-        ByteBuffer packet;
-        try {
-            packet = ByteBuffer.allocate(AODV_HEADER_SIZE + msg.header.length)
-                    .put(msg.header.type.getValue())
-                    .put((byte) 0) //placeholder for compatibility with tAODVPacket
-                    .putShort(msg.header.srcAddr)
-                    .putShort(msg.header.srcSeqNum)
-                    .putShort(msg.header.destAddr)
-                    .putShort(msg.header.destSeqNum)
-                    .putShort(msg.header.nextAddr)
-                    .putShort(msg.header.sendAddr)
-                    .put(msg.header.sendDevType.getValue())
-                    .putShort(msg.header.bcastSeqNum)
-                    .put(msg.header.hopCnt)
-                    .putShort(msg.header.length);
-            if (msg.payload != null) {
-                packet = packet.put(msg.payload.getBytes()); //specify encoding?
-            }
-            bytes = packet.array();
-        } catch (BufferOverflowException e) {
-            Log.d(TAG, "serializeAODVPacket: buffer overflow");
-
-        }
-        return bytes;
-    }
-
-    //map from C tAODVPacket to Java AODVMessage
-    private AODVMessage deserializeAODVPacket(byte[] bytes) {
-        ByteBuffer packet = ByteBuffer.wrap(bytes);
-        AODVMessage msg = new AODVMessage();
-        try {
-            msg.header.type = AODVMessageType.valueOf(packet.get());
-            packet.get(); //placeholder for compatibility with tAODVPacket
-            msg.header.srcAddr = packet.getShort();
-            msg.header.srcSeqNum = packet.getShort();
-            msg.header.destAddr = packet.getShort();
-            msg.header.destSeqNum = packet.getShort();
-            msg.header.nextAddr = packet.getShort();
-            msg.header.sendAddr = packet.getShort();
-            msg.header.sendDevType = AODVDeviceType.valueOf(packet.get());
-            msg.header.bcastSeqNum = packet.getShort();
-            msg.header.hopCnt = packet.get();
-            msg.header.length = packet.getShort();
-            byte[] data = new byte[msg.header.length];
-            packet.get(data, 0, data.length);
-            msg.payload = new String(data); //decode this?
-        } catch (BufferUnderflowException e) {
-            msg = null;
-            Log.d(TAG, "deserializeAODVPacket: buffer underflow");
+        if (lastData != null) {
+            //do whatever with data, in our case post it to the text view
+            lastMessageRx.setText(String.format("%s: %s", lastData.srcAddr, lastData.data));
         }
-        return msg;
-    }
-
-    private void updateDevicesConnected() {
-        int localSize = getLocalSize();
-        String display = String.format(Locale.US, "Devices in local network: %d", localSize);
-        numConnectedText.setText(display);
-        Log.d(TAG, "updateDevicesConnected: " + display);
-    }
-
-    private void updateLastMessageRx(short address, String message) {
-        String display = String.format("%s: %s", address, message);
-        lastMessageRx.setText(display);
-        Log.d(TAG, "updateLastMessageRx: " + display);
     }
 
     private final EndpointDiscoveryCallback endpointDiscoveryCallback = new EndpointDiscoveryCallback()
     {
         /**
-         * Called when an endpoint is found. If the endpoint (device) isn't already in our
-         * network, we temporarily stop discovery and send a connection request to the device.
-         * Sometimes, this will fail if device A sends device B a request at the same time
-         * device B sends device A a request (simultaneous connection clash).
-         * If this is the case, one device will send the other device a connection request
-         * again.
+         * Called when an endpoint is found. The router's neighbor manager decides whether to
+         * connect, either because we have room or because the endpoint would replace a weaker
+         * neighbor. The connection manager then makes only the lower address send the request,
+         * so devices A and B don't request each other at the same time (simultaneous
+         * connection clash), and retries failures with backoff.
          * @param endpointId endpoint (device) that has been discovered
          * @param info some information about the device, such as name
-         *
-         * Add node to routing table
-         * Forward node to neighbors if necessary
          */
         @Override
         public void onEndpointFound(@NonNull final String endpointId, @NonNull final DiscoveredEndpointInfo info) {
-            if (!ccNeighborsTable.containsKey(endpointId)) {
-                Log.d(TAG, "onEndpointFound: Connecting to " + endpointId);
-                connectionsClient.requestConnection(String.valueOf(self.address),
-                                                    endpointId,
-                                                    connectionLifecycleCallback
-                ).addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        //ConnectionsStatusCodes.STATUS_ENDPOINT_IO_ERROR;
-                        Log.d(TAG, "onEndpointFound: Connection request failure " + e.getMessage());
-
-                        // connection fails fairly often, sometimes after waiting a while it connects
-                        // request connection again on one? of the devices
-                        // 8012: STATUS_ENDPOINT_IO_ERROR is the simultaneous connection request error
-                        if (e.getMessage().startsWith("8012") && self.address != Short.parseShort(info.getEndpointName())) {
-                            //temporary solution to reduce the frequency of collisions
-                            if (new Random().nextInt() % 2 == 0) {
-                                Log.d(TAG, "onEndpointFound: Sending another connection request.");
-                                connectionsClient.requestConnection(String.valueOf(self.address),
-                                        endpointId, connectionLifecycleCallback);
-                            }
-                        }
-                    }
-                });
+            if (!router.isCCNeighbor(endpointId)) {
+                putEndpointAddress(endpointId, info.getEndpointName());
+                connectionManager.onEndpointFound(endpointId, getEndpointAddress(endpointId));
+                router.endpointFound(endpointId, getEndpointAddress(endpointId));
             } else {
                 Log.d(TAG, "onEndpointFound: Endpoint is already a neighbor");
             }
@@ -1065,6 +310,8 @@ class AODVNetwork {
         @Override
         public void onEndpointLost(@NonNull String endpointId) {
             Log.d(TAG, "onEndpointLost: " + endpointId);
+            router.endpointLost(endpointId);
+            connectionManager.onEndpointLost(endpointId);
         }
     };
 
@@ -1078,8 +325,11 @@ class AODVNetwork {
          */
         @Override
         public void onConnectionInitiated(@NonNull String endpointId, @NonNull ConnectionInfo connectionInfo) {
-            if (!ccNeighborsTable.containsKey(endpointId)) {
+            if (!router.isCCNeighbor(endpointId)) {
                 Log.d(TAG, "onConnectionInitiated: Accepting connection");
+                putEndpointAddress(endpointId, connectionInfo.getEndpointName());
+                connectionManager.onEndpointFound(endpointId, getEndpointAddress(endpointId));
+                connectionManager.onConnectionInitiated(endpointId);
                 connectionsClient.acceptConnection(endpointId, payloadCallback);
                 //connectionInfo.getEndpointName(); //this could reduce need for some address fields / hello messages
             } else {
@@ -1090,7 +340,8 @@ class AODVNetwork {
         /**
          * Called after a connection request is accepted. If it was successful, verify again
          * that the device isn't already in the network. If it's already in the network, disconnect
-         * from it. Else, officially add it as a node in the network
+         * from it. Else, officially add it as a node in the network, unless we are full and it
+         * doesn't score better than our weakest neighbor, in which case disconnect
          * @param endpointId endpoint (device) that we just connected to
          * @param result contains status codes (e.g. success)
          */
@@ -1099,40 +350,24 @@ class AODVNetwork {
         public void onConnectionResult(@NonNull String endpointId, ConnectionResolution result) {
             if (result.getStatus().isSuccess()) {
                 Log.i(TAG, "onConnectionResult: Connection successful");
-                synchronized (routeTableLock) {
-                    if (ccNeighborsTable.containsKey(endpointId)) {
-                        Log.i(TAG, "onConnectionResult: Neighbor already connected: " + endpointId);
-                        //connectionsClient.disconnectFromEndpoint(endpointId);
-                    } else if (ccNeighborsTable.size() < MAX_NEIGHBORS) {
-                        AODVRoute newNeighbor = new AODVRoute();
-                        newNeighbor.id = endpointId;
-                        newNeighbor.nextHopId = endpointId;
-                        ccNeighborsTable.put(endpointId, newNeighbor);
-                        Log.d(TAG, "onConnectionResult: Neighbor added: " + endpointId);
-                        updateDevicesConnected();
-                    } else {
-                        Log.d(TAG, "onConnectionResult: Too many neighbors: " + endpointId);
-                    }
+                if (router.addCCNeighbor(endpointId, getEndpointAddress(endpointId))) {
+                    connectionManager.onConnected(endpointId);
+                } else {
+                    connectionManager.disconnect(endpointId);
                 }
             } else {
-                Log.i(TAG, "onConnectionResult: Connection failed, retrying: " + endpointId);
-                connectionsClient.requestConnection(String.valueOf(self.address), endpointId, connectionLifecycleCallback);
+                //the connection manager decides whether and when to retry
+                Log.i(TAG, "onConnectionResult: Connection failed: " + endpointId);
+                connectionManager.onConnectionFailed(endpointId, false);
             }
         }
 
         //remove the disconnected neighbor from neighbors table
         @Override
         public void onDisconnected(@NonNull String endpointId) {
-            synchronized (routeTableLock) {
-                AODVRoute route = ccNeighborsTable.get(endpointId);
-                if (route != null) {
-                    removeRouteByAddress(route.address);
-                    Log.i(TAG, "onDisconnected: disconnected from " + endpointId);
-                } else {
-                    Log.d(TAG, "onDisconnected: Failed to remove neighbor");
-                }
-            }
-            updateDevicesConnected();
+            Log.i(TAG, "onDisconnected: disconnected from " + endpointId);
+            router.removeCCNeighbor(endpointId);
+            connectionManager.onDisconnected(endpointId);
         }
     };
 
@@ -1149,21 +384,7 @@ class AODVNetwork {
          */
         @Override
         public void onPayloadReceived(@NonNull String endpointId, Payload payload) {
-            try {
-                Object deserialized = SerializationHelper.deserialize(payload.asBytes());
-                if (deserialized instanceof AODVMessage) {
-                    AODVMessage msg = (AODVMessage) deserialized;
-                    Log.d(TAG, "onPayloadReceived: Received AODV message type " + msg.header.type.getValue());
-                    //this is the only place we can set the sender Id, which is needed for some control
-                    msg.header.sendId = endpointId;
-                    handleAODVQueue.add(msg);
-                    //handleAODVMessage(msg);
-                } else {
-                    Log.d(TAG, "onPayloadReceived: Type of payload unknown");
-                }
-            } catch (IOException | ClassNotFoundException e) {
-                e.printStackTrace();
-            }
+            router.receiveCC(endpointId, payload.asBytes());
         }
 
         @Override
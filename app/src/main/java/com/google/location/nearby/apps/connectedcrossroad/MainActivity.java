@@ -2,6 +2,7 @@ package com.google.location.nearby.apps.connectedcrossroad;
 
 import android.Manifest;
 import android.content.Context;
+import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 
@@ -21,6 +22,12 @@ import android.widget.Toast;
 import com.google.android.gms.nearby.Nearby;
 import com.google.android.gms.nearby.connection.ConnectionsClient;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
 /**
  * Activity controlling the Message Board
  */
@@ -41,7 +48,12 @@ public class MainActivity extends AppCompatActivity {
             };
 
     private static final int REQUEST_CODE_REQUIRED_PERMISSIONS = 1;
-    private static final short MAX_ADDRESS = 10;
+    private static final String ROUTE_CACHE_FILE = "aodv_routes.bin";
+    private static final String CAPTURE_FILE = "aodv_capture.bin";
+    //key=value protocol parameters, see AODVConfig, overridden by Intent extras of the same names
+    private static final String CONFIG_FILE = "aodv.properties";
+    //start with "adb shell am start --ez capture true ..." to record packets for AODVReplay
+    private static final String EXTRA_CAPTURE = "capture";
 
     // Our handle to Nearby Connections
     private ConnectionsClient connectionsClient;
@@ -91,7 +103,12 @@ public class MainActivity extends AppCompatActivity {
         });
 
         connectionsClient = Nearby.getConnectionsClient(this);
-        network = new AODVNetwork(connectionsClient, numConnectedText, lastMessageRx);
+        network = new AODVNetwork(connectionsClient, numConnectedText, lastMessageRx,
+                new File(getFilesDir(), ROUTE_CACHE_FILE));
+        network.setConfig(loadConfig(getIntent()));
+        if (getIntent().getBooleanExtra(EXTRA_CAPTURE, false)) {
+            network.startCapture(new File(getFilesDir(), CAPTURE_FILE));
+        }
 
         deviceNameText.setText(String.format("Device name: %s", network.getAddress()));
 
@@ -114,6 +131,14 @@ public class MainActivity extends AppCompatActivity {
 
     }
 
+    //relaunching with new extras, e.g. "adb shell am start --es helloInterval 1000 ...", hot-reloads the config
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        setIntent(intent);
+        network.setConfig(loadConfig(intent));
+    }
+
     @Override
     protected void onStart() {
 
@@ -170,10 +195,56 @@ public class MainActivity extends AppCompatActivity {
         recreate();
     }
 
-    private void sendMessage(short id, String msg) {
-        network.sendMessage(id, msg);
+    //config file from app storage if present, with any Intent extras applied on top
+    private AODVConfig loadConfig(Intent intent) {
+        Properties props = new Properties();
+        File file = new File(getFilesDir(), CONFIG_FILE);
+        if (file.exists()) {
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    props.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "loadConfig: failed to read " + file);
+            }
+        }
+        Bundle extras = intent.getExtras();
+        if (extras != null) {
+            for (String key : AODVConfig.KEYS) {
+                if (extras.containsKey(key)) {
+                    props.setProperty(key, String.valueOf(extras.get(key)));
+                }
+            }
+        }
+        try {
+            return AODVConfig.fromProperties(props);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "loadConfig: " + e.getMessage());
+            Toast.makeText(this, "Invalid config, using defaults", Toast.LENGTH_SHORT).show();
+            return AODVConfig.DEFAULT;
+        }
+    }
+
+    private void sendMessage(final short id, final String msg) {
+        AODVSend send = network.sendMessage(id, msg);
         Log.d(TAG, "sendMessage: Sent message");
         lastMessageTx.setText(String.format("%s: %s", id, msg));
+        send.addCallback(new AODVSend.Callback() {
+            @Override
+            public void onComplete(final AODVSend send) {
+                Log.d(TAG, "sendMessage: " + send + String.format(" in %.0f ms", send.getLatencyMillis()));
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        lastMessageTx.setText(String.format("%s: %s (%s)", id, msg,
+                                send.getOutcome()));
+                    }
+                });
+            }
+        });
     }
 
     //Ensure that string address is convertible to short address
@@ -181,7 +252,7 @@ public class MainActivity extends AppCompatActivity {
         short num = 0;
         try {
             short tmp = Short.parseShort(str);
-            if (tmp > 0 && tmp <= MAX_ADDRESS) {
+            if (tmp > 0 && tmp <= network.getConfig().maxAddress) {
                 num = tmp;
             } else {
                 Toast.makeText(MainActivity.this, "Address out of range", Toast.LENGTH_SHORT).show();
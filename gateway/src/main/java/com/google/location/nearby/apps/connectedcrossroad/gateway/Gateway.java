@@ -0,0 +1,272 @@
+package com.google.location.nearby.apps.connectedcrossroad.gateway;
+
+import com.google.location.nearby.apps.connectedcrossroad.AODVDeviceType;
+import com.google.location.nearby.apps.connectedcrossroad.AODVEvent;
+import com.google.location.nearby.apps.connectedcrossroad.AODVEventBus;
+import com.google.location.nearby.apps.connectedcrossroad.AODVLog;
+import com.google.location.nearby.apps.connectedcrossroad.AODVRouter;
+import com.google.location.nearby.apps.connectedcrossroad.AODVSend;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless AODV node for Linux roadside units. It runs the same {@link AODVRouter} as the app,
+ * over UDP only and identifying as an MK6 node, so phones and MK6 peers route through it like
+ * any other UDP neighbor. Local applications send and receive DATA through {@link #send} or
+ * over the line protocol of {@link GatewayClient} on clientPort.
+ *
+ * Routing stays on the router's single engine thread. Client connections and flows waiting on
+ * their sends each get a thread of their own from a virtual thread executor on Java 21 and
+ * later, so thousands of them cost little. Older JVMs fall back to a cached platform pool.
+ *
+ * Usage: Gateway [config file, default gateway.properties]
+ */
+public class Gateway {
+
+    private static final String TAG = "gateway";
+
+    private final GatewayConfig config;
+    private final AODVRouter router;
+    private final ExecutorService executor;
+
+    private final Set<GatewayClient> clients = ConcurrentHashMap.newKeySet();
+    //client sends without an outcome yet, stop waits for them up to drainTimeout
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private boolean started = false;
+    private volatile boolean stopping = false;
+    private volatile ServerSocket serverSocket;
+    private AODVEventBus.Subscription subscription;
+
+    public Gateway(GatewayConfig config) {
+        this.config = config;
+        this.router = new AODVRouter(new AODVRouter.CCTransport() {
+            @Override
+            public void sendCC(List<String> endpointIds, byte[] bytes) {
+                //no Nearby Connections here
+            }
+        }, null, config.routeCache);
+        this.executor = newExecutor(config.executor);
+    }
+
+    public synchronized void start() throws IOException {
+        if (started) {
+            return;
+        }
+        router.setAddress(config.address);
+        //UDP nodes that call themselves AND are taken for phones and dropped
+        router.setDeviceType(AODVDeviceType.MK6);
+        router.setConfig(config.aodv);
+        if (!config.udpTargets.isEmpty()) {
+            router.setUDPTargets(config.udpTargets);
+        }
+        if (config.clientPort > 0) {
+            final ServerSocket serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(config.clientBind, config.clientPort));
+            this.serverSocket = serverSocket;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    accept(serverSocket);
+                }
+            });
+        }
+        subscription = router.getEvents().subscribe(new AODVEventBus.Subscriber() {
+            @Override
+            public void onEvents(List<AODVEvent> events) {
+                for (AODVEvent event : events) {
+                    for (GatewayClient client : clients) {
+                        client.deliver(event.srcAddr, event.data);
+                    }
+                }
+            }
+        }, AODVEventBus.ofType(AODVEvent.Type.DATA));
+        router.start();
+        started = true;
+        AODVLog.i(TAG, "start: " + config);
+    }
+
+    /**
+     * Stops taking new clients and client sends, gives sends in flight up to drainTimeout to get
+     * their outcome, then stops the router, which cancels the rest, and disconnects clients once
+     * they have been told.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (!started) {
+                return;
+            }
+            started = false;
+            stopping = true;
+        }
+        ServerSocket serverSocket = this.serverSocket;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                //closing anyway
+            }
+            this.serverSocket = null;
+        }
+        long deadline = System.currentTimeMillis() + config.drainTimeout;
+        try {
+            while (inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            if (inFlight.get() > 0) {
+                AODVLog.i(TAG, "stop: cancelling " + inFlight.get() + " sends still in flight");
+            }
+            router.stop();
+            subscription.unsubscribe();
+            for (GatewayClient client : clients) {
+                client.close();
+            }
+            executor.shutdown();
+            if (!executor.awaitTermination(config.drainTimeout, TimeUnit.MILLISECONDS)) {
+                AODVLog.e(TAG, "stop: clients did not finish in time");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopped.countDown();
+        }
+        AODVLog.i(TAG, "stop: stopped");
+    }
+
+    public void awaitStopped() throws InterruptedException {
+        stopped.await();
+    }
+
+    //for applications in the same JVM, see AODVRouter.send
+    public AODVSend send(short address, String data) {
+        return router.send(address, data);
+    }
+
+    public AODVRouter getRouter() {
+        return router;
+    }
+
+    //runs a task on the flow executor, e.g. a flow blocking on its sends
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    //null once stopping
+    AODVSend sendFromClient(short address, String data) {
+        if (stopping) {
+            return null;
+        }
+        inFlight.incrementAndGet();
+        AODVSend send = router.send(address, data);
+        send.addCallback(new AODVSend.Callback() {
+            @Override
+            public void onComplete(AODVSend send) {
+                inFlight.decrementAndGet();
+            }
+        });
+        return send;
+    }
+
+    void removeClient(GatewayClient client) {
+        clients.remove(client);
+    }
+
+    private void accept(ServerSocket serverSocket) {
+        AODVLog.i(TAG, "accept: listening for clients on " + serverSocket.getLocalSocketAddress());
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    AODVLog.e(TAG, "accept: " + e.getMessage());
+                }
+                continue;
+            }
+            if (stopping || clients.size() >= config.maxClients) {
+                refuse(socket, stopping ? "stopping" : "too many clients");
+                continue;
+            }
+            GatewayClient client = new GatewayClient(this, socket);
+            clients.add(client);
+            client.start(executor);
+            AODVLog.d(TAG, "accept: client " + socket.getRemoteSocketAddress());
+        }
+    }
+
+    private static void refuse(Socket socket, String reason) {
+        try {
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            writer.write("ERR - " + reason + "\n");
+            writer.flush();
+            socket.close();
+        } catch (IOException e) {
+            //it's gone either way
+        }
+    }
+
+    //virtual threads are looked up at runtime so the module still builds and runs on Java 8
+    static ExecutorService newExecutor(String kind) {
+        if (kind.equals(GatewayConfig.EXECUTOR_VIRTUAL)) {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) method.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                AODVLog.i(TAG, "newExecutor: virtual threads need Java 21, using platform threads");
+            }
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "gateway-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        GatewayConfig config = GatewayConfig.load(new File(args.length > 0 ? args[0] : "gateway.properties"));
+        AODVLog.setMinPriority(config.logLevel);
+        AODVLog.setPrinter(new AODVLog.Printer() {
+            @Override
+            public void print(int priority, String tag, String msg) {
+                String level = priority >= AODVLog.ERROR ? "E" : priority >= AODVLog.INFO ? "I" : "D";
+                System.out.println(String.format("%tF %<tT.%<tL %s %s: %s", System.currentTimeMillis(), level,
+                        tag, msg));
+            }
+        });
+        final Gateway gateway = new Gateway(config);
+        //SIGTERM and SIGINT from systemd or a terminal
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                gateway.stop();
+            }
+        }, "gateway-shutdown"));
+        gateway.start();
+        gateway.awaitStopped();
+    }
+
+}
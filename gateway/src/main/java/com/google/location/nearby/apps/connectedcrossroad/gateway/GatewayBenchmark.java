@@ -0,0 +1,174 @@
+package com.google.location.nearby.apps.connectedcrossroad.gateway;
+
+import com.google.location.nearby.apps.connectedcrossroad.AODVConfig;
+import com.google.location.nearby.apps.connectedcrossroad.AODVDeviceType;
+import com.google.location.nearby.apps.connectedcrossroad.AODVLog;
+import com.google.location.nearby.apps.connectedcrossroad.AODVRouter;
+import com.google.location.nearby.apps.connectedcrossroad.AODVSend;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of a gateway with many UDP neighbors and many concurrent flows, on loopback. The
+ * gateway is address 1, every peer is a routing core on its own port that only hears the
+ * gateway, so each peer is one hop away and acknowledges what it gets. Every flow is a thread
+ * of the gateway's executor that sends to the peers in turn and blocks on each outcome, the way
+ * a local application serving one vehicle would.
+ *
+ * Usage: GatewayBenchmark [--peers N] [--flows N] [--messages PER_FLOW] [--payload BYTES]
+ *                         [--port BASE] [--executor virtual|platform]
+ */
+public class GatewayBenchmark {
+
+    private static final short GATEWAY = 1;
+    //a send still pending after this counts as lost
+    private static final long SEND_TIMEOUT = 10000;
+
+    public static void main(String[] args) throws Exception {
+        int peerCount = 100;
+        int flowCount = 1000;
+        int messages = 20;
+        int payloadSize = 100;
+        int basePort = 47000;
+        String executor = GatewayConfig.EXECUTOR_VIRTUAL;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--peers":
+                    peerCount = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--flows":
+                    flowCount = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--messages":
+                    messages = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--payload":
+                    payloadSize = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--port":
+                    basePort = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--executor":
+                    executor = args[i + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        AODVLog.setMinPriority(AODVLog.INFO);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        AODVConfig aodv = AODVConfig.DEFAULT;
+
+        //peers only hear the gateway
+        List<AODVRouter> peers = new ArrayList<>();
+        List<InetSocketAddress> peerTargets = new ArrayList<>();
+        for (int i = 1; i <= peerCount; i++) {
+            AODVRouter peer = new AODVRouter(new AODVRouter.CCTransport() {
+                @Override
+                public void sendCC(List<String> endpointIds, byte[] bytes) {
+                }
+            }, null, null);
+            peer.setAddress((short) (GATEWAY + i));
+            peer.setDeviceType(AODVDeviceType.MK6);
+            peer.setConfig(aodv.toBuilder().setUDPPort(basePort + i).build());
+            peer.setUDPTargets(Collections.singletonList(new InetSocketAddress(loopback, basePort)));
+            peers.add(peer);
+            peerTargets.add(new InetSocketAddress(loopback, basePort + i));
+        }
+        StringBuilder targets = new StringBuilder();
+        for (InetSocketAddress target : peerTargets) {
+            targets.append(targets.length() > 0 ? "," : "").append(target.getHostString()).append(':')
+                    .append(target.getPort());
+        }
+        Properties props = new Properties();
+        props.setProperty(GatewayConfig.ADDRESS, String.valueOf(GATEWAY));
+        props.setProperty(GatewayConfig.UDP_TARGETS, targets.toString());
+        props.setProperty(GatewayConfig.CLIENT_PORT, "0");
+        props.setProperty(GatewayConfig.EXECUTOR, executor);
+        props.setProperty(GatewayConfig.LOG_LEVEL, "info");
+        props.setProperty(AODVConfig.UDP_PORT, String.valueOf(basePort));
+        final Gateway gateway = new Gateway(GatewayConfig.fromProperties(props));
+        gateway.start();
+        for (AODVRouter peer : peers) {
+            peer.start();
+        }
+        //two hellos each way, so every peer is a UDP neighbor of the gateway
+        Thread.sleep(2 * aodv.helloInterval + 500);
+
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; i < payloadSize; i++) {
+            payload.append((char) ('a' + i % 26));
+        }
+        final String data = payload.toString();
+        final int peerTotal = peerCount;
+        final int perFlow = messages;
+        final long[] latencies = new long[flowCount * messages];
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(flowCount);
+        long start = System.nanoTime();
+        for (int f = 0; f < flowCount; f++) {
+            final int flow = f;
+            gateway.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int m = 0; m < perFlow; m++) {
+                            short dest = (short) (GATEWAY + 1 + (flow + m) % peerTotal);
+                            AODVSend send = gateway.send(dest, data);
+                            AODVSend.Outcome outcome = send.await(SEND_TIMEOUT, TimeUnit.MILLISECONDS);
+                            if (outcome == AODVSend.Outcome.DELIVERED) {
+                                delivered.incrementAndGet();
+                                latencies[flow * perFlow + m] = (long) (send.getLatencyMillis() * 1000);
+                            } else {
+                                send.cancel();
+                                failed.incrementAndGet();
+                                latencies[flow * perFlow + m] = Long.MAX_VALUE;
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int peakThreads = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+
+        gateway.stop();
+        for (AODVRouter peer : peers) {
+            peer.stop();
+        }
+
+        Arrays.sort(latencies);
+        int total = latencies.length;
+        System.out.println(String.format(Locale.US, "%-9s %6s %6s %9s %10s %8s %9s %9s %8s",
+                "executor", "peers", "flows", "messages", "delivered", "msg/s", "p50 ms", "p99 ms", "threads"));
+        System.out.println(String.format(Locale.US, "%-9s %6d %6d %9d %9.2f%% %8.0f %9s %9s %8d",
+                executor, peerCount, flowCount, total, 100.0 * delivered.get() / total, delivered.get() / seconds,
+                percentile(latencies, 0.50), percentile(latencies, 0.99), peakThreads));
+        if (failed.get() > 0) {
+            System.out.println(failed.get() + " sends were not delivered within " + SEND_TIMEOUT + " ms");
+        }
+    }
+
+    private static String percentile(long[] sorted, double p) {
+        long micros = sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+        return micros == Long.MAX_VALUE ? "lost" : String.format(Locale.US, "%.2f", micros / 1000.0);
+    }
+
+}
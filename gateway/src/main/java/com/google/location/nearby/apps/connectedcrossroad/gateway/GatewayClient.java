@@ -0,0 +1,170 @@
+package com.google.location.nearby.apps.connectedcrossroad.gateway;
+
+import com.google.location.nearby.apps.connectedcrossroad.AODVLog;
+import com.google.location.nearby.apps.connectedcrossroad.AODVSend;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * One local application connected to the gateway, with a blocking reader and a blocking writer
+ * on threads of the gateway's executor. The protocol is one line per message:
+ *
+ *   SEND id dest data     client to gateway, data runs to the end of the line
+ *   DONE id OUTCOME ms    the AODVSend outcome of SEND id and its latency
+ *   DATA src data         DATA addressed to the gateway arrived from src
+ *   ERR id reason         SEND id was refused, id is - if there was none
+ *
+ * Routing threads only ever queue lines, a client whose queue fills up is disconnected
+ * instead of holding them up.
+ */
+class GatewayClient {
+
+    private static final String TAG = "gateway";
+    private static final int QUEUE_CAPACITY = 1024;
+    //tells the writer to flush and close
+    private static final String END = "";
+
+    private final Gateway gateway;
+    private final Socket socket;
+    private final BlockingQueue<String> out = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    GatewayClient(Gateway gateway, Socket socket) {
+        this.gateway = gateway;
+        this.socket = socket;
+    }
+
+    void start(ExecutorService executor) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        });
+    }
+
+    //from any thread, never blocks
+    void offer(String line) {
+        if (!out.offer(line)) {
+            AODVLog.i(TAG, "offer: client " + socket.getRemoteSocketAddress() + " is not reading, disconnecting");
+            closeSocket();
+        }
+    }
+
+    void deliver(short srcAddr, String data) {
+        offer("DATA " + srcAddr + " " + oneLine(data));
+    }
+
+    //sends whatever is queued, then disconnects
+    void close() {
+        if (!out.offer(END)) {
+            closeSocket();
+        }
+    }
+
+    private void read() {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                handle(line);
+            }
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                AODVLog.d(TAG, "read: " + e.getMessage());
+            }
+        } finally {
+            gateway.removeClient(this);
+            out.offer(END);
+        }
+    }
+
+    private void write() {
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            while (true) {
+                String line = out.poll();
+                if (line == null) {
+                    //nothing else queued, send what we have before blocking
+                    writer.flush();
+                    line = out.take();
+                }
+                if (line == END) {
+                    writer.flush();
+                    break;
+                }
+                writer.write(line);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                AODVLog.d(TAG, "write: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeSocket();
+        }
+    }
+
+    private void handle(String line) {
+        String[] fields = line.split(" ", 4);
+        if (!fields[0].equals("SEND")) {
+            offer("ERR - unknown command " + oneLine(fields[0]));
+            return;
+        }
+        if (fields.length < 4) {
+            offer("ERR " + (fields.length > 1 ? fields[1] : "-") + " expected SEND id dest data");
+            return;
+        }
+        final String id = fields[1];
+        short address;
+        try {
+            address = Short.parseShort(fields[2]);
+        } catch (NumberFormatException e) {
+            offer("ERR " + id + " bad destination " + fields[2]);
+            return;
+        }
+        AODVSend send = gateway.sendFromClient(address, fields[3]);
+        if (send == null) {
+            offer("ERR " + id + " stopping");
+            return;
+        }
+        send.addCallback(new AODVSend.Callback() {
+            @Override
+            public void onComplete(AODVSend send) {
+                offer(String.format(Locale.US, "DONE %s %s %.1f", id, send.getOutcome(), send.getLatencyMillis()));
+            }
+        });
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //closing anyway
+        }
+    }
+
+    private static String oneLine(String s) {
+        return s.replace('\n', ' ').replace('\r', ' ');
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.google.location.nearby.apps.connectedcrossroad.gateway;
+
+import com.google.location.nearby.apps.connectedcrossroad.AODVConfig;
+import com.google.location.nearby.apps.connectedcrossroad.AODVLog;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Settings of a gateway, read from the same kind of properties file as the app's
+ * aodv.properties. The keys below are the gateway's own, everything else goes to
+ * {@link AODVConfig#fromProperties}.
+ */
+public final class GatewayConfig {
+
+    public static final String ADDRESS = "address";
+    public static final String UDP_TARGETS = "udpTargets";
+    public static final String ROUTE_CACHE = "routeCache";
+    public static final String CLIENT_PORT = "clientPort";
+    public static final String CLIENT_BIND = "clientBind";
+    public static final String MAX_CLIENTS = "maxClients";
+    public static final String EXECUTOR = "executor";
+    public static final String DRAIN_TIMEOUT = "drainTimeout";
+    public static final String LOG_LEVEL = "logLevel";
+
+    public static final String EXECUTOR_VIRTUAL = "virtual";
+    public static final String EXECUTOR_PLATFORM = "platform";
+
+    public final short address;
+    //unicast UDP peers, empty to broadcast to udpBroadcastAddress like the app does
+    public final List<InetSocketAddress> udpTargets;
+    public final File routeCache; //null for cold starts only
+    public final int clientPort; //local applications connect here, 0 disables it
+    public final String clientBind;
+    public final int maxClients;
+    public final String executor; //virtual or platform threads for flows and clients
+    public final long drainTimeout; //how long stop waits for sends in flight
+    public final int logLevel; //AODVLog priority
+    public final AODVConfig aodv;
+
+    private GatewayConfig(Properties props) {
+        String address = props.getProperty(ADDRESS);
+        if (address == null) {
+            throw new IllegalArgumentException("Missing " + ADDRESS);
+        }
+        try {
+            this.address = Short.parseShort(address.trim());
+            this.clientPort = Integer.parseInt(props.getProperty(CLIENT_PORT, "7000").trim());
+            this.maxClients = Integer.parseInt(props.getProperty(MAX_CLIENTS, "1024").trim());
+            this.drainTimeout = Long.parseLong(props.getProperty(DRAIN_TIMEOUT, "5000").trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad config value: " + e.getMessage(), e);
+        }
+        if (this.address <= 0) {
+            throw new IllegalArgumentException("address must be positive: " + this.address);
+        }
+        this.udpTargets = Collections.unmodifiableList(parseTargets(props.getProperty(UDP_TARGETS, "")));
+        String routeCache = props.getProperty(ROUTE_CACHE, "").trim();
+        this.routeCache = routeCache.isEmpty() ? null : new File(routeCache);
+        this.clientBind = props.getProperty(CLIENT_BIND, "127.0.0.1").trim();
+        this.executor = props.getProperty(EXECUTOR, EXECUTOR_VIRTUAL).trim();
+        if (!executor.equals(EXECUTOR_VIRTUAL) && !executor.equals(EXECUTOR_PLATFORM)) {
+            throw new IllegalArgumentException("Unknown executor: " + executor);
+        }
+        this.logLevel = parseLogLevel(props.getProperty(LOG_LEVEL, "info").trim());
+        //the routing core logs unknown keys, so it only sees its own
+        Properties aodv = new Properties();
+        for (String key : props.stringPropertyNames()) {
+            if (!isGatewayKey(key)) {
+                aodv.setProperty(key, props.getProperty(key));
+            }
+        }
+        this.aodv = AODVConfig.fromProperties(aodv);
+    }
+
+    public static GatewayConfig fromProperties(Properties props) {
+        return new GatewayConfig(props);
+    }
+
+    public static GatewayConfig load(File file) throws IOException {
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        return fromProperties(props);
+    }
+
+    private static boolean isGatewayKey(String key) {
+        switch (key) {
+            case ADDRESS:
+            case UDP_TARGETS:
+            case ROUTE_CACHE:
+            case CLIENT_PORT:
+            case CLIENT_BIND:
+            case MAX_CLIENTS:
+            case EXECUTOR:
+            case DRAIN_TIMEOUT:
+            case LOG_LEVEL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    //host:port,host:port
+    private static List<InetSocketAddress> parseTargets(String value) {
+        List<InetSocketAddress> targets = new ArrayList<>();
+        for (String target : value.split(",")) {
+            target = target.trim();
+            if (target.isEmpty()) {
+                continue;
+            }
+            int colon = target.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Bad UDP target, expected host:port: " + target);
+            }
+            try {
+                targets.add(new InetSocketAddress(target.substring(0, colon),
+                        Integer.parseInt(target.substring(colon + 1))));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad UDP target port: " + target, e);
+            }
+        }
+        return targets;
+    }
+
+    private static int parseLogLevel(String value) {
+        switch (value) {
+            case "debug":
+                return AODVLog.DEBUG;
+            case "info":
+                return AODVLog.INFO;
+            case "error":
+                return AODVLog.ERROR;
+            default:
+                throw new IllegalArgumentException("Unknown logLevel: " + value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("address=%d udpTargets=%d clientPort=%d executor=%s %s",
+                address, udpTargets.size(), clientPort, executor, aodv);
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.google.location.nearby.apps.connectedcrossroad.tools;
+
+import com.google.location.nearby.apps.connectedcrossroad.AODVCapture;
+import com.google.location.nearby.apps.connectedcrossroad.AODVLog;
+import com.google.location.nearby.apps.connectedcrossroad.AODVMessage;
+import com.google.location.nearby.apps.connectedcrossroad.AODVRouter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feeds the inbound packets of a capture file back into a routing core, at the original pace
+ * or sped up, and reports how fast the router kept up. Nothing is sent on the network.
+ *
+ * Usage: AODVReplay capture-file [speed] [-v]
+ *   speed 1 replays with the original timing, 10 ten times faster, 0 as fast as possible
+ */
+public class AODVReplay {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: AODVReplay capture-file [speed] [-v]");
+            System.exit(1);
+        }
+        File file = new File(args[0]);
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        boolean verbose = args.length > 2 && args[2].equals("-v");
+        if (!verbose) {
+            AODVLog.setMinPriority(AODVLog.INFO);
+        }
+
+        AODVCapture.Contents contents = AODVCapture.read(file);
+        System.out.println(String.format(Locale.US, "%s: %d records for address %d (%d written, %d dropped)",
+                file, contents.records.size(), contents.address, contents.total, contents.dropped));
+
+        final AtomicLong ccSent = new AtomicLong();
+        final AtomicLong ccBytes = new AtomicLong();
+        final AtomicLong delivered = new AtomicLong();
+        AODVRouter router = new AODVRouter(new AODVRouter.CCTransport() {
+            @Override
+            public void sendCC(List<String> endpointIds, byte[] bytes) {
+                ccSent.addAndGet(endpointIds.size());
+                ccBytes.addAndGet((long) bytes.length * endpointIds.size());
+            }
+        }, new AODVRouter.Listener() {
+            @Override
+            public void onDataReceived(short srcAddr, String data) {
+                delivered.incrementAndGet();
+            }
+
+            @Override
+            public void onNeighborsChanged() {
+            }
+        }, null);
+        router.setUDPEnabled(false);
+        router.setAddress(contents.address);
+        router.start();
+
+        long replayed = 0;
+        long firstNanos = -1;
+        long lastNanos = 0;
+        long start = System.nanoTime();
+        for (AODVCapture.Record record : contents.records) {
+            if (record.direction != AODVCapture.DIR_IN) {
+                continue;
+            }
+            AODVMessage msg = record.toMessage();
+            if (msg == null) {
+                continue;
+            }
+            if (firstNanos < 0) {
+                firstNanos = record.nanos;
+            }
+            lastNanos = record.nanos;
+            if (speed > 0) {
+                //wait until this packet's original offset, scaled by the speed
+                long due = start + (long) ((record.nanos - firstNanos) / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                }
+            }
+            if (record.transport == AODVCapture.TRANSPORT_CC) {
+                router.receiveCC(record.endpointId, msg);
+            } else {
+                router.receiveUDP(msg);
+            }
+            replayed++;
+        }
+        while (router.getPendingCount() > 0) {
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - start;
+        router.stop();
+
+        double seconds = elapsed / 1e9;
+        System.out.println(String.format(Locale.US,
+                "replayed %d packets in %.3f s (captured over %.3f s), %.0f packets/s",
+                replayed, seconds, (lastNanos - Math.max(firstNanos, 0)) / 1e9, replayed / seconds));
+        System.out.println(String.format(Locale.US, "router sent %d CC messages (%d bytes), delivered %d DATA",
+                ccSent.get(), ccBytes.get(), delivered.get()));
+    }
+
+}
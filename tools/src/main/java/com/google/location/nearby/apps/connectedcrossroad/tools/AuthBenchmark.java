@@ -0,0 +1,123 @@
+package com.google.location.nearby.apps.connectedcrossroad.tools;
+
+import com.google.location.nearby.apps.connectedcrossroad.AODVAuth;
+import com.google.location.nearby.apps.connectedcrossroad.AODVDeviceType;
+import com.google.location.nearby.apps.connectedcrossroad.AODVMessage;
+import com.google.location.nearby.apps.connectedcrossroad.AODVMessageType;
+import com.google.location.nearby.apps.connectedcrossroad.AODVPacket;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Cost per packet of signing and verifying control messages with AODVAuth, next to the cost of
+ * decoding the same tAODVPacket, plus bytes allocated per operation where the JVM reports it.
+ *
+ * Usage: AuthBenchmark [iterations]
+ */
+public class AuthBenchmark {
+
+    private static final String KEY = "000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f";
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        AODVAuth sender = AODVAuth.fromHex(KEY);
+        AODVAuth receiver = AODVAuth.fromHex(KEY);
+
+        AODVMessage rreq = new AODVMessage();
+        rreq.header.type = AODVMessageType.RREQ;
+        rreq.header.srcAddr = 3;
+        rreq.header.srcSeqNum = 17;
+        rreq.header.destAddr = 9;
+        rreq.header.sendAddr = 3;
+        rreq.header.sendDevType = AODVDeviceType.AND;
+        rreq.header.bcastSeqNum = 5;
+        sender.sign(rreq);
+        final byte[] packet = AODVPacket.serializeAODVPacket(rreq);
+        final AODVMessage decoded = AODVPacket.deserializeAODVPacket(packet);
+
+        //the first round warms up the JIT, the second is timed
+        for (int round = 0; round < 2; round++) {
+            boolean timed = round == 1;
+            measure(timed, "decode", iterations, new Runnable() {
+                @Override
+                public void run() {
+                    AODVPacket.deserializeAODVPacket(packet);
+                }
+            });
+            final AODVMessage msg = rreq;
+            final AODVAuth signer = sender;
+            measure(timed, "sign", iterations, new Runnable() {
+                @Override
+                public void run() {
+                    signer.sign(msg);
+                }
+            });
+            //fresh counters so the replay window accepts every verify
+            final AODVAuth verifier = receiver;
+            final long[] counters = new long[iterations];
+            final long[] tags = new long[iterations];
+            for (int i = 0; i < iterations; i++) {
+                signer.sign(decoded);
+                counters[i] = decoded.header.authCounter;
+                tags[i] = decoded.header.authTag;
+            }
+            final int[] next = {0};
+            final int[] rejected = {0};
+            measure(timed, "verify", iterations, new Runnable() {
+                @Override
+                public void run() {
+                    int i = next[0]++;
+                    decoded.header.authCounter = counters[i];
+                    decoded.header.authTag = tags[i];
+                    if (!verifier.verify(decoded)) {
+                        rejected[0]++;
+                    }
+                }
+            });
+            //every one of these is a replay
+            next[0] = 0;
+            measure(timed, "replayed", iterations, new Runnable() {
+                @Override
+                public void run() {
+                    int i = next[0]++;
+                    decoded.header.authCounter = counters[i];
+                    decoded.header.authTag = tags[i];
+                    if (!verifier.verify(decoded)) {
+                        rejected[0]++;
+                    }
+                }
+            });
+            if (timed) {
+                System.out.println(String.format(Locale.US, "rejected %d of %d (expected %d)",
+                        rejected[0], 2 * iterations, iterations));
+            }
+        }
+    }
+
+    private static void measure(boolean print, String name, int iterations, Runnable op) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = allocatedBytes(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            op.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBefore < 0 ? -1 : allocatedBytes(threads) - allocatedBefore;
+        if (print) {
+            System.out.println(String.format(Locale.US, "%-8s %8.1f ns/packet %10.0f packets/s %8s bytes/packet",
+                    name, (double) elapsed / iterations, iterations / (elapsed / 1e9),
+                    allocated < 0 ? "n/a" : String.format(Locale.US, "%.1f", (double) allocated / iterations)));
+        }
+    }
+
+    //-1 when the JVM can't report per-thread allocation
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,413 @@
+package com.google.location.nearby.apps.connectedcrossroad.tools;
+
+import com.google.location.nearby.apps.connectedcrossroad.AODVCluster;
+import com.google.location.nearby.apps.connectedcrossroad.AODVConfig;
+import com.google.location.nearby.apps.connectedcrossroad.AODVLog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Route discovery cost and route table size of flat and clustered AODV as the mesh grows.
+ * Nodes are placed at random with enough radio range for about eight neighbors each. Clusters
+ * form from hellos on virtual time with the real AODVCluster, then every node opens flows to a
+ * few random destinations and the routing messages are counted hop by hop:
+ *
+ * - flat: each RREQ floods the whole mesh and every node keeps a reverse route to its source.
+ *   The RREP sets up a route to the destination along the shortest path.
+ * - clustered: members hand traffic for outside their cluster to their head. Heads that don't
+ *   know the destination's cluster flood a RREQ, which only heads and relays relay, and only
+ *   they keep routes, to heads. The destination's head answers. Data goes through both heads,
+ *   so paths are longer, reported as stretch against the shortest path.
+ *
+ * Usage: ClusterSimulator [--nodes 50,100,200,500,1000,2000] [--rate FLOWS_PER_NODE_PER_MINUTE]
+ *                         [--duration SECONDS] [--runs 3] [--seed 1]
+ */
+public class ClusterSimulator {
+
+    static final double AVERAGE_DEGREE = 8;
+    static final long HELLO_INTERVAL = 2000;
+    //rounds without a head changing before clusters count as formed
+    static final int STABLE_ROUNDS = 3;
+    static final int MAX_ROUNDS = 100;
+    static final long ROUTE_TIMEOUT = AODVConfig.DEFAULT.routeTimeout;
+
+    static class Node {
+
+        int index;
+        short address;
+        double x;
+        double y;
+        final List<Node> inRange = new ArrayList<>();
+        short[] neighbors; //what its hellos list
+        AODVCluster cluster;
+        //destination -> when the route expires, neighbors aside
+        final Map<Short, Long> flatRoutes = new HashMap<>();
+        final Map<Short, Long> clusteredRoutes = new HashMap<>();
+
+    }
+
+    //totals over all flows of one run
+    static class Totals {
+
+        long flows;
+        long floods;
+        long rreqs;
+        long rreps;
+        long pathHops;
+        long shortestHops;
+        long unreachable;
+        long routes; //live routes summed over nodes and samples
+        int maxRoutes;
+
+    }
+
+    final Random random;
+    final List<Node> nodes = new ArrayList<>();
+    int rounds;
+    final Totals flat = new Totals();
+    final Totals clustered = new Totals();
+    boolean[] backbone;
+    long samples;
+
+    ClusterSimulator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) {
+        AODVLog.setMinPriority(AODVLog.ERROR);
+        Map<String, String> opts = LoopbackHarness.parseArgs(args);
+        String[] sizes = LoopbackHarness.get(opts, "nodes", "50,100,200,500,1000,2000").split(",");
+        double rate = Double.parseDouble(LoopbackHarness.get(opts, "rate", "6"));
+        long duration = Long.parseLong(LoopbackHarness.get(opts, "duration", "60")) * 1000;
+        int runs = Integer.parseInt(LoopbackHarness.get(opts, "runs", "3"));
+        long seed = Long.parseLong(LoopbackHarness.get(opts, "seed", "1"));
+
+        System.out.println(String.format(Locale.US, "%5s %6s %6s %6s %7s %10s %10s %11s %8s %6s %7s %8s",
+                "nodes", "heads", "relays", "rounds", "mode", "rreq/flow", "rrep/flow", "ctrl/node/s", "routes",
+                "max", "remote", "stretch"));
+        for (String size : sizes) {
+            int n = Integer.parseInt(size.trim());
+            double heads = 0;
+            double relays = 0;
+            double rounds = 0;
+            double remote = 0;
+            double nodeSamples = 0;
+            Totals[] totals = {new Totals(), new Totals()};
+            for (int run = 0; run < runs; run++) {
+                ClusterSimulator simulator = new ClusterSimulator(seed * 1000003 + n * 1009 + run);
+                simulator.build(n);
+                simulator.formClusters();
+                simulator.runFlows(rate, duration);
+                rounds += simulator.rounds;
+                nodeSamples += (double) simulator.samples * n;
+                for (Node node : simulator.nodes) {
+                    heads += node.cluster.isHead() ? 1 : 0;
+                    relays += node.cluster.isRelay() ? 1 : 0;
+                    remote += node.cluster.getRemoteCount();
+                }
+                add(totals[0], simulator.flat);
+                add(totals[1], simulator.clustered);
+            }
+            double perNode = (double) runs * n;
+            for (int mode = 0; mode < 2; mode++) {
+                Totals t = totals[mode];
+                System.out.println(String.format(Locale.US,
+                        "%5d %5.1f%% %5.1f%% %6.1f %7s %10.1f %10.2f %11.2f %8.1f %6d %7s %8.2f",
+                        n, 100 * heads / perNode, 100 * relays / perNode, rounds / runs,
+                        mode == 0 ? "flat" : "cluster", (double) t.rreqs / t.flows, (double) t.rreps / t.flows,
+                        (t.rreqs + t.rreps) / perNode / (duration / 1000.0), t.routes / nodeSamples, t.maxRoutes,
+                        mode == 0 ? "-" : String.format(Locale.US, "%.1f", remote / perNode),
+                        (double) t.pathHops / t.shortestHops));
+                if (t.unreachable > 0) {
+                    System.out.println(t.unreachable + " flows found no path over the backbone");
+                }
+            }
+        }
+    }
+
+    private static void add(Totals sum, Totals run) {
+        sum.flows += run.flows;
+        sum.floods += run.floods;
+        sum.rreqs += run.rreqs;
+        sum.rreps += run.rreps;
+        sum.pathHops += run.pathHops;
+        sum.shortestHops += run.shortestHops;
+        sum.unreachable += run.unreachable;
+        sum.routes += run.routes;
+        sum.maxRoutes = Math.max(sum.maxRoutes, run.maxRoutes);
+    }
+
+    //place nodes until every node can reach every other through radio range
+    void build(int n) {
+        double range = Math.sqrt(Math.min(AVERAGE_DEGREE, n - 1) / (Math.PI * n));
+        do {
+            nodes.clear();
+            for (int i = 0; i < n; i++) {
+                Node node = new Node();
+                node.index = i;
+                node.address = (short) (i + 1);
+                node.x = random.nextDouble();
+                node.y = random.nextDouble();
+                node.cluster = new AODVCluster(node.address);
+                nodes.add(node);
+            }
+            //a grid of range-sized cells, so placing thousands of nodes stays cheap
+            int cells = Math.max(1, (int) (1 / range));
+            List<List<Node>> grid = new ArrayList<>();
+            for (int i = 0; i < cells * cells; i++) {
+                grid.add(new ArrayList<Node>());
+            }
+            for (Node node : nodes) {
+                grid.get(cell(node.x, cells) * cells + cell(node.y, cells)).add(node);
+            }
+            for (Node a : nodes) {
+                int cx = cell(a.x, cells);
+                int cy = cell(a.y, cells);
+                for (int x = Math.max(0, cx - 1); x <= Math.min(cells - 1, cx + 1); x++) {
+                    for (int y = Math.max(0, cy - 1); y <= Math.min(cells - 1, cy + 1); y++) {
+                        for (Node b : grid.get(x * cells + y)) {
+                            if (a != b && Math.hypot(a.x - b.x, a.y - b.y) <= range) {
+                                a.inRange.add(b);
+                            }
+                        }
+                    }
+                }
+            }
+        } while (reached(nodes.get(0)) < n);
+        for (Node node : nodes) {
+            node.neighbors = new short[node.inRange.size()];
+            for (int i = 0; i < node.neighbors.length; i++) {
+                node.neighbors[i] = node.inRange.get(i).address;
+            }
+        }
+    }
+
+    private static int cell(double coordinate, int cells) {
+        return Math.min(cells - 1, (int) (coordinate * cells));
+    }
+
+    /**
+     * Hello rounds on virtual time. Each round every node, in random order, updates its cluster
+     * from what it heard and sends its hello, like the router does once per hello interval.
+     */
+    void formClusters() {
+        long time = HELLO_INTERVAL;
+        int stable = 0;
+        List<Node> order = new ArrayList<>(nodes);
+        for (rounds = 0; rounds < MAX_ROUNDS && stable < STABLE_ROUNDS; rounds++) {
+            Collections.shuffle(order, random);
+            boolean changed = false;
+            for (Node node : order) {
+                short[] relays = node.cluster.getRelays();
+                changed |= node.cluster.update(time, HELLO_INTERVAL);
+                changed |= !Arrays.equals(relays, node.cluster.getRelays());
+                for (Node peer : node.inRange) {
+                    peer.cluster.onHello(node.address, true, node.cluster.getHead(), node.neighbors,
+                            node.cluster.getRelays(), time);
+                }
+                time += HELLO_INTERVAL / nodes.size();
+            }
+            stable = changed ? 0 : stable + 1;
+        }
+        rounds -= STABLE_ROUNDS;
+    }
+
+    /**
+     * Flows start at random times, at rate per node per minute. Routes expire routeTimeout after
+     * their last use, like the router's, and the live ones are counted once a second.
+     */
+    void runFlows(double rate, long duration) {
+        backbone = new boolean[nodes.size()];
+        for (Node node : nodes) {
+            backbone[node.index] = node.cluster.isBackbone();
+        }
+        long flows = (long) (rate * nodes.size() * duration / 60000);
+        long[] times = new long[(int) flows];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = (long) (random.nextDouble() * duration);
+        }
+        Arrays.sort(times);
+        long nextSample = 1000;
+        for (long time : times) {
+            while (nextSample <= time) {
+                sample(nextSample);
+                nextSample += 1000;
+            }
+            Node src = nodes.get(random.nextInt(nodes.size()));
+            Node dest = nodes.get(random.nextInt(nodes.size()));
+            if (dest != src) {
+                flatFlow(src, dest, time);
+                clusteredFlow(src, dest, time);
+            }
+        }
+    }
+
+    private void sample(long time) {
+        samples++;
+        for (Node node : nodes) {
+            int flatLive = live(node.flatRoutes, time);
+            int clusteredLive = live(node.clusteredRoutes, time);
+            flat.routes += flatLive;
+            clustered.routes += clusteredLive;
+            flat.maxRoutes = Math.max(flat.maxRoutes, flatLive);
+            clustered.maxRoutes = Math.max(clustered.maxRoutes, clusteredLive);
+        }
+    }
+
+    private static int live(Map<Short, Long> routes, long time) {
+        int live = 0;
+        for (long timeout : routes.values()) {
+            live += timeout > time ? 1 : 0;
+        }
+        return live;
+    }
+
+    private static boolean hasRoute(Node node, Map<Short, Long> routes, short address, long time) {
+        Long timeout = routes.get(address);
+        return timeout != null && timeout > time;
+    }
+
+    private void flatFlow(Node src, Node dest, long time) {
+        flat.flows++;
+        int[] hops = distances(src, null);
+        int shortest = hops[dest.index];
+        flat.shortestHops += shortest;
+        flat.pathHops += shortest;
+        if (shortest == 1) {
+            return;
+        }
+        if (!hasRoute(src, src.flatRoutes, dest.address, time)) {
+            flat.floods++;
+            //everyone hears it and rebroadcasts once, the destination answers instead
+            for (Node node : nodes) {
+                if (node != src) {
+                    node.flatRoutes.put(src.address, time + ROUTE_TIMEOUT);
+                }
+                if (node != dest) {
+                    flat.rreqs++;
+                }
+            }
+            flat.rreps += shortest;
+        }
+        //the data refreshes the route on every hop
+        for (Node node : path(src, dest, hops, null)) {
+            if (node != dest) {
+                node.flatRoutes.put(dest.address, time + ROUTE_TIMEOUT);
+            }
+        }
+    }
+
+    private void clusteredFlow(Node src, Node dest, long time) {
+        clustered.flows++;
+        int shortest = distances(src, null)[dest.index];
+        clustered.shortestHops += shortest;
+        if (shortest == 1) {
+            clustered.pathHops += 1;
+            return;
+        }
+        Node srcHead = headOf(src);
+        Node destHead = headOf(dest);
+        int toHead = src == srcHead ? 0 : 1;
+        int fromHead = dest == destHead ? 0 : 1;
+        if (srcHead == destHead) {
+            clustered.pathHops += toHead + fromHead;
+            return;
+        }
+        int[] hops = distances(srcHead, backbone);
+        if (hops[destHead.index] < 0) {
+            //the backbone doesn't connect them, shouldn't happen in a connected mesh
+            clustered.unreachable++;
+            return;
+        }
+        clustered.pathHops += toHead + hops[destHead.index] + fromHead;
+        if (srcHead.cluster.getHeadOf(dest.address) != destHead.address
+                || !hasRoute(srcHead, srcHead.clusteredRoutes, destHead.address, time)) {
+            clustered.floods++;
+            for (Node node : nodes) {
+                //the backbone relays and keeps a route back to the source's head, members only listen
+                if (hops[node.index] >= 0 && backbone[node.index] && node != destHead) {
+                    clustered.rreqs++;
+                    if (node != srcHead) {
+                        node.clusteredRoutes.put(srcHead.address, time + ROUTE_TIMEOUT);
+                    }
+                }
+                //the RREQ names the source, so every head it reaches learns where the source is
+                if (hops[node.index] >= 0 && node.cluster.isHead() && node != srcHead) {
+                    node.cluster.learn(src.address, srcHead.address);
+                }
+            }
+            srcHead.cluster.learn(dest.address, destHead.address);
+            clustered.rreps += hops[destHead.index];
+        }
+        for (Node node : path(srcHead, destHead, hops, backbone)) {
+            if (node != destHead) {
+                node.clusteredRoutes.put(destHead.address, time + ROUTE_TIMEOUT);
+            }
+        }
+    }
+
+    private Node headOf(Node node) {
+        short head = node.cluster.getHead();
+        return head == AODVCluster.NONE ? node : nodes.get(head - 1);
+    }
+
+    //hop counts from start, -1 where unreachable, only relaying through allowed nodes if given
+    private int[] distances(Node start, boolean[] allowed) {
+        int[] hops = new int[nodes.size()];
+        Arrays.fill(hops, -1);
+        hops[start.index] = 0;
+        Deque<Node> queue = new ArrayDeque<>();
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            if (node != start && allowed != null && !allowed[node.index]) {
+                continue;
+            }
+            for (Node peer : node.inRange) {
+                if (hops[peer.index] < 0) {
+                    hops[peer.index] = hops[node.index] + 1;
+                    queue.add(peer);
+                }
+            }
+        }
+        return hops;
+    }
+
+    private int reached(Node start) {
+        int reached = 0;
+        for (int hops : distances(start, null)) {
+            reached += hops >= 0 ? 1 : 0;
+        }
+        return reached;
+    }
+
+    //a shortest path from start to end over the distances from start, end first
+    private List<Node> path(Node start, Node end, int[] hops, boolean[] allowed) {
+        List<Node> path = new ArrayList<>();
+        Node node = end;
+        path.add(node);
+        while (node != start) {
+            Node previous = null;
+            for (Node peer : node.inRange) {
+                if (hops[peer.index] == hops[node.index] - 1
+                        && (peer == start || allowed == null || allowed[peer.index])) {
+                    previous = peer;
+                    break;
+                }
+            }
+            node = previous;
+            path.add(node);
+        }
+        return path;
+    }
+
+}
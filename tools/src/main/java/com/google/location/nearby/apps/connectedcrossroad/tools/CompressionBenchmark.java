@@ -0,0 +1,120 @@
+package com.google.location.nearby.apps.connectedcrossroad.tools;
+
+import com.google.location.nearby.apps.connectedcrossroad.AODVCompression;
+import com.google.location.nearby.apps.connectedcrossroad.AODVMessage;
+import com.google.location.nearby.apps.connectedcrossroad.AODVMessageType;
+import com.google.location.nearby.apps.connectedcrossroad.AODVPacket;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Bytes on air (tAODVPacket) and time per message of each AODVCompression mode, for the kinds
+ * of payload the app sends: one JSON telemetry record, a CSV batch, a short chat message and
+ * something incompressible.
+ *
+ * Usage: CompressionBenchmark [iterations]
+ */
+public class CompressionBenchmark {
+
+    private static final String[] MODES = {
+            AODVCompression.NONE, AODVCompression.DEFLATE, AODVCompression.DICTIONARY_MODE, AODVCompression.AUTO
+    };
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        String[] names = {"json", "csv", "short", "random"};
+        String[] payloads = {json(7), csv(24), "on my way, 5 min", random(300)};
+
+        //the first round warms up the JIT, the second is timed
+        for (int round = 0; round < 2; round++) {
+            if (round == 1) {
+                System.out.println(String.format(Locale.US, "%-7s %-10s %6s %6s %6s %10s %10s",
+                        "payload", "mode", "chars", "bytes", "ratio", "us/deflate", "us/inflate"));
+            }
+            for (int p = 0; p < payloads.length; p++) {
+                for (String mode : MODES) {
+                    run(round == 1, names[p], payloads[p], mode, iterations);
+                }
+            }
+        }
+    }
+
+    private static void run(boolean print, String name, String payload, String mode, int iterations) {
+        AODVCompression compression = new AODVCompression();
+        int plain = AODVPacket.encodedLength(data(payload));
+        long bytes = 0;
+        long compressNanos = 0;
+        long decompressNanos = 0;
+        int mismatches = 0;
+        for (int i = 0; i < iterations; i++) {
+            AODVMessage msg = data(payload);
+            long start = System.nanoTime();
+            compression.compress(msg, mode);
+            compressNanos += System.nanoTime() - start;
+            bytes += AODVPacket.encodedLength(msg);
+            if (msg.body != null) {
+                //what the destination sees
+                AODVMessage received = AODVPacket.deserializeAODVPacket(AODVPacket.serializeAODVPacket(msg));
+                start = System.nanoTime();
+                String inflated = compression.decompress(received);
+                decompressNanos += System.nanoTime() - start;
+                if (!payload.equals(inflated)) {
+                    mismatches++;
+                }
+            }
+        }
+        if (print) {
+            double average = (double) bytes / iterations;
+            System.out.println(String.format(Locale.US, "%-7s %-10s %6d %6.0f %6.2f %10.2f %10.2f%s",
+                    name, mode, payload.length(), average, average / plain,
+                    compressNanos / 1e3 / iterations, decompressNanos / 1e3 / iterations,
+                    mismatches > 0 ? "  MISMATCH " + mismatches : ""));
+        }
+    }
+
+    private static AODVMessage data(String payload) {
+        AODVMessage msg = new AODVMessage();
+        msg.header.type = AODVMessageType.DATA;
+        msg.header.srcAddr = 1;
+        msg.header.destAddr = 9;
+        msg.header.length = (short) payload.length();
+        msg.payload = payload;
+        return msg;
+    }
+
+    private static String json(long seed) {
+        Random random = new Random(seed);
+        return String.format(Locale.US, "{\"timestamp\":%d,\"vehicleId\":\"veh-%03d\",\"lat\":38.%06d,"
+                        + "\"lon\":-78.%06d,\"elevation\":%d,\"speed\":%.1f,\"heading\":%.1f,\"accel\":%.2f,"
+                        + "\"yawRate\":%.2f,\"brakes\":{\"abs\":\"off\",\"traction\":\"off\"},"
+                        + "\"lights\":\"lowBeam\",\"status\":\"ok\",\"hazard\":false}",
+                1700000000000L + random.nextInt(100000), random.nextInt(1000), random.nextInt(1000000),
+                random.nextInt(1000000), 100 + random.nextInt(200), random.nextDouble() * 30,
+                random.nextDouble() * 360, random.nextDouble() * 2 - 1, random.nextDouble() - 0.5);
+    }
+
+    private static String csv(int rows) {
+        Random random = new Random(rows);
+        StringBuilder sb = new StringBuilder("timestamp,vehicleId,lat,lon,speed,heading\r\n");
+        long timestamp = 1700000000000L;
+        for (int i = 0; i < rows; i++) {
+            timestamp += 100;
+            sb.append(String.format(Locale.US, "%d,veh-%03d,38.%06d,-78.%06d,%.1f,%.1f\r\n", timestamp,
+                    random.nextInt(8), 30000 + random.nextInt(1000), 50000 + random.nextInt(1000),
+                    random.nextDouble() * 30, random.nextDouble() * 360));
+        }
+        return sb.toString();
+    }
+
+    private static String random(int length) {
+        Random random = new Random(length);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+}
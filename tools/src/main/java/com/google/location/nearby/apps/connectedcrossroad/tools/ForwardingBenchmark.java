@@ -0,0 +1,156 @@
+package com.google.location.nearby.apps.connectedcrossroad.tools;
+
+import com.google.location.nearby.apps.connectedcrossroad.AODVConfig;
+import com.google.location.nearby.apps.connectedcrossroad.AODVDeviceType;
+import com.google.location.nearby.apps.connectedcrossroad.AODVHeader;
+import com.google.location.nearby.apps.connectedcrossroad.AODVLog;
+import com.google.location.nearby.apps.connectedcrossroad.AODVMessage;
+import com.google.location.nearby.apps.connectedcrossroad.AODVMessageType;
+import com.google.location.nearby.apps.connectedcrossroad.AODVPacket;
+import com.google.location.nearby.apps.connectedcrossroad.AODVRouter;
+import com.google.location.nearby.apps.connectedcrossroad.SerializationHelper;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time and engine-thread allocation per transit DATA message through a real AODVRouter sitting
+ * between two CC neighbors, 1 -> 2 -> 3, without sockets. Compares DATA that arrives and leaves
+ * Java-serialized (next hops that don't set FLAG_PACKET_DATA) with DATA in tAODVPacket layout,
+ * which is patched in place and sent on in the buffer it came in.
+ *
+ * Usage: ForwardingBenchmark [messages] [payload bytes]
+ */
+public class ForwardingBenchmark {
+
+    private static final short IN = 1;
+    private static final short SELF = 2;
+    private static final short OUT = 3;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int payloadSize = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        AODVLog.setMinPriority(AODVLog.INFO);
+        //the first round warms up the JIT, the second is timed
+        for (int round = 0; round < 2; round++) {
+            if (round == 1) {
+                System.out.println(String.format(Locale.US, "%-10s %8s %10s %12s %10s",
+                        "framing", "messages", "us/msg", "bytes alloc", "wire bytes"));
+            }
+            run(round == 1, false, messages, payloadSize);
+            run(round == 1, true, messages, payloadSize);
+        }
+    }
+
+    private static void run(boolean print, final boolean packet, int messages, int payloadSize) throws Exception {
+        final AtomicLong forwarded = new AtomicLong();
+        final AtomicLong wrong = new AtomicLong();
+        AODVRouter router = new AODVRouter(new AODVRouter.CCTransport() {
+            @Override
+            public void sendCC(List<String> endpointIds, byte[] bytes) {
+                if (!endpointIds.contains("out")) {
+                    return;
+                }
+                if (packet && (!AODVPacket.isData(bytes, bytes.length) || AODVPacket.getNextAddr(bytes) != OUT
+                        || AODVPacket.getSendAddr(bytes) != SELF)) {
+                    wrong.incrementAndGet();
+                }
+                forwarded.incrementAndGet();
+            }
+        }, null, null);
+        //no hellos or expiry while measuring
+        router.setConfig(AODVConfig.DEFAULT.toBuilder().setHelloInterval(3600000)
+                .setRouteExpiryInterval(3600000).build());
+        router.setUDPEnabled(false);
+        router.setAddress(SELF);
+        router.start();
+        router.addCCNeighbor("in", IN);
+        router.addCCNeighbor("out", OUT);
+        if (packet) {
+            router.receiveCC("out", hello(OUT));
+        }
+        while (router.getPendingCount() > 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        forwarded.set(0);
+        wrong.set(0);
+
+        AODVMessage data = data(payloadSize);
+        byte[] bytes = packet ? AODVPacket.serializeAODVPacket(data) : serialize(data);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long engine = engineThreadId();
+        long allocated = allocatedBytes(threads, engine);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            //every payload Nearby delivers is a fresh array
+            router.receiveCC("in", bytes.clone());
+        }
+        while (forwarded.get() < messages) {
+            Thread.sleep(0, 100000);
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = allocatedBytes(threads, engine) - allocated;
+        router.stop();
+        if (print) {
+            System.out.println(String.format(Locale.US, "%-10s %8d %10.2f %12.0f %10d%s",
+                    packet ? "packet" : "serialized", messages, elapsed / 1e3 / messages,
+                    allocated < 0 ? Double.NaN : (double) allocated / messages, bytes.length,
+                    wrong.get() > 0 ? "  WRONG " + wrong.get() : ""));
+        }
+    }
+
+    private static AODVMessage hello(short address) {
+        AODVMessage msg = new AODVMessage();
+        msg.header.type = AODVMessageType.HELO;
+        msg.header.flags = AODVHeader.FLAG_PACKET_DATA;
+        msg.header.srcAddr = address;
+        msg.header.sendAddr = address;
+        msg.header.nextAddr = (short) 0xFFFF;
+        msg.payload = "";
+        return msg;
+    }
+
+    private static AODVMessage data(int payloadSize) {
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; i < payloadSize; i++) {
+            payload.append((char) ('a' + i % 26));
+        }
+        AODVMessage msg = new AODVMessage();
+        msg.header.type = AODVMessageType.DATA;
+        msg.header.srcAddr = IN;
+        msg.header.destAddr = OUT;
+        msg.header.nextAddr = SELF;
+        msg.header.sendAddr = IN;
+        msg.header.sendDevType = AODVDeviceType.AND;
+        msg.header.length = (short) payload.length();
+        msg.payload = payload.toString();
+        return msg;
+    }
+
+    private static byte[] serialize(AODVMessage msg) throws IOException {
+        return SerializationHelper.serialize(msg);
+    }
+
+    private static long engineThreadId() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("aodv-engine")) {
+                return thread.getId();
+            }
+        }
+        return -1;
+    }
+
+    //-1 if the JVM can't tell
+    private static long allocatedBytes(ThreadMXBean threads, long threadId) {
+        if (threadId < 0 || !(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadId);
+    }
+
+}
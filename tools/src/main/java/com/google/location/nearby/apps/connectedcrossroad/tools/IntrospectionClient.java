@@ -0,0 +1,143 @@
+package com.google.location.nearby.apps.connectedcrossroad.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Polls a router's AODVIntrospection port and prints what changed per second: messages sent and
+ * received by type, DATA relayed, transmissions and bytes per interface, next to the current
+ * queue depths and neighbor counts. Counters that didn't move are left out.
+ *
+ * With -routes every poll also lists the routes and neighbors with their link quality, with
+ * -json it prints the raw JSON snapshots instead, and with -events it streams route and
+ * neighbor changes as they happen.
+ *
+ * Usage: IntrospectionClient --port PORT [--host 127.0.0.1] [--interval SECONDS] [--count N]
+ *                            [-routes] [-json] [-events]
+ */
+public class IntrospectionClient {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = LoopbackHarness.parseArgs(args);
+        if (!opts.containsKey("port")) {
+            System.err.println("Usage: IntrospectionClient --port PORT [--host 127.0.0.1] [--interval SECONDS]"
+                    + " [--count N] [-routes] [-json] [-events]");
+            System.exit(1);
+        }
+        String host = LoopbackHarness.get(opts, "host", "127.0.0.1");
+        int port = Integer.parseInt(opts.get("port"));
+        long intervalMillis = (long) (Double.parseDouble(LoopbackHarness.get(opts, "interval", "1")) * 1000);
+        //0 polls until the router goes away
+        int count = Integer.parseInt(LoopbackHarness.get(opts, "count", "0"));
+        try (Socket socket = new Socket(host, port)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), UTF_8);
+            if (opts.containsKey("events")) {
+                command(out, "SUBSCRIBE");
+                String line;
+                while ((line = in.readLine()) != null) {
+                    System.out.println(line);
+                }
+                return;
+            }
+            boolean json = opts.containsKey("json");
+            boolean showRoutes = opts.containsKey("routes");
+            Map<String, Long> lastCounters = null;
+            long lastTime = 0;
+            for (int i = 0; count == 0 || i < count; i++) {
+                if (i > 0) {
+                    Thread.sleep(intervalMillis);
+                }
+                if (json) {
+                    command(out, "JSON");
+                    String line = in.readLine();
+                    if (line == null) {
+                        break;
+                    }
+                    System.out.println(line);
+                    continue;
+                }
+                command(out, "SNAPSHOT");
+                List<String> lines = readSnapshot(in);
+                if (lines == null) {
+                    break;
+                }
+                String[] header = lines.get(0).split(" ");
+                long time = Long.parseLong(header[1]);
+                Map<String, Long> counters = parsePairs(lines.get(1), "counters");
+                Map<String, Long> gauges = parsePairs(lines.get(2), "gauges");
+                StringBuilder row = new StringBuilder(String.format(Locale.US, "%tT node %s", time, header[2]));
+                if (lastCounters != null && time > lastTime) {
+                    double seconds = (time - lastTime) / 1000.0;
+                    for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                        Long last = lastCounters.get(counter.getKey());
+                        long delta = counter.getValue() - (last != null ? last : 0);
+                        if (delta != 0) {
+                            row.append(String.format(Locale.US, " %s/s=%.1f", counter.getKey(), delta / seconds));
+                        }
+                    }
+                }
+                for (Map.Entry<String, Long> gauge : gauges.entrySet()) {
+                    row.append(' ').append(gauge.getKey()).append('=').append(gauge.getValue());
+                }
+                System.out.println(row);
+                if (showRoutes) {
+                    for (String entry : lines.subList(3, lines.size())) {
+                        System.out.println("  " + entry);
+                    }
+                }
+                lastCounters = counters;
+                lastTime = time;
+            }
+        } catch (IOException e) {
+            System.err.println("IntrospectionClient: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void command(Writer out, String command) throws IOException {
+        out.write(command + "\n");
+        out.flush();
+    }
+
+    //the lines up to "end", null if the connection closed first
+    private static List<String> readSnapshot(BufferedReader in) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.equals("end")) {
+                return lines.size() >= 3 ? lines : null;
+            }
+            lines.add(line);
+        }
+        return null;
+    }
+
+    private static Map<String, Long> parsePairs(String line, String name) {
+        Map<String, Long> pairs = new LinkedHashMap<>();
+        String[] fields = line.split(" ");
+        if (!fields[0].equals(name)) {
+            return pairs;
+        }
+        for (int i = 1; i < fields.length; i++) {
+            int eq = fields[i].indexOf('=');
+            if (eq > 0) {
+                pairs.put(fields[i].substring(0, eq), Long.parseLong(fields[i].substring(eq + 1)));
+            }
+        }
+        return pairs;
+    }
+
+}
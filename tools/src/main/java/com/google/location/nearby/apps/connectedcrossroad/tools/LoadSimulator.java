@@ -0,0 +1,361 @@
+package com.google.location.nearby.apps.connectedcrossroad.tools;
+
+import com.google.location.nearby.apps.connectedcrossroad.AODVConfig;
+import com.google.location.nearby.apps.connectedcrossroad.AODVLoad;
+import com.google.location.nearby.apps.connectedcrossroad.AODVLog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Per-node relaying load and throughput of plain route discovery against load-aware discovery,
+ * on a random static mesh where every node relays at most --capacity DATA per second. Every
+ * node runs the real AODVLoad on virtual time. Flows start between random pairs, send --rate
+ * DATA per second for --length seconds, and rediscover their route every routeTimeout like
+ * AODVRouter.refreshBusyRoutes does.
+ *
+ * - The RREQ floods hop by hop, each hop taking 5-10 ms. The destination answers the first
+ *   copy. In load-aware mode a node waits AODVLoad.rebroadcastDelay before passing it on, skips
+ *   it at SKIP_LOAD if the sender has other neighbors, and the destination also answers later
+ *   copies that came a way lighter by MARGIN. The flow takes the last path answered.
+ * - Each 100 ms tick a node relays what its flows offer it up to its capacity and drops the
+ *   rest, a fair share of each flow. Drops upstream don't relieve the nodes further along.
+ *
+ * Reports the DATA delivered per second, Jain's fairness index of the DATA each node relayed
+ * (1 when all relay the same), the busiest node against the mean, the share of node-seconds
+ * spent saturated, and the mean path length.
+ *
+ * Usage: LoadSimulator [--nodes 100] [--capacity 50] [--flows NEW_PER_SECOND] [--rate 10]
+ *                      [--length SECONDS] [--duration SECONDS] [--runs 3] [--seed 1]
+ */
+public class LoadSimulator {
+
+    static final double AVERAGE_DEGREE = 8;
+    static final long TICK = 100;
+    static final long HOP_MILLIS = 5;
+    static final long ROUTE_TIMEOUT = AODVConfig.DENSE_MESH.routeTimeout;
+
+    static class Node {
+
+        int index;
+        double x;
+        double y;
+        final List<Node> inRange = new ArrayList<>();
+        AODVLoad load;
+        double offered; //DATA offered to relay this tick
+        double carry; //relayed DATA not yet reported to load
+        int backlog; //what it couldn't relay last tick
+        double relayed;
+        long saturatedTicks;
+
+    }
+
+    static class Flow {
+
+        Node src;
+        Node dest;
+        long ends;
+        long discovered;
+        List<Node> relays = new ArrayList<>();
+
+    }
+
+    final Random random;
+    final boolean loadAware;
+    final int capacity;
+    final List<Node> nodes = new ArrayList<>();
+    final List<Flow> flows = new ArrayList<>();
+    double range;
+    long time = 0;
+
+    double offered;
+    double delivered;
+    long discoveries;
+    long rreqs;
+    long rreps;
+    long pathHops;
+    long ticks;
+
+    LoadSimulator(long seed, boolean loadAware, int capacity) {
+        this.random = new Random(seed);
+        this.loadAware = loadAware;
+        this.capacity = capacity;
+    }
+
+    public static void main(String[] args) {
+        AODVLog.setMinPriority(AODVLog.ERROR);
+        Map<String, String> opts = LoopbackHarness.parseArgs(args);
+        int n = Integer.parseInt(LoopbackHarness.get(opts, "nodes", "100"));
+        int capacity = Integer.parseInt(LoopbackHarness.get(opts, "capacity", "50"));
+        double arrivals = Double.parseDouble(LoopbackHarness.get(opts, "flows", "1"));
+        double rate = Double.parseDouble(LoopbackHarness.get(opts, "rate", "10"));
+        long length = Long.parseLong(LoopbackHarness.get(opts, "length", "30")) * 1000;
+        long duration = Long.parseLong(LoopbackHarness.get(opts, "duration", "120")) * 1000;
+        int runs = Integer.parseInt(LoopbackHarness.get(opts, "runs", "3"));
+        long seed = Long.parseLong(LoopbackHarness.get(opts, "seed", "1"));
+
+        System.out.println(String.format(Locale.US, "%d nodes relaying up to %d DATA/s, %.1f new flows/s of %.0f DATA/s "
+                + "for %d s", n, capacity, arrivals, rate, length / 1000));
+        System.out.println(String.format(Locale.US, "%10s %13s %9s %9s %13s %10s %10s %10s",
+                "discovery", "delivered/s", "delivery", "fairness", "busiest/mean", "saturated", "path hops", "rreq/disc"));
+        for (boolean loadAware : new boolean[] {false, true}) {
+            LoadSimulator total = new LoadSimulator(0, loadAware, capacity);
+            double fairness = 0;
+            double busiest = 0;
+            for (int run = 0; run < runs; run++) {
+                //the same mesh and flows in both modes
+                LoadSimulator simulator = new LoadSimulator(seed * 1000003 + run, loadAware, capacity);
+                simulator.build(n);
+                simulator.run(arrivals, rate, length, duration);
+                total.add(simulator);
+                fairness += simulator.fairness() / runs;
+                busiest += simulator.busiestOverMean() / runs;
+            }
+            System.out.println(String.format(Locale.US, "%10s %13.1f %8.1f%% %9.3f %13.2f %9.1f%% %10.2f %10.1f",
+                    loadAware ? "load-aware" : "plain", total.delivered / (runs * duration / 1000.0),
+                    100 * total.delivered / total.offered, fairness, busiest,
+                    100.0 * total.saturatedTicks() / (total.ticks * n), (double) total.pathHops / total.discoveries,
+                    (double) total.rreqs / total.discoveries));
+        }
+    }
+
+    private void add(LoadSimulator run) {
+        offered += run.offered;
+        delivered += run.delivered;
+        discoveries += run.discoveries;
+        rreqs += run.rreqs;
+        rreps += run.rreps;
+        pathHops += run.pathHops;
+        ticks += run.ticks;
+        nodes.addAll(run.nodes);
+    }
+
+    private long saturatedTicks() {
+        long saturated = 0;
+        for (Node node : nodes) {
+            saturated += node.saturatedTicks;
+        }
+        return saturated;
+    }
+
+    //Jain's index over every node's relayed DATA
+    private double fairness() {
+        double sum = 0;
+        double squares = 0;
+        for (Node node : nodes) {
+            sum += node.relayed;
+            squares += node.relayed * node.relayed;
+        }
+        return squares == 0 ? 1 : sum * sum / (nodes.size() * squares);
+    }
+
+    private double busiestOverMean() {
+        double sum = 0;
+        double max = 0;
+        for (Node node : nodes) {
+            sum += node.relayed;
+            max = Math.max(max, node.relayed);
+        }
+        return sum == 0 ? 0 : max * nodes.size() / sum;
+    }
+
+    //place nodes until every node can reach every other through radio range
+    void build(int n) {
+        range = Math.sqrt(Math.min(AVERAGE_DEGREE, n - 1) / (Math.PI * n));
+        do {
+            nodes.clear();
+            for (int i = 0; i < n; i++) {
+                Node node = new Node();
+                node.index = i;
+                node.x = random.nextDouble();
+                node.y = random.nextDouble();
+                node.load = new AODVLoad(capacity);
+                nodes.add(node);
+            }
+            for (Node a : nodes) {
+                for (Node b : nodes) {
+                    if (a != b && Math.hypot(a.x - b.x, a.y - b.y) <= range) {
+                        a.inRange.add(b);
+                    }
+                }
+            }
+        } while (reached(nodes.get(0)) < n);
+    }
+
+    private int reached(Node start) {
+        boolean[] seen = new boolean[nodes.size()];
+        seen[start.index] = true;
+        Deque<Node> queue = new ArrayDeque<>();
+        queue.add(start);
+        int count = 1;
+        while (!queue.isEmpty()) {
+            for (Node peer : queue.poll().inRange) {
+                if (!seen[peer.index]) {
+                    seen[peer.index] = true;
+                    queue.add(peer);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Flows start at arrivals per second for duration plus a warm-up of one flow length, which
+     * isn't measured.
+     */
+    void run(double arrivals, double rate, long length, long duration) {
+        double due = 0;
+        for (long start = time; time < start + length + duration; time += TICK) {
+            boolean measuring = time >= start + length;
+            for (due += arrivals * TICK / 1000.0; due >= 1; due--) {
+                Flow flow = new Flow();
+                flow.src = nodes.get(random.nextInt(nodes.size()));
+                do {
+                    flow.dest = nodes.get(random.nextInt(nodes.size()));
+                } while (flow.dest == flow.src);
+                flow.ends = time + length;
+                flows.add(flow);
+            }
+            Iterator<Flow> it = flows.iterator();
+            while (it.hasNext()) {
+                Flow flow = it.next();
+                if (flow.ends <= time) {
+                    it.remove();
+                } else if (flow.discovered == 0 || time - flow.discovered >= ROUTE_TIMEOUT) {
+                    discover(flow, measuring);
+                }
+            }
+            relay(rate, measuring);
+        }
+    }
+
+    private static class Copy implements Comparable<Copy> {
+
+        final long time;
+        final Node node;
+        final Node from;
+        final int pathLoad; //highest load on the way, not counting node
+
+        Copy(long time, Node node, Node from, int pathLoad) {
+            this.time = time;
+            this.node = node;
+            this.from = from;
+            this.pathLoad = pathLoad;
+        }
+
+        @Override
+        public int compareTo(Copy other) {
+            return Long.compare(time, other.time);
+        }
+
+    }
+
+    //floods an RREQ from the flow's source and takes the path of the last copy the destination answered
+    private void discover(Flow flow, boolean measuring) {
+        Node[] previous = new Node[nodes.size()];
+        boolean[] reached = new boolean[nodes.size()];
+        PriorityQueue<Copy> copies = new PriorityQueue<>();
+        reached[flow.src.index] = true;
+        broadcast(flow.src, 0, load(flow.src), null, copies);
+        int sends = 1;
+        int answers = 0;
+        int answeredLoad = 0;
+        Node answeredFrom = null;
+        Node[] answeredPath = null;
+        while (!copies.isEmpty()) {
+            Copy copy = copies.poll();
+            Node node = copy.node;
+            if (node == flow.dest) {
+                if (answers == 0 || (loadAware && copy.pathLoad + AODVLoad.MARGIN <= answeredLoad)) {
+                    answers++;
+                    answeredLoad = copy.pathLoad;
+                    answeredFrom = copy.from;
+                    answeredPath = previous.clone();
+                }
+                continue;
+            }
+            if (reached[node.index]) {
+                continue;
+            }
+            reached[node.index] = true;
+            previous[node.index] = copy.from;
+            int ours = load(node);
+            if (loadAware && ours >= AODVLoad.SKIP_LOAD && copy.from.inRange.size() > 1) {
+                continue;
+            }
+            long delay = loadAware ? AODVLoad.rebroadcastDelay(ours, AODVConfig.DEFAULT.broadcastJitter) : 0;
+            broadcast(node, copy.time + delay, Math.max(copy.pathLoad, ours), copy.from, copies);
+            sends++;
+        }
+        flow.discovered = time;
+        flow.relays.clear();
+        for (Node node = answeredFrom; node != null && node != flow.src; node = answeredPath[node.index]) {
+            flow.relays.add(node);
+        }
+        if (measuring) {
+            discoveries++;
+            rreqs += sends;
+            rreps += answers;
+            pathHops += flow.relays.size() + 1;
+        }
+    }
+
+    private void broadcast(Node node, long sent, int pathLoad, Node from, PriorityQueue<Copy> copies) {
+        for (Node peer : node.inRange) {
+            if (peer != from) {
+                copies.add(new Copy(sent + HOP_MILLIS + random.nextInt((int) HOP_MILLIS + 1), peer, node, pathLoad));
+            }
+        }
+    }
+
+    private int load(Node node) {
+        return node.load.get(time, node.backlog);
+    }
+
+    //one tick of DATA along every flow's path
+    private void relay(double rate, boolean measuring) {
+        double perTick = rate * TICK / 1000;
+        for (Node node : nodes) {
+            node.offered = 0;
+        }
+        for (Flow flow : flows) {
+            for (Node relay : flow.relays) {
+                relay.offered += perTick;
+            }
+        }
+        double budget = capacity * TICK / 1000.0;
+        for (Node node : nodes) {
+            double relayed = Math.min(node.offered, budget);
+            node.backlog = (int) Math.round(node.offered - relayed);
+            for (node.carry += relayed; node.carry >= 1; node.carry--) {
+                node.load.onForwarded(time);
+            }
+            if (measuring) {
+                node.relayed += relayed;
+                node.saturatedTicks += node.offered > budget ? 1 : 0;
+            }
+        }
+        if (!measuring) {
+            return;
+        }
+        ticks++;
+        for (Flow flow : flows) {
+            double share = 1;
+            for (Node relay : flow.relays) {
+                share *= Math.min(1, budget / relay.offered);
+            }
+            offered += perTick;
+            delivered += perTick * share;
+        }
+    }
+
+}
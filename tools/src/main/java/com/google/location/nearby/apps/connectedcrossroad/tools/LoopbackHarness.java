@@ -0,0 +1,446 @@
+package com.google.location.nearby.apps.connectedcrossroad.tools;
+
+import com.google.location.nearby.apps.connectedcrossroad.AODVConfig;
+import com.google.location.nearby.apps.connectedcrossroad.AODVDeviceType;
+import com.google.location.nearby.apps.connectedcrossroad.AODVLog;
+import com.google.location.nearby.apps.connectedcrossroad.AODVRouter;
+import com.google.location.nearby.apps.connectedcrossroad.AODVSend;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs routing cores and MK6 stand-ins on loopback ports, one port per node, and pushes DATA
+ * across them over the UDP side only. The topology decides which ports a node's "broadcasts"
+ * reach. Useful for load testing the UDP path and checking interop with the tAODVPacket format
+ * without radios.
+ *
+ * Protocol parameters come from --config FILE and --profile NAME, and any AODVConfig key can be
+ * given as an option, e.g. --helloInterval 1000. --sweep KEY=V1,V2,... repeats the run once per
+ * value and prints a summary table, to find good settings empirically.
+ *
+ * With -ack the first router sends through AODVRouter.send and the outcome of every send is
+ * counted. Destinations that are MK6 stand-ins never acknowledge, so use --mk6 0 to see DELIVERED.
+ *
+ * With -group every other router joins GROUP and the first one sends to the group address, so
+ * each message should be delivered once per member.
+ *
+ * With --flood HOPS the first router sends scoped broadcasts instead, which should reach every
+ * router within HOPS hops.
+ *
+ * With -cc neighboring routers are also connected over an in-process CC transport and act as
+ * Android devices, so each of them is dual-homed, reachable over CC and UDP. --cc-loss PERCENT
+ * drops that many CC payloads, and -nodual turns dual-homing off so broadcasts go out on both
+ * interfaces again. The transmissions on each interface are reported either way.
+ *
+ * With --introspectionPort P router i answers IntrospectionClient on loopback port P + i.
+ *
+ * Usage: LoopbackHarness [--routers N] [--mk6 N] [--port BASE] [--topology line|full]
+ *                        [--messages N] [--rate PER_SECOND] [--payload BYTES]
+ *                        [--config FILE] [--profile NAME] [--KEY VALUE]... [--sweep KEY=V1,V2,...] [--flood HOPS]
+ *                        [--cc-loss PERCENT] [-ack] [-group] [-cc] [-nodual] [-v]
+ */
+public class LoopbackHarness {
+
+    static final short GROUP = (short) 0x8001;
+
+    //a node in the harness, either a routing core or an MK6 stand-in
+    static class Node {
+
+        short address;
+        int port;
+        AODVRouter router;
+        MK6Node mk6;
+
+        //returns the handle when ack is set or hops > 0 and this is a router, null otherwise
+        AODVSend send(short destAddr, String data, boolean ack, int hops) {
+            if (router != null && hops > 0) {
+                return router.broadcast(data, hops);
+            } else if (router != null && ack) {
+                return router.send(destAddr, data);
+            } else if (router != null) {
+                router.sendMessage(destAddr, data);
+            } else {
+                mk6.sendData(destAddr, data);
+            }
+            return null;
+        }
+
+    }
+
+    //delivery statistics for one flow
+    static class Flow {
+
+        final AtomicLong delivered = new AtomicLong();
+        final List<Long> latencies = new CopyOnWriteArrayList<>();
+        final List<AODVSend> sends = new ArrayList<>();
+        int messages;
+        int expected; //messages times receivers
+        long elapsed;
+
+        void onData(String data) {
+            //payload starts with the send time
+            int end = data.indexOf(':');
+            if (end > 0) {
+                latencies.add(System.nanoTime() - Long.parseLong(data.substring(0, end)));
+            }
+            delivered.incrementAndGet();
+        }
+
+    }
+
+    final Map<Short, Flow> flows = new ConcurrentHashMap<>();
+    final List<Node> nodes = new ArrayList<>();
+    //routers are dual-homed Android devices with CC links to their neighbors
+    boolean cc = false;
+    boolean dualHoming = true;
+    double ccLoss = 0;
+    private final Random random = new Random();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = parseArgs(args);
+        int routers = Integer.parseInt(get(opts, "routers", "4"));
+        int mk6s = Integer.parseInt(get(opts, "mk6", "1"));
+        int basePort = Integer.parseInt(get(opts, "port", "15055"));
+        String topology = get(opts, "topology", "line");
+        int messages = Integer.parseInt(get(opts, "messages", "200"));
+        int rate = Integer.parseInt(get(opts, "rate", "100"));
+        int payloadSize = Integer.parseInt(get(opts, "payload", "64"));
+        boolean ack = opts.containsKey("ack");
+        boolean group = opts.containsKey("group");
+        int hops = Integer.parseInt(get(opts, "flood", "0"));
+        boolean cc = opts.containsKey("cc");
+        boolean dualHoming = !opts.containsKey("nodual");
+        double ccLoss = Double.parseDouble(get(opts, "cc-loss", "0")) / 100;
+        if (!opts.containsKey("v")) {
+            AODVLog.setMinPriority(AODVLog.INFO);
+        }
+
+        Properties props = new Properties();
+        if (opts.containsKey("config")) {
+            InputStream in = new FileInputStream(opts.get("config"));
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        for (String key : AODVConfig.KEYS) {
+            if (opts.containsKey(key)) {
+                props.setProperty(key, opts.get(key));
+            }
+        }
+
+        String sweepKey = null;
+        String[] sweepValues = {null};
+        if (opts.containsKey("sweep")) {
+            String[] sweep = opts.get("sweep").split("=", 2);
+            sweepKey = sweep[0];
+            sweepValues = sweep[1].split(",");
+        }
+
+        List<String> summary = new ArrayList<>();
+        for (int run = 0; run < sweepValues.length; run++) {
+            if (sweepKey != null) {
+                props.setProperty(sweepKey, sweepValues[run]);
+            }
+            AODVConfig config = AODVConfig.fromProperties(props);
+            LoopbackHarness harness = new LoopbackHarness();
+            harness.cc = cc;
+            harness.dualHoming = dualHoming;
+            harness.ccLoss = ccLoss;
+            //stop closes every socket, so each run can reuse the same ports
+            harness.build(routers, mk6s, basePort, topology, config);
+            harness.start(topology);
+            //let the hellos establish neighbors, and clusters and zones, which take a few more
+            Thread.sleep(Math.max(config.clustering ? 6 : 2, config.zoneRadius + 1) * config.helloInterval + 500);
+
+            Node src = harness.nodes.get(0);
+            List<Node> receivers = new ArrayList<>();
+            short destAddr;
+            if (group) {
+                for (Node node : harness.nodes) {
+                    if (node != src && node.router != null) {
+                        node.router.joinGroup(GROUP);
+                        receivers.add(node);
+                    }
+                }
+                //joins are answered within a round trip, the MACTs graft right after
+                Thread.sleep(1000);
+                destAddr = GROUP;
+            } else if (hops > 0) {
+                //on a line only the first hops nodes are in range
+                int reach = topology.equals("line") ? hops : harness.nodes.size();
+                for (int i = 1; i < harness.nodes.size() && i <= reach; i++) {
+                    if (harness.nodes.get(i).router != null) {
+                        receivers.add(harness.nodes.get(i));
+                    }
+                }
+                destAddr = (short) 0xFFFF;
+            } else {
+                receivers.add(harness.nodes.get(harness.nodes.size() - 1));
+                destAddr = receivers.get(0).address;
+            }
+            System.out.println(String.format(Locale.US, "%d routers, %d MK6 nodes, %s topology%s, %d -> %d, %s",
+                    routers, mk6s, topology, cc ? (dualHoming ? ", dual-homed" : ", CC and UDP") : "",
+                    src.address, destAddr, config));
+            Flow flow = harness.runFlow(src, destAddr, receivers, messages, rate, payloadSize, ack, hops);
+            harness.stop();
+            harness.reportTransmissions();
+            if (sweepKey != null) {
+                summary.add(String.format(Locale.US, "%-12s %s", sweepValues[run], summarize(flow)));
+            }
+        }
+        if (sweepKey != null) {
+            System.out.println(String.format(Locale.US, "%-12s %9s %7s %9s %9s %9s",
+                    sweepKey, "delivered", "loss%", "msgs/s", "p50 ms", "p99 ms"));
+            for (String row : summary) {
+                System.out.println(row);
+            }
+        }
+    }
+
+    void build(int routers, int mk6s, int basePort, String topology, AODVConfig config) throws IOException {
+        int count = routers + mk6s;
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        for (int i = 0; i < count; i++) {
+            List<InetSocketAddress> targets = new ArrayList<>();
+            for (int j = 0; j < count; j++) {
+                boolean linked = topology.equals("full") ? i != j : Math.abs(i - j) == 1;
+                if (linked) {
+                    targets.add(new InetSocketAddress(loopback, basePort + j));
+                }
+            }
+            final Node node = new Node();
+            node.address = (short) (i + 1);
+            node.port = basePort + i;
+            if (i < routers) {
+                node.router = new AODVRouter(new AODVRouter.CCTransport() {
+                    @Override
+                    public void sendCC(List<String> endpointIds, byte[] bytes) {
+                        deliverCC(node, endpointIds, bytes);
+                    }
+                }, new AODVRouter.Listener() {
+                    @Override
+                    public void onDataReceived(short srcAddr, String data) {
+                        onData(node, data);
+                    }
+
+                    @Override
+                    public void onNeighborsChanged() {
+                    }
+                }, null);
+                node.router.setAddress(node.address);
+                if (!cc) {
+                    //there is no CC here, so the cores act as UDP-only nodes
+                    node.router.setDeviceType(AODVDeviceType.MK6);
+                }
+                node.router.setDualHoming(dualHoming);
+                //--introspectionPort P gives the routers P, P + 1, ...
+                node.router.setConfig(config.toBuilder().setUDPPort(node.port)
+                        .setIntrospectionPort(config.introspectionPort > 0 ? config.introspectionPort + i : 0).build());
+                node.router.setUDPTargets(targets);
+            } else {
+                node.mk6 = new MK6Node(node.address, node.port, targets, new MK6Node.Listener() {
+                    @Override
+                    public void onData(short srcAddr, String data) {
+                        LoopbackHarness.this.onData(node, data);
+                    }
+                });
+            }
+            nodes.add(node);
+        }
+    }
+
+    void start(String topology) throws IOException {
+        for (Node node : nodes) {
+            if (node.router != null) {
+                node.router.start();
+            } else {
+                node.mk6.start();
+            }
+        }
+        if (!cc) {
+            return;
+        }
+        //the same links as UDP, between routers only
+        for (int i = 0; i < nodes.size(); i++) {
+            for (int j = 0; j < nodes.size(); j++) {
+                Node a = nodes.get(i);
+                Node b = nodes.get(j);
+                boolean linked = topology.equals("full") ? i != j : Math.abs(i - j) == 1;
+                if (linked && a.router != null && b.router != null) {
+                    a.router.addCCNeighbor(endpointId(b), b.address);
+                }
+            }
+        }
+    }
+
+    private static String endpointId(Node node) {
+        return "cc-" + node.address;
+    }
+
+    //like Nearby, every endpoint gets an array of its own
+    private void deliverCC(Node from, List<String> endpointIds, byte[] bytes) {
+        for (String endpointId : endpointIds) {
+            Node to = nodes.get(Integer.parseInt(endpointId.substring(3)) - 1);
+            if (to.router != null && random.nextDouble() >= ccLoss) {
+                to.router.receiveCC(endpointId(from), bytes.clone());
+            }
+        }
+    }
+
+    void reportTransmissions() {
+        long ccSent = 0;
+        long ccBytes = 0;
+        long udpSent = 0;
+        long udpBytes = 0;
+        for (Node node : nodes) {
+            if (node.router != null) {
+                ccSent += node.router.getCCSent();
+                ccBytes += node.router.getCCBytes();
+                udpSent += node.router.getUDPSent();
+                udpBytes += node.router.getUDPBytes();
+            }
+        }
+        System.out.println(String.format(Locale.US,
+                "transmissions by routers: CC %d (%.1f KB), UDP %d (%.1f KB), broadcasts once per target",
+                ccSent, ccBytes / 1024.0, udpSent, udpBytes / 1024.0));
+    }
+
+    void stop() {
+        for (Node node : nodes) {
+            if (node.router != null) {
+                node.router.stop();
+            } else {
+                node.mk6.close();
+            }
+        }
+    }
+
+    private void onData(Node node, String data) {
+        Flow flow = flows.get(node.address);
+        if (flow != null) {
+            flow.onData(data);
+        }
+    }
+
+    //send messages at the given rate (0 for as fast as possible) and report delivery
+    Flow runFlow(Node src, short destAddr, List<Node> receivers, int messages, int rate, int payloadSize,
+                 boolean ack, int hops) throws InterruptedException {
+        Flow flow = new Flow();
+        for (Node receiver : receivers) {
+            flows.put(receiver.address, flow);
+        }
+        flow.messages = messages;
+        flow.expected = messages * receivers.size();
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < payloadSize; i++) {
+            padding.append('x');
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            if (rate > 0) {
+                long wait = start + i * 1000000000L / rate - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                }
+            }
+            AODVSend send = src.send(destAddr, System.nanoTime() + ":" + padding, ack, hops);
+            if (send != null) {
+                flow.sends.add(send);
+            }
+        }
+        long sendTime = System.nanoTime() - start;
+        //wait for stragglers, queued data expires after seven seconds
+        long deadline = System.currentTimeMillis() + 8000;
+        while (flow.delivered.get() < flow.expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        long elapsed = System.nanoTime() - start;
+        //unacknowledged sends settle queueTimeout after they went out
+        for (AODVSend send : flow.sends) {
+            send.await(deadline + 8000 - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+        flow.elapsed = elapsed;
+        report(flow, sendTime, elapsed);
+        return flow;
+    }
+
+    static String summarize(Flow flow) {
+        List<Long> latencies = new ArrayList<>(flow.latencies);
+        Collections.sort(latencies);
+        long delivered = flow.delivered.get();
+        return String.format(Locale.US, "%9d %7.1f %9.0f %9.2f %9.2f", delivered,
+                100.0 * (flow.expected - delivered) / flow.expected, delivered / (flow.elapsed / 1e9),
+                latencies.isEmpty() ? 0 : percentile(latencies, 0.50) / 1e6,
+                latencies.isEmpty() ? 0 : percentile(latencies, 0.99) / 1e6);
+    }
+
+    static void report(Flow flow, long sendTime, long elapsed) {
+        List<Long> latencies = new ArrayList<>(flow.latencies);
+        Collections.sort(latencies);
+        long delivered = flow.delivered.get();
+        System.out.println(String.format(Locale.US,
+                "sent %d in %.3f s, delivered %d of %d (%.1f%% loss), %.0f msgs/s",
+                flow.messages, sendTime / 1e9, delivered, flow.expected,
+                100.0 * (flow.expected - delivered) / flow.expected,
+                delivered / (elapsed / 1e9)));
+        if (!latencies.isEmpty()) {
+            System.out.println(String.format(Locale.US, "latency ms: p50 %.2f, p99 %.2f, max %.2f",
+                    percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6,
+                    latencies.get(latencies.size() - 1) / 1e6));
+        }
+        if (!flow.sends.isEmpty()) {
+            Map<AODVSend.Outcome, Integer> outcomes = new HashMap<>();
+            List<Double> roundTrips = new ArrayList<>();
+            for (AODVSend send : flow.sends) {
+                AODVSend.Outcome outcome = send.getOutcome();
+                outcomes.put(outcome, outcomes.containsKey(outcome) ? outcomes.get(outcome) + 1 : 1);
+                if (outcome == AODVSend.Outcome.DELIVERED) {
+                    roundTrips.add(send.getLatencyMillis());
+                }
+            }
+            Collections.sort(roundTrips);
+            System.out.println("outcomes: " + outcomes + (roundTrips.isEmpty() ? "" : String.format(Locale.US,
+                    ", acked round trip ms: p50 %.2f, max %.2f",
+                    roundTrips.get(roundTrips.size() / 2), roundTrips.get(roundTrips.size() - 1))));
+        }
+    }
+
+    static long percentile(List<Long> sorted, double p) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) (p * sorted.size())));
+    }
+
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 < args.length) {
+                opts.put(args[i].substring(2), args[++i]);
+            } else if (args[i].startsWith("-")) {
+                opts.put(args[i].substring(1), "true");
+            }
+        }
+        return opts;
+    }
+
+    static String get(Map<String, String> opts, String key, String def) {
+        return opts.containsKey(key) ? opts.get(key) : def;
+    }
+
+}
@@ -0,0 +1,275 @@
+package com.google.location.nearby.apps.connectedcrossroad.tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the C AODV peer on an MK6. It speaks the 20-byte tAODVPacket layout with its own
+ * encoder rather than AODVPacket, so it checks the Java mapping instead of trusting it.
+ * It sends HELLOs, answers RREQs for its own address, accepts DATA addressed to it and can
+ * originate DATA. It does not forward traffic for others.
+ */
+public class MK6Node implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int HEADER_SIZE = 20;
+    static final short BROADCAST_ADDR = (short) 0xFFFF;
+    static final byte DEV_MK6 = 2;
+
+    static final byte RREQ = 120;
+    static final byte RREP = 121;
+    static final byte RERR = 122;
+    static final byte HELO = 123;
+    static final byte DATA = 124;
+
+    private static final long HELLO_INTERVAL = 2000;
+
+    //called from the receive thread for DATA addressed to this node
+    public interface Listener {
+        void onData(short srcAddr, String data);
+    }
+
+    //tAODVPacket fields
+    static class Packet {
+
+        byte type;
+        short srcAddr;
+        short srcSeqNum;
+        short destAddr;
+        short destSeqNum;
+        short nextAddr;
+        short sendAddr;
+        byte sendDevType;
+        short bcastSeqNum;
+        byte hopCnt;
+        byte[] payload = new byte[0];
+
+        byte[] encode() {
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+            buf.put(type).put((byte) 0)
+                    .putShort(srcAddr).putShort(srcSeqNum)
+                    .putShort(destAddr).putShort(destSeqNum)
+                    .putShort(nextAddr).putShort(sendAddr)
+                    .put(sendDevType).putShort(bcastSeqNum).put(hopCnt)
+                    .putShort((short) payload.length)
+                    .put(payload);
+            return buf.array();
+        }
+
+        //returns null if the datagram is not a well formed tAODVPacket
+        static Packet decode(byte[] bytes, int length) {
+            if (length < HEADER_SIZE) {
+                return null;
+            }
+            ByteBuffer buf = ByteBuffer.wrap(bytes, 0, length);
+            Packet p = new Packet();
+            p.type = buf.get();
+            buf.get();
+            p.srcAddr = buf.getShort();
+            p.srcSeqNum = buf.getShort();
+            p.destAddr = buf.getShort();
+            p.destSeqNum = buf.getShort();
+            p.nextAddr = buf.getShort();
+            p.sendAddr = buf.getShort();
+            p.sendDevType = buf.get();
+            p.bcastSeqNum = buf.getShort();
+            p.hopCnt = buf.get();
+            int payloadLength = buf.getShort();
+            if (payloadLength < 0 || payloadLength != buf.remaining()) {
+                return null;
+            }
+            p.payload = new byte[payloadLength];
+            buf.get(p.payload);
+            return p;
+        }
+
+    }
+
+    private final short address;
+    private final int port;
+    private final List<InetSocketAddress> neighbors;
+    private final Listener listener;
+
+    private short seqNum = 0;
+    private short bcastSeqNum = 0;
+    //key is destination, value is next hop
+    private final Map<Short, Short> routes = new HashMap<>();
+    //DATA waiting for an RREP, key is destination
+    private final Map<Short, List<byte[]>> pending = new HashMap<>();
+
+    final AtomicLong received = new AtomicLong();
+    final AtomicLong sent = new AtomicLong();
+    final AtomicLong malformed = new AtomicLong();
+
+    private DatagramSocket socket;
+    private Thread receiveThread;
+    private Thread helloThread;
+
+    public MK6Node(short address, int port, List<InetSocketAddress> neighbors, Listener listener) {
+        this.address = address;
+        this.port = port;
+        this.neighbors = new ArrayList<>(neighbors);
+        this.listener = listener;
+    }
+
+    public short getAddress() {
+        return address;
+    }
+
+    public void start() throws SocketException {
+        socket = new DatagramSocket(null);
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(port));
+        receiveThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[2048];
+                while (!socket.isClosed()) {
+                    try {
+                        DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+                        socket.receive(datagram);
+                        Packet p = Packet.decode(datagram.getData(), datagram.getLength());
+                        if (p == null) {
+                            malformed.incrementAndGet();
+                        } else if (p.sendAddr != address
+                                && (p.nextAddr == address || p.nextAddr == BROADCAST_ADDR)) {
+                            received.incrementAndGet();
+                            handle(p);
+                        }
+                    } catch (IOException e) {
+                        //socket closed
+                    }
+                }
+            }
+        }, "mk6-" + address + "-rx");
+        helloThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.interrupted()) {
+                        Packet hello = new Packet();
+                        hello.type = HELO;
+                        hello.srcAddr = address;
+                        synchronized (MK6Node.this) {
+                            hello.srcSeqNum = seqNum;
+                        }
+                        send(hello, BROADCAST_ADDR);
+                        Thread.sleep(HELLO_INTERVAL);
+                    }
+                } catch (InterruptedException e) {
+                    //stopped
+                }
+            }
+        }, "mk6-" + address + "-hello");
+        receiveThread.start();
+        helloThread.start();
+    }
+
+    @Override
+    public void close() {
+        helloThread.interrupt();
+        socket.close();
+    }
+
+    public synchronized void sendData(short destAddr, String data) {
+        byte[] payload = data.getBytes(UTF_8);
+        Short nextHop = routes.get(destAddr);
+        if (nextHop != null) {
+            sendData(destAddr, nextHop, payload);
+            return;
+        }
+        List<byte[]> queue = pending.get(destAddr);
+        if (queue == null) {
+            queue = new ArrayList<>();
+            pending.put(destAddr, queue);
+            Packet rreq = new Packet();
+            rreq.type = RREQ;
+            rreq.srcAddr = address;
+            rreq.srcSeqNum = seqNum;
+            rreq.bcastSeqNum = ++bcastSeqNum;
+            rreq.destAddr = destAddr;
+            send(rreq, BROADCAST_ADDR);
+        }
+        queue.add(payload);
+    }
+
+    private void sendData(short destAddr, short nextHop, byte[] payload) {
+        Packet data = new Packet();
+        data.type = DATA;
+        data.srcAddr = address;
+        data.srcSeqNum = seqNum;
+        data.destAddr = destAddr;
+        data.payload = payload;
+        send(data, nextHop);
+    }
+
+    private synchronized void handle(Packet p) {
+        switch (p.type) {
+            case HELO:
+                routes.put(p.sendAddr, p.sendAddr);
+                break;
+            case RREQ:
+                routes.put(p.srcAddr, p.sendAddr);
+                if (p.destAddr == address) {
+                    Packet rrep = new Packet();
+                    rrep.type = RREP;
+                    rrep.srcAddr = address;
+                    rrep.srcSeqNum = ++seqNum;
+                    rrep.destAddr = p.srcAddr;
+                    rrep.destSeqNum = p.srcSeqNum;
+                    rrep.hopCnt = (byte) (p.hopCnt + 1);
+                    send(rrep, p.sendAddr);
+                }
+                break;
+            case RREP:
+                if (p.destAddr == address) {
+                    routes.put(p.srcAddr, p.sendAddr);
+                    List<byte[]> queue = pending.remove(p.srcAddr);
+                    if (queue != null) {
+                        for (byte[] payload : queue) {
+                            sendData(p.srcAddr, p.sendAddr, payload);
+                        }
+                    }
+                }
+                break;
+            case RERR:
+                routes.remove(p.srcAddr);
+                break;
+            case DATA:
+                if (p.destAddr == address && listener != null) {
+                    listener.onData(p.srcAddr, new String(p.payload, UTF_8));
+                }
+                break;
+            default:
+                malformed.incrementAndGet();
+        }
+    }
+
+    private void send(Packet p, short nextAddr) {
+        p.nextAddr = nextAddr;
+        p.sendAddr = address;
+        p.sendDevType = DEV_MK6;
+        byte[] bytes = p.encode();
+        for (InetSocketAddress neighbor : neighbors) {
+            try {
+                socket.send(new DatagramPacket(bytes, bytes.length, neighbor));
+                sent.incrementAndGet();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,487 @@
+package com.google.location.nearby.apps.connectedcrossroad.tools;
+
+import com.google.location.nearby.apps.connectedcrossroad.AODVConnectionManager;
+import com.google.location.nearby.apps.connectedcrossroad.AODVLog;
+import com.google.location.nearby.apps.connectedcrossroad.AODVRouter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Discrete event simulation of CC mesh formation on virtual time. Nodes are placed at random
+ * with enough radio range for about eight endpoints each, discover each other at random times
+ * and connect within a neighbor budget. The simulated Nearby layer has handshake latency, random
+ * failures, and fails both requests with 8012 when two endpoints request each other at once.
+ *
+ * Two policies are compared:
+ * - legacy: what AODVNetwork used to do. Request on every discovery, retry a clash on a coin
+ *   flip, retry any failed result immediately, keep the first successful connections.
+ * - managed: AODVConnectionManager. The lower address initiates, with backoff and jitter.
+ *
+ * The mesh counts as formed once the links both sides kept connect every node. Runs that don't
+ * form within the time limit still report the share of nodes in the largest component.
+ *
+ * Usage: MeshSimulator [--nodes 4,8,16,32,64] [--runs 20] [--budget 3] [--seed 1]
+ */
+public class MeshSimulator {
+
+    static final long INITIATE_DELAY = 100;
+    static final long HANDSHAKE_MIN = 300;
+    static final long HANDSHAKE_MAX = 1200;
+    static final double FAILURE_RATE = 0.15;
+    static final long DISCOVERY_SPREAD = 4000;
+    //how often a managed node looks for another endpoint when it has room, like the neighbor manager
+    static final long RETRY_INTERVAL = 2000;
+    static final long TIME_LIMIT = 120000;
+    static final double AVERAGE_DEGREE = 8;
+
+    //virtual clock and event queue
+    static class Sim implements AODVConnectionManager.Scheduler {
+
+        private static class Event implements Comparable<Event> {
+
+            long time;
+            long order;
+            Runnable task;
+
+            @Override
+            public int compareTo(Event other) {
+                return time != other.time ? Long.compare(time, other.time) : Long.compare(order, other.order);
+            }
+
+        }
+
+        private final PriorityQueue<Event> events = new PriorityQueue<>();
+        private long now = 0;
+        private long order = 0;
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            Event event = new Event();
+            event.time = now + delayMillis;
+            event.order = order++;
+            event.task = task;
+            events.add(event);
+        }
+
+        //false once there is nothing left to run before the limit
+        boolean step(long limit) {
+            Event event = events.poll();
+            if (event == null || event.time > limit) {
+                return false;
+            }
+            now = event.time;
+            event.task.run();
+            return true;
+        }
+
+    }
+
+    static class Handshake {
+
+        Node initiator;
+        Node target;
+        long start;
+        boolean aborted;
+
+    }
+
+    //the Nearby Connections layer shared by all nodes
+    class Nearby {
+
+        final Map<String, Handshake> inFlight = new HashMap<>();
+        long requests;
+        long clashes;
+        long radioTime;
+
+        void request(final Node from, final Node to) {
+            requests++;
+            String key = pair(from, to);
+            Handshake existing = inFlight.get(key);
+            if (existing != null) {
+                if (existing.initiator == from) {
+                    return;
+                }
+                //both sides asked at once, Nearby fails both requests
+                clashes++;
+                existing.aborted = true;
+                inFlight.remove(key);
+                radioTime += sim.now() - existing.start;
+                sim.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        to.onRequestFailed(from, true);
+                        from.onRequestFailed(to, true);
+                    }
+                }, INITIATE_DELAY);
+                return;
+            }
+            final Handshake handshake = new Handshake();
+            handshake.initiator = from;
+            handshake.target = to;
+            handshake.start = sim.now();
+            inFlight.put(key, handshake);
+            final long duration = HANDSHAKE_MIN + (long) (random.nextDouble() * (HANDSHAKE_MAX - HANDSHAKE_MIN));
+            final boolean success = random.nextDouble() >= FAILURE_RATE;
+            sim.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!handshake.aborted) {
+                        to.onConnectionInitiated(from);
+                        from.onConnectionInitiated(to);
+                    }
+                }
+            }, INITIATE_DELAY);
+            sim.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (handshake.aborted) {
+                        return;
+                    }
+                    inFlight.remove(pair(from, to));
+                    radioTime += duration;
+                    from.onResult(to, success);
+                    to.onResult(from, success);
+                    checkFormed();
+                }
+            }, duration);
+        }
+
+        //the peer hears about it a little later, after any result it is still due
+        void disconnect(final Node from, final Node to) {
+            from.links.remove(to);
+            sim.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    to.links.remove(from);
+                    to.onDisconnected(from);
+                }
+            }, INITIATE_DELAY);
+        }
+
+        private String pair(Node a, Node b) {
+            return Math.min(a.index, b.index) + "-" + Math.max(a.index, b.index);
+        }
+
+    }
+
+    abstract class Node {
+
+        int index;
+        short address;
+        String endpointId;
+        double x;
+        double y;
+        final List<Node> inRange = new ArrayList<>();
+        final List<Node> discovered = new ArrayList<>();
+        //links this side kept, only links both sides kept carry traffic
+        final Set<Node> links = new HashSet<>();
+
+        abstract void onFound(Node peer);
+        abstract void onConnectionInitiated(Node peer);
+        abstract void onRequestFailed(Node peer, boolean clash);
+        abstract void onResult(Node peer, boolean success);
+        abstract void onDisconnected(Node peer);
+
+        boolean admit(Node peer) {
+            if (links.contains(peer)) {
+                return true;
+            }
+            if (links.size() < budget) {
+                links.add(peer);
+                return true;
+            }
+            return false;
+        }
+
+    }
+
+    class LegacyNode extends Node {
+
+        @Override
+        void onFound(Node peer) {
+            if (!links.contains(peer)) {
+                nearby.request(this, peer);
+            }
+        }
+
+        @Override
+        void onConnectionInitiated(Node peer) {
+        }
+
+        @Override
+        void onRequestFailed(Node peer, boolean clash) {
+            if (clash && random.nextInt() % 2 == 0) {
+                nearby.request(this, peer);
+            }
+        }
+
+        @Override
+        void onResult(Node peer, boolean success) {
+            if (success) {
+                //the old addCCNeighbor result was ignored, extra connections just lingered
+                admit(peer);
+            } else {
+                nearby.request(this, peer);
+            }
+        }
+
+        @Override
+        void onDisconnected(Node peer) {
+        }
+
+    }
+
+    class ManagedNode extends Node implements AODVRouter.Connector {
+
+        final AODVConnectionManager manager = new AODVConnectionManager(this, sim, random);
+
+        void start() {
+            manager.setAddress(address);
+            sim.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    maybeConnect();
+                    sim.schedule(this, RETRY_INTERVAL);
+                }
+            }, RETRY_INTERVAL);
+        }
+
+        //ask for connections while links plus pending ones are under the budget
+        void maybeConnect() {
+            int wanted = 0;
+            List<Node> idle = new ArrayList<>();
+            for (Node peer : discovered) {
+                AODVConnectionManager.State state = manager.getState(peer.endpointId);
+                if (state == AODVConnectionManager.State.IDLE) {
+                    if (!links.contains(peer)) {
+                        idle.add(peer);
+                    }
+                } else if (state != AODVConnectionManager.State.CONNECTED
+                        && state != AODVConnectionManager.State.REFUSED) {
+                    wanted++;
+                }
+            }
+            Collections.shuffle(idle, random);
+            for (Node peer : idle) {
+                if (links.size() + wanted >= budget) {
+                    break;
+                }
+                manager.requestConnection(peer.endpointId);
+                wanted++;
+            }
+        }
+
+        @Override
+        void onFound(Node peer) {
+            discovered.add(peer);
+            manager.onEndpointFound(peer.endpointId, peer.address);
+            maybeConnect();
+        }
+
+        @Override
+        void onConnectionInitiated(Node peer) {
+            manager.onConnectionInitiated(peer.endpointId);
+        }
+
+        @Override
+        void onRequestFailed(Node peer, boolean clash) {
+            manager.onConnectionFailed(peer.endpointId, clash);
+        }
+
+        @Override
+        void onResult(Node peer, boolean success) {
+            if (!success) {
+                manager.onConnectionFailed(peer.endpointId, false);
+            } else if (admit(peer)) {
+                manager.onConnected(peer.endpointId);
+            } else {
+                manager.disconnect(peer.endpointId);
+            }
+        }
+
+        @Override
+        void onDisconnected(Node peer) {
+            manager.onDisconnected(peer.endpointId);
+            maybeConnect();
+        }
+
+        @Override
+        public void requestConnection(String endpointId) {
+            nearby.request(this, byId.get(endpointId));
+        }
+
+        @Override
+        public void disconnect(String endpointId) {
+            nearby.disconnect(this, byId.get(endpointId));
+        }
+
+    }
+
+    final Sim sim = new Sim();
+    final Random random;
+    final int budget;
+    final Nearby nearby = new Nearby();
+    final List<Node> nodes = new ArrayList<>();
+    final Map<String, Node> byId = new HashMap<>();
+    long formedAt = -1;
+
+    MeshSimulator(long seed, int budget) {
+        this.random = new Random(seed);
+        this.budget = budget;
+    }
+
+    public static void main(String[] args) {
+        AODVLog.setMinPriority(AODVLog.ERROR);
+        Map<String, String> opts = LoopbackHarness.parseArgs(args);
+        String[] sizes = LoopbackHarness.get(opts, "nodes", "4,8,16,32,64").split(",");
+        int runs = Integer.parseInt(LoopbackHarness.get(opts, "runs", "20"));
+        int budget = Integer.parseInt(LoopbackHarness.get(opts, "budget", "3"));
+        long seed = Long.parseLong(LoopbackHarness.get(opts, "seed", "1"));
+
+        System.out.println(String.format(Locale.US, "%-8s %5s %7s %8s %8s %8s %10s %10s %10s %9s",
+                "policy", "nodes", "formed", "largest", "p50 s", "p90 s", "req/node", "clash/node", "radio s/n",
+                "ttc ms"));
+        for (String size : sizes) {
+            int n = Integer.parseInt(size.trim());
+            for (int policy = 0; policy < 2; policy++) {
+                boolean managed = policy == 1;
+                List<Long> times = new ArrayList<>();
+                long requests = 0;
+                long clashes = 0;
+                long radioTime = 0;
+                long connects = 0;
+                long timeToConnect = 0;
+                double largest = 0;
+                for (int run = 0; run < runs; run++) {
+                    //same placement and discovery order for both policies
+                    MeshSimulator simulator = new MeshSimulator(seed * 1000003 + n * 1009 + run, budget);
+                    simulator.build(n, managed);
+                    simulator.run();
+                    if (simulator.formedAt >= 0) {
+                        times.add(simulator.formedAt);
+                    }
+                    largest += (double) simulator.largestComponent() / n;
+                    requests += simulator.nearby.requests;
+                    clashes += simulator.nearby.clashes;
+                    radioTime += simulator.nearby.radioTime;
+                    for (Node node : simulator.nodes) {
+                        if (node instanceof ManagedNode) {
+                            AODVConnectionManager.Stats stats = ((ManagedNode) node).manager.getStats();
+                            connects += stats.connects;
+                            timeToConnect += stats.totalTimeToConnect;
+                        }
+                    }
+                }
+                Collections.sort(times);
+                double perNode = (double) runs * n;
+                System.out.println(String.format(Locale.US, "%-8s %5d %6.0f%% %7.0f%% %8s %8s %10.1f %10.2f %10.2f %9s",
+                        managed ? "managed" : "legacy", n, 100.0 * times.size() / runs, 100.0 * largest / runs,
+                        times.isEmpty() ? "-" : String.format(Locale.US, "%.2f", percentile(times, 0.5) / 1000.0),
+                        times.isEmpty() ? "-" : String.format(Locale.US, "%.2f", percentile(times, 0.9) / 1000.0),
+                        requests / perNode, clashes / perNode, radioTime / perNode / 1000.0,
+                        connects == 0 ? "-" : String.valueOf(timeToConnect / connects)));
+            }
+        }
+    }
+
+    //place nodes until every node can reach every other through radio range
+    void build(int n, boolean managed) {
+        double range = Math.sqrt(Math.min(AVERAGE_DEGREE, n - 1) / (Math.PI * n));
+        do {
+            nodes.clear();
+            byId.clear();
+            for (int i = 0; i < n; i++) {
+                Node node = managed ? new ManagedNode() : new LegacyNode();
+                node.index = i;
+                node.address = (short) (i + 1);
+                node.endpointId = "ep" + i;
+                node.x = random.nextDouble();
+                node.y = random.nextDouble();
+                nodes.add(node);
+                byId.put(node.endpointId, node);
+            }
+            for (Node a : nodes) {
+                for (Node b : nodes) {
+                    if (a != b && Math.hypot(a.x - b.x, a.y - b.y) <= range) {
+                        a.inRange.add(b);
+                    }
+                }
+            }
+        } while (!connected(true));
+        for (final Node node : nodes) {
+            for (final Node peer : node.inRange) {
+                sim.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        node.onFound(peer);
+                    }
+                }, (long) (random.nextDouble() * DISCOVERY_SPREAD));
+            }
+            if (node instanceof ManagedNode) {
+                ((ManagedNode) node).start();
+            }
+        }
+    }
+
+    void run() {
+        while (formedAt < 0 && sim.step(TIME_LIMIT)) {
+        }
+    }
+
+    void checkFormed() {
+        if (formedAt < 0 && connected(false)) {
+            formedAt = sim.now();
+        }
+    }
+
+    //most nodes reachable from any one node over links both sides kept
+    int largestComponent() {
+        int largest = 0;
+        for (Node node : nodes) {
+            largest = Math.max(largest, component(node, false).size());
+        }
+        return largest;
+    }
+
+    //over radio range, or over links both sides kept
+    private boolean connected(boolean radio) {
+        return component(nodes.get(0), radio).size() == nodes.size();
+    }
+
+    private Set<Node> component(Node start, boolean radio) {
+        Set<Node> seen = new HashSet<>();
+        Deque<Node> queue = new ArrayDeque<>();
+        queue.add(start);
+        seen.add(start);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            for (Node peer : radio ? node.inRange : new ArrayList<>(node.links)) {
+                if ((radio || peer.links.contains(node)) && seen.add(peer)) {
+                    queue.add(peer);
+                }
+            }
+        }
+        return seen;
+    }
+
+    static long percentile(List<Long> sorted, double p) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) (p * sorted.size())));
+    }
+
+}
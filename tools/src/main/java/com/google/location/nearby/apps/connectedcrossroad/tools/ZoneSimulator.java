@@ -0,0 +1,416 @@
+package com.google.location.nearby.apps.connectedcrossroad.tools;
+
+import com.google.location.nearby.apps.connectedcrossroad.AODVConfig;
+import com.google.location.nearby.apps.connectedcrossroad.AODVLog;
+import com.google.location.nearby.apps.connectedcrossroad.AODVZone;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * First packet delay, route discovery cost and hello size of zone routing against plain AODV,
+ * on a random mesh of moving vehicles where most traffic is between nearby ones. Every node
+ * runs the real AODVZone on virtual time. Each hello interval some nodes move, every node
+ * updates its zone and sends its hello, then flows start between random pairs, most of them at
+ * most LOCAL_HOPS hops apart:
+ *
+ * - A destination that is a neighbor, in the source's zone or has a route from an earlier
+ *   discovery needs none, the first packet leaves right away. Zone routes are followed hop by
+ *   hop through each node's own zone, and flows where that leads nowhere count as broken.
+ * - Otherwise the RREQ floods until a node whose zone holds the destination answers, and nodes
+ *   whose neighbors all heard the sender's broadcast don't rebroadcast. Radius 0 is plain AODV,
+ *   only the destination answers and everyone else rebroadcasts.
+ *
+ * Routes from discoveries expire routeTimeout after their last use in every mode. Delays are in
+ * hop times: the RREQ out to whoever answers first, the RREP back and then the DATA.
+ *
+ * Usage: ZoneSimulator [--nodes 200] [--radius 0,2,3,4] [--local PERCENT] [--move PERCENT]
+ *                      [--rate FLOWS_PER_NODE_PER_MINUTE] [--duration SECONDS] [--runs 3] [--seed 1]
+ */
+public class ZoneSimulator {
+
+    static final double AVERAGE_DEGREE = 8;
+    static final long HELLO_INTERVAL = 2000;
+    static final long ROUTE_TIMEOUT = AODVConfig.DEFAULT.routeTimeout;
+    static final int LOCAL_HOPS = 3;
+
+    static class Node {
+
+        int index;
+        short address;
+        double x;
+        double y;
+        final List<Node> inRange = new ArrayList<>();
+        Set<Node> heard = new HashSet<>(); //in range at the last hello
+        short[] neighbors = new short[0];
+        String list = "";
+        short seqNum;
+        AODVZone zone;
+        //destination -> when the route expires, from discoveries
+        final Map<Short, Long> routes = new HashMap<>();
+
+    }
+
+    final Random random;
+    final int radius;
+    final List<Node> nodes = new ArrayList<>();
+    double range;
+    long time = 0;
+
+    long flows;
+    long immediate;
+    long broken;
+    long unanswered;
+    long rreqs;
+    long helloBytes;
+    long zoneNodes;
+    long zoneSamples;
+    final List<Integer> delays = new ArrayList<>();
+
+    ZoneSimulator(long seed, int radius) {
+        this.random = new Random(seed);
+        this.radius = radius;
+    }
+
+    public static void main(String[] args) {
+        AODVLog.setMinPriority(AODVLog.ERROR);
+        Map<String, String> opts = LoopbackHarness.parseArgs(args);
+        int n = Integer.parseInt(LoopbackHarness.get(opts, "nodes", "200"));
+        String[] radii = LoopbackHarness.get(opts, "radius", "0,2,3,4").split(",");
+        double local = Double.parseDouble(LoopbackHarness.get(opts, "local", "80")) / 100;
+        double move = Double.parseDouble(LoopbackHarness.get(opts, "move", "10")) / 100;
+        double rate = Double.parseDouble(LoopbackHarness.get(opts, "rate", "6"));
+        long duration = Long.parseLong(LoopbackHarness.get(opts, "duration", "60")) * 1000;
+        int runs = Integer.parseInt(LoopbackHarness.get(opts, "runs", "3"));
+        long seed = Long.parseLong(LoopbackHarness.get(opts, "seed", "1"));
+
+        System.out.println(String.format(Locale.US, "%d nodes, %.0f%% of flows within %d hops, %.0f%% of nodes move "
+                + "each hello", n, local * 100, LOCAL_HOPS, move * 100));
+        System.out.println(String.format(Locale.US, "%6s %6s %13s %10s %8s %10s %11s %9s",
+                "radius", "zone", "hello B/node/s", "immediate", "broken", "rreq/flow", "delay hops", "p95"));
+        for (String value : radii) {
+            int radius = Integer.parseInt(value.trim());
+            ZoneSimulator total = new ZoneSimulator(0, radius);
+            for (int run = 0; run < runs; run++) {
+                //the same mesh, movement and flows for every radius
+                ZoneSimulator simulator = new ZoneSimulator(seed * 1000003 + run, radius);
+                simulator.build(n);
+                simulator.run(rate, local, move, duration);
+                total.add(simulator);
+            }
+            Collections.sort(total.delays);
+            double meanDelay = 0;
+            for (int delay : total.delays) {
+                meanDelay += delay;
+            }
+            meanDelay /= Math.max(1, total.delays.size());
+            System.out.println(String.format(Locale.US, "%6d %6.1f %13.1f %9.1f%% %7.1f%% %10.1f %11.2f %9d",
+                    radius, (double) total.zoneNodes / Math.max(1, total.zoneSamples),
+                    total.helloBytes / (runs * n * (duration / 1000.0)), 100.0 * total.immediate / total.flows,
+                    100.0 * total.broken / total.flows, (double) total.rreqs / total.flows, meanDelay,
+                    total.delays.get((int) (total.delays.size() * 0.95))));
+            if (total.unanswered > 0) {
+                System.out.println(total.unanswered + " RREQs got no answer");
+            }
+        }
+    }
+
+    private void add(ZoneSimulator run) {
+        flows += run.flows;
+        immediate += run.immediate;
+        broken += run.broken;
+        unanswered += run.unanswered;
+        rreqs += run.rreqs;
+        helloBytes += run.helloBytes;
+        zoneNodes += run.zoneNodes;
+        zoneSamples += run.zoneSamples;
+        delays.addAll(run.delays);
+    }
+
+    //place nodes until every node can reach every other through radio range
+    void build(int n) {
+        range = Math.sqrt(Math.min(AVERAGE_DEGREE, n - 1) / (Math.PI * n));
+        do {
+            nodes.clear();
+            for (int i = 0; i < n; i++) {
+                Node node = new Node();
+                node.index = i;
+                node.address = (short) (i + 1);
+                node.x = random.nextDouble();
+                node.y = random.nextDouble();
+                node.zone = new AODVZone(Math.max(radius, 1));
+                nodes.add(node);
+            }
+            link();
+        } while (reached(nodes.get(0)) < n);
+    }
+
+    //who is in range of whom, over a grid of range-sized cells so thousands of nodes stay cheap
+    private void link() {
+        int cells = Math.max(1, (int) (1 / range));
+        List<List<Node>> grid = new ArrayList<>();
+        for (int i = 0; i < cells * cells; i++) {
+            grid.add(new ArrayList<Node>());
+        }
+        for (Node node : nodes) {
+            node.inRange.clear();
+            grid.get(cell(node.x, cells) * cells + cell(node.y, cells)).add(node);
+        }
+        for (Node a : nodes) {
+            int cx = cell(a.x, cells);
+            int cy = cell(a.y, cells);
+            for (int x = Math.max(0, cx - 1); x <= Math.min(cells - 1, cx + 1); x++) {
+                for (int y = Math.max(0, cy - 1); y <= Math.min(cells - 1, cy + 1); y++) {
+                    for (Node b : grid.get(x * cells + y)) {
+                        if (a != b && Math.hypot(a.x - b.x, a.y - b.y) <= range) {
+                            a.inRange.add(b);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int cell(double coordinate, int cells) {
+        return Math.min(cells - 1, (int) (coordinate * cells));
+    }
+
+    /**
+     * Warms the zones up for a couple of refreshes, then runs hello intervals for duration with
+     * flows starting at rate per node per minute.
+     */
+    void run(double rate, double local, double move, long duration) {
+        int warmup = 2 * AODVZone.REFRESH_HELLOS;
+        double due = 0;
+        for (int round = 0; round < warmup + duration / HELLO_INTERVAL; round++) {
+            time += HELLO_INTERVAL;
+            boolean measuring = round >= warmup;
+            for (Node node : nodes) {
+                if (random.nextDouble() < move) {
+                    node.x = Math.max(0, Math.min(1, node.x + (random.nextDouble() * 2 - 1) * range / 2));
+                    node.y = Math.max(0, Math.min(1, node.y + (random.nextDouble() * 2 - 1) * range / 2));
+                }
+            }
+            link();
+            hellos(measuring);
+            if (!measuring) {
+                continue;
+            }
+            due += rate * nodes.size() * HELLO_INTERVAL / 60000.0;
+            for (; due >= 1; due--) {
+                flow(local);
+            }
+        }
+    }
+
+    //every node in random order updates its zone and sends its hello, like the router's hello task
+    private void hellos(boolean measuring) {
+        List<Node> order = new ArrayList<>(nodes);
+        Collections.shuffle(order, random);
+        for (Node node : order) {
+            short[] neighbors = new short[node.inRange.size()];
+            StringBuilder list = new StringBuilder();
+            for (int i = 0; i < neighbors.length; i++) {
+                neighbors[i] = node.inRange.get(i).address;
+                list.append(i > 0 ? "," : "").append(neighbors[i]);
+            }
+            node.neighbors = neighbors;
+            if (radius > 2 && !list.toString().equals(node.list)) {
+                node.seqNum++;
+            }
+            node.list = list.toString();
+            String relayed = "";
+            if (radius >= 2) {
+                node.zone.compute(node.address, neighbors, time, HELLO_INTERVAL);
+                relayed = node.zone.encode();
+                if (measuring) {
+                    zoneNodes += node.zone.size();
+                    zoneSamples++;
+                }
+            }
+            if (measuring) {
+                helloBytes += node.list.length() + (relayed.isEmpty() ? 0 : 1 + relayed.length());
+            }
+            for (Node peer : node.inRange) {
+                if (radius >= 2) {
+                    if (!peer.heard.contains(node)) {
+                        peer.zone.requestRefresh();
+                    }
+                    peer.zone.onHello(node.address, node.seqNum, neighbors, relayed, time);
+                }
+            }
+        }
+        for (Node node : nodes) {
+            node.heard = new HashSet<>(node.inRange);
+        }
+    }
+
+    private void flow(double local) {
+        Node src = nodes.get(random.nextInt(nodes.size()));
+        int[] hops = distances(src);
+        Node dest;
+        if (random.nextDouble() < local) {
+            List<Node> near = new ArrayList<>();
+            for (Node node : nodes) {
+                if (hops[node.index] >= 1 && hops[node.index] <= LOCAL_HOPS) {
+                    near.add(node);
+                }
+            }
+            if (near.isEmpty()) {
+                return;
+            }
+            dest = near.get(random.nextInt(near.size()));
+        } else {
+            dest = nodes.get(random.nextInt(nodes.size()));
+        }
+        int shortest = hops[dest.index];
+        if (dest == src || shortest < 0) {
+            return;
+        }
+        flows++;
+        if (shortest == 1 || hasRoute(src, dest.address)) {
+            immediate++;
+            delays.add(shortest);
+            use(src, dest, hops);
+            return;
+        }
+        if (radius >= 2 && src.zone.contains(dest.address)) {
+            int steps = followZone(src, dest);
+            if (steps > 0) {
+                immediate++;
+                delays.add(steps);
+                return;
+            }
+            broken++;
+        }
+        discover(src, dest, shortest, hops);
+    }
+
+    //hops the DATA takes along each node's zone route, 0 if it gets stuck
+    private int followZone(Node src, Node dest) {
+        Node node = src;
+        int steps = 0;
+        while (node != dest && steps <= 2 * radius) {
+            Node next = null;
+            if (node.inRange.contains(dest)) {
+                next = dest;
+            } else if (node.zone.contains(dest.address)) {
+                short nextAddr = node.zone.getNextHop(dest.address);
+                Node candidate = nodes.get(nextAddr - 1);
+                next = node.inRange.contains(candidate) ? candidate : null;
+            }
+            if (next == null) {
+                return 0;
+            }
+            node = next;
+            steps++;
+        }
+        return node == dest ? steps : 0;
+    }
+
+    /**
+     * The RREQ spreads hop by hop. Nodes answer when they are the destination or it is in their
+     * zone, and don't pass it on then. Everyone who hears it keeps a route back to the source.
+     */
+    private void discover(Node src, Node dest, int shortest, int[] hops) {
+        int[] layer = new int[nodes.size()];
+        Arrays.fill(layer, -1);
+        layer[src.index] = 0;
+        Deque<Node> queue = new ArrayDeque<>();
+        queue.add(src);
+        int answeredAt = -1;
+        while (!queue.isEmpty()) {
+            Node sender = queue.poll();
+            rreqs++;
+            for (Node node : sender.inRange) {
+                if (layer[node.index] >= 0) {
+                    continue;
+                }
+                layer[node.index] = layer[sender.index] + 1;
+                node.routes.put(src.address, time + ROUTE_TIMEOUT);
+                if (node == dest || (radius >= 2 && node.zone.contains(dest.address))) {
+                    if (answeredAt < 0) {
+                        answeredAt = layer[node.index];
+                    }
+                } else if (radius < 2 || reachesPast(node, sender)) {
+                    queue.add(node);
+                }
+            }
+        }
+        if (answeredAt < 0) {
+            unanswered++;
+            return;
+        }
+        delays.add(2 * answeredAt + shortest);
+        use(src, dest, hops);
+    }
+
+    //the same rule as AODVRouter.reachesPast
+    private static boolean reachesPast(Node node, Node sender) {
+        for (Node neighbor : node.inRange) {
+            if (neighbor != sender && !sender.inRange.contains(neighbor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //the DATA refreshes the route on every hop of a shortest path
+    private void use(Node src, Node dest, int[] hops) {
+        Node node = dest;
+        while (node != src) {
+            Node previous = null;
+            for (Node peer : node.inRange) {
+                if (hops[peer.index] == hops[node.index] - 1) {
+                    previous = peer;
+                    break;
+                }
+            }
+            node = previous;
+            node.routes.put(dest.address, time + ROUTE_TIMEOUT);
+        }
+    }
+
+    private boolean hasRoute(Node node, short address) {
+        Long timeout = node.routes.get(address);
+        return timeout != null && timeout > time;
+    }
+
+    //hop counts from start, -1 where unreachable
+    private int[] distances(Node start) {
+        int[] hops = new int[nodes.size()];
+        Arrays.fill(hops, -1);
+        hops[start.index] = 0;
+        Deque<Node> queue = new ArrayDeque<>();
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            for (Node peer : node.inRange) {
+                if (hops[peer.index] < 0) {
+                    hops[peer.index] = hops[node.index] + 1;
+                    queue.add(peer);
+                }
+            }
+        }
+        return hops;
+    }
+
+    private int reached(Node start) {
+        int reached = 0;
+        for (int hops : distances(start)) {
+            reached += hops >= 0 ? 1 : 0;
+        }
+        return reached;
+    }
+
+}